@@ -0,0 +1,152 @@
+package cse560;
+
+import java.nio.CharBuffer;
+
+/**
+ * Implements the Memory interface using pages taken from a
+ * {@link MemoryArena}, outside the Java heap. A page is only taken once a
+ * word on it is written, so the memory of a machine costs the arena the
+ * pages its program writes to, and the heap a table of 128 page numbers.
+ * {@code release} gives the pages back to the arena, for other memories to
+ * reuse.
+ * <p>
+ * Addresses are reduced modulo 2^16 before use, as in {@link FlatMemory}.
+ * <p>
+ * Correspondence: {@code M[addr] = words[slots[p] * 512 + addr mod 512]} if
+ * {@code slots[p] >= 0}, and 0 otherwise, where {@code p} is the page number
+ * of {@code addr} and {@code words} are the words of the arena.
+ *
+ * @author Igor Tolkachev
+ *
+ */
+public final class ArenaMemory extends Memory {
+    /** The arena the pages are taken from. */
+    private final MemoryArena arena;
+
+    /** The words of the arena. */
+    private final CharBuffer words;
+
+    /** The arena page of each page, or -1 for pages of zeros. */
+    private final int[] slots = new int[Memory.PAGE_COUNT];
+
+    // -------------------------------------------------------------------------
+    // CONSTRUCTORS
+    // -------------------------------------------------------------------------
+
+    /**
+     * Initializes a memory whose cells are all zero, taking its pages from
+     * {@code arena}.
+     */
+    ArenaMemory(MemoryArena arena) {
+        this.arena = arena;
+        this.words = arena.words();
+        for (int n = 0; n < this.slots.length; ++n) {
+            this.slots[n] = -1;
+        }
+    }
+
+    // -------------------------------------------------------------------------
+    // PRIVATE OPERATIONS
+    // -------------------------------------------------------------------------
+
+    /**
+     * Returns the index in the arena of the first word of page {@code n},
+     * taking a page from the arena if need be.
+     */
+    private int writablePage(int n) {
+        if (this.slots[n] < 0) {
+            this.slots[n] = this.arena.allocate();
+        }
+        return this.slots[n] << OFFSET_LEN;
+    }
+
+    // -------------------------------------------------------------------------
+    // PUBLIC OPERATIONS
+    // -------------------------------------------------------------------------
+
+    @Override
+    public int get(final int addr) {
+        int slot = this.slots[(addr & Memory.MAX_ADDR) >> OFFSET_LEN];
+
+        return slot < 0 ? 0 : this.words.get((slot << OFFSET_LEN)
+                | (addr & (PAGE_SIZE - 1)));
+    }
+
+    @Override
+    public int getSigned(final int addr) {
+        return (short) get(addr);
+    }
+
+    @Override
+    public void set(final int addr, final int value) {
+        this.words.put(writablePage((addr & Memory.MAX_ADDR) >> OFFSET_LEN)
+                | (addr & (PAGE_SIZE - 1)), (char) value);
+    }
+
+    @Override
+    public void set(int addr, final CharBuffer words) {
+        while (words.hasRemaining()) {
+            int base = writablePage(addr >> OFFSET_LEN);
+            int end = Math.min(words.remaining(), PAGE_SIZE
+                    - (addr & (PAGE_SIZE - 1)));
+
+            for (int k = 0; k < end; ++k) {
+                this.words.put(base | (addr & (PAGE_SIZE - 1)), words.get());
+                ++addr;
+            }
+        }
+    }
+
+    /**
+     * Returns a copy of this memory, taking pages from the same arena. Only
+     * the pages written to are copied.
+     *
+     * @throws IllegalStateException
+     *             if the arena runs out of pages
+     */
+    @Override
+    public ArenaMemory fork() {
+        ArenaMemory fork = new ArenaMemory(this.arena);
+
+        for (int n = 0; n < this.slots.length; ++n) {
+            if (this.slots[n] >= 0) {
+                int from = this.slots[n] << OFFSET_LEN;
+                int to = fork.writablePage(n);
+
+                for (int k = 0; k < PAGE_SIZE; ++k) {
+                    this.words.put(to + k, this.words.get(from + k));
+                }
+            }
+        }
+        return fork;
+    }
+
+    /**
+     * Gives every page of this memory back to the arena. The memory is all
+     * zeros afterwards, and may be written to again.
+     * <p>
+     * Ensures: {@code M = 0}
+     */
+    public void release() {
+        for (int n = 0; n < this.slots.length; ++n) {
+            if (this.slots[n] >= 0) {
+                this.arena.release(this.slots[n]);
+                this.slots[n] = -1;
+            }
+        }
+    }
+
+    /**
+     * Returns the number of pages this memory has taken from its arena.
+     */
+    public int getPageCount() {
+        int count = 0;
+
+        for (int n = 0; n < this.slots.length; ++n) {
+            if (this.slots[n] >= 0) {
+                ++count;
+            }
+        }
+        return count;
+    }
+}
@@ -0,0 +1,138 @@
+package cse560;
+
+import static org.junit.Assert.assertEquals;
+
+import java.nio.CharBuffer;
+
+import org.junit.Test;
+
+public final class ArenaMemoryTest {
+    /** The arena of the memory to test. */
+    private final MemoryArena arena = new MemoryArena(4);
+
+    /** The instance of a Memory object to test. */
+    private final ArenaMemory memory = arena.newMemory();
+
+    /**
+     * In a fresh Memory object, memory cells start at zero, and no page is
+     * taken by reading them.
+     */
+    @Test
+    public void doCellsStartAtZero() {
+        for (int i = 0; i < Memory.MAX_ADDR; i += 1024) {
+            assertEquals("M[" + i + "] = 0", 0, memory.get(i));
+        }
+        assertEquals("M[MAX_ADDR] = 0", 0, memory.get(Memory.MAX_ADDR));
+        assertEquals("no pages", 0, arena.getUsedPageCount());
+    }
+
+    /**
+     * getSigned sign-extends, set truncates, and addresses wrap around.
+     */
+    @Test
+    public void getAndSet() {
+        memory.set(0, -1066);
+        assertEquals("M[0] = -1066", -1066, memory.getSigned(0));
+        assertEquals("M[0] = 0xfbd6", 0xfbd6, memory.get(0));
+        memory.set(1, 0x12345);
+        assertEquals("M[1] = 0x2345", 0x2345, memory.get(1));
+        memory.set(Memory.MAX_ADDR + 6, 42);
+        assertEquals("M[5] = 42", 42, memory.get(5));
+        memory.set(0xFFFF, 7);
+        assertEquals("M[MAX_ADDR] = 7", 7, memory.get(Memory.MAX_ADDR));
+        assertEquals("two pages", 2, arena.getUsedPageCount());
+    }
+
+    /**
+     * A bulk write that crosses pages lands on all of them.
+     */
+    @Test
+    public void bulkSetAcrossPages() {
+        char[] words = new char[600];
+
+        for (int k = 0; k < words.length; ++k) {
+            words[k] = (char) (k + 1);
+        }
+        memory.set(0x31F0, CharBuffer.wrap(words));
+        assertEquals("first", 1, memory.get(0x31F0));
+        assertEquals("first on second page", 17, memory.get(0x3200));
+        assertEquals("last", 600, memory.get(0x31F0 + 599));
+        assertEquals("after", 0, memory.get(0x31F0 + 600));
+        assertEquals("three pages", 3, memory.getPageCount());
+    }
+
+    /**
+     * Released pages are reused, cleared, by the next memory.
+     */
+    @Test
+    public void releaseAndReuse() {
+        for (int n = 0; n < 4; ++n) {
+            memory.set(n << 9, 0xABCD);
+        }
+        memory.release();
+        assertEquals("pages given back", 0, arena.getUsedPageCount());
+        assertEquals("released memory is zero", 0, memory.get(0));
+
+        ArenaMemory next = arena.newMemory();
+
+        for (int n = 0; n < 4; ++n) {
+            next.set((n << 9) + 1, 1);
+            assertEquals("reused page cleared", 0, next.get(n << 9));
+        }
+        assertEquals("all pages", 4, arena.getUsedPageCount());
+    }
+
+    /**
+     * A fork copies the pages written to, and writes on either side are not
+     * seen by the other.
+     */
+    @Test
+    public void fork() {
+        memory.set(0x3000, 1);
+
+        ArenaMemory fork = memory.fork();
+
+        assertEquals("fork sees", 1, fork.get(0x3000));
+        fork.set(0x3000, 2);
+        assertEquals("parent does not see", 1, memory.get(0x3000));
+        assertEquals("two pages", 2, arena.getUsedPageCount());
+    }
+
+    /**
+     * Writing to a new page of a full arena fails.
+     */
+    @Test(expected = IllegalStateException.class)
+    public void full() {
+        for (int n = 0; n < 5; ++n) {
+            memory.set(n << 9, 1);
+        }
+    }
+
+    /**
+     * An arena whose size in bytes would not fit in an int is refused.
+     */
+    @Test(expected = IllegalArgumentException.class)
+    public void tooLarge() {
+        assertEquals("largest arena", (1 << 21) - 1, MemoryArena.MAX_PAGES);
+        new MemoryArena(1 << 21);
+    }
+
+    /**
+     * A session whose memory is in an arena gives it back when it finishes.
+     */
+    @Test
+    public void session() {
+        MemoryArena sessions = new MemoryArena(8);
+
+        for (int k = 0; k < 20; ++k) {
+            SimulationResult result = new SimulationSession.Builder().source(
+                    "HLOOP  30000002\n" + "T30001261\n" + "T30010E00\n"
+                            + "E3000\n").arena(sessions).maxSteps(9)
+                    .captureMemory(true).build().run();
+
+            assertEquals("R1", 5, result.getRegister(1));
+            assertEquals("code captured", 0x1261, result.getMemory(0x3000));
+            assertEquals("pages given back", 0, sessions.getUsedPageCount());
+        }
+    }
+}
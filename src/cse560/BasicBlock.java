@@ -0,0 +1,69 @@
+package cse560;
+
+/**
+ * A straight-line run of MMXI instructions that is entered only at its first
+ * instruction, translated into an array of {@link BlockOp} handlers. A block
+ * ends with its first flow of control instruction (BRx, JSR, JSRR, RET or
+ * TRAP), or earlier if it reaches the maximum block length.
+ * <p>
+ * The code of a block never changes; a block whose code is overwritten is
+ * discarded rather than updated. Only the bookkeeping of the JIT tier of
+ * {@link BlockInterpreter} is mutable.
+ *
+ * @author Igor Tolkachev
+ */
+final class BasicBlock {
+    /** Address of the first instruction. */
+    final int start;
+
+    /** Address of the last instruction. */
+    final int end;
+
+    /** The number of instructions in the block. */
+    final int length;
+
+    /** Handlers for the instructions, in order. */
+    final BlockOp[] ops;
+
+    /**
+     * The PC after the block if its last instruction does not jump, i.e. the
+     * address following {@code end}.
+     */
+    final int fallThrough;
+
+    /** The number of times the block has been entered, up to compilation. */
+    int entries;
+
+    /** The compiled code of the block, or null if it is not compiled. */
+    CompiledBlock compiled;
+
+    /**
+     * The number of instructions covered by {@code compiled}. This is one
+     * less than {@code length} if the last instruction is executed by the
+     * machine.
+     */
+    int compiledLength;
+
+    /**
+     * Initializes a new block.
+     *
+     * @param start
+     *            Address of the first instruction.
+     * @param end
+     *            Address of the last instruction.
+     * @param length
+     *            The number of instructions in the block.
+     * @param ops
+     *            Handlers for the instructions, in order.
+     * @param fallThrough
+     *            The PC after the block if its last instruction does not
+     *            jump.
+     */
+    BasicBlock(int start, int end, int length, BlockOp[] ops, int fallThrough) {
+        this.start = start;
+        this.end = end;
+        this.length = length;
+        this.ops = ops;
+        this.fallThrough = fallThrough;
+    }
+}
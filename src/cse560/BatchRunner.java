@@ -0,0 +1,628 @@
+package cse560;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.zip.CRC32;
+
+/**
+ * Runs many MMXI programs in parallel, each as a {@link SimulationSession} in
+ * quiet mode on a machine of its own, and reports one line of results per
+ * program. This is the Simulator's batch mode ({@code -b}).
+ * <p>
+ * The programs to run are listed in a manifest, one job per line:
+ *
+ * <pre>
+ * file [script [N]]
+ * </pre>
+ *
+ * where {@code file} is an object file or {@link BinaryImage}, {@code script}
+ * is a file holding the program's input, or {@code -} for none, and {@code N}
+ * is the maximum number of instructions to execute. Relative paths are
+ * relative to the manifest. Blank lines and lines starting with {@code #} are
+ * ignored. Alternatively, every file in a directory can be run: a file
+ * {@code name.in} is then the input of the program {@code name}, and is not
+ * run itself.
+ * <p>
+ * The result lines are tab-separated: the job number, starting at 1, the
+ * object file, how the program stopped ({@code HALT}, {@code BUDGET}, or the
+ * error that kept it from running or finishing, e.g. {@code Error 103},
+ * {@code Error 206} if its input file cannot be read, or {@code Error 213}
+ * if it failed while running), the number of
+ * instructions executed, the CRC-32 of its output in hexadecimal, and the
+ * wall time of the job in milliseconds, from when it first ran until it
+ * completed. Lines are written as jobs complete, so they are not in job
+ * order.
+ * <p>
+ * Each object file is loaded only once by a runner, into a
+ * {@link CodeImage} that all of its jobs share; a file that cannot be loaded
+ * is tried again by each of its jobs.
+ *
+ * @author Igor Tolkachev
+ */
+public final class BatchRunner {
+
+    /**
+     * One program to run.
+     */
+    public static final class Job {
+        /** The object file. */
+        private final File file;
+
+        /** The input file, or null. */
+        private final File script;
+
+        /** The maximum number of instructions to execute. */
+        private final long maxSteps;
+
+        /**
+         * Initializes a job.
+         *
+         * @param file
+         *            The object file or binary image to run.
+         * @param script
+         *            The file holding the program's input, or null.
+         * @param maxSteps
+         *            The maximum number of instructions to execute.
+         */
+        public Job(File file, File script, long maxSteps) {
+            this.file = file;
+            this.script = script;
+            this.maxSteps = maxSteps;
+        }
+
+        /**
+         * Returns the object file.
+         */
+        public File getFile() {
+            return file;
+        }
+
+        /**
+         * Returns the input file, or null.
+         */
+        public File getScript() {
+            return script;
+        }
+
+        /**
+         * Returns the maximum number of instructions to execute.
+         */
+        public long getMaxSteps() {
+            return maxSteps;
+        }
+    }
+
+    /**
+     * The outcome of one job, as reported on one line of results.
+     */
+    public static final class Outcome {
+        /** The job number, starting at 1. */
+        private final int number;
+
+        /** The job. */
+        private final Job job;
+
+        /** HALT, BUDGET, or the error message. */
+        private final String status;
+
+        /** The number of instructions executed. */
+        private final long steps;
+
+        /** The CRC-32 of the output. */
+        private final long outputHash;
+
+        /** The wall time of the job in nanoseconds. */
+        private final long nanos;
+
+        /**
+         * Initializes an outcome.
+         */
+        Outcome(int number, Job job, String status, long steps,
+                long outputHash, long nanos) {
+            this.number = number;
+            this.job = job;
+            this.status = status;
+            this.steps = steps;
+            this.outputHash = outputHash;
+            this.nanos = nanos;
+        }
+
+        /**
+         * Returns the job number, starting at 1.
+         */
+        public int getNumber() {
+            return number;
+        }
+
+        /**
+         * Returns the job.
+         */
+        public Job getJob() {
+            return job;
+        }
+
+        /**
+         * Returns {@code "HALT"} or {@code "BUDGET"} if the program ran, or
+         * else the error that kept it from running, e.g. {@code "Error 103"}.
+         */
+        public String getStatus() {
+            return status;
+        }
+
+        /**
+         * Returns the number of instructions executed.
+         */
+        public long getSteps() {
+            return steps;
+        }
+
+        /**
+         * Returns the CRC-32 of the program's output, as ISO-8859-1.
+         */
+        public long getOutputHash() {
+            return outputHash;
+        }
+
+        /**
+         * Returns the wall time of the job in nanoseconds.
+         */
+        public long getNanos() {
+            return nanos;
+        }
+
+        /**
+         * Returns the line of results for the job, without a newline.
+         */
+        @Override
+        public String toString() {
+            return String.format("%d\t%s\t%s\t%d\t%08x\t%.3f", number, job
+                    .getFile().getPath(), status, steps, outputHash,
+                    nanos / 1e6);
+        }
+    }
+
+    /**
+     * The number of sessions per thread that a scheduled run keeps built and
+     * scheduled at once: enough for short jobs to overtake long ones, few
+     * enough that memory does not grow with the number of jobs.
+     */
+    private static final int SESSIONS_PER_THREAD = 4;
+
+    // ------------------------------------------------------------------------
+    // PRIVATE VARIABLES
+    // ------------------------------------------------------------------------
+
+    /** The number of jobs run at once. */
+    private final int threads;
+
+    /** The engine the programs run on. */
+    private SimulationSession.Engine engine = SimulationSession.Engine.INTERP;
+
+    /** The seed of the RND trap routine, or null. */
+    private Long seed;
+
+    /** The number of instructions a job runs per turn, or 0. */
+    private long quantum;
+
+    /** The images of the object files loaded so far, by absolute path. */
+    private final ConcurrentMap<File, CodeImage> images =
+            new ConcurrentHashMap<File, CodeImage>();
+
+    // -------------------------------------------------------------------------
+    // CONSTRUCTORS
+    // -------------------------------------------------------------------------
+
+    /**
+     * Initializes a runner.
+     * <p>
+     * Requires: {@code threads > 0}
+     *
+     * @param threads
+     *            The number of jobs to run at once.
+     */
+    public BatchRunner(int threads) {
+        this.threads = threads;
+    }
+
+    // -------------------------------------------------------------------------
+    // PRIVATE OPERATIONS
+    // -------------------------------------------------------------------------
+
+    /**
+     * Returns the contents of {@code file} as ISO-8859-1.
+     */
+    private static String readScript(File file) throws IOException {
+        InputStream in = new FileInputStream(file);
+
+        try {
+            byte[] bytes = new byte[(int) file.length()];
+            int n = 0, read;
+
+            while (n < bytes.length
+                    && (read = in.read(bytes, n, bytes.length - n)) > 0) {
+                n += read;
+            }
+            return new String(bytes, 0, n, "ISO-8859-1");
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * Returns {@code path} as a file, relative to {@code dir} unless it is
+     * absolute.
+     */
+    private static File resolve(File dir, String path) {
+        File file = new File(path);
+
+        return file.isAbsolute() || dir == null ? file : new File(dir, path);
+    }
+
+    // -------------------------------------------------------------------------
+    // PUBLIC OPERATIONS
+    // -------------------------------------------------------------------------
+
+    /**
+     * Runs the programs on {@code engine}. Default: {@code INTERP}.
+     */
+    public void setEngine(SimulationSession.Engine engine) {
+        this.engine = engine;
+    }
+
+    /**
+     * Has the jobs take turns on a {@link MachineScheduler}, each running for
+     * at most {@code quantum} instructions per turn, so that short jobs are
+     * not held up behind long ones. Jobs are still started in order, a few
+     * per thread at a time. Default: 0, which runs each job to completion
+     * once it has started.
+     */
+    public void setQuantum(long quantum) {
+        this.quantum = quantum;
+    }
+
+    /**
+     * Seeds the RND trap routine of every program with {@code seed}.
+     * Default: a different seed for each program.
+     */
+    public void setSeed(long seed) {
+        this.seed = seed;
+    }
+
+    /**
+     * Returns the jobs listed in {@code manifest}.
+     *
+     * @param manifest
+     *            The manifest file.
+     * @param maxSteps
+     *            The maximum number of instructions for jobs that do not
+     *            give one.
+     * @return the jobs, in order
+     * @throws IOException
+     *             if the manifest cannot be read, or a line of it is
+     *             malformed
+     */
+    public static List<Job> readManifest(File manifest, long maxSteps)
+            throws IOException {
+        BufferedReader in = new BufferedReader(new InputStreamReader(
+                new FileInputStream(manifest), "ISO-8859-1"));
+        File dir = manifest.getAbsoluteFile().getParentFile();
+        List<Job> jobs = new ArrayList<Job>();
+
+        try {
+            String line;
+            int lineNumber = 0;
+
+            while ((line = in.readLine()) != null) {
+                String[] fields = line.trim().split("\\s+");
+
+                ++lineNumber;
+                if (fields[0].length() == 0 || fields[0].startsWith("#")) {
+                    continue;
+                }
+                if (fields.length > 3) {
+                    throw new IOException("Line " + lineNumber
+                            + ": too many fields");
+                }
+
+                File script = fields.length < 2 || fields[1].equals("-")
+                        ? null : resolve(dir, fields[1]);
+                long jobSteps = maxSteps;
+
+                if (fields.length == 3) {
+                    try {
+                        jobSteps = Long.parseLong(fields[2]);
+                    } catch (NumberFormatException e) {
+                        throw new IOException("Line " + lineNumber
+                                + ": invalid step count " + fields[2]);
+                    }
+                }
+                jobs.add(new Job(resolve(dir, fields[0]), script, jobSteps));
+            }
+        } finally {
+            in.close();
+        }
+        return jobs;
+    }
+
+    /**
+     * Returns a job for every file in {@code dir}, in order of name. A file
+     * {@code name.in} is the input of the job for {@code name}, and not a job
+     * itself.
+     *
+     * @param dir
+     *            The directory.
+     * @param maxSteps
+     *            The maximum number of instructions of each job.
+     * @return the jobs
+     * @throws IOException
+     *             if the directory cannot be listed
+     */
+    public static List<Job> scanDirectory(File dir, long maxSteps)
+            throws IOException {
+        File[] files = dir.listFiles();
+        List<Job> jobs = new ArrayList<Job>();
+
+        if (files == null) {
+            throw new IOException("Could not list " + dir);
+        }
+        Arrays.sort(files);
+        for (File file : files) {
+            if (!file.isFile() || file.getName().endsWith(".in")) {
+                continue;
+            }
+
+            File script = new File(dir, file.getName() + ".in");
+
+            jobs.add(new Job(file, script.isFile() ? script : null, maxSteps));
+        }
+        return jobs;
+    }
+
+    /**
+     * Returns the image of {@code file}, loading it unless it has been loaded
+     * already.
+     *
+     * @throws LoadException
+     *             if the file cannot be loaded
+     */
+    private CodeImage image(File file) {
+        File key = file.getAbsoluteFile();
+        CodeImage image = images.get(key);
+
+        if (image == null) {
+            image = CodeImage.load(file);
+
+            CodeImage loaded = images.putIfAbsent(key, image);
+
+            if (loaded != null) {
+                image = loaded;
+            }
+        }
+        return image;
+    }
+
+    /**
+     * Returns a session for {@code job}.
+     *
+     * @throws LoadException
+     *             if the object file cannot be loaded
+     * @throws IOException
+     *             if the input file cannot be read
+     */
+    private SimulationSession session(Job job) throws IOException {
+        SimulationSession.Builder settings = new SimulationSession.Builder()
+                .source(image(job.getFile())).engine(engine).maxSteps(
+                        job.getMaxSteps());
+
+        if (job.getScript() != null) {
+            settings.input(readScript(job.getScript()));
+        }
+        if (seed != null) {
+            settings.seed(seed);
+        }
+        return settings.build();
+    }
+
+    /**
+     * Returns the outcome of a job that ran to completion.
+     */
+    private static Outcome outcome(int number, Job job,
+            SimulationResult result, long nanos) {
+        CRC32 hash = new CRC32();
+
+        hash.update(result.getOutputBytes());
+        return new Outcome(number, job, result.getReason().toString(), result
+                .getSteps(), hash.getValue(), nanos);
+    }
+
+    /**
+     * Returns the outcome of a job that could not run, or failed while
+     * running, because of {@code failure}.
+     */
+    static Outcome failed(int number, Job job, Throwable failure, long nanos) {
+        String status;
+
+        if (failure instanceof LoadException) {
+            status = String.format("Error %03d", ((LoadException) failure)
+                    .getCode());
+        } else if (failure instanceof IOException) {
+            status = "Error 206";
+        } else {
+            status = "Error 213";
+        }
+        return new Outcome(number, job, status, 0, 0, nanos);
+    }
+
+    /**
+     * Appends the line of {@code outcome} to {@code results}, and returns 1 if
+     * the job could not be run, 0 otherwise.
+     */
+    private static int report(Outcome outcome, Appendable results)
+            throws IOException {
+        results.append(outcome.toString()).append('\n');
+        return outcome.getStatus().startsWith("Error") ? 1 : 0;
+    }
+
+    /**
+     * Runs {@code jobs} on a {@link MachineScheduler}, and appends a line of
+     * results to {@code results} as each completes. Only a few sessions per
+     * thread are built and scheduled at a time; the next job's session is
+     * built when one completes, so that a long batch does not hold every
+     * job's machine and console at once.
+     */
+    private int runScheduled(List<Job> jobs, Appendable results)
+            throws IOException, InterruptedException {
+        MachineScheduler scheduler = new MachineScheduler(threads, quantum,
+                MachineScheduler.Policy.ROUND_ROBIN);
+        final BlockingQueue<MachineScheduler.Task> done =
+                new LinkedBlockingQueue<MachineScheduler.Task>();
+        Map<MachineScheduler.Task, Integer> numbers =
+                new HashMap<MachineScheduler.Task, Integer>();
+        int limit = threads * SESSIONS_PER_THREAD;
+        int failed = 0, next = 0;
+
+        scheduler.setListener(new MachineScheduler.Listener() {
+            @Override
+            public void completed(MachineScheduler.Task task) {
+                done.add(task);
+            }
+        });
+        try {
+            while (next < jobs.size() || !numbers.isEmpty()) {
+                while (numbers.size() < limit && next < jobs.size()) {
+                    Job job = jobs.get(next++);
+
+                    try {
+                        numbers.put(scheduler.submit(session(job), 0), next);
+                    } catch (LoadException e) {
+                        failed += report(failed(next, job, e, 0), results);
+                    } catch (IOException e) {
+                        failed += report(failed(next, job, e, 0), results);
+                    } catch (RuntimeException e) {
+                        failed += report(failed(next, job, e, 0), results);
+                    }
+                }
+                if (numbers.isEmpty()) {
+                    continue;
+                }
+
+                MachineScheduler.Task task = done.take();
+                int number = numbers.remove(task);
+                Job job = jobs.get(number - 1);
+
+                try {
+                    task.awaitResult();
+                    failed += report(outcome(number, job, task.getSession()
+                            .finish(), task.getRunTime()), results);
+                } catch (ExecutionException e) {
+                    failed += report(failed(number, job, e.getCause(), task
+                            .getRunTime()), results);
+                } catch (RuntimeException e) {
+                    failed += report(failed(number, job, e, task
+                            .getRunTime()), results);
+                }
+            }
+        } finally {
+            scheduler.shutdown();
+        }
+        return failed;
+    }
+
+    /**
+     * Runs {@code job} to completion on the calling thread.
+     *
+     * @param number
+     *            The job number.
+     * @param job
+     *            The job.
+     * @return the outcome
+     */
+    public Outcome runJob(int number, Job job) {
+        long begin = System.nanoTime();
+
+        try {
+            SimulationResult result = session(job).run();
+
+            return outcome(number, job, result, System.nanoTime() - begin);
+        } catch (LoadException e) {
+            return failed(number, job, e, System.nanoTime() - begin);
+        } catch (IOException e) {
+            return failed(number, job, e, System.nanoTime() - begin);
+        } catch (RuntimeException e) {
+            // Anything else that goes wrong only fails this job, not the
+            // batch.
+            return failed(number, job, e, System.nanoTime() - begin);
+        }
+    }
+
+    /**
+     * Runs {@code jobs}, as many at once as there are threads, and appends a
+     * line of results to {@code results} as each completes. If a quantum has
+     * been set, the jobs take turns running for a quantum each; otherwise
+     * each job runs to completion once it has started.
+     *
+     * @param jobs
+     *            The jobs to run.
+     * @param results
+     *            Where results are written.
+     * @return the number of jobs that could not be run
+     * @throws IOException
+     *             if the results cannot be written
+     * @throws InterruptedException
+     *             if the calling thread is interrupted
+     */
+    public int run(List<Job> jobs, Appendable results) throws IOException,
+            InterruptedException {
+        if (quantum > 0) {
+            return runScheduled(jobs, results);
+        }
+
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        CompletionService<Outcome> done = new ExecutorCompletionService<Outcome>(
+                pool);
+        int failed = 0;
+
+        try {
+            for (int k = 0; k < jobs.size(); ++k) {
+                final int number = k + 1;
+                final Job job = jobs.get(k);
+
+                done.submit(new Callable<Outcome>() {
+                    @Override
+                    public Outcome call() {
+                        return runJob(number, job);
+                    }
+                });
+            }
+            for (int k = 0; k < jobs.size(); ++k) {
+                try {
+                    failed += report(done.take().get(), results);
+                } catch (ExecutionException e) {
+                    throw new IllegalStateException(e.getCause());
+                }
+            }
+        } finally {
+            pool.shutdownNow();
+        }
+        return failed;
+    }
+}
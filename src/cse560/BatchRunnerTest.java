@@ -0,0 +1,195 @@
+package cse560;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Test;
+
+public final class BatchRunnerTest {
+
+    /** Reads a character, prints it, and halts. */
+    private static final String ECHO = "HECHO  30000003\n" + "T3000F023\n"
+            + "T3001F021\n" + "T3002F025\n" + "E3000\n";
+
+    /** Prints R0 plus 15 twice, and halts. */
+    private static final String PRINT = "HPRINT 30000004\n" + "T3000102F\n"
+            + "T3001F021\n" + "T3002F021\n" + "T3003F025\n" + "E3000\n";
+
+    /** The files created by the test. */
+    private final List<File> files = new ArrayList<File>();
+
+    /**
+     * Returns a new temporary file holding {@code contents}.
+     */
+    private File write(String contents) throws IOException {
+        File file = File.createTempFile("batch", ".txt");
+        OutputStream out = new FileOutputStream(file);
+
+        files.add(file);
+        try {
+            out.write(contents.getBytes("ISO-8859-1"));
+        } finally {
+            out.close();
+        }
+        return file;
+    }
+
+    @After
+    public void deleteFiles() {
+        for (File file : files) {
+            file.delete();
+        }
+    }
+
+    /**
+     * Manifest lines give the object file, and optionally the input file and
+     * the step limit.
+     */
+    @Test
+    public void readManifest() throws IOException {
+        File manifest = write("# comment\n\nprog.o\n"
+                + "prog.o - 20\n/in/prog.o in.txt\n");
+        List<BatchRunner.Job> jobs = BatchRunner.readManifest(manifest, 99);
+        File dir = manifest.getAbsoluteFile().getParentFile();
+
+        assertEquals("jobs", 3, jobs.size());
+        assertEquals("file", new File(dir, "prog.o"), jobs.get(0).getFile());
+        assertNull("no script", jobs.get(0).getScript());
+        assertEquals("default steps", 99, jobs.get(0).getMaxSteps());
+        assertNull("no script", jobs.get(1).getScript());
+        assertEquals("steps", 20, jobs.get(1).getMaxSteps());
+        assertEquals("absolute file", new File("/in/prog.o"), jobs.get(2)
+                .getFile());
+        assertEquals("script", new File(dir, "in.txt"), jobs.get(2)
+                .getScript());
+    }
+
+    /**
+     * Every job is run with its own input, and jobs that cannot be loaded
+     * are reported as errors.
+     */
+    @Test
+    public void run() throws Exception {
+        File program = write(ECHO);
+        List<BatchRunner.Job> jobs = new ArrayList<BatchRunner.Job>();
+
+        for (int k = 0; k < 20; ++k) {
+            jobs.add(new BatchRunner.Job(program, write((char) ('a' + k)
+                    + "\n"), 100));
+        }
+        jobs.add(new BatchRunner.Job(write("T3000F025\n"), null, 100));
+
+        StringBuilder results = new StringBuilder();
+        int failed = new BatchRunner(4).run(jobs, results);
+        String[] lines = new String[jobs.size() + 1];
+
+        for (String line : results.toString().split("\n")) {
+            lines[Integer.parseInt(line.split("\t")[0])] = line;
+        }
+        assertEquals("failed", 1, failed);
+        assertEquals("lines", 21, results.toString().split("\n").length);
+
+        BatchRunner.Outcome first = new BatchRunner(1).runJob(1, jobs.get(0));
+
+        assertEquals("status", "HALT", first.getStatus());
+        assertEquals("steps", 3, first.getSteps());
+        assertEquals("same line", first.toString().substring(0,
+                first.toString().lastIndexOf('\t')), lines[1].substring(0,
+                lines[1].lastIndexOf('\t')));
+        assertEquals("error", "Error 101", lines[21].split("\t")[2]);
+    }
+
+    /**
+     * Returns a new temporary file holding a snapshot of {@code PRINT} after
+     * {@code steps} instructions.
+     */
+    private File snapshot(long steps) throws IOException {
+        SimulationSession session = new SimulationSession.Builder().source(
+                PRINT).maxSteps(steps).build();
+        File file = File.createTempFile("batch", ".snap");
+        OutputStream out = new FileOutputStream(file);
+
+        session.run();
+        files.add(file);
+        try {
+            session.snapshot().write(out);
+        } finally {
+            out.close();
+        }
+        return file;
+    }
+
+    /**
+     * A job whose file is a snapshot resumes the run the snapshot was taken
+     * from, rather than starting the program over.
+     */
+    @Test
+    public void snapshots() throws Exception {
+        BatchRunner runner = new BatchRunner(1);
+        BatchRunner.Outcome middle = runner.runJob(1, new BatchRunner.Job(
+                snapshot(2), null, 100));
+        BatchRunner.Outcome halted = runner.runJob(2, new BatchRunner.Job(
+                snapshot(100), null, 100));
+
+        assertEquals("status", "HALT", middle.getStatus());
+        assertEquals("steps left", 2, middle.getSteps());
+        assertEquals("status", "HALT", halted.getStatus());
+        assertEquals("nothing left", 0, halted.getSteps());
+    }
+
+    /**
+     * A job that fails while running is reported with a status of its own,
+     * apart from jobs that cannot be loaded or whose input cannot be read.
+     */
+    @Test
+    public void failures() {
+        BatchRunner.Job job = new BatchRunner.Job(new File("prog.o"), null,
+                100);
+
+        assertEquals("load", "Error 104", BatchRunner.failed(1, job,
+                new LoadException(104, 0, null), 0).getStatus());
+        assertEquals("input", "Error 206", BatchRunner.failed(1, job,
+                new IOException("unreadable"), 0).getStatus());
+        assertEquals("running", "Error 213", BatchRunner.failed(1, job,
+                new IllegalStateException("diverged"), 0).getStatus());
+    }
+
+    /**
+     * Scheduled jobs, many more than are kept in flight at once, are all run
+     * and reported, those that cannot be loaded included.
+     */
+    @Test
+    public void scheduled() throws Exception {
+        File program = write(ECHO);
+        File broken = write("T3000F025\n");
+        List<BatchRunner.Job> jobs = new ArrayList<BatchRunner.Job>();
+
+        for (int k = 0; k < 100; ++k) {
+            jobs.add(new BatchRunner.Job(k % 10 == 0 ? broken : program,
+                    null, 100));
+        }
+
+        BatchRunner runner = new BatchRunner(2);
+        StringBuilder results = new StringBuilder();
+
+        runner.setQuantum(1);
+        assertEquals("failed", 10, runner.run(jobs, results));
+
+        boolean[] reported = new boolean[jobs.size() + 1];
+
+        for (String line : results.toString().split("\n")) {
+            reported[Integer.parseInt(line.split("\t")[0])] = true;
+        }
+        for (int k = 1; k <= jobs.size(); ++k) {
+            assertEquals("job " + k, true, reported[k]);
+        }
+    }
+}
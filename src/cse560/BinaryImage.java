@@ -0,0 +1,291 @@
+package cse560;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.Charset;
+
+import joptsimple.OptionException;
+import joptsimple.OptionParser;
+import joptsimple.OptionSet;
+
+/**
+ * An MMXI segment in the binary image format, a compact alternative to the
+ * text object file format read by {@link LoaderImp}. An image file holds,
+ * with all numbers big-endian:
+ * <ul>
+ * <li>the four bytes {@code "MXIB"},</li>
+ * <li>the segment name, six bytes of ISO-8859-1,</li>
+ * <li>the load address, the length of the segment in words minus one, and
+ * the entry PC, two bytes each,</li>
+ * <li>the words of the segment, two bytes each.</li>
+ * </ul>
+ * Loading an image copies its words into memory in one go, where a text
+ * object file needs a record to be parsed for each word; and an image takes
+ * a fifth of the space, two bytes per word instead of a ten-byte text
+ * record. Words of the segment that no text record sets are 0 in the image.
+ * <p>
+ * Run as a program, BinaryImage converts a text object file into an image:
+ * {@code java -cp "MMXI Simulator.jar" cse560.BinaryImage -f file -o image}.
+ * The Simulator and the Translator accept images as well as text object
+ * files.
+ *
+ * @author Igor Tolkachev
+ */
+public final class BinaryImage {
+    /** The first bytes of every image file. */
+    private static final byte[] MAGIC = { 'M', 'X', 'I', 'B' };
+
+    /** The length of the segment name in bytes. */
+    private static final int NAME_LEN = 6;
+
+    /** The number of bytes before the words of the segment. */
+    static final int HEADER_LEN = MAGIC.length + NAME_LEN + 6;
+
+    /** The encoding of segment names. */
+    private static final Charset LATIN_1 = Charset.forName("ISO-8859-1");
+
+    // ------------------------------------------------------------------------
+    // PRIVATE VARIABLES
+    // ------------------------------------------------------------------------
+
+    /** The name of the segment, six characters long. */
+    private final String segmentName;
+
+    /** The address the segment is loaded at. */
+    private final int start;
+
+    /** The address execution starts at. */
+    private final int entry;
+
+    /** The words of the segment. */
+    private final CharBuffer words;
+
+    // -------------------------------------------------------------------------
+    // CONSTRUCTORS
+    // -------------------------------------------------------------------------
+
+    /**
+     * Initializes an image of a segment.
+     * <p>
+     * Requires: {@code 0 < words.remaining()},
+     * {@code start + words.remaining() <= Memory.MAX_ADDR + 1} and
+     * {@code start <= entry < start + words.remaining()}
+     *
+     * @param segmentName
+     *            The name of the segment. It is padded or cut to six
+     *            characters.
+     * @param start
+     *            The address the segment is loaded at.
+     * @param entry
+     *            The address execution starts at.
+     * @param words
+     *            The words of the segment, from its position to its limit.
+     */
+    public BinaryImage(String segmentName, int start, int entry,
+            CharBuffer words) {
+        this.segmentName = (segmentName + "      ").substring(0, NAME_LEN);
+        this.start = start;
+        this.entry = entry;
+        this.words = words.slice();
+    }
+
+    // -------------------------------------------------------------------------
+    // PUBLIC OPERATIONS
+    // -------------------------------------------------------------------------
+
+    /**
+     * Returns whether {@code buffer} holds an image, i.e. starts with the
+     * right bytes at its position. The position is not changed.
+     *
+     * @param buffer
+     *            The contents of a file.
+     */
+    public static boolean isImage(ByteBuffer buffer) {
+        if (buffer.remaining() < MAGIC.length) {
+            return false;
+        }
+        for (int k = 0; k < MAGIC.length; ++k) {
+            if (buffer.get(buffer.position() + k) != MAGIC[k]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Reads the image in {@code buffer}, from its position to its limit.
+     * The words of the image are not copied, but remain in {@code buffer}.
+     *
+     * @param buffer
+     *            The contents of an image file.
+     * @return the image
+     * @throws LoadException
+     *             error 107 if the buffer does not hold a well-formed image,
+     *             or error 106 if the entry PC is outside the segment
+     */
+    public static BinaryImage read(ByteBuffer buffer) {
+        ByteBuffer in = buffer.slice();
+        byte[] name = new byte[NAME_LEN];
+
+        if (in.remaining() < HEADER_LEN || !isImage(in)) {
+            throw new LoadException(107, 0, null);
+        }
+        in.position(MAGIC.length);
+        in.get(name);
+
+        int start = in.getChar(), length = in.getChar() + 1;
+        int entry = in.getChar();
+
+        if (start + length > Memory.MAX_ADDR + 1
+                || in.remaining() != 2 * length) {
+            throw new LoadException(107, 0, null);
+        }
+        if (entry < start || entry >= start + length) {
+            throw new LoadException(106, 0, null);
+        }
+        return new BinaryImage(new String(name, LATIN_1), start, entry, in
+                .asCharBuffer());
+    }
+
+    /**
+     * Returns an image of the segment described by {@code segment}, taking
+     * its words from the memory of {@code machine}.
+     *
+     * @param segment
+     *            The segment, as loaded into {@code machine}.
+     * @param machine
+     *            The machine the segment was loaded into.
+     * @return the image
+     */
+    public static BinaryImage of(LoadResult segment, Interpreter machine) {
+        int start = segment.getStart();
+        int length = Math.min(segment.getLength(), Memory.MAX_ADDR + 1
+                - start);
+        char[] words = new char[length];
+
+        for (int k = 0; k < length; ++k) {
+            words[k] = (char) machine.getMemory(start + k);
+        }
+        return new BinaryImage(segment.getSegmentName(), start, segment
+                .getEntry(), CharBuffer.wrap(words));
+    }
+
+    /**
+     * Returns the name of the segment.
+     */
+    public String getSegmentName() {
+        return segmentName;
+    }
+
+    /**
+     * Returns the address the segment is loaded at.
+     */
+    public int getStart() {
+        return start;
+    }
+
+    /**
+     * Returns the number of words of the segment.
+     */
+    public int getLength() {
+        return words.limit();
+    }
+
+    /**
+     * Returns the address execution starts at.
+     */
+    public int getEntry() {
+        return entry;
+    }
+
+    /**
+     * Copies the segment into the memory of {@code machine} and sets its PC
+     * to the entry PC.
+     *
+     * @param machine
+     *            The machine to load.
+     */
+    public void loadInto(InterpreterImp machine) {
+        machine.loadMemory(start, words.duplicate());
+        machine.setPC(entry);
+    }
+
+    /**
+     * Writes the image to {@code out}.
+     *
+     * @param out
+     *            The stream to write to.
+     * @throws IOException
+     *             if the image cannot be written
+     */
+    public void write(OutputStream out) throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(HEADER_LEN);
+        ByteBuffer body = ByteBuffer.allocate(2 * words.limit());
+
+        header.put(MAGIC).put(segmentName.getBytes(LATIN_1));
+        header.putChar((char) start).putChar((char) (words.limit() - 1));
+        header.putChar((char) entry);
+        body.asCharBuffer().put(words.duplicate());
+        out.write(header.array());
+        out.write(body.array());
+    }
+
+    // -------------------------------------------------------------------------
+    // MAIN
+    // -------------------------------------------------------------------------
+
+    /**
+     * Converts a text object file into an image. The options are
+     * {@code -f file}, the object file, and {@code -o file}, the image file
+     * to write. Errors in the object file are reported as by the Simulator.
+     *
+     * @param args
+     *            Command-line arguments.
+     */
+    public static void main(final String[] args) {
+        InterpreterImp machine = new InterpreterImp();
+        File inputFile = null, outputFile = null;
+        LoadResult segment = null;
+
+        try {
+            OptionSet options = new OptionParser("f:o:").parse(args);
+
+            if (!options.has("f") || !options.has("o")) {
+                System.out.println("Usage: java -cp \"MMXI Simulator.jar\" "
+                        + "cse560.BinaryImage -f file -o image");
+                System.exit(1);
+            }
+            inputFile = new File((String) options.valueOf("f"));
+            outputFile = new File((String) options.valueOf("o"));
+        } catch (OptionException e) {
+            System.out.println("Usage: java -cp \"MMXI Simulator.jar\" "
+                    + "cse560.BinaryImage -f file -o image");
+            System.exit(1);
+        }
+
+        try {
+            segment = LoaderImp.load(inputFile, machine);
+        } catch (LoadException e) {
+            (e.getCode() < 200 ? System.out : System.err).println(e
+                    .getMessage());
+            System.exit(1);
+        }
+
+        try {
+            OutputStream out = new FileOutputStream(outputFile);
+
+            try {
+                of(segment, machine).write(out);
+            } finally {
+                out.close();
+            }
+        } catch (IOException e) {
+            System.err.println("Error 301: Could not write output file: " + e);
+            System.exit(1);
+        }
+    }
+}
@@ -0,0 +1,132 @@
+package cse560;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+
+import org.junit.Test;
+
+public final class BinaryImageTest {
+    /** A small object file. */
+    private static final String OBJECT_FILE = "HSAMPLE30000005\n"
+            + "T30005020\n" + "T30011025\n" + "T3003F025\n" + "E3001\n";
+
+    /**
+     * Returns a temporary file holding {@code bytes}.
+     */
+    private static File write(byte[] bytes) throws Exception {
+        File file = File.createTempFile("image", ".o");
+        FileOutputStream out = new FileOutputStream(file);
+
+        file.deleteOnExit();
+        try {
+            out.write(bytes);
+        } finally {
+            out.close();
+        }
+        return file;
+    }
+
+    /**
+     * Returns the image of {@code OBJECT_FILE}, as written to a file.
+     */
+    private static byte[] convert() throws Exception {
+        InterpreterImp machine = new InterpreterImp();
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        LoadResult segment = LoaderImp.load(write(OBJECT_FILE
+                .getBytes("ISO-8859-1")), machine);
+
+        BinaryImage.of(segment, machine).write(out);
+        return out.toByteArray();
+    }
+
+    // -----------------------------------------------------------------------
+    // Testing conversion and loading.
+    // -----------------------------------------------------------------------
+
+    /**
+     * An image holds a header and two bytes per word of the segment.
+     */
+    @Test
+    public void imageSize() throws Exception {
+        assertEquals("size", BinaryImage.HEADER_LEN + 2 * 5, convert().length);
+    }
+
+    /**
+     * Loading an image gives the same memory and PC as loading the object
+     * file it was converted from.
+     */
+    @Test
+    public void roundTrip() throws Exception {
+        BinaryImage image = BinaryImage.read(ByteBuffer.wrap(convert()));
+        InterpreterImp machine = new InterpreterImp();
+
+        assertEquals("name", "SAMPLE", image.getSegmentName());
+        assertEquals("start", 0x3000, image.getStart());
+        assertEquals("length", 5, image.getLength());
+        image.loadInto(machine);
+        assertEquals("PC", 0x3001, machine.getPC());
+        assertEquals("M[x3000]", 0x5020, machine.getMemory(0x3000));
+        assertEquals("M[x3001]", 0x1025, machine.getMemory(0x3001));
+        assertEquals("M[x3002]", 0, machine.getMemory(0x3002));
+        assertEquals("M[x3003]", 0xF025, machine.getMemory(0x3003));
+        assertEquals("M[x3005]", 0, machine.getMemory(0x3005));
+    }
+
+    /**
+     * LoaderImp.load recognizes image files.
+     */
+    @Test
+    public void loadImageFile() throws Exception {
+        InterpreterImp machine = new InterpreterImp();
+        LoadResult segment = LoaderImp.load(write(convert()), machine);
+
+        assertEquals("name", "SAMPLE", segment.getSegmentName());
+        assertEquals("entry", 0x3001, segment.getEntry());
+        assertEquals("PC", 0x3001, machine.getPC());
+        assertEquals("M[x3003]", 0xF025, machine.getMemory(0x3003));
+    }
+
+    /**
+     * A truncated image is reported as error 107.
+     */
+    @Test
+    public void truncatedImage() throws Exception {
+        byte[] image = convert();
+
+        try {
+            BinaryImage.read(ByteBuffer.wrap(image, 0, image.length - 1));
+            fail("no exception");
+        } catch (LoadException e) {
+            assertEquals("code", 107, e.getCode());
+        }
+    }
+
+    /**
+     * Loading into memory that has been executed discards the old decoded
+     * instructions, for every Memory implementation.
+     */
+    @Test
+    public void loadOverExecutedCode() {
+        Memory[] memories = { new FlatMemory(), new MemoryImp() };
+
+        for (Memory memory : memories) {
+            InterpreterImp machine = new InterpreterImp(memory);
+
+            machine.setMemory(0x3000, 0x1021); // ADD R0,R0,#1
+            machine.setPC(0x3000);
+            machine.run(1);
+            machine.loadMemory(0x3000, CharBuffer.wrap(new char[] {
+                    0x1025, // ADD R0,R0,#5
+            }));
+            machine.setPC(0x3000);
+            machine.run(1);
+            assertEquals("R0 = 6", 6, machine.getRegister(0));
+        }
+    }
+}
@@ -0,0 +1,134 @@
+package cse560;
+
+/**
+ * Compiles {@link BasicBlock}s into {@link CompiledBlock} subclasses for the
+ * JIT tier of {@link BlockInterpreter}. The generated {@code execute} method
+ * loads the registers into local variables, executes the instructions of the
+ * block, and stores the registers it wrote back when it leaves the block.
+ * <p>
+ * Each class is defined by a class loader of its own, so that the class can
+ * be unloaded once its block has been discarded and the CompiledBlock is no
+ * longer referenced.
+ *
+ * @author Igor Tolkachev
+ */
+final class BlockCompiler extends CodeGenerator {
+    /** Internal name of CompiledBlock. */
+    private static final String COMPILED_BLOCK = "cse560/CompiledBlock";
+
+    /** The number of classes generated so far, used to name them. */
+    private static int classCount;
+
+    /** Bit n is set iff Rn is written by the compiled code. */
+    private int written;
+
+    // ------------------------------------------------------------------------
+    // PRIVATE OPERATIONS
+    // ------------------------------------------------------------------------
+
+    /**
+     * Initializes a compiler for one block.
+     */
+    private BlockCompiler(String name) {
+        super(new ClassFileWriter(name, COMPILED_BLOCK));
+        this.mw = new MethodWriter(6, FIRST_FREE);
+    }
+
+    /**
+     * Returns a unique name for the class compiled from the block at
+     * {@code start}.
+     */
+    private static synchronized String className(int start) {
+        return String.format("cse560/jit/Block%04x_%d", start, classCount++);
+    }
+
+    @Override
+    void exit(DecodedInstruction d, int count, int pc, int pcLocal,
+            boolean branchTaken, boolean codeChanged) {
+        storeRegisters(written);
+        mw.local(MethodWriter.ALOAD, RT);
+        if (pc >= 0) {
+            mw.iconst(pc, cf);
+        } else {
+            mw.local(MethodWriter.ILOAD, pcLocal);
+        }
+        mw.local(MethodWriter.ILOAD, CCR_LOCAL);
+        mw.iconst(branchTaken ? 1 : 0, cf);
+        callRuntime("exit", "(IIZ)V");
+        mw.iconst(count, cf);
+        mw.op(MethodWriter.IRETURN);
+    }
+
+    /**
+     * Returns the bytes of a class whose {@code execute} method executes
+     * {@code code}.
+     */
+    private byte[] generate(DecodedInstruction[] code) {
+        // Registers written anywhere in the block are stored back at every
+        // exit, so find them first.
+        written = writtenRegisters(code);
+        prologue();
+        for (int k = 0; k < code.length; ++k) {
+            instruction(code[k], k + 1);
+        }
+
+        // Fall through if the last instruction does not leave the block.
+        DecodedInstruction last = code[code.length - 1];
+
+        if (!jumps(last)) {
+            exit(last, code.length, last.nextPc, 0, false, false);
+        }
+
+        cf.addMethod(ClassFileWriter.ACC_PUBLIC, "execute", "([IL" + RUNTIME
+                + ";)I", mw);
+        return cf.toByteArray();
+    }
+
+    /**
+     * Defines each generated class in a class loader of its own.
+     */
+    private static final class Loader extends ClassLoader {
+        Loader() {
+            super(CompiledBlock.class.getClassLoader());
+        }
+
+        Class<?> define(String name, byte[] bytes) {
+            return defineClass(name, bytes, 0, bytes.length);
+        }
+    }
+
+    // ------------------------------------------------------------------------
+    // PUBLIC OPERATIONS
+    // ------------------------------------------------------------------------
+
+    /**
+     * Compiles the instructions {@code code}, which must be the leading
+     * instructions of a block, in order.
+     * <p>
+     * Requires: {@code code} is not empty, all its instructions are
+     * {@code compilable}, and only its last instruction may jump.
+     *
+     * @param code
+     *            The instructions to compile.
+     * @return the compiled code, or null if it could not be compiled or
+     *         loaded
+     */
+    static CompiledBlock compile(DecodedInstruction[] code) {
+        String name = className(code[0].addr);
+
+        try {
+            byte[] bytes = new BlockCompiler(name).generate(code);
+            Class<?> c = new Loader().define(name.replace('/', '.'), bytes);
+
+            return (CompiledBlock) c.newInstance();
+        } catch (RuntimeException e) {
+            return null;
+        } catch (InstantiationException e) {
+            return null;
+        } catch (IllegalAccessException e) {
+            return null;
+        } catch (LinkageError e) {
+            return null;
+        }
+    }
+}
@@ -0,0 +1,795 @@
+package cse560;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * An execution engine for the MMXI machine that runs code one basic block at
+ * a time instead of one instruction at a time. The first time execution
+ * reaches an address, the instructions from there up to the next flow of
+ * control instruction are translated into a {@link BasicBlock} of pre-bound
+ * {@link BlockOp} handlers; from then on, the block is executed by calling
+ * its handlers in turn, without fetching or decoding anything.
+ * <p>
+ * BlockInterpreter does not hold any machine state of its own. It runs code
+ * against the state of the {@link InterpreterImp} it is constructed with, and
+ * delegates to that machine for everything but straight-line execution:
+ * <ul>
+ * <li>TRAP and DBUG instructions, and instructions that would print warning
+ * 050 or 051, end their block and are executed by the machine.</li>
+ * <li>When the remaining budget is smaller than the next block, the machine
+ * executes the remaining instructions one at a time.</li>
+ * <li>{@code step} is executed by the machine.</li>
+ * <li>While the machine has an {@link UndoJournal}, an {@link InputLog} or
+ * a {@link Breakpoint}, it executes every instruction, so that each one is
+ * recorded or checked.</li>
+ * </ul>
+ * Consequently, running a program with BlockInterpreter leaves the machine in
+ * exactly the state {@code InterpreterImp.run} would.
+ * <p>
+ * An ADD immediately followed by a BRx, as in a loop counter, is fused into
+ * a single handler. Blocks are discarded as soon as any word they were
+ * translated from is written to, whether by the program itself or by a
+ * client.
+ * <p>
+ * Optionally, blocks that are entered often enough are compiled into JVM
+ * classes by {@link BlockCompiler}, with the registers held in local
+ * variables, so that the JVM compiles the hot parts of the MMXI program into
+ * native code. A compiled block is discarded along with its block when its
+ * code is overwritten, and execution falls back to translated handlers until
+ * the new code is hot again.
+ *
+ * @author Igor Tolkachev
+ */
+public final class BlockInterpreter implements Interpreter {
+
+    // ------------------------------------------------------------------------
+    // PRIVATE VARIABLES
+    // ------------------------------------------------------------------------
+
+    /** The maximum number of instructions in a block. */
+    static final int MAX_BLOCK_LEN = 64;
+
+    /**
+     * A reasonable number of times a block is entered before it is compiled.
+     */
+    public static final int DEFAULT_COMPILE_THRESHOLD = 1000;
+
+    /** The machine whose state this engine runs against. */
+    private final InterpreterImp machine;
+
+    /** Translated blocks, indexed by the address of their first instruction. */
+    private final BasicBlock[] blocks = new BasicBlock[Memory.MAX_ADDR + 1];
+
+    /** For each address, the number of blocks whose code includes it. */
+    private final byte[] coverage = new byte[Memory.MAX_ADDR + 1];
+
+    /** The register array of the machine. */
+    final int[] r;
+
+    /** Program Counter, while running. */
+    int pc;
+
+    /** Condition Code Register, while running. */
+    CCR ccr;
+
+    /** Whether the last BRx executed by a handler branched. */
+    boolean lastBranchTaken;
+
+    /** The last handler executed, or null if the machine executed last. */
+    private BlockOp lastOp;
+
+    /** True iff a block has been discarded since the current one started. */
+    private boolean codeChanged;
+
+    /** Set when an instruction executed by the machine stops execution. */
+    private StopReason fallbackReason;
+
+    /**
+     * The number of times a block is entered before it is compiled, or -1 if
+     * blocks are never compiled.
+     */
+    private final int compileThreshold;
+
+    /** The operations compiled blocks use to access the machine. */
+    private final JitRuntime runtime;
+
+    /** The number of blocks compiled so far. */
+    private int compiledBlockCount;
+
+    /** The number of instructions executed by compiled blocks so far. */
+    private long compiledSteps;
+
+    /** The time spent in compiled blocks so far, in nanoseconds. */
+    private long compiledTime;
+
+    /**
+     * When execution of the current run of consecutive compiled blocks
+     * started, or -1 if the last block executed was not compiled.
+     */
+    private long compiledSince = -1;
+
+    // -------------------------------------------------------------------------
+    // CONSTRUCTORS
+    // -------------------------------------------------------------------------
+
+    /**
+     * Initializes a new engine running against a new machine whose memory is
+     * backed by a {@link FlatMemory}.
+     */
+    public BlockInterpreter() {
+        this(new InterpreterImp());
+    }
+
+    /**
+     * Initializes a new engine that runs code against the state of
+     * {@code machine} and never compiles blocks. From then on,
+     * {@code machine} should only be used through this engine.
+     *
+     * @param machine
+     *            The machine to run code against.
+     */
+    public BlockInterpreter(InterpreterImp machine) {
+        this(machine, -1);
+    }
+
+    /**
+     * Initializes a new engine that runs code against the state of
+     * {@code machine}, compiling each block once it has been entered
+     * {@code compileThreshold} times. From then on, {@code machine} should
+     * only be used through this engine.
+     *
+     * @param machine
+     *            The machine to run code against.
+     * @param compileThreshold
+     *            The number of times a block is interpreted before it is
+     *            compiled, or -1 to never compile blocks.
+     */
+    public BlockInterpreter(InterpreterImp machine, int compileThreshold) {
+        this.machine = machine;
+        this.compileThreshold = compileThreshold;
+        this.runtime = new JitRuntime(machine, null);
+        this.r = machine.registers();
+        machine.setWriteListener(new WriteListener() {
+            @Override
+            public void memoryWritten(int addr) {
+                invalidate(addr);
+            }
+        });
+    }
+
+    // -------------------------------------------------------------------------
+    // PRIVATE OPERATIONS
+    // -------------------------------------------------------------------------
+
+    /**
+     * Discards every block whose code includes {@code addr}.
+     *
+     * @param addr
+     *            The address that has been written to.
+     */
+    private void invalidate(int addr) {
+        if (coverage[addr] == 0) {
+            return;
+        }
+
+        // Blocks never wrap around the end of memory and are at most
+        // MAX_BLOCK_LEN long, so only blocks starting in this window can
+        // include addr.
+        for (int start = Math.max(0, addr - MAX_BLOCK_LEN + 1); start <= addr; ++start) {
+            BasicBlock block = blocks[start];
+
+            if (block != null && block.end >= addr) {
+                blocks[start] = null;
+                for (int a = block.start; a <= block.end; ++a) {
+                    --coverage[a];
+                }
+                codeChanged = true;
+                runtime.codeChanged = true;
+            }
+        }
+    }
+
+    /**
+     * Translates the block starting at {@code start} and registers it.
+     *
+     * @param start
+     *            The address of the first instruction of the block.
+     * @return the new block
+     */
+    private BasicBlock translate(int start) {
+        List<BlockOp> ops = new ArrayList<BlockOp>();
+        DecodedInstruction previous = null, d;
+        int addr = start, length = 0;
+
+        while (true) {
+            d = machine.decode(addr);
+            ++length;
+
+            if (needsMachine(d)) {
+                ops.add(fallback(d, length));
+                break;
+            } else if (d.opcode == 0 && previous != null
+                    && previous.opcode == 1) {
+                // ADD followed by BRx: replace the ADD by the fused pair
+                ops.set(ops.size() - 1, addBranch(previous, d, length));
+                break;
+            }
+
+            ops.add(handlerFor(d, length));
+            if (endsBlock(d) || length == MAX_BLOCK_LEN) {
+                break;
+            }
+            previous = d;
+            addr = d.nextPc;
+        }
+
+        BasicBlock block = new BasicBlock(start, addr, length,
+                ops.toArray(new BlockOp[ops.size()]), d.nextPc);
+
+        blocks[start] = block;
+        for (int a = start; a <= addr; ++a) {
+            ++coverage[a];
+        }
+        return block;
+    }
+
+    /**
+     * Compiles {@code block}, except for a last instruction that must be
+     * executed by the machine. If the block cannot be compiled, it remains
+     * interpreted.
+     */
+    private void compile(BasicBlock block) {
+        int n = block.length;
+
+        if (needsMachine(machine.decode(block.end))) {
+            --n;
+        }
+        if (n == 0) {
+            return;
+        }
+
+        DecodedInstruction[] code = new DecodedInstruction[n];
+
+        for (int k = 0; k < n; ++k) {
+            code[k] = machine.decode(block.start + k);
+        }
+        block.compiled = BlockCompiler.compile(code);
+        if (block.compiled != null) {
+            block.compiledLength = n;
+            ++compiledBlockCount;
+        }
+    }
+
+    /**
+     * Adds the time since the current run of compiled blocks started, if
+     * any, to the time spent in compiled blocks.
+     */
+    private void stopCompiledTimer() {
+        if (compiledSince >= 0) {
+            compiledTime += System.nanoTime() - compiledSince;
+            compiledSince = -1;
+        }
+    }
+
+    /**
+     * Returns whether {@code d} must be executed by the machine: traps and
+     * DBUG, as well as instructions that print warnings 050 or 051. Such an
+     * instruction always ends its block.
+     */
+    private static boolean needsMachine(DecodedInstruction d) {
+        switch (d.opcode) {
+        case 15: // TRAP
+        case 8: // DBUG
+            return true;
+        case 14: // LEA
+        case 2: // LD
+        case 10: // LDI
+        case 3: // ST
+        case 11: // STI
+        case 0: // BRx
+        case 4: // JSR
+            return d.wrapsPc || d.crossesPage;
+        default:
+            return d.wrapsPc;
+        }
+    }
+
+    /**
+     * Returns whether {@code d} is a flow of control instruction.
+     */
+    private static boolean endsBlock(DecodedInstruction d) {
+        switch (d.opcode) {
+        case 0: // BRx
+        case 4: // JSR
+        case 12: // JSRR
+        case 13: // RET
+        case 15: // TRAP
+            return true;
+        default:
+            return false;
+        }
+    }
+
+    /**
+     * Returns a handler that has the machine execute {@code d}.
+     */
+    private static BlockOp fallback(DecodedInstruction d, int count) {
+        return new BlockOp(d, count) {
+            @Override
+            boolean execute(BlockInterpreter e) {
+                return e.executeOnMachine(addr);
+            }
+        };
+    }
+
+    /**
+     * Returns a handler for an ADD followed by a BRx.
+     */
+    private static BlockOp addBranch(DecodedInstruction add,
+            final DecodedInstruction br, int count) {
+        final int dr = add.dr, sr1 = add.sr1, sr2 = add.sr2, imm5 = add.imm5;
+        final boolean immediate = add.immediate;
+        final int target = br.pageAddress, addAddr = add.addr;
+
+        return new BlockOp(br, count) {
+            @Override
+            boolean execute(BlockInterpreter e) {
+                int[] r = e.r;
+                int op1 = r[sr1], op2 = immediate ? imm5 : r[sr2];
+                int result = op1 + op2;
+
+                e.machine.checkOverflow(op1, op2, result, addAddr);
+                r[dr] = result & Memory.MAX_VALUE;
+                e.ccr = InterpreterImp.ccrFor(r[dr]);
+                e.lastBranchTaken = br.branchTaken(e.ccr);
+                if (e.lastBranchTaken) {
+                    e.pc = target;
+                }
+                return true;
+            }
+        };
+    }
+
+    /**
+     * Returns a handler for {@code d}, the {@code count}th instruction of its
+     * block.
+     * <p>
+     * Requires: {@code needsMachine(d) = false}
+     */
+    private static BlockOp handlerFor(final DecodedInstruction d, int count) {
+        final int dr = d.dr, sr1 = d.sr1, sr2 = d.sr2, imm5 = d.imm5;
+        final int index6 = d.index6, pageAddress = d.pageAddress;
+
+        switch (d.opcode) {
+        // ------------------------------
+        // Data processing instructions
+        // ------------------------------
+        case 9: // **** NOT
+            return new BlockOp(d, count) {
+                @Override
+                boolean execute(BlockInterpreter e) {
+                    int[] r = e.r;
+
+                    r[dr] = ~r[sr1] & Memory.MAX_VALUE;
+                    e.ccr = InterpreterImp.ccrFor(r[dr]);
+                    return true;
+                }
+            };
+        case 1: // **** ADD
+            if (d.immediate) {
+                return new BlockOp(d, count) {
+                    @Override
+                    boolean execute(BlockInterpreter e) {
+                        int[] r = e.r;
+                        int op1 = r[sr1], result = op1 + imm5;
+
+                        e.machine.checkOverflow(op1, imm5, result, addr);
+                        r[dr] = result & Memory.MAX_VALUE;
+                        e.ccr = InterpreterImp.ccrFor(r[dr]);
+                        return true;
+                    }
+                };
+            }
+            return new BlockOp(d, count) {
+                @Override
+                boolean execute(BlockInterpreter e) {
+                    int[] r = e.r;
+                    int op1 = r[sr1], op2 = r[sr2], result = op1 + op2;
+
+                    e.machine.checkOverflow(op1, op2, result, addr);
+                    r[dr] = result & Memory.MAX_VALUE;
+                    e.ccr = InterpreterImp.ccrFor(r[dr]);
+                    return true;
+                }
+            };
+        case 5: // **** AND
+            if (d.immediate) {
+                return new BlockOp(d, count) {
+                    @Override
+                    boolean execute(BlockInterpreter e) {
+                        int[] r = e.r;
+
+                        r[dr] = r[sr1] & imm5 & Memory.MAX_VALUE;
+                        e.ccr = InterpreterImp.ccrFor(r[dr]);
+                        return true;
+                    }
+                };
+            }
+            return new BlockOp(d, count) {
+                @Override
+                boolean execute(BlockInterpreter e) {
+                    int[] r = e.r;
+
+                    r[dr] = r[sr1] & r[sr2];
+                    e.ccr = InterpreterImp.ccrFor(r[dr]);
+                    return true;
+                }
+            };
+        // ------------------
+        // Load instructions
+        // ------------------
+        case 14: // **** LEA
+            return new BlockOp(d, count) {
+                @Override
+                boolean execute(BlockInterpreter e) {
+                    e.r[dr] = pageAddress;
+                    e.ccr = InterpreterImp.ccrFor(pageAddress);
+                    return true;
+                }
+            };
+        case 2: // **** LD
+            return new BlockOp(d, count) {
+                @Override
+                boolean execute(BlockInterpreter e) {
+                    int[] r = e.r;
+
+                    r[dr] = e.load(pageAddress);
+                    e.ccr = InterpreterImp.ccrFor(r[dr]);
+                    return true;
+                }
+            };
+        case 10: // **** LDI
+            return new BlockOp(d, count) {
+                @Override
+                boolean execute(BlockInterpreter e) {
+                    int[] r = e.r;
+
+                    r[dr] = e.load(e.load(pageAddress));
+                    e.ccr = InterpreterImp.ccrFor(r[dr]);
+                    return true;
+                }
+            };
+        case 6: // **** LDR
+            return new BlockOp(d, count) {
+                @Override
+                boolean execute(BlockInterpreter e) {
+                    int[] r = e.r;
+
+                    r[dr] = e.load((r[sr1] + index6) & Memory.MAX_ADDR);
+                    e.ccr = InterpreterImp.ccrFor(r[dr]);
+                    return true;
+                }
+            };
+        // --------------------
+        // Store instructions
+        // --------------------
+        case 3: // **** ST
+            return new BlockOp(d, count) {
+                @Override
+                boolean execute(BlockInterpreter e) {
+                    return e.store(pageAddress, e.r[dr], nextPc);
+                }
+            };
+        case 11: // **** STI
+            return new BlockOp(d, count) {
+                @Override
+                boolean execute(BlockInterpreter e) {
+                    return e.store(e.load(pageAddress), e.r[dr], nextPc);
+                }
+            };
+        case 7: // **** STR
+            return new BlockOp(d, count) {
+                @Override
+                boolean execute(BlockInterpreter e) {
+                    int[] r = e.r;
+
+                    return e.store((r[sr1] + index6) & Memory.MAX_ADDR, r[dr],
+                            nextPc);
+                }
+            };
+        // ------------------------------
+        // Flow of control instructions
+        // ------------------------------
+        case 0: // **** BRx
+            return new BlockOp(d, count) {
+                @Override
+                boolean execute(BlockInterpreter e) {
+                    e.lastBranchTaken = d.branchTaken(e.ccr);
+                    if (e.lastBranchTaken) {
+                        e.pc = pageAddress;
+                    }
+                    return true;
+                }
+            };
+        case 4: // **** JSR
+            if (d.link) {
+                return new BlockOp(d, count) {
+                    @Override
+                    boolean execute(BlockInterpreter e) {
+                        e.r[7] = nextPc;
+                        e.pc = pageAddress;
+                        return true;
+                    }
+                };
+            }
+            return new BlockOp(d, count) {
+                @Override
+                boolean execute(BlockInterpreter e) {
+                    e.pc = pageAddress;
+                    return true;
+                }
+            };
+        case 12: // **** JSRR
+        {
+            final boolean link = d.link;
+
+            return new BlockOp(d, count) {
+                @Override
+                boolean execute(BlockInterpreter e) {
+                    int[] r = e.r;
+
+                    // R7 is written before BaseR is read, as by the machine
+                    if (link) {
+                        r[7] = nextPc;
+                    }
+                    e.pc = (r[sr1] + index6) & Memory.MAX_ADDR;
+                    return true;
+                }
+            };
+        }
+        default: // **** RET
+            return new BlockOp(d, count) {
+                @Override
+                boolean execute(BlockInterpreter e) {
+                    e.pc = e.r[7];
+                    return true;
+                }
+            };
+        }
+    }
+
+    /**
+     * Returns {@code M[addr]}.
+     */
+    int load(int addr) {
+        return machine.memory().get(addr);
+    }
+
+    /**
+     * Sets {@code M[addr]} to {@code value}. If this overwrites translated
+     * code, the PC is set to {@code nextPc} so that execution can resume with
+     * a fresh translation.
+     *
+     * @return true iff execution of the current block may continue
+     */
+    boolean store(int addr, int value, int nextPc) {
+        machine.setMemory(addr, value);
+        if (codeChanged) {
+            pc = nextPc;
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Has the machine execute the instruction at {@code addr}.
+     *
+     * @return false if the instruction is an input trap that has not been
+     *         executed because its input has not arrived, true otherwise
+     */
+    boolean executeOnMachine(int addr) {
+        machine.setPC(addr);
+        machine.restoreCCR(ccr);
+
+        RunResult result = machine.run(1);
+
+        pc = machine.getPC();
+        ccr = machine.getCCR();
+        if (result.getReason() == StopReason.INPUT) {
+            // The trap is waiting for input and has not been executed.
+            fallbackReason = StopReason.INPUT;
+            return false;
+        }
+        lastOp = null;
+        if (result.getReason() != StopReason.BUDGET) {
+            fallbackReason = result.getReason();
+        }
+        return true;
+    }
+
+    // -------------------------------------------------------------------------
+    // PUBLIC OPERATIONS
+    // -------------------------------------------------------------------------
+
+    /**
+     * Returns the number of blocks compiled so far.
+     */
+    public int getCompiledBlockCount() {
+        return compiledBlockCount;
+    }
+
+    /**
+     * Returns the number of instructions executed by compiled blocks so far.
+     */
+    public long getCompiledSteps() {
+        return compiledSteps;
+    }
+
+    /**
+     * Returns the time spent executing compiled blocks so far, in
+     * nanoseconds. The time is measured from entering the first of a run of
+     * consecutive compiled blocks to leaving the last.
+     */
+    public long getCompiledTime() {
+        return compiledTime;
+    }
+
+    @Override
+    public void setMemory(int addr, int value) {
+        machine.setMemory(addr, value);
+    }
+
+    @Override
+    public int getMemory(int addr) {
+        return machine.getMemory(addr);
+    }
+
+    @Override
+    public int getPC() {
+        return machine.getPC();
+    }
+
+    @Override
+    public void setPC(int value) {
+        machine.setPC(value);
+    }
+
+    @Override
+    public CCR getCCR() {
+        return machine.getCCR();
+    }
+
+    @Override
+    public int getRegister(int n) {
+        return machine.getRegister(n);
+    }
+
+    @Override
+    public String getLastInstruction() {
+        return machine.getLastInstruction();
+    }
+
+    @Override
+    public boolean isHalted() {
+        return machine.isHalted();
+    }
+
+    @Override
+    public void step() {
+        machine.step();
+    }
+
+    @Override
+    public RunResult run(long budget) {
+        StopReason reason = StopReason.BUDGET;
+        long steps = 0;
+
+        if (machine.isHalted()) {
+            return new RunResult(StopReason.HALT, 0);
+        }
+        if (machine.observesEveryInstruction()) {
+            return machine.run(budget);
+        }
+
+        pc = machine.getPC() & Memory.MAX_ADDR;
+        ccr = machine.getCCR();
+        lastOp = null;
+        fallbackReason = null;
+
+        while (steps < budget) {
+            BasicBlock block = blocks[pc];
+
+            if (block == null) {
+                block = translate(pc);
+            }
+
+            // Compile the block once it has been entered often enough. The
+            // count stops just past the threshold, so blocks that cannot be
+            // compiled are not tried again.
+            if (block.compiled == null && block.entries <= compileThreshold
+                    && ++block.entries > compileThreshold) {
+                compile(block);
+            }
+
+            // If the block does not fit into the budget, let the machine
+            // execute what is left one instruction at a time.
+            if (block.length > budget - steps) {
+                stopCompiledTimer();
+                machine.setPC(pc);
+                machine.restoreCCR(ccr);
+
+                RunResult result = machine.run(budget - steps);
+
+                pc = machine.getPC();
+                ccr = machine.getCCR();
+                lastOp = null;
+                steps += result.getSteps();
+                reason = result.getReason();
+                break;
+            }
+
+            BlockOp[] ops = block.ops;
+            BlockOp before = lastOp;
+            int executed = block.length;
+
+            codeChanged = false;
+            if (block.compiled != null) {
+                if (compiledSince < 0) {
+                    compiledSince = System.nanoTime();
+                }
+                runtime.ccr = ccr;
+                runtime.codeChanged = false;
+                executed = block.compiled.execute(r, runtime);
+                compiledSteps += executed;
+                pc = runtime.pc;
+                ccr = runtime.ccr;
+                lastBranchTaken = runtime.branchTaken;
+
+                // A fused ADD and BRx share the handler of the BRx, which is
+                // the last one of its block.
+                lastOp = ops[Math.min(executed, ops.length) - 1];
+                if (executed == block.compiledLength
+                        && executed < block.length) {
+                    stopCompiledTimer();
+                    ops[ops.length - 1].execute(this);
+                    if (fallbackReason != StopReason.INPUT) {
+                        ++executed;
+                    }
+                }
+            } else {
+                stopCompiledTimer();
+                pc = block.fallThrough;
+                for (int i = 0; i < ops.length; ++i) {
+                    lastOp = ops[i];
+                    if (!ops[i].execute(this)) {
+                        executed = ops[i].count;
+
+                        // An input trap that is waiting for input has not
+                        // been executed; it always ends its block.
+                        if (fallbackReason == StopReason.INPUT) {
+                            --executed;
+                            lastOp = i > 0 ? ops[i - 1] : before;
+                        }
+                        break;
+                    }
+                }
+            }
+            steps += executed;
+
+            if (fallbackReason != null) {
+                reason = fallbackReason;
+                break;
+            }
+        }
+
+        stopCompiledTimer();
+        machine.setPC(pc);
+        machine.restoreCCR(ccr);
+        if (lastOp != null) {
+            machine.setLastInstruction(lastOp.addr, lastOp.word,
+                    lastBranchTaken);
+        }
+        return new RunResult(reason, steps);
+    }
+}
@@ -0,0 +1,215 @@
+package cse560;
+
+import static cse560.EngineAssert.load;
+import static cse560.EngineAssert.runAndCompare;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.Random;
+
+import org.junit.Test;
+
+public class BlockInterpreterTest {
+
+	/**
+	 * A counting loop with a subroutine call gives the same results as
+	 * InterpreterImp, whether run in one go or with budgets that end in the
+	 * middle of blocks.
+	 */
+	@Test
+	public void loopWithSubroutine()
+	{
+		loopWithSubroutine(-1);
+	}
+
+	/**
+	 * The same, with blocks compiled the first or the third time they are
+	 * entered.
+	 */
+	@Test
+	public void loopWithSubroutineCompiled()
+	{
+		assertTrue("compiled", loopWithSubroutine(0) > 0);
+		assertTrue("compiled", loopWithSubroutine(2) > 0);
+	}
+
+	/**
+	 * Runs the counting loop on engines with the given compile threshold.
+	 *
+	 * @return the number of blocks compiled by the last engine
+	 */
+	private static int loopWithSubroutine(int threshold)
+	{
+		int[] program = {
+				0x5020, // x3000 AND R0,R0,#0
+				0x1025, // x3001 ADD R0,R0,#5
+				0x5260, // x3002 AND R1,R1,#0
+				0x4808, // x3003 JSR 1,x3008
+				0x103F, // x3004 ADD R0,R0,#-1
+				0x0203, // x3005 BRp x3003
+				0x3210, // x3006 ST R1,x3010
+				0xF025, // x3007 TRAP x25
+				0x1262, // x3008 ADD R1,R1,#2
+				0x7441, // x3009 STR R2,R1,#1
+				0xD000, // x300A RET
+		};
+
+		for (long budget = 1; budget < 30; ++budget) {
+			Interpreter expected = new InterpreterImp();
+			Interpreter actual = new BlockInterpreter(new InterpreterImp(),
+					threshold);
+
+			load(0x3000, program, expected, actual);
+			while (!expected.isHalted()) {
+				runAndCompare(expected, actual, budget);
+			}
+		}
+
+		Interpreter expected = new InterpreterImp();
+		BlockInterpreter actual = new BlockInterpreter(new InterpreterImp(),
+				threshold);
+
+		load(0x3000, program, expected, actual);
+		runAndCompare(expected, actual, 1000);
+		assertEquals("R1 = 10", 10, actual.getRegister(1));
+		assertEquals("M[x3010] = 10", 10, actual.getMemory(0x3010));
+		return actual.getCompiledBlockCount();
+	}
+
+	/**
+	 * JSRR through R7 jumps relative to the return address it stores, when
+	 * interpreted and when compiled.
+	 */
+	@Test
+	public void jsrrThroughR7()
+	{
+		int[] program = {
+				0xEEFF, // x3000 LEA R7,x3100
+				0xC9C4, // x3001 JSRR 1,R7,#4
+				0x0000,
+				0x0000,
+				0x0000,
+				0x0000,
+				0xF025, // x3006 TRAP x25
+		};
+
+		for (int threshold = -1; threshold <= 0; ++threshold) {
+			Interpreter expected = new InterpreterImp();
+			Interpreter actual = new BlockInterpreter(new InterpreterImp(),
+					threshold);
+
+			load(0x3000, program, expected, actual);
+			runAndCompare(expected, actual, 100);
+			assertEquals("halted past x3006", 0x3007, actual.getPC());
+			assertEquals("R7", 0x3002, actual.getRegister(7));
+		}
+	}
+
+	/**
+	 * A program that overwrites an instruction of the block it is executing
+	 * executes the new instruction.
+	 */
+	@Test
+	public void selfModifyingBlock()
+	{
+		selfModifyingBlock(-1);
+	}
+
+	/**
+	 * The same, with the block compiled before it overwrites itself.
+	 */
+	@Test
+	public void selfModifyingCompiledBlock()
+	{
+		selfModifyingBlock(0);
+	}
+
+	/**
+	 * Runs the self-modifying program on an engine with the given compile
+	 * threshold.
+	 */
+	private static void selfModifyingBlock(int threshold)
+	{
+		int[] program = {
+				0x5020, // x0000 AND R0,R0,#0
+				0x2205, // x0001 LD R1,x0005
+				0x3203, // x0002 ST R1,x0003
+				0x1021, // x0003 ADD R0,R0,#1 (becomes ADD R0,R0,#7)
+				0xF025, // x0004 TRAP x25
+				0x1027, // x0005 ADD R0,R0,#7
+		};
+		Interpreter expected = new InterpreterImp();
+		Interpreter actual = new BlockInterpreter(new InterpreterImp(),
+				threshold);
+
+		load(0, program, expected, actual);
+		runAndCompare(expected, actual, 1000);
+		assertEquals("R0 = 7", 7, actual.getRegister(0));
+
+		// Run it again, now that the original block has been translated.
+		load(0, program, expected, actual);
+		runAndCompare(expected, actual, 1000);
+		assertEquals("R0 = 7", 7, actual.getRegister(0));
+	}
+
+	/**
+	 * Random programs give the same results as InterpreterImp. TRAP and DBUG
+	 * instructions are replaced by ADDs, since they would wait for input or
+	 * print.
+	 */
+	@Test
+	public void randomPrograms()
+	{
+		randomPrograms(-1);
+	}
+
+	/**
+	 * The same, with blocks compiled the second time they are entered.
+	 */
+	@Test
+	public void randomProgramsCompiled()
+	{
+		randomPrograms(1);
+	}
+
+	/**
+	 * Runs random programs on engines with the given compile threshold.
+	 */
+	private static void randomPrograms(int threshold)
+	{
+		Random generator = new Random(560);
+		PrintStream out = System.out;
+
+		// The programs overflow a lot, so discard the warnings.
+		System.setOut(new PrintStream(new OutputStream() {
+			@Override
+			public void write(int b) {
+				// Do nothing.
+			}
+		}));
+		try {
+			for (int program = 0; program < 20; ++program) {
+				Interpreter expected = new InterpreterImp();
+				Interpreter actual = new BlockInterpreter(new InterpreterImp(),
+						threshold);
+
+				for (int addr = 0; addr <= Memory.MAX_ADDR; ++addr) {
+					int word = generator.nextInt(Memory.MAX_VALUE + 1);
+
+					if ((word >> 12) == 15 || (word >> 12) == 8) {
+						word = 0x1000 | (word & 0x0FFF);
+					}
+					expected.setMemory(addr, word);
+					actual.setMemory(addr, word);
+				}
+				for (int run = 0; run < 20; ++run) {
+					runAndCompare(expected, actual, generator.nextInt(5000));
+				}
+			}
+		} finally {
+			System.setOut(out);
+		}
+	}
+}
@@ -0,0 +1,53 @@
+package cse560;
+
+/**
+ * A handler that executes one instruction of a {@link BasicBlock}, or a fused
+ * pair of instructions, against the state of a {@link BlockInterpreter}. All
+ * operands are bound when the handler is created, so executing it involves
+ * no decoding at all.
+ *
+ * @author Igor Tolkachev
+ */
+abstract class BlockOp {
+    /** Address of the (last) instruction executed by this handler. */
+    final int addr;
+
+    /** The word of the (last) instruction executed by this handler. */
+    final int word;
+
+    /** The value of the PC after the (last) instruction is fetched. */
+    final int nextPc;
+
+    /**
+     * The number of instructions of the block that have been executed once
+     * this handler has been executed.
+     */
+    final int count;
+
+    /**
+     * Initializes a handler for {@code d}, the {@code count}th instruction of
+     * its block.
+     *
+     * @param d
+     *            The (last) instruction executed by this handler.
+     * @param count
+     *            The position of {@code d} in its block, counting from one.
+     */
+    BlockOp(DecodedInstruction d, int count) {
+        this.addr = d.addr;
+        this.word = d.word;
+        this.nextPc = d.nextPc;
+        this.count = count;
+    }
+
+    /**
+     * Executes the instruction(s) of this handler. If the rest of the block
+     * must not be executed, the PC is set to where execution continues and
+     * false is returned.
+     *
+     * @param e
+     *            The engine whose state to execute against.
+     * @return true iff execution of the block may continue
+     */
+    abstract boolean execute(BlockInterpreter e);
+}
@@ -0,0 +1,126 @@
+package cse560;
+
+/**
+ * A breakpoint of an {@link InterpreterImp}, made by
+ * {@link InterpreterImp#addBreakpoint}: the machine stops with
+ * {@link StopReason#BREAKPOINT} in front of the instruction at the
+ * breakpoint's address, without executing it. A breakpoint can be made
+ * conditional on the value of a register and on the CCR, and can be set to
+ * let execution pass a number of times before it stops it; the conditions
+ * are set with methods that return the breakpoint, so that they can be
+ * chained:
+ *
+ * <pre>
+ * machine.addBreakpoint(0x3010).whenRegister(1, 0).afterHits(3);
+ * </pre>
+ *
+ * A hit is a time execution reaches the address with the conditions met.
+ * Once the machine has stopped at a breakpoint, running it again executes
+ * that instruction without counting a hit.
+ *
+ * @author Igor Tolkachev
+ */
+public final class Breakpoint {
+
+    // ------------------------------------------------------------------------
+    // PRIVATE VARIABLES
+    // ------------------------------------------------------------------------
+
+    /** The address of the instruction to stop in front of. */
+    private final int addr;
+
+    /** The register that must hold {@code value}, or -1. */
+    private int register = -1;
+
+    /** The value {@code register} must hold. */
+    private int value;
+
+    /** The CCR there must be, or null for any. */
+    private CCR ccr;
+
+    /** The hit from which on execution stops. */
+    private long hitCount = 1;
+
+    /** The number of hits so far. */
+    private long hits;
+
+    // -------------------------------------------------------------------------
+    // CONSTRUCTORS
+    // -------------------------------------------------------------------------
+
+    /**
+     * Initializes an unconditional breakpoint at {@code addr}.
+     */
+    Breakpoint(int addr) {
+        this.addr = addr & Memory.MAX_ADDR;
+    }
+
+    // -------------------------------------------------------------------------
+    // PACKAGE OPERATIONS
+    // -------------------------------------------------------------------------
+
+    /**
+     * Counts a hit if the conditions are met by {@code registers} and
+     * {@code ccr}, and returns whether execution stops.
+     */
+    boolean hit(int[] registers, CCR ccr) {
+        if (register >= 0 && registers[register] != value
+                || this.ccr != null && this.ccr != ccr) {
+            return false;
+        }
+        return ++hits >= hitCount;
+    }
+
+    // -------------------------------------------------------------------------
+    // PUBLIC OPERATIONS
+    // -------------------------------------------------------------------------
+
+    /**
+     * Returns the address of the instruction to stop in front of.
+     */
+    public int getAddress() {
+        return addr;
+    }
+
+    /**
+     * Only stops execution when register {@code n} holds {@code value},
+     * truncated to 16 bits.
+     * <p>
+     * Requires: {@code 0 <= n < Interpreter.NUM_REGS}
+     *
+     * @return this breakpoint
+     */
+    public Breakpoint whenRegister(int n, int value) {
+        this.register = n;
+        this.value = value & Memory.MAX_VALUE;
+        return this;
+    }
+
+    /**
+     * Only stops execution when the CCR is {@code ccr}.
+     *
+     * @return this breakpoint
+     */
+    public Breakpoint whenCCR(CCR ccr) {
+        this.ccr = ccr;
+        return this;
+    }
+
+    /**
+     * Lets execution pass the first {@code n - 1} hits, and stops it from
+     * the {@code n}th on. Default: 1.
+     *
+     * @return this breakpoint
+     */
+    public Breakpoint afterHits(long n) {
+        this.hitCount = n;
+        return this;
+    }
+
+    /**
+     * Returns the number of hits so far.
+     */
+    public long getHits() {
+        return hits;
+    }
+}
@@ -0,0 +1,109 @@
+package cse560;
+
+import static cse560.EngineAssert.load;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public final class BreakpointTest {
+
+    /**
+     * Counts down from 5 in R1, adding R1 to R2 each time, then halts.
+     */
+    private static final int[] PROGRAM = {
+            0x1265, // x3000 ADD R1,R1,#5
+            0x1481, // x3001 ADD R2,R2,R1
+            0x127F, // x3002 ADD R1,R1,#-1
+            0x0201, // x3003 BRp x3001
+            0xF025, // x3004 TRAP x25
+    };
+
+    /**
+     * The machine stops in front of an instruction with a breakpoint, each
+     * time it gets there, and goes on from there when run again.
+     */
+    @Test
+    public void stopsEachTime() {
+        InterpreterImp machine = load(PROGRAM);
+        Breakpoint loop = machine.addBreakpoint(0x3002);
+
+        for (int k = 5; k > 0; --k) {
+            RunResult result = machine.run(100);
+
+            assertEquals("reason", StopReason.BREAKPOINT, result.getReason());
+            assertEquals("PC", 0x3002, machine.getPC());
+            assertEquals("R1", k, machine.getRegister(1));
+        }
+        assertEquals("hits", 5, loop.getHits());
+        assertEquals("reason", StopReason.HALT, machine.run(100).getReason());
+    }
+
+    /**
+     * A breakpoint stops execution only when its register and CCR
+     * conditions hold, and from the given hit on.
+     */
+    @Test
+    public void conditions() {
+        InterpreterImp machine = load(PROGRAM);
+        Breakpoint when = machine.addBreakpoint(0x3001).whenRegister(1, 2);
+
+        assertEquals("reason", StopReason.BREAKPOINT, machine.run(100)
+                .getReason());
+        assertEquals("R1", 2, machine.getRegister(1));
+        assertEquals("R2", 5 + 4 + 3, machine.getRegister(2));
+        machine.removeBreakpoint(when);
+
+        machine = load(PROGRAM);
+        machine.addBreakpoint(0x3003).whenCCR(CCR.P).afterHits(3);
+        assertEquals("reason", StopReason.BREAKPOINT, machine.run(100)
+                .getReason());
+        assertEquals("third time round", 2, machine.getRegister(1));
+
+        machine = load(PROGRAM);
+        machine.addBreakpoint(0x3003).whenCCR(CCR.N);
+        assertEquals("never", StopReason.HALT, machine.run(100).getReason());
+    }
+
+    /**
+     * Running until an address stops there once, and leaves no breakpoint.
+     */
+    @Test
+    public void runUntil() {
+        InterpreterImp machine = load(PROGRAM);
+        RunResult result = machine.runUntil(0x3004, 100);
+
+        assertEquals("reason", StopReason.BREAKPOINT, result.getReason());
+        assertEquals("steps", 1 + 5 * 3, result.getSteps());
+        assertEquals("R2", 15, machine.getRegister(2));
+        assertTrue("no breakpoints", !machine.observesEveryInstruction());
+        assertEquals("reason", StopReason.HALT, machine.run(100).getReason());
+    }
+
+    /**
+     * The block engine stops at breakpoints like the machine, and a session
+     * prints the state at each one and goes on.
+     */
+    @Test
+    public void engines() {
+        InterpreterImp machine = load(PROGRAM);
+        BlockInterpreter engine = new BlockInterpreter(machine,
+                BlockInterpreter.DEFAULT_COMPILE_THRESHOLD);
+
+        machine.addBreakpoint(0x3004);
+        assertEquals("reason", StopReason.BREAKPOINT, engine.run(100)
+                .getReason());
+        assertEquals("PC", 0x3004, engine.getPC());
+
+        SimulationResult result = new SimulationSession.Builder().source(
+                "HCOUNT 30000005\n" + "T30001265\n" + "T30011481\n"
+                        + "T3002127F\n" + "T30030201\n" + "T3004F025\n"
+                        + "E3000\n").engine(SimulationSession.Engine.JIT)
+                .breakpoint(0x3001).build().run();
+
+        assertEquals("reason", StopReason.HALT, result.getReason());
+        assertEquals("steps", 17, result.getSteps());
+        assertEquals("stops", 5, result.getOutput().split("Breakpoint at "
+                + "3001").length - 1);
+    }
+}
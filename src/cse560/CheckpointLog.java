@@ -0,0 +1,142 @@
+package cse560;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The checkpoints a {@link SimulationSession} keeps of its machine while it
+ * runs: a {@link MachineSnapshot} at the start of the run and then every
+ * {@code interval} instructions, so that the state of the machine at any
+ * step of a long run can be recovered by restoring the checkpoint before it
+ * and executing at most {@code interval - 1} instructions.
+ * <p>
+ * Each checkpoint shares every page of memory that has not changed since the
+ * previous one, so a run that keeps writing to a few pages costs those pages
+ * per checkpoint, not the whole memory.
+ *
+ * @author Igor Tolkachev
+ */
+public final class CheckpointLog {
+
+    // ------------------------------------------------------------------------
+    // PRIVATE VARIABLES
+    // ------------------------------------------------------------------------
+
+    /** The number of instructions between checkpoints. */
+    private final long interval;
+
+    /** The checkpoints, oldest first. */
+    private final List<MachineSnapshot> checkpoints =
+            new ArrayList<MachineSnapshot>();
+
+    /** The step of each checkpoint, in the same order. */
+    private final List<Long> steps = new ArrayList<Long>();
+
+    /** The number of distinct pages held by the checkpoints. */
+    private int pageCount;
+
+    // -------------------------------------------------------------------------
+    // CONSTRUCTORS
+    // -------------------------------------------------------------------------
+
+    /**
+     * Initializes an empty log for checkpoints every {@code interval}
+     * instructions.
+     * <p>
+     * Requires: {@code interval > 0}
+     *
+     * @param interval
+     *            The number of instructions between checkpoints.
+     */
+    public CheckpointLog(long interval) {
+        this.interval = interval;
+    }
+
+    // -------------------------------------------------------------------------
+    // PACKAGE OPERATIONS
+    // -------------------------------------------------------------------------
+
+    /**
+     * Adds a checkpoint of {@code machine}, which has executed {@code step}
+     * instructions.
+     * <p>
+     * Requires: {@code machine} is not executing, and {@code step} is greater
+     * than the step of every checkpoint
+     */
+    void add(long step, InterpreterImp machine, LoadResult segment) {
+        MachineSnapshot previous = checkpoints.isEmpty() ? null : checkpoints
+                .get(checkpoints.size() - 1);
+        MachineSnapshot checkpoint = MachineSnapshot.capture(machine,
+                segment, previous);
+
+        pageCount += previous == null ? checkpoint.getPageCount()
+                : checkpoint.getNewPageCount(previous);
+        checkpoints.add(checkpoint);
+        steps.add(step);
+    }
+
+    /**
+     * Returns the index of the last checkpoint taken at or before
+     * {@code step}, or -1 if there is none.
+     */
+    int floor(long step) {
+        int low = 0;
+        int high = steps.size() - 1;
+
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+
+            if (steps.get(mid) <= step) {
+                low = mid + 1;
+            } else {
+                high = mid - 1;
+            }
+        }
+        return high;
+    }
+
+    // -------------------------------------------------------------------------
+    // PUBLIC OPERATIONS
+    // -------------------------------------------------------------------------
+
+    /**
+     * Returns the number of instructions between checkpoints.
+     */
+    public long getInterval() {
+        return interval;
+    }
+
+    /**
+     * Returns the number of checkpoints.
+     */
+    public int getCount() {
+        return checkpoints.size();
+    }
+
+    /**
+     * Returns checkpoint {@code k}.
+     * <p>
+     * Requires: {@code 0 <= k < getCount()}
+     */
+    public MachineSnapshot get(int k) {
+        return checkpoints.get(k);
+    }
+
+    /**
+     * Returns the number of instructions the machine had executed when
+     * checkpoint {@code k} was taken.
+     * <p>
+     * Requires: {@code 0 <= k < getCount()}
+     */
+    public long getStep(int k) {
+        return steps.get(k);
+    }
+
+    /**
+     * Returns the number of distinct pages of memory held by all checkpoints
+     * together, each 1 KB.
+     */
+    public int getPageCount() {
+        return pageCount;
+    }
+}
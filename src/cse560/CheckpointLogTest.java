@@ -0,0 +1,120 @@
+package cse560;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public final class CheckpointLogTest {
+
+    /**
+     * Counts in R1 and stores the count and a random number on its page;
+     * the page at x3400 holds a constant.
+     */
+    private static final String PROGRAM = "HCOUNT 30000401\n"
+            + "T30001261\n" // ADD R1,R1,#1
+            + "T3001F043\n" // TRAP x43
+            + "T30023010\n" // ST R0,x3010
+            + "T30033211\n" // ST R1,x3011
+            + "T30040E00\n" // BRnzp x3000
+            + "T34001234\n" + "E3000\n";
+
+    /**
+     * Returns a session of {@code PROGRAM} with a fixed seed that runs
+     * {@code maxSteps} instructions.
+     */
+    private static SimulationSession.Builder session(long maxSteps) {
+        return new SimulationSession.Builder().source(PROGRAM).seed(99)
+                .maxSteps(maxSteps);
+    }
+
+    /**
+     * Checks that {@code actual} holds the same state as {@code expected}.
+     */
+    private static void assertSameState(MachineSnapshot expected,
+            MachineSnapshot actual) {
+        assertEquals("PC", expected.getPC(), actual.getPC());
+        assertEquals("CCR", expected.getCCR(), actual.getCCR());
+        for (int r = 0; r < Interpreter.NUM_REGS; ++r) {
+            assertEquals("R" + r, expected.getRegister(r), actual
+                    .getRegister(r));
+        }
+        assertEquals("random number", expected.getMemory(0x3010), actual
+                .getMemory(0x3010));
+        assertEquals("count", expected.getMemory(0x3011), actual
+                .getMemory(0x3011));
+        assertEquals("generator", expected.getRandomState(), actual
+                .getRandomState());
+    }
+
+    /**
+     * The state at any step is the state of a run stopped at that step, and
+     * unchanged pages are shared between checkpoints.
+     */
+    @Test
+    public void stateAt() {
+        SimulationSession recorded = session(1000).checkpoints(64).build();
+
+        recorded.run();
+
+        CheckpointLog log = recorded.getCheckpoints();
+
+        assertEquals("checkpoints", 1 + 1000 / 64, log.getCount());
+        assertEquals("step", 128, log.getStep(2));
+        assertEquals("pages", 2 + log.getCount() - 1, log.getPageCount());
+
+        long[] steps = { 0, 1, 63, 64, 65, 500, 999, 1000 };
+
+        for (long step : steps) {
+            SimulationSession reference = session(step).build();
+
+            reference.run();
+            assertSameState(reference.snapshot(), recorded.stateAt(step));
+        }
+    }
+
+    /**
+     * Checkpoints do not change the outcome of a run, on any engine.
+     */
+    @Test
+    public void sameResult() {
+        for (SimulationSession.Engine engine : SimulationSession.Engine
+                .values()) {
+            SimulationResult plain = session(777).engine(engine).build()
+                    .run();
+            SimulationResult checked = session(777).engine(engine)
+                    .checkpoints(10).build().run();
+
+            assertEquals("steps", plain.getSteps(), checked.getSteps());
+            assertEquals("R0", plain.getRegister(0), checked.getRegister(0));
+            assertEquals("R1", plain.getRegister(1), checked.getRegister(1));
+        }
+    }
+
+    /**
+     * A state after the end of the run is not available, and neither is one
+     * that needs input to be re-executed.
+     */
+    @Test
+    public void unavailable() {
+        SimulationSession session = new SimulationSession.Builder().source(
+                "HECHO  30000003\n" + "T3000F023\n" + "T3001F021\n"
+                        + "T3002F025\n" + "E3000\n").input("Q\n")
+                .checkpoints(100).build();
+
+        session.run();
+        try {
+            session.stateAt(4);
+            assertTrue("IllegalArgumentException thrown", false);
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+        try {
+            session.stateAt(2);
+            assertTrue("IllegalStateException thrown", false);
+        } catch (IllegalStateException e) {
+            // expected
+        }
+        assertEquals("before input", 0x3000, session.stateAt(0).getPC());
+    }
+}
@@ -0,0 +1,307 @@
+package cse560;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Builds a JVM class file from scratch. This is just enough of a class file
+ * emitter to turn MMXI code into Java classes at run time; it supports a
+ * public final class with a public no-argument constructor and any number of
+ * methods whose bytecode is assembled by a {@link MethodWriter}.
+ * <p>
+ * Class files are written in version 49 (Java 5) format. This spares the
+ * emitter from computing stack map frames, since the JVM verifies such
+ * classes by type inference instead.
+ *
+ * @author Igor Tolkachev
+ */
+final class ClassFileWriter {
+    /** Access flag: public. */
+    static final int ACC_PUBLIC = 0x0001;
+
+    /** Access flag: static. */
+    static final int ACC_STATIC = 0x0008;
+
+    /** Access flag: final. */
+    static final int ACC_FINAL = 0x0010;
+
+    /** Access flag: treat superclass methods specially (always set). */
+    private static final int ACC_SUPER = 0x0020;
+
+    /** Constant pool tags. */
+    private static final int UTF8 = 1, INTEGER = 3, CLASS = 7, STRING = 8,
+            FIELDREF = 9, METHODREF = 10, NAME_AND_TYPE = 12;
+
+    /** The constant pool, except for the leading unused entry. */
+    private final ByteArrayOutputStream poolBytes = new ByteArrayOutputStream();
+
+    /** {@code poolBytes} as a data stream. */
+    private final DataOutputStream pool = new DataOutputStream(poolBytes);
+
+    /** Index of each constant pool entry added so far, by a unique key. */
+    private final Map<String, Integer> poolIndex = new HashMap<String, Integer>();
+
+    /** The number of constant pool entries, including the unused entry. */
+    private int poolCount = 1;
+
+    /** The methods added so far, in class file format. */
+    private final List<byte[]> methods = new ArrayList<byte[]>();
+
+    /** The fields added so far, in class file format. */
+    private final List<byte[]> fields = new ArrayList<byte[]>();
+
+    /** Constant pool index of this class. */
+    private final int thisClass;
+
+    /** Constant pool index of the superclass. */
+    private final int superClass;
+
+    /**
+     * Initializes a new class. Names are in internal form, e.g.
+     * {@code "cse560/CompiledBlock"}.
+     *
+     * @param name
+     *            The name of the class.
+     * @param superName
+     *            The name of its superclass, which must have an accessible
+     *            no-argument constructor.
+     */
+    ClassFileWriter(String name, String superName) {
+        this.thisClass = classRef(name);
+        this.superClass = classRef(superName);
+
+        // public <init>() { super(); }
+        MethodWriter init = new MethodWriter(1, 1);
+
+        init.local(MethodWriter.ALOAD, 0);
+        init.member(MethodWriter.INVOKESPECIAL,
+                methodRef(superName, "<init>", "()V"));
+        init.op(MethodWriter.RETURN);
+        addMethod(ACC_PUBLIC, "<init>", "()V", init);
+    }
+
+    // ------------------------------------------------------------------------
+    // PRIVATE OPERATIONS
+    // ------------------------------------------------------------------------
+
+    /**
+     * Returns the index of the constant identified by {@code key}, or -1 if
+     * it has not been added.
+     */
+    private int lookup(String key) {
+        Integer index = poolIndex.get(key);
+
+        return index == null ? -1 : index;
+    }
+
+    /**
+     * Registers the next constant pool entry under {@code key} and returns
+     * its index.
+     */
+    private int register(String key) {
+        poolIndex.put(key, poolCount);
+        return poolCount++;
+    }
+
+    /**
+     * Adds a constant pool entry made up of a tag and two indices.
+     */
+    private int pair(int tag, int first, int second) {
+        String key = tag + ":" + first + ":" + second;
+        int index = lookup(key);
+
+        if (index < 0) {
+            try {
+                pool.writeByte(tag);
+                pool.writeShort(first);
+                if (second >= 0) {
+                    pool.writeShort(second);
+                }
+            } catch (IOException e) {
+                throw new IllegalStateException(e);
+            }
+            index = register(key);
+        }
+        return index;
+    }
+
+    // ------------------------------------------------------------------------
+    // CONSTANT POOL
+    // ------------------------------------------------------------------------
+
+    /**
+     * Returns the constant pool index of the string {@code value}.
+     */
+    int utf8(String value) {
+        String key = "U" + value;
+        int index = lookup(key);
+
+        if (index < 0) {
+            try {
+                pool.writeByte(UTF8);
+                pool.writeUTF(value);
+            } catch (IOException e) {
+                throw new IllegalStateException(e);
+            }
+            index = register(key);
+        }
+        return index;
+    }
+
+    /**
+     * Returns the constant pool index of the int {@code value}.
+     */
+    int integer(int value) {
+        String key = "I" + value;
+        int index = lookup(key);
+
+        if (index < 0) {
+            try {
+                pool.writeByte(INTEGER);
+                pool.writeInt(value);
+            } catch (IOException e) {
+                throw new IllegalStateException(e);
+            }
+            index = register(key);
+        }
+        return index;
+    }
+
+    /**
+     * Returns the constant pool index of the String constant {@code value}.
+     * <p>
+     * Requires: the modified UTF-8 encoding of {@code value} is at most 65535
+     * bytes long
+     */
+    int string(String value) {
+        return pair(STRING, utf8(value), -1);
+    }
+
+    /**
+     * Returns the constant pool index of the class {@code name}.
+     */
+    int classRef(String name) {
+        return pair(CLASS, utf8(name), -1);
+    }
+
+    /**
+     * Returns the constant pool index of the method {@code owner.name} with
+     * descriptor {@code descriptor}.
+     */
+    int methodRef(String owner, String name, String descriptor) {
+        return pair(METHODREF, classRef(owner),
+                pair(NAME_AND_TYPE, utf8(name), utf8(descriptor)));
+    }
+
+    /**
+     * Returns the constant pool index of the field {@code owner.name} with
+     * descriptor {@code descriptor}.
+     */
+    int fieldRef(String owner, String name, String descriptor) {
+        return pair(FIELDREF, classRef(owner),
+                pair(NAME_AND_TYPE, utf8(name), utf8(descriptor)));
+    }
+
+    // ------------------------------------------------------------------------
+    // MEMBERS
+    // ------------------------------------------------------------------------
+
+    /**
+     * Adds a field without an initial value.
+     *
+     * @param access
+     *            The access flags of the field.
+     * @param name
+     *            The name of the field.
+     * @param descriptor
+     *            The type descriptor of the field, e.g. {@code "[I"}.
+     */
+    void addField(int access, String name, String descriptor) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+
+        try {
+            out.writeShort(access);
+            out.writeShort(utf8(name));
+            out.writeShort(utf8(descriptor));
+            out.writeShort(0); // attributes
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+        fields.add(bytes.toByteArray());
+    }
+
+    /**
+     * Adds a method whose body has been assembled by {@code code}.
+     *
+     * @param access
+     *            The access flags of the method.
+     * @param name
+     *            The name of the method.
+     * @param descriptor
+     *            The method descriptor, e.g. {@code "([I)I"}.
+     * @param code
+     *            The body of the method.
+     */
+    void addMethod(int access, String name, String descriptor,
+            MethodWriter code) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        byte[] bytecode = code.toByteArray();
+
+        try {
+            out.writeShort(access);
+            out.writeShort(utf8(name));
+            out.writeShort(utf8(descriptor));
+            out.writeShort(1); // attributes
+            out.writeShort(utf8("Code"));
+            out.writeInt(12 + bytecode.length);
+            out.writeShort(code.maxStack);
+            out.writeShort(code.maxLocals);
+            out.writeInt(bytecode.length);
+            out.write(bytecode);
+            out.writeShort(0); // exception table
+            out.writeShort(0); // attributes
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+        methods.add(bytes.toByteArray());
+    }
+
+    /**
+     * Returns the finished class file.
+     */
+    byte[] toByteArray() {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+
+        try {
+            out.writeInt(0xCAFEBABE);
+            out.writeShort(0); // minor version
+            out.writeShort(49); // major version: Java 5
+            out.writeShort(poolCount);
+            poolBytes.writeTo(out);
+            out.writeShort(ACC_PUBLIC | ACC_FINAL | ACC_SUPER);
+            out.writeShort(thisClass);
+            out.writeShort(superClass);
+            out.writeShort(0); // interfaces
+            out.writeShort(fields.size());
+            for (byte[] field : fields) {
+                out.write(field);
+            }
+            out.writeShort(methods.size());
+            for (byte[] method : methods) {
+                out.write(method);
+            }
+            out.writeShort(0); // attributes
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+        return bytes.toByteArray();
+    }
+}
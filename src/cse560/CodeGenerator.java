@@ -0,0 +1,364 @@
+package cse560;
+
+/**
+ * Translates MMXI instructions into JVM bytecode for the compilers of this
+ * package. The generated code keeps the registers and the CCR in local
+ * variables and accesses everything else through a {@link JitRuntime}; how
+ * code leaves a block is up to the subclass.
+ * <p>
+ * The generated methods take the register array and the runtime as their
+ * parameters, so the local variables are laid out as follows:
+ * <ul>
+ * <li>0: {@code this}</li>
+ * <li>{@code R_ARRAY}: the register array</li>
+ * <li>{@code RT}: the runtime</li>
+ * <li>{@code R0} to {@code R0 + 7}: R0 to R7</li>
+ * <li>{@code CCR_LOCAL}: the ordinal of the CCR</li>
+ * <li>{@code TARGET}: a computed jump address</li>
+ * <li>{@code FIRST_FREE} and up: for use by subclasses</li>
+ * </ul>
+ *
+ * @author Igor Tolkachev
+ */
+abstract class CodeGenerator {
+    /** Internal name of JitRuntime. */
+    static final String RUNTIME = "cse560/JitRuntime";
+
+    /** Local variable holding the register array. */
+    static final int R_ARRAY = 1;
+
+    /** Local variable holding the JitRuntime. */
+    static final int RT = 2;
+
+    /** Local variable holding R0; R1 to R7 follow. */
+    static final int R0 = 3;
+
+    /** Local variable holding the ordinal of the CCR. */
+    static final int CCR_LOCAL = R0 + Interpreter.NUM_REGS;
+
+    /** Local variable holding a computed jump address. */
+    static final int TARGET = CCR_LOCAL + 1;
+
+    /** The first local variable not used by CodeGenerator. */
+    static final int FIRST_FREE = TARGET + 1;
+
+    /** The class being generated. */
+    final ClassFileWriter cf;
+
+    /** The method being generated. */
+    MethodWriter mw;
+
+    /**
+     * Initializes a generator for methods of {@code cf}.
+     */
+    CodeGenerator(ClassFileWriter cf) {
+        this.cf = cf;
+    }
+
+    // ------------------------------------------------------------------------
+    // SUBCLASS OPERATIONS
+    // ------------------------------------------------------------------------
+
+    /**
+     * Appends code that leaves the current block after {@code d}, the
+     * {@code count}th instruction of the block, and continues at {@code pc},
+     * or at the value of local variable {@code pcLocal} if {@code pc} is
+     * negative.
+     *
+     * @param d
+     *            The last instruction executed.
+     * @param count
+     *            The number of instructions of the block executed.
+     * @param pc
+     *            The PC to continue at, or -1.
+     * @param pcLocal
+     *            The local variable holding the PC if {@code pc} is -1.
+     * @param branchTaken
+     *            Whether {@code d} is a BRx that branched.
+     * @param codeChanged
+     *            True iff {@code d} overwrote compiled code.
+     */
+    abstract void exit(DecodedInstruction d, int count, int pc, int pcLocal,
+            boolean branchTaken, boolean codeChanged);
+
+    /**
+     * Appends code that loads the registers and the CCR from the register
+     * array and the runtime.
+     */
+    void prologue() {
+        for (int n = 0; n < Interpreter.NUM_REGS; ++n) {
+            mw.local(MethodWriter.ALOAD, R_ARRAY);
+            mw.iconst(n, cf);
+            mw.op(MethodWriter.IALOAD);
+            mw.local(MethodWriter.ISTORE, R0 + n);
+        }
+        mw.local(MethodWriter.ALOAD, RT);
+        callRuntime("ccr", "()I");
+        mw.local(MethodWriter.ISTORE, CCR_LOCAL);
+    }
+
+    /**
+     * Appends code that stores the registers in {@code mask}, where bit n
+     * stands for Rn, back into the register array.
+     */
+    void storeRegisters(int mask) {
+        for (int n = 0; n < Interpreter.NUM_REGS; ++n) {
+            if ((mask & (1 << n)) != 0) {
+                mw.local(MethodWriter.ALOAD, R_ARRAY);
+                mw.iconst(n, cf);
+                loadRegister(n);
+                mw.op(MethodWriter.IASTORE);
+            }
+        }
+    }
+
+    /**
+     * Appends a call to a JitRuntime operation whose arguments have been
+     * pushed.
+     */
+    void callRuntime(String name, String descriptor) {
+        mw.member(MethodWriter.INVOKEVIRTUAL,
+                cf.methodRef(RUNTIME, name, descriptor));
+    }
+
+    /**
+     * Returns whether {@code d} can be compiled, i.e. is not executed by the
+     * machine itself.
+     */
+    static boolean compilable(DecodedInstruction d) {
+        switch (d.opcode) {
+        case 15: // TRAP
+        case 8: // DBUG
+            return false;
+        case 14: // LEA
+        case 2: // LD
+        case 10: // LDI
+        case 3: // ST
+        case 11: // STI
+        case 0: // BRx
+        case 4: // JSR
+            return !d.wrapsPc && !d.crossesPage;
+        default:
+            return !d.wrapsPc;
+        }
+    }
+
+    /**
+     * Returns whether the compiled code of {@code d} always leaves its block.
+     */
+    static boolean jumps(DecodedInstruction d) {
+        switch (d.opcode) {
+        case 0: // BRx
+        case 4: // JSR
+        case 12: // JSRR
+        case 13: // RET
+            return true;
+        default:
+            return false;
+        }
+    }
+
+    /**
+     * Returns a mask of the registers {@code code} writes to, where bit n
+     * stands for Rn.
+     */
+    static int writtenRegisters(DecodedInstruction[] code) {
+        int mask = 0;
+
+        for (DecodedInstruction d : code) {
+            switch (d.opcode) {
+            case 9: case 1: case 5: case 14: case 2: case 10: case 6:
+                mask |= 1 << d.dr;
+                break;
+            case 4: case 12:
+                if (d.link) {
+                    mask |= 1 << 7;
+                }
+                break;
+            default:
+                break;
+            }
+        }
+        return mask;
+    }
+
+    // ------------------------------------------------------------------------
+    // PRIVATE OPERATIONS
+    // ------------------------------------------------------------------------
+
+    /**
+     * Appends code that pushes the value of Rn.
+     */
+    private void loadRegister(int n) {
+        mw.local(MethodWriter.ILOAD, R0 + n);
+    }
+
+    /**
+     * Appends code that pops a value into Rn.
+     */
+    private void storeRegister(int n) {
+        mw.local(MethodWriter.ISTORE, R0 + n);
+    }
+
+    /**
+     * Appends code that pops a value into Rn and sets the CCR accordingly.
+     */
+    private void storeResult(int n) {
+        mw.op(MethodWriter.DUP);
+        storeRegister(n);
+        mw.member(MethodWriter.INVOKESTATIC,
+                cf.methodRef(RUNTIME, "ccrOf", "(I)I"));
+        mw.local(MethodWriter.ISTORE, CCR_LOCAL);
+    }
+
+    /**
+     * Appends code that pushes {@code r[sr1] + index6}, wrapped to the
+     * address space.
+     */
+    private void baseOffset(DecodedInstruction d) {
+        loadRegister(d.sr1);
+        mw.iconst(d.index6, cf);
+        mw.op(MethodWriter.IADD);
+        mw.iconst(Memory.MAX_ADDR, cf);
+        mw.op(MethodWriter.IAND);
+    }
+
+    /**
+     * Appends code that stores the value pushed last into the address pushed
+     * before it, leaving the block after {@code d} if this overwrites
+     * compiled code.
+     */
+    private void store(DecodedInstruction d, int count) {
+        int next = mw.newLabel();
+
+        callRuntime("store", "(II)Z");
+        mw.jump(MethodWriter.IFNE, next);
+        exit(d, count, d.nextPc, 0, false, true);
+        mw.mark(next);
+    }
+
+    // ------------------------------------------------------------------------
+    // PUBLIC OPERATIONS
+    // ------------------------------------------------------------------------
+
+    /**
+     * Appends the code for {@code d}, the {@code count}th instruction of its
+     * block. If {@code jumps(d)}, the code leaves the block.
+     * <p>
+     * Requires: {@code compilable(d)}
+     */
+    void instruction(DecodedInstruction d, int count) {
+        switch (d.opcode) {
+        case 9: // **** NOT
+            loadRegister(d.sr1);
+            mw.iconst(Memory.MAX_VALUE, cf);
+            mw.op(MethodWriter.IXOR);
+            storeResult(d.dr);
+            break;
+        case 1: // **** ADD
+            mw.local(MethodWriter.ALOAD, RT);
+            loadRegister(d.sr1);
+            if (d.immediate) {
+                mw.iconst(d.imm5, cf);
+            } else {
+                loadRegister(d.sr2);
+            }
+            mw.iconst(d.addr, cf);
+            callRuntime("add", "(III)I");
+            storeResult(d.dr);
+            break;
+        case 5: // **** AND
+            loadRegister(d.sr1);
+            if (d.immediate) {
+                mw.iconst(d.imm5 & Memory.MAX_VALUE, cf);
+            } else {
+                loadRegister(d.sr2);
+            }
+            mw.op(MethodWriter.IAND);
+            storeResult(d.dr);
+            break;
+        case 14: // **** LEA
+            mw.iconst(d.pageAddress, cf);
+            storeResult(d.dr);
+            break;
+        case 2: // **** LD
+            mw.local(MethodWriter.ALOAD, RT);
+            mw.iconst(d.pageAddress, cf);
+            callRuntime("load", "(I)I");
+            storeResult(d.dr);
+            break;
+        case 10: // **** LDI
+            mw.local(MethodWriter.ALOAD, RT);
+            mw.local(MethodWriter.ALOAD, RT);
+            mw.iconst(d.pageAddress, cf);
+            callRuntime("load", "(I)I");
+            callRuntime("load", "(I)I");
+            storeResult(d.dr);
+            break;
+        case 6: // **** LDR
+            mw.local(MethodWriter.ALOAD, RT);
+            baseOffset(d);
+            callRuntime("load", "(I)I");
+            storeResult(d.dr);
+            break;
+        case 3: // **** ST
+            mw.local(MethodWriter.ALOAD, RT);
+            mw.iconst(d.pageAddress, cf);
+            loadRegister(d.dr);
+            store(d, count);
+            break;
+        case 11: // **** STI
+            mw.local(MethodWriter.ALOAD, RT);
+            mw.local(MethodWriter.ALOAD, RT);
+            mw.iconst(d.pageAddress, cf);
+            callRuntime("load", "(I)I");
+            loadRegister(d.dr);
+            store(d, count);
+            break;
+        case 7: // **** STR
+            mw.local(MethodWriter.ALOAD, RT);
+            baseOffset(d);
+            loadRegister(d.dr);
+            store(d, count);
+            break;
+        case 0: // **** BRx
+        {
+            int notTaken = mw.newLabel();
+
+            // (nzp & (N_BIT >> ccr)) != 0
+            mw.iconst(d.nzp, cf);
+            mw.iconst(DecodedInstruction.N_BIT, cf);
+            mw.local(MethodWriter.ILOAD, CCR_LOCAL);
+            mw.op(MethodWriter.ISHR);
+            mw.op(MethodWriter.IAND);
+            mw.jump(MethodWriter.IFEQ, notTaken);
+            exit(d, count, d.pageAddress, 0, true, false);
+            mw.mark(notTaken);
+            exit(d, count, d.nextPc, 0, false, false);
+            break;
+        }
+        case 4: // **** JSR
+            if (d.link) {
+                mw.iconst(d.nextPc, cf);
+                storeRegister(7);
+            }
+            exit(d, count, d.pageAddress, 0, false, false);
+            break;
+        case 12: // **** JSRR
+            // R7 is written before BaseR is read, as by the machine
+            if (d.link) {
+                mw.iconst(d.nextPc, cf);
+                storeRegister(7);
+            }
+            baseOffset(d);
+            mw.local(MethodWriter.ISTORE, TARGET);
+            exit(d, count, -1, TARGET, false, false);
+            break;
+        case 13: // **** RET
+            exit(d, count, -1, R0 + 7, false, false);
+            break;
+        default:
+            throw new IllegalArgumentException("Cannot compile " + d.opcode);
+        }
+    }
+}
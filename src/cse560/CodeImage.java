@@ -0,0 +1,156 @@
+package cse560;
+
+import java.io.File;
+import java.nio.ByteBuffer;
+
+/**
+ * A loaded MMXI program that any number of machines can run at once without
+ * loading it again. The image holds the pages of memory the loader wrote to,
+ * every word of them already decoded, and is immutable: a machine made by
+ * {@code newMachine} shares the image's pages and decodings by reference
+ * and, like a fork of a {@link PagedMemory}, only copies a page when the
+ * program writes to it. A thousand machines running the same program thus
+ * hold one copy of its code, and decode none of it themselves.
+ * <p>
+ * An image of a {@link MachineSnapshot} file holds the memory of the
+ * snapshot, and each of its machines resumes the run the snapshot was taken
+ * from, as a machine restored by {@link LoaderImp} does.
+ * <p>
+ * CodeImage objects are immutable, and {@code newMachine} may be called by
+ * many threads at once.
+ *
+ * @author Igor Tolkachev
+ */
+public final class CodeImage {
+    // ------------------------------------------------------------------------
+    // PRIVATE VARIABLES
+    // ------------------------------------------------------------------------
+
+    /** The segment that was loaded. */
+    private final LoadResult segment;
+
+    /** The snapshot that was restored, or null if a program was loaded. */
+    private final MachineSnapshot snapshot;
+
+    /** The words of the pages written to, or null for pages of zeros. */
+    private final char[][] pages = new char[Memory.PAGE_COUNT][];
+
+    /** The decodings of every word of {@code pages}. */
+    private final DecodedInstruction[][] decoded =
+            new DecodedInstruction[Memory.PAGE_COUNT][];
+
+    // -------------------------------------------------------------------------
+    // CONSTRUCTORS
+    // -------------------------------------------------------------------------
+
+    /**
+     * Initializes an image of the memory of {@code machine}, into which
+     * {@code segment} has just been loaded, or {@code snapshot} restored if
+     * it is not null, decoding every word of each page that is not all
+     * zeros.
+     */
+    private CodeImage(InterpreterImp machine, LoadResult segment,
+            MachineSnapshot snapshot) {
+        this.segment = segment;
+        this.snapshot = snapshot;
+        for (int n = 0; n < Memory.PAGE_COUNT; ++n) {
+            char[] page = new char[Memory.PAGE_SIZE];
+            boolean written = false;
+
+            for (int k = 0; k < Memory.PAGE_SIZE; ++k) {
+                page[k] = (char) machine.getMemory((n << Memory.OFFSET_LEN)
+                        + k);
+                written |= page[k] != 0;
+            }
+            if (!written) {
+                continue;
+            }
+            pages[n] = page;
+            decoded[n] = new DecodedInstruction[Memory.PAGE_SIZE];
+            for (int k = 0; k < Memory.PAGE_SIZE; ++k) {
+                decoded[n][k] = new DecodedInstruction(
+                        (n << Memory.OFFSET_LEN) + k, page[k]);
+            }
+        }
+    }
+
+    // -------------------------------------------------------------------------
+    // PUBLIC OPERATIONS
+    // -------------------------------------------------------------------------
+
+    /**
+     * Returns an image of the object file, binary image or snapshot
+     * {@code file}.
+     *
+     * @throws LoadException
+     *             if the file cannot be loaded, as by
+     *             {@link LoaderImp#load(File, InterpreterImp)}
+     */
+    public static CodeImage load(File file) {
+        return load(LoaderImp.contents(file));
+    }
+
+    /**
+     * Returns an image of the object file, binary image or snapshot in
+     * {@code contents}, from its position to its limit.
+     *
+     * @throws LoadException
+     *             if the contents cannot be loaded, as by
+     *             {@link LoaderImp#load(ByteBuffer, InterpreterImp)}
+     */
+    public static CodeImage load(ByteBuffer contents) {
+        InterpreterImp machine = new InterpreterImp(new PagedMemory());
+
+        if (MachineSnapshot.isSnapshot(contents)) {
+            MachineSnapshot snapshot = MachineSnapshot.read(contents);
+
+            snapshot.restore(machine);
+            return new CodeImage(machine, snapshot.getSegment(), snapshot);
+        }
+        return new CodeImage(machine, LoaderImp.load(contents, machine), null);
+    }
+
+    /**
+     * Returns the segment that was loaded.
+     */
+    public LoadResult getSegment() {
+        return segment;
+    }
+
+    /**
+     * Returns the number of pages of the image.
+     */
+    public int getPageCount() {
+        int count = 0;
+
+        for (int n = 0; n < Memory.PAGE_COUNT; ++n) {
+            if (pages[n] != null) {
+                ++count;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Returns a new machine with the program loaded, or the snapshot
+     * restored, as if by {@link LoaderImp}, and {@code traps} as its
+     * console. Its memory is a {@link PagedMemory} sharing the pages of this
+     * image.
+     *
+     * @param traps
+     *            The console of the machine.
+     * @return the machine, its PC at the execution address, or, for a
+     *         snapshot, in the state the snapshot was taken in
+     */
+    public InterpreterImp newMachine(TrapHandler traps) {
+        InterpreterImp machine = new InterpreterImp(new PagedMemory(pages),
+                new DecodeCache(decoded), traps);
+
+        if (snapshot != null) {
+            snapshot.restoreState(machine);
+        } else {
+            machine.setPC(segment.getEntry());
+        }
+        return machine;
+    }
+}
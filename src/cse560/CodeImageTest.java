@@ -0,0 +1,89 @@
+package cse560;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+import java.nio.ByteBuffer;
+
+import org.junit.Test;
+
+public final class CodeImageTest {
+
+    /**
+     * Adds 1 to R1, then branches back to the start.
+     */
+    private static final String LOOP = "HLOOP  30000002\n" + "T30001261\n"
+            + "T30010E00\n" + "E3000\n";
+
+    /** Returns an image of the object file {@code records}. */
+    private static CodeImage image(String records) throws Exception {
+        return CodeImage.load(ByteBuffer.wrap(records.getBytes("ISO-8859-1")));
+    }
+
+    /** Returns a console that reads and prints nothing. */
+    private static TrapHandler console() {
+        return new TrapHandlerImp(new StringBuilder(), "", 1);
+    }
+
+    /**
+     * A machine made from an image has the program loaded, its PC at the
+     * execution address, and decodes the same instructions as every other
+     * machine made from it.
+     */
+    @Test
+    public void newMachine() throws Exception {
+        CodeImage image = image(LOOP);
+        InterpreterImp first = image.newMachine(console());
+        InterpreterImp second = image.newMachine(console());
+
+        assertEquals("segment", "LOOP  ", image.getSegment()
+                .getSegmentName());
+        assertEquals("pages", 1, image.getPageCount());
+        assertEquals("PC", 0x3000, first.getPC());
+        assertEquals("code", 0x1261, first.getMemory(0x3000));
+        assertSame("shared decoding", first.decode(0x3000), second
+                .decode(0x3000));
+
+        first.run(5);
+        assertEquals("R1", 3, first.getRegister(1));
+        assertEquals("other machine untouched", 0, second.getRegister(1));
+    }
+
+    /**
+     * A machine that writes over the code of the image runs its own code,
+     * while other machines keep running the image's.
+     */
+    @Test
+    public void writeToCode() throws Exception {
+        CodeImage image = image(LOOP);
+        InterpreterImp patched = image.newMachine(console());
+        InterpreterImp other = image.newMachine(console());
+
+        patched.setMemory(0x3000, 0x1262); // ADD R1,R1,#2
+        patched.run(3);
+        other.run(3);
+        assertEquals("patched code", 4, patched.getRegister(1));
+        assertEquals("image code", 2, other.getRegister(1));
+        assertEquals("image unchanged", 0x1261, image.newMachine(console())
+                .getMemory(0x3000));
+    }
+
+    /**
+     * Sessions run from an image run as if they had loaded the program.
+     */
+    @Test
+    public void session() throws Exception {
+        CodeImage image = image(LOOP);
+
+        for (SimulationSession.Engine engine : SimulationSession.Engine
+                .values()) {
+            SimulationResult result = new SimulationSession.Builder().source(
+                    image).engine(engine).maxSteps(9).build().run();
+
+            assertEquals("reason", StopReason.BUDGET, result.getReason());
+            assertEquals("R1", 5, result.getRegister(1));
+            assertEquals("segment", "LOOP  ", result.getSegment()
+                    .getSegmentName());
+        }
+    }
+}
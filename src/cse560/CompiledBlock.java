@@ -0,0 +1,30 @@
+package cse560;
+
+/**
+ * A {@link BasicBlock} compiled to JVM bytecode by {@link BlockCompiler}.
+ * Subclasses are generated at run time, one per block, and hold the block's
+ * registers in local variables so that the JVM can compile the MMXI code
+ * like any other Java method.
+ * <p>
+ * This class and {@link JitRuntime} are public only because the generated
+ * subclasses are defined by their own class loaders, and so cannot see
+ * package-private members of this package.
+ *
+ * @author Igor Tolkachev
+ */
+public abstract class CompiledBlock {
+
+    /**
+     * Executes the block, starting at its first instruction, until it ends,
+     * jumps, or overwrites code. Before returning, the registers that were
+     * written are stored back into {@code r}, and {@code rt.exit} is called
+     * with the PC and CCR to continue with.
+     *
+     * @param r
+     *            The registers of the machine.
+     * @param rt
+     *            Access to the memory and state of the machine.
+     * @return the number of instructions executed
+     */
+    public abstract int execute(int[] r, JitRuntime rt);
+}
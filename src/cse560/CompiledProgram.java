@@ -0,0 +1,333 @@
+package cse560;
+
+import joptsimple.OptionException;
+import joptsimple.OptionParser;
+import joptsimple.OptionSet;
+
+/**
+ * An MMXI program translated ahead of time into a Java class by
+ * {@link Translator}. Subclasses are generated by {@link ProgramCompiler};
+ * they contain the program's memory image and its code, compiled into JVM
+ * bytecode, and a {@code main} method that runs the program like the
+ * Simulator does in quiet mode.
+ * <p>
+ * A CompiledProgram is an {@link Interpreter} whose state is kept by an
+ * {@link InterpreterImp}. Running it executes the compiled code wherever the
+ * PC is at the start of a translated block, and has the machine execute
+ * everything else: TRAP and DBUG instructions, instructions that print
+ * warnings about the PC, code that is only reached through JSRR or RET, and
+ * blocks whose code has been overwritten since the program was translated.
+ * While the machine has an {@link UndoJournal}, an {@link InputLog} or a
+ * {@link Breakpoint}, it executes everything.
+ * Consequently, running a CompiledProgram leaves it in exactly the state
+ * {@code InterpreterImp.run} would.
+ *
+ * @author Igor Tolkachev
+ */
+public abstract class CompiledProgram implements Interpreter {
+    /** Default limit on number of instructions executed by {@code main}. */
+    private static final long DEFAULT_MAX_STEPS = 1000;
+
+    // ------------------------------------------------------------------------
+    // PRIVATE VARIABLES
+    // ------------------------------------------------------------------------
+
+    /** The machine whose state the program runs against. */
+    private final InterpreterImp machine;
+
+    /** Which block start addresses must not be executed as compiled code. */
+    private final boolean[] stale = new boolean[Memory.MAX_ADDR + 1];
+
+    /** The length of the block starting at each address, or 0. */
+    private final byte[] blockLength = new byte[Memory.MAX_ADDR + 1];
+
+    /** Which addresses hold translated instructions. */
+    private final boolean[] translated = new boolean[Memory.MAX_ADDR + 1];
+
+    /** The memory image the program was translated from. */
+    private final char[] image = new char[Memory.MAX_ADDR + 1];
+
+    /** The operations the compiled code uses to access the machine. */
+    private final JitRuntime runtime;
+
+    // -------------------------------------------------------------------------
+    // CONSTRUCTORS
+    // -------------------------------------------------------------------------
+
+    /**
+     * Initializes the program with its memory image loaded and the PC at its
+     * entry point.
+     */
+    protected CompiledProgram() {
+        this.machine = new InterpreterImp();
+        this.runtime = new JitRuntime(machine, stale);
+        load();
+        machine.setWriteListener(new WriteListener() {
+            @Override
+            public void memoryWritten(int addr) {
+                invalidate(addr);
+            }
+        });
+    }
+
+    // -------------------------------------------------------------------------
+    // GENERATED OPERATIONS
+    // -------------------------------------------------------------------------
+
+    /**
+     * Returns the {@code chunk}th part of the image, or null if there are no
+     * more. The image is described by {@code ProgramCompiler.image}.
+     */
+    protected abstract String data(int chunk);
+
+    /**
+     * Executes compiled code from {@code rt.pc()} on, until the PC is not at
+     * the start of a translated block, a stale block is reached, compiled
+     * code is overwritten, or more than {@code rt.limit()} instructions have
+     * been executed. Before returning, the registers are stored back into
+     * {@code r} and the state to continue with is stored in {@code rt}.
+     *
+     * @param r
+     *            The registers of the machine.
+     * @param rt
+     *            Access to the memory and state of the machine.
+     * @return the number of instructions executed
+     */
+    public abstract int execute(int[] r, JitRuntime rt);
+
+    // -------------------------------------------------------------------------
+    // PRIVATE OPERATIONS
+    // -------------------------------------------------------------------------
+
+    /**
+     * Loads the image into the machine and records the blocks.
+     */
+    private void load() {
+        StringBuilder data = new StringBuilder();
+        String chunk;
+        int at = 0;
+
+        for (int i = 0; (chunk = data(i)) != null; ++i) {
+            data.append(chunk);
+        }
+
+        machine.setPC(data.charAt(at++));
+        while (true) {
+            int addr = data.charAt(at++), length = data.charAt(at++);
+
+            if (length == 0) {
+                break;
+            }
+            for (int k = 0; k < length; ++k) {
+                image[addr + k] = data.charAt(at++);
+                machine.setMemory(addr + k, image[addr + k]);
+            }
+        }
+        while (true) {
+            int start = data.charAt(at++), length = data.charAt(at++);
+
+            if (length == 0) {
+                break;
+            }
+            blockLength[start] = (byte) length;
+            for (int k = 0; k < length; ++k) {
+                translated[start + k] = true;
+            }
+        }
+    }
+
+    /**
+     * Marks every block whose code includes {@code addr} as stale.
+     *
+     * @param addr
+     *            The address that has been written to.
+     */
+    private void invalidate(int addr) {
+        if (!translated[addr]) {
+            return;
+        }
+        for (int start = Math.max(0, addr - BlockInterpreter.MAX_BLOCK_LEN + 1); start <= addr; ++start) {
+            if (start + blockLength[start] > addr) {
+                stale[start] = true;
+            }
+        }
+        runtime.codeChanged = true;
+    }
+
+    // -------------------------------------------------------------------------
+    // PUBLIC OPERATIONS
+    // -------------------------------------------------------------------------
+
+    /**
+     * Replaces the console used by the I/O trap routines with {@code traps}.
+     *
+     * @param traps
+     *            The new console.
+     */
+    public void setTrapHandler(TrapHandler traps) {
+        machine.setTrapHandler(traps);
+    }
+
+    /**
+     * Replaces the generator used by the RND trap routine with
+     * {@code random}.
+     *
+     * @param random
+     *            The new generator.
+     */
+    public void setRandom(MachineRandom random) {
+        machine.setRandom(random);
+    }
+
+    @Override
+    public void setMemory(int addr, int value) {
+        machine.setMemory(addr, value);
+    }
+
+    @Override
+    public int getMemory(int addr) {
+        return machine.getMemory(addr);
+    }
+
+    @Override
+    public int getPC() {
+        return machine.getPC();
+    }
+
+    @Override
+    public void setPC(int value) {
+        machine.setPC(value);
+    }
+
+    @Override
+    public CCR getCCR() {
+        return machine.getCCR();
+    }
+
+    @Override
+    public int getRegister(int n) {
+        return machine.getRegister(n);
+    }
+
+    @Override
+    public String getLastInstruction() {
+        return machine.getLastInstruction();
+    }
+
+    @Override
+    public boolean isHalted() {
+        return machine.isHalted();
+    }
+
+    @Override
+    public void step() {
+        machine.step();
+    }
+
+    @Override
+    public RunResult run(long budget) {
+        final int maxBlockLen = BlockInterpreter.MAX_BLOCK_LEN;
+        int[] r = machine.registers();
+        long steps = 0;
+
+        if (machine.isHalted()) {
+            return new RunResult(StopReason.HALT, 0);
+        }
+        if (machine.observesEveryInstruction()) {
+            return machine.run(budget);
+        }
+
+        while (steps < budget) {
+            long remaining = budget - steps;
+
+            // Compiled code only checks its budget between blocks, so leave
+            // room for one more block.
+            if (remaining > maxBlockLen) {
+                runtime.pc = machine.getPC() & Memory.MAX_ADDR;
+                runtime.ccr = machine.getCCR();
+                runtime.limit = (int) Math.min(remaining - maxBlockLen,
+                        Integer.MAX_VALUE - maxBlockLen);
+                runtime.codeChanged = false;
+
+                int executed = execute(r, runtime);
+
+                if (executed > 0) {
+                    machine.setPC(runtime.pc);
+                    machine.restoreCCR(runtime.ccr);
+                    machine.setLastInstruction(runtime.lastAddr,
+                            image[runtime.lastAddr], runtime.branchTaken);
+                    steps += executed;
+                    continue;
+                }
+            }
+
+            // Not at a translated block: have the machine execute one
+            // instruction, or whatever is left of the budget.
+            RunResult result = machine.run(remaining > maxBlockLen ? 1
+                    : remaining);
+
+            steps += result.getSteps();
+            if (result.getReason() != StopReason.BUDGET) {
+                return new RunResult(result.getReason(), steps);
+            }
+        }
+        return new RunResult(StopReason.BUDGET, steps);
+    }
+
+    // -------------------------------------------------------------------------
+    // MAIN
+    // -------------------------------------------------------------------------
+
+    /**
+     * Runs {@code program} until it halts or has executed the maximum number
+     * of instructions, printing the machine state at each DBUG instruction.
+     * The command-line options are {@code -M N}, which sets the maximum
+     * number of instructions, and {@code -r seed}, which seeds the RND trap
+     * routine, as for the Simulator.
+     *
+     * @param program
+     *            The program to run.
+     * @param args
+     *            Command-line arguments.
+     */
+    public static void main(CompiledProgram program, String[] args) {
+        long maxSteps = DEFAULT_MAX_STEPS;
+        long stepCount = 0;
+
+        try {
+            OptionSet options = new OptionParser("M:r:").parse(args);
+
+            if (options.has("M")) {
+                maxSteps = Long.parseLong((String) options.valueOf("M"));
+            }
+            if (options.has("r")) {
+                program.setRandom(new MachineRandom(Long
+                        .parseLong((String) options.valueOf("r"))));
+            }
+        } catch (OptionException e) {
+            System.out.println("Usage: java <program> [-M N] [-r seed]");
+            System.exit(1);
+        } catch (NumberFormatException e) {
+            System.out.println("Usage: java <program> [-M N] [-r seed]");
+            System.exit(1);
+        }
+
+        // The machine state and the error go through the program's console,
+        // so that they appear in order with the program's own output.
+        TrapHandler console = program.machine.getTrapHandler();
+
+        while (!program.isHalted() && stepCount < maxSteps) {
+            RunResult result = program.run(maxSteps - stepCount);
+
+            stepCount += result.getSteps();
+            if (result.getReason() == StopReason.DBUG) {
+                console.print(Simulator.formatState(program));
+            }
+        }
+
+        if (stepCount >= maxSteps) {
+            console.print("Error 204: Maximum instruction count reached.\n");
+        }
+        console.flush();
+    }
+}
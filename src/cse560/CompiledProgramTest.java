@@ -0,0 +1,217 @@
+package cse560;
+
+import static cse560.EngineAssert.runAndCompare;
+import static org.junit.Assert.assertEquals;
+
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.Test;
+
+public class CompiledProgramTest {
+
+	/**
+	 * Defines translated classes.
+	 */
+	private static final class Loader extends ClassLoader {
+		Loader()
+		{
+			super(CompiledProgram.class.getClassLoader());
+		}
+
+		Class<?> define(String name, byte[] bytes)
+		{
+			return defineClass(name, bytes, 0, bytes.length);
+		}
+	}
+
+	/**
+	 * Translates the program loaded into {@code machine} and returns a new
+	 * instance of it.
+	 */
+	private static CompiledProgram translate(InterpreterImp machine)
+			throws Exception
+	{
+		byte[] bytes = new ProgramCompiler("test.Program", machine,
+				machine.getPC()).toByteArray();
+
+		return (CompiledProgram) new Loader().define("test.Program", bytes)
+				.newInstance();
+	}
+
+	/**
+	 * Returns a machine with {@code program} loaded at {@code start} and the
+	 * PC pointing to it.
+	 */
+	private static InterpreterImp load(int start, int[] program)
+	{
+		InterpreterImp machine = new InterpreterImp();
+
+		EngineAssert.load(start, program, machine);
+		return machine;
+	}
+
+	/**
+	 * A counting loop with a subroutine call gives the same results as
+	 * InterpreterImp, whether run in one go or with small budgets.
+	 */
+	@Test
+	public void loopWithSubroutine() throws Exception
+	{
+		int[] program = {
+				0x5020, // x3000 AND R0,R0,#0
+				0x1025, // x3001 ADD R0,R0,#5
+				0x5260, // x3002 AND R1,R1,#0
+				0x4808, // x3003 JSR 1,x3008
+				0x103F, // x3004 ADD R0,R0,#-1
+				0x0203, // x3005 BRp x3003
+				0x3210, // x3006 ST R1,x3010
+				0xF025, // x3007 TRAP x25
+				0x1262, // x3008 ADD R1,R1,#2
+				0x7441, // x3009 STR R2,R1,#1
+				0xD000, // x300A RET
+		};
+
+		for (long budget = 1; budget < 100; budget += 7) {
+			Interpreter expected = load(0x3000, program);
+			Interpreter actual = translate(load(0x3000, program));
+
+			while (!expected.isHalted()) {
+				runAndCompare(expected, actual, budget);
+			}
+		}
+
+		Interpreter expected = load(0x3000, program);
+		Interpreter actual = translate(load(0x3000, program));
+
+		runAndCompare(expected, actual, 1000);
+		assertEquals("R1 = 10", 10, actual.getRegister(1));
+	}
+
+	/**
+	 * A program that overwrites its own code executes the new code.
+	 */
+	@Test
+	public void selfModifyingCode() throws Exception
+	{
+		int[] program = {
+				0x5020, // x0000 AND R0,R0,#0
+				0x2206, // x0001 LD R1,x0006
+				0x3203, // x0002 ST R1,x0003
+				0x1021, // x0003 ADD R0,R0,#1 (becomes ADD R0,R0,#7)
+				0x0E05, // x0004 BRnzp x0005
+				0xF025, // x0005 TRAP x25
+				0x1027, // x0006 ADD R0,R0,#7
+		};
+		Interpreter expected = load(0, program);
+		Interpreter actual = translate(load(0, program));
+
+		runAndCompare(expected, actual, 1000);
+		assertEquals("R0 = 7", 7, actual.getRegister(0));
+	}
+
+	/**
+	 * Code that is only reached through JSRR is executed by the machine, and
+	 * translated code is entered again after it returns.
+	 */
+	@Test
+	public void indirectJump() throws Exception
+	{
+		int[] program = {
+				0xE20A, // x3000 LEA R1,x300A
+				0x5020, // x3001 AND R0,R0,#0
+				0x1023, // x3002 ADD R0,R0,#3
+				0xC840, // x3003 JSRR 1,R1,#0
+				0x103F, // x3004 ADD R0,R0,#-1
+				0x0203, // x3005 BRp x3003
+				0xF025, // x3006 TRAP x25
+				0x0000,
+				0x0000,
+				0x0000,
+				0x14A3, // x300A ADD R2,R2,#3
+				0xD000, // x300B RET
+		};
+
+		for (long budget = 1; budget < 100; budget += 3) {
+			Interpreter expected = load(0x3000, program);
+			Interpreter actual = translate(load(0x3000, program));
+
+			while (!expected.isHalted()) {
+				runAndCompare(expected, actual, budget);
+			}
+			assertEquals("R2 = 9", 9, actual.getRegister(2));
+		}
+	}
+
+	/**
+	 * A memory full of conditional branches, each of which is reached from
+	 * the one before it and, at the start of a page, from every other branch
+	 * on the page, is translated and runs as on the machine.
+	 */
+	@Test
+	public void branchesEverywhere() throws Exception
+	{
+		int[] program = new int[Memory.MAX_ADDR + 1];
+
+		Arrays.fill(program, 0x0800); // BRn to the start of the page
+		Interpreter expected = load(0, program);
+		Interpreter actual = translate(load(0, program));
+
+		runAndCompare(expected, actual, 200000);
+	}
+
+	/**
+	 * Random programs give the same results as InterpreterImp. TRAP and DBUG
+	 * instructions are replaced by ADDs, since they would wait for input or
+	 * print. In every other program, so are JSRR and RET, so that most of the
+	 * program is reachable by static flow of control and gets translated.
+	 */
+	@Test
+	public void randomPrograms() throws Exception
+	{
+		Random generator = new Random(560);
+		PrintStream out = System.out;
+
+		// The programs overflow a lot, so discard the warnings.
+		System.setOut(new PrintStream(new OutputStream() {
+			@Override
+			public void write(int b) {
+				// Do nothing.
+			}
+		}));
+		try {
+			for (int program = 0; program < 6; ++program) {
+				InterpreterImp expected = new InterpreterImp();
+				InterpreterImp original = new InterpreterImp();
+
+				for (int addr = 0; addr <= Memory.MAX_ADDR; ++addr) {
+					int word = generator.nextInt(Memory.MAX_VALUE + 1);
+
+					if ((word >> 12) == 15 || (word >> 12) == 8) {
+						word = 0x1000 | (word & 0x0FFF);
+					} else if (program % 2 == 1
+							&& ((word >> 12) == 12 || (word >> 12) == 13)) {
+						word = 0x1000 | (word & 0x0FFF);
+					}
+					expected.setMemory(addr, word);
+					original.setMemory(addr, word);
+				}
+
+				int entry = generator.nextInt(Memory.MAX_ADDR + 1);
+
+				expected.setPC(entry);
+				original.setPC(entry);
+
+				Interpreter actual = translate(original);
+
+				for (int run = 0; run < 20; ++run) {
+					runAndCompare(expected, actual, generator.nextInt(5000));
+				}
+			}
+		} finally {
+			System.setOut(out);
+		}
+	}
+}
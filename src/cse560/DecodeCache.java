@@ -0,0 +1,157 @@
+package cse560;
+
+/**
+ * Caches the {@link DecodedInstruction} for each address of memory, so that an
+ * instruction executed repeatedly is only decoded once. The cache is split
+ * into the same pages as {@link Memory}; a page's table is only allocated once
+ * an instruction on it is decoded.
+ * <p>
+ * The tables of a page may be shared between caches, by {@code copy} or by a
+ * {@link CodeImage}. A shared table is never written to: a cache that needs
+ * to change it copies it first, and keeps the copy to itself.
+ * <p>
+ * The cache does not observe memory by itself. Whoever writes to memory must
+ * call {@code invalidate} for the written address, otherwise the stale
+ * decoding would be executed.
+ * <p>
+ * Convention: for all {@code addr}, if an entry for {@code addr} is present,
+ * it is the decoding of {@code M[addr]}.
+ *
+ * @author Igor Tolkachev
+ */
+final class DecodeCache {
+    /** Decoded instructions, indexed by page number and then by offset. */
+    private final DecodedInstruction[][] pages =
+            new DecodedInstruction[Memory.PAGE_COUNT][];
+
+    /** Whether each table may be shared with another cache. */
+    private final boolean[] shared = new boolean[Memory.PAGE_COUNT];
+
+    /**
+     * Initializes an empty cache.
+     */
+    DecodeCache() {
+    }
+
+    /**
+     * Initializes a cache that shares the non-null tables of {@code tables},
+     * indexed by page number.
+     * <p>
+     * Requires: every entry of {@code tables[n]} is null or the decoding of
+     * the corresponding word of the memory this cache is for
+     */
+    DecodeCache(DecodedInstruction[][] tables) {
+        for (int n = 0; n < pages.length; ++n) {
+            if (tables[n] != null) {
+                pages[n] = tables[n];
+                shared[n] = true;
+            }
+        }
+    }
+
+    /**
+     * Returns the table of page {@code n}, allocating it if need be and
+     * copying it if it may be shared, so that it can be written to.
+     */
+    private DecodedInstruction[] writableTable(int n) {
+        DecodedInstruction[] page = pages[n];
+
+        if (page == null) {
+            page = new DecodedInstruction[Memory.PAGE_SIZE];
+            pages[n] = page;
+        } else if (shared[n]) {
+            page = page.clone();
+            pages[n] = page;
+            shared[n] = false;
+        }
+        return page;
+    }
+
+    /**
+     * Returns the decoding of {@code M[addr]}, decoding and caching it first if
+     * necessary.
+     * <p>
+     * Requires: {@code 0 <= addr <= MAX_ADDR}
+     *
+     * @param memory
+     *            The memory the instruction is fetched from.
+     * @param addr
+     *            The address of the instruction.
+     * @return the decoding of {@code M[addr]}
+     */
+    DecodedInstruction fetch(Memory memory, int addr) {
+        DecodedInstruction[] page = pages[addr >> Memory.OFFSET_LEN];
+        DecodedInstruction decoded = page == null ? null : page[addr
+                & (Memory.PAGE_SIZE - 1)];
+
+        if (decoded == null) {
+            decoded = new DecodedInstruction(addr, memory.get(addr));
+            writableTable(addr >> Memory.OFFSET_LEN)[addr
+                    & (Memory.PAGE_SIZE - 1)] = decoded;
+        }
+        return decoded;
+    }
+
+    /**
+     * Discards the cached decoding of {@code M[addr]}, if any.
+     *
+     * @param addr
+     *            The address that has been written to.
+     */
+    void invalidate(int addr) {
+        int n = (addr & Memory.MAX_ADDR) >> Memory.OFFSET_LEN;
+        DecodedInstruction[] page = pages[n];
+
+        if (page != null && page[addr & (Memory.PAGE_SIZE - 1)] != null) {
+            writableTable(n)[addr & (Memory.PAGE_SIZE - 1)] = null;
+        }
+    }
+
+    /**
+     * Discards the cached decodings of {@code M[addr, addr+length)}, if any.
+     * Pages that are written as a whole are dropped along with their tables.
+     * <p>
+     * Requires: {@code 0 <= addr} and {@code addr + length <= MAX_ADDR + 1}
+     *
+     * @param addr
+     *            The first address that has been written to.
+     * @param length
+     *            The number of words written.
+     */
+    void invalidate(int addr, int length) {
+        int end = addr + length;
+
+        while (addr < end) {
+            int pageEnd = Math.min(end, (addr | (Memory.PAGE_SIZE - 1)) + 1);
+
+            if ((addr & (Memory.PAGE_SIZE - 1)) == 0
+                    && pageEnd - addr == Memory.PAGE_SIZE) {
+                pages[addr >> Memory.OFFSET_LEN] = null;
+                shared[addr >> Memory.OFFSET_LEN] = false;
+            } else {
+                for (int a = addr; a < pageEnd; ++a) {
+                    invalidate(a);
+                }
+            }
+            addr = pageEnd;
+        }
+    }
+
+    /**
+     * Returns a cache holding the same decodings as this one, for a copy of
+     * the memory this cache is for. The two caches share their tables until
+     * either changes them.
+     * <p>
+     * Requires: this cache is not used by another thread
+     *
+     * @return the copy
+     */
+    DecodeCache copy() {
+        for (int n = 0; n < pages.length; ++n) {
+            if (pages[n] != null) {
+                shared[n] = true;
+            }
+        }
+        return new DecodeCache(pages);
+    }
+}
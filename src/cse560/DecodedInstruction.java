@@ -0,0 +1,121 @@
+package cse560;
+
+/**
+ * An MMXI instruction word that has been split into its fields once, so that
+ * executing it again does not require repeated bit extraction. Every field an
+ * instruction could use is decoded eagerly; fields that are meaningless for a
+ * given opcode simply go unused.
+ * <p>
+ * Since the page-relative address formed from {@code pgoffset9} depends only
+ * on the address of the instruction, it is also computed here, together with
+ * whether forming it crosses a page boundary (warning 050) and whether
+ * fetching the instruction wraps the PC around the end of memory (warning
+ * 051).
+ * <p>
+ * Instances are immutable, and so may be shared freely.
+ *
+ * @author Igor Tolkachev
+ */
+final class DecodedInstruction {
+    /** Bit of {@code nzp} corresponding to CCR.N. */
+    static final int N_BIT = 4;
+
+    /** Bit of {@code nzp} corresponding to CCR.Z. */
+    static final int Z_BIT = 2;
+
+    /** Bit of {@code nzp} corresponding to CCR.P. */
+    static final int P_BIT = 1;
+
+    /** Address the instruction was fetched from. */
+    final int addr;
+
+    /** The raw instruction word. */
+    final int word;
+
+    /** Bits 15:12, the opcode. */
+    final int opcode;
+
+    /** Bits 11:9, the DR of data instructions or the SR of stores. */
+    final int dr;
+
+    /** Bits 8:6, the SR1 of data instructions or the BaseR. */
+    final int sr1;
+
+    /** Bits 2:0, the SR2 of data instructions. */
+    final int sr2;
+
+    /** Bit 5, set iff a data instruction uses imm5 instead of SR2. */
+    final boolean immediate;
+
+    /** Bits 4:0, sign extended to 32 bits. */
+    final int imm5;
+
+    /** Bits 5:0, the unsigned index6 of LDR/STR/JSRR. */
+    final int index6;
+
+    /** Bits 7:0, the trap vector. */
+    final int trapvect8;
+
+    /** Bit 11, the link bit of JSR/JSRR. */
+    final boolean link;
+
+    /** Bits 11:9 as a mask of {@code N_BIT}, {@code Z_BIT} and {@code P_BIT}. */
+    final int nzp;
+
+    /** The value of the PC after this instruction is fetched. */
+    final int nextPc;
+
+    /** True iff fetching this instruction runs the PC past MAX_ADDR. */
+    final boolean wrapsPc;
+
+    /** {@code nextPc[15:9]} concatenated with bits 8:0. */
+    final int pageAddress;
+
+    /** True iff {@code pageAddress} is on a different page than {@code addr}. */
+    final boolean crossesPage;
+
+    /**
+     * Decodes {@code word}, as fetched from {@code addr}.
+     * <p>
+     * Requires: {@code 0 <= addr <= MAX_ADDR}
+     *
+     * @param addr
+     *            The address the instruction was fetched from.
+     * @param word
+     *            The instruction word at {@code addr}.
+     */
+    DecodedInstruction(int addr, int word) {
+        final int pageMask = Memory.MAX_ADDR & ~(Memory.PAGE_SIZE - 1);
+
+        this.addr = addr;
+        this.word = word;
+        this.opcode = (word >> 12) & 0xF;
+        this.dr = (word >> 9) & 0x7;
+        this.sr1 = (word >> 6) & 0x7;
+        this.sr2 = word & 0x7;
+        this.immediate = ((word >> 5) & 0x1) == 1;
+        this.imm5 = (word << 27) >> 27;
+        this.index6 = word & 0x3F;
+        this.trapvect8 = word & 0xFF;
+        this.link = ((word >> 11) & 0x1) == 1;
+        this.nzp = this.dr;
+
+        this.wrapsPc = addr == Memory.MAX_ADDR;
+        this.nextPc = (addr + 1) & Memory.MAX_ADDR;
+        this.pageAddress = (this.nextPc & pageMask) + (word & 0x1FF);
+        this.crossesPage = (this.nextPc & pageMask) != (addr & pageMask);
+    }
+
+    /**
+     * Returns whether a branch on {@code nzp} is taken when the CCR is
+     * {@code ccr}.
+     *
+     * @param ccr
+     *            The current value of the CCR.
+     * @return true iff the bit of {@code nzp} for {@code ccr} is set
+     */
+    boolean branchTaken(CCR ccr) {
+        // CCR declares N, Z and P in the same order as the bits of nzp.
+        return (nzp & (N_BIT >> ccr.ordinal())) != 0;
+    }
+}
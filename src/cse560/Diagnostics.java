@@ -0,0 +1,61 @@
+package cse560;
+
+import java.io.PrintStream;
+
+/**
+ * Receives the warnings an MMXI machine reports while it executes, i.e.
+ * warnings 050, 051 and 052. Warnings are reported from inside the execution
+ * loop, so implementations should do as little as possible for each one and
+ * leave the expensive work, such as printing, to {@code printSummary}.
+ *
+ * @author Igor Tolkachev
+ */
+public interface Diagnostics {
+    /**
+     * Warning 050: an instruction at the last address of a page forms an
+     * address on the next page.
+     */
+    int PAGE_BOUNDARY = 50;
+
+    /** Warning 051: the PC wrapped around from the last address to 0. */
+    int PC_WRAP = 51;
+
+    /** Warning 052: an ADD overflowed. */
+    int OVERFLOW = 52;
+
+    /** The largest warning code. */
+    int MAX_CODE = 99;
+
+    /**
+     * Reports warning {@code code} for the instruction at {@code addr}.
+     * <p>
+     * Requires: {@code 0 <= code <= MAX_CODE} and
+     * {@code 0 <= addr <= Memory.MAX_ADDR}
+     *
+     * @param code
+     *            The number of the warning.
+     * @param addr
+     *            The address of the instruction that caused it.
+     */
+    void warn(int code, int addr);
+
+    /**
+     * Returns the number of times warning {@code code} has been reported.
+     */
+    long getCount(int code);
+
+    /**
+     * Returns the number of times warning {@code code} has been reported for
+     * the instruction at {@code addr}.
+     */
+    long getCount(int code, int addr);
+
+    /**
+     * Prints how often each warning has been reported, and where, to
+     * {@code out}. Prints nothing if no warnings have been reported.
+     *
+     * @param out
+     *            Where to print the summary.
+     */
+    void printSummary(PrintStream out);
+}
@@ -0,0 +1,149 @@
+package cse560;
+
+import java.io.PrintStream;
+
+/**
+ * Provides an implementation of the Diagnostics interface that counts the
+ * warnings of each code, in total and for each instruction address, and
+ * prints the first few of each code as they are reported.
+ * <p>
+ * Reporting a warning that is not printed costs two counter increments, so
+ * a machine executing a loop that overflows on every iteration runs at full
+ * speed once the limit has been reached. The counters for instruction
+ * addresses are only allocated for codes that are actually reported.
+ *
+ * @author Igor Tolkachev
+ */
+public final class DiagnosticsImp implements Diagnostics {
+    /** Print every warning. */
+    public static final long UNLIMITED = Long.MAX_VALUE;
+
+    /** The number of addresses listed for each code by the summary. */
+    private static final int SUMMARY_ADDRS = 5;
+
+    // ------------------------------------------------------------------------
+    // PRIVATE VARIABLES
+    // ------------------------------------------------------------------------
+
+    /** The console warnings are printed to, or null. */
+    private final TrapHandler log;
+
+    /** The number of warnings of each code to print. */
+    private final long logLimit;
+
+    /** The number of warnings of each code. */
+    private final long[] counts = new long[MAX_CODE + 1];
+
+    /** The number of warnings of each code for each address, or null. */
+    private final int[][] addrCounts = new int[MAX_CODE + 1][];
+
+    // -------------------------------------------------------------------------
+    // CONSTRUCTORS
+    // -------------------------------------------------------------------------
+
+    /**
+     * Initializes a new sink.
+     *
+     * @param log
+     *            The console to print warnings to as they are reported, so
+     *            that they appear in order with the output of the program,
+     *            or null to only count them.
+     * @param logLimit
+     *            The number of warnings of each code to print; later ones
+     *            are only counted. {@code UNLIMITED} prints all of them.
+     */
+    public DiagnosticsImp(TrapHandler log, long logLimit) {
+        this.log = log;
+        this.logLimit = logLimit;
+    }
+
+    // -------------------------------------------------------------------------
+    // PRIVATE OPERATIONS
+    // -------------------------------------------------------------------------
+
+    /**
+     * Returns the message of warning {@code code}.
+     */
+    static String message(int code) {
+        switch (code) {
+        case PAGE_BOUNDARY:
+            return "Warning 050: Current instruction is at last address of "
+                    + "the current memory page. Address formed from operand "
+                    + "is on the next page.";
+        case PC_WRAP:
+            return "Warning 051: Maximum address exceeded. Resetting PC to 0.";
+        case OVERFLOW:
+            return "Warning 052: Overflow during addition.";
+        default:
+            return String.format("Warning %03d.", code);
+        }
+    }
+
+    // -------------------------------------------------------------------------
+    // PUBLIC OPERATIONS
+    // -------------------------------------------------------------------------
+
+    @Override
+    public void warn(int code, int addr) {
+        int[] perAddr = addrCounts[code];
+
+        if (perAddr == null) {
+            perAddr = addrCounts[code] = new int[Memory.MAX_ADDR + 1];
+        }
+        ++perAddr[addr];
+        if (++counts[code] <= logLimit && log != null) {
+            log.print(message(code) + "\n");
+        }
+    }
+
+    @Override
+    public long getCount(int code) {
+        return counts[code];
+    }
+
+    @Override
+    public long getCount(int code, int addr) {
+        return addrCounts[code] == null ? 0 : addrCounts[code][addr];
+    }
+
+    @Override
+    public void printSummary(PrintStream out) {
+        for (int code = 0; code <= MAX_CODE; ++code) {
+            if (counts[code] == 0) {
+                continue;
+            }
+            out.printf("Warning %03d reported %d times", code, counts[code]);
+            if (counts[code] > logLimit) {
+                out.printf(" (%d not shown)", counts[code] - logLimit);
+            }
+            out.println(":");
+
+            // List the addresses with the most warnings, most first.
+            int[] perAddr = addrCounts[code];
+            int[] top = new int[SUMMARY_ADDRS];
+            int found = 0;
+
+            for (int addr = 0; addr <= Memory.MAX_ADDR; ++addr) {
+                if (perAddr[addr] == 0) {
+                    continue;
+                }
+                int k = Math.min(found, SUMMARY_ADDRS - 1);
+
+                if (found == SUMMARY_ADDRS
+                        && perAddr[top[k]] >= perAddr[addr]) {
+                    continue;
+                }
+                while (k > 0 && perAddr[top[k - 1]] < perAddr[addr]) {
+                    top[k] = top[k - 1];
+                    --k;
+                }
+                top[k] = addr;
+                found = Math.min(found + 1, SUMMARY_ADDRS);
+            }
+            for (int k = 0; k < found; ++k) {
+                out.printf("    at x%04X: %d times\n", top[k],
+                        perAddr[top[k]]);
+            }
+        }
+    }
+}
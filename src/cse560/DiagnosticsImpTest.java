@@ -0,0 +1,145 @@
+package cse560;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+
+import org.junit.Test;
+
+public final class DiagnosticsImpTest {
+
+    /**
+     * A loop that overflows on each of its 10 iterations.
+     */
+    private static final int[] OVERFLOW_LOOP = {
+            0x5020, // x3000 AND R0,R0,#0
+            0x102A, // x3001 ADD R0,R0,#10
+            0xE208, // x3002 LEA R1,x3008
+            0x6240, // x3003 LDR R1,R1,#0
+            0x1261, // x3004 ADD R1,R1,#1 (x7FFF + 1 overflows)
+            0x103F, // x3005 ADD R0,R0,#-1
+            0x0202, // x3006 BRp x3002
+            0xF025, // x3007 TRAP x25
+            0x7FFF, // x3008
+    };
+
+    /**
+     * Runs {@link #OVERFLOW_LOOP} on {@code engine}, an engine running
+     * {@code machine}, with warnings counted but not printed.
+     */
+    private static Diagnostics runLoop(InterpreterImp machine,
+            Interpreter engine) {
+        Diagnostics diagnostics = new DiagnosticsImp(null, 0);
+
+        machine.setDiagnostics(diagnostics);
+        machine.setTrapHandler(new TrapHandlerImp(new StringBuilder(), "", 1));
+        EngineAssert.load(0x3000, OVERFLOW_LOOP, machine);
+        engine.run(1000);
+        assertTrue("halted", engine.isHalted());
+        return diagnostics;
+    }
+
+    // -----------------------------------------------------------------------
+    // Testing counting and logging.
+    // -----------------------------------------------------------------------
+
+    /**
+     * Warnings are counted per code and per address, and only the first
+     * ones of each code are printed.
+     */
+    @Test
+    public void countsAndLimit() {
+        StringBuilder out = new StringBuilder();
+        TrapHandler log = new TrapHandlerImp(out, "",
+                TrapHandlerImp.DEFAULT_BUFFER_SIZE);
+        Diagnostics diagnostics = new DiagnosticsImp(log, 2);
+
+        for (int k = 0; k < 5; ++k) {
+            diagnostics.warn(Diagnostics.OVERFLOW, 0x3004);
+        }
+        diagnostics.warn(Diagnostics.OVERFLOW, 0x3010);
+        diagnostics.warn(Diagnostics.PC_WRAP, Memory.MAX_ADDR);
+        log.flush();
+
+        assertEquals("052 count", 6, diagnostics.getCount(Diagnostics.OVERFLOW));
+        assertEquals("052 count at x3004", 5,
+                diagnostics.getCount(Diagnostics.OVERFLOW, 0x3004));
+        assertEquals("051 count", 1, diagnostics.getCount(Diagnostics.PC_WRAP));
+        assertEquals("050 count", 0,
+                diagnostics.getCount(Diagnostics.PAGE_BOUNDARY, 0x3004));
+        assertEquals("printed", "Warning 052: Overflow during addition.\n"
+                + "Warning 052: Overflow during addition.\n"
+                + "Warning 051: Maximum address exceeded. Resetting PC to 0.\n",
+                out.toString());
+    }
+
+    /**
+     * By default, a machine prints warnings through its console, so they
+     * appear where they were reported in the program's buffered output.
+     */
+    @Test
+    public void printedInOrder() {
+        StringBuilder out = new StringBuilder();
+        InterpreterImp machine = EngineAssert.load(new int[] {
+                0x2006, // x3000 LD R0,x3006
+                0xF021, // x3001 TRAP x21
+                0x2207, // x3002 LD R1,x3007
+                0x1261, // x3003 ADD R1,R1,#1 (x7FFF + 1 overflows)
+                0xF021, // x3004 TRAP x21
+                0xF025, // x3005 TRAP x25
+                0x0041, // x3006 'A'
+                0x7FFF, // x3007
+        }, new TrapHandlerImp(out, "", TrapHandlerImp.DEFAULT_BUFFER_SIZE));
+
+        machine.run(100);
+        assertEquals("output", "AWarning 052: Overflow during addition.\n"
+                + "A\nExecution halted.\n", out.toString());
+    }
+
+    /**
+     * The summary lists the counts of each code and the addresses with the
+     * most warnings first.
+     */
+    @Test
+    public void summary() {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        Diagnostics diagnostics = new DiagnosticsImp(null, 0);
+
+        diagnostics.warn(Diagnostics.OVERFLOW, 0x0001);
+        for (int k = 0; k < 3; ++k) {
+            diagnostics.warn(Diagnostics.OVERFLOW, 0xBEEF);
+        }
+        diagnostics.printSummary(new PrintStream(bytes, true));
+
+        assertEquals("summary", "Warning 052 reported 4 times (4 not shown):\n"
+                + "    at xBEEF: 3 times\n" + "    at x0001: 1 times\n",
+                bytes.toString());
+    }
+
+    // -----------------------------------------------------------------------
+    // Testing the engines.
+    // -----------------------------------------------------------------------
+
+    /**
+     * Every engine reports the overflows of the loop for the ADD that
+     * overflows.
+     */
+    @Test
+    public void enginesReportOverflow() {
+        InterpreterImp machine = new InterpreterImp();
+        Diagnostics d = runLoop(machine, machine);
+
+        assertEquals("interp", 10, d.getCount(Diagnostics.OVERFLOW, 0x3004));
+
+        machine = new InterpreterImp();
+        d = runLoop(machine, new BlockInterpreter(machine));
+        assertEquals("block", 10, d.getCount(Diagnostics.OVERFLOW, 0x3004));
+
+        machine = new InterpreterImp();
+        d = runLoop(machine, new BlockInterpreter(machine, 0));
+        assertEquals("jit", 10, d.getCount(Diagnostics.OVERFLOW, 0x3004));
+        assertEquals("jit total", 10, d.getCount(Diagnostics.OVERFLOW));
+    }
+}
@@ -0,0 +1,164 @@
+package cse560;
+
+/**
+ * Renders MMXI instruction words in the user-readable format described by
+ * {@link Interpreter#getLastInstruction()}. For example, the instruction
+ * {@code 0xF025} is rendered as "TRAP x25".
+ * <p>
+ * Rendering appends to a caller-supplied {@link StringBuilder} and allocates
+ * nothing itself, so a client printing many instructions can reuse one
+ * builder for all of them.
+ *
+ * @author Igor Tolkachev
+ */
+public final class Disassembler {
+    /** Digits used when appending hexadecimal numbers. */
+    private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+
+    /**
+     * Private constructor to prevent instantiation.
+     */
+    private Disassembler() {
+        // Do nothing.
+    }
+
+    /**
+     * Appends the rendering of {@code word}, as executed from {@code addr}, to
+     * {@code out}. Since a BRx whose condition did not hold is rendered as
+     * "NOP", the caller also supplies whether the branch was taken; this is
+     * ignored for all other instructions.
+     * <p>
+     * Requires: {@code 0 <= addr <= MAX_ADDR}
+     *
+     * @param addr
+     *            The address the instruction was fetched from.
+     * @param word
+     *            The instruction word.
+     * @param branchTaken
+     *            Whether {@code word}, if a BRx, branched.
+     * @param out
+     *            The builder to append the rendering to.
+     * @return {@code out}
+     */
+    public static StringBuilder disassemble(int addr, int word,
+            boolean branchTaken, StringBuilder out) {
+        int dr = (word >> 9) & 0x7, sr1 = (word >> 6) & 0x7;
+
+        switch ((word >> 12) & 0xF) {
+        case 9: // NOT
+            out.append("NOT R").append(dr).append(",R").append(sr1);
+            break;
+        case 1: // ADD
+            appendDataInstruction("ADD", word, out);
+            break;
+        case 5: // AND
+            appendDataInstruction("AND", word, out);
+            break;
+        case 14: // LEA
+            appendPageInstruction("LEA R", addr, word, out);
+            break;
+        case 2: // LD
+            appendPageInstruction("LD R", addr, word, out);
+            break;
+        case 10: // LDI
+            appendPageInstruction("LDI R", addr, word, out);
+            break;
+        case 6: // LDR
+            out.append("LDR R").append(dr).append(",R").append(sr1);
+            appendHex(word & 0x3F, out.append(",0x"));
+            break;
+        case 3: // ST
+            appendPageInstruction("ST R", addr, word, out);
+            break;
+        case 11: // STI
+            appendPageInstruction("STI R", addr, word, out);
+            break;
+        case 7: // STR
+            out.append("STR R").append(dr).append(",R").append(sr1);
+            appendHex(word & 0x3F, out.append(",0x"));
+            break;
+        case 0: // BRx
+            if (branchTaken) {
+                out.append("BRx ").append((word >> 11) & 0x1).append(',')
+                        .append((word >> 10) & 0x1).append(',')
+                        .append((word >> 9) & 0x1);
+                appendHex(pageAddress(addr, word), out.append(",0x"));
+            } else {
+                out.append("NOP");
+            }
+            break;
+        case 15: // TRAP
+            appendHex(word & 0xFF, out.append("TRAP x"));
+            break;
+        case 4: // JSR
+            out.append("JSR ").append((word >> 11) & 0x1);
+            appendHex(pageAddress(addr, word), out.append(",0x"));
+            break;
+        case 12: // JSRR
+            out.append("JSRR ").append((word >> 11) & 0x1).append(',')
+                    .append(sr1);
+            appendHex(word & 0x3F, out.append(",0x"));
+            break;
+        case 13: // RET
+            out.append("RET");
+            break;
+        default: // DBUG
+            out.append("DBUG");
+        }
+        return out;
+    }
+
+    /**
+     * Appends an ADD or AND instruction, in either its register or imm5 form.
+     */
+    private static void appendDataInstruction(String mnemonic, int word,
+            StringBuilder out) {
+        out.append(mnemonic).append(" R").append((word >> 9) & 0x7)
+                .append(",R").append((word >> 6) & 0x7);
+        if (((word >> 5) & 0x1) == 0) {
+            out.append(",R").append(word & 0x7);
+        } else {
+            appendHex(((word << 27) >> 27) & 0xFFFF, out.append(",0x"));
+        }
+    }
+
+    /**
+     * Appends an instruction of the form "prefix DR,0xaddr", where addr is
+     * formed from pgoffset9.
+     */
+    private static void appendPageInstruction(String prefix, int addr,
+            int word, StringBuilder out) {
+        out.append(prefix).append((word >> 9) & 0x7);
+        appendHex(pageAddress(addr, word), out.append(",0x"));
+    }
+
+    /**
+     * Returns the page-relative address formed by {@code word} when executed
+     * from {@code addr}, i.e. the page of the incremented PC concatenated
+     * with {@code word[8:0]}.
+     */
+    private static int pageAddress(int addr, int word) {
+        return (((addr + 1) & Memory.MAX_ADDR) & ~0x1FF) + (word & 0x1FF);
+    }
+
+    /**
+     * Appends {@code value} in lowercase hexadecimal without leading zeros,
+     * like {@link Integer#toHexString(int)} does for non-negative values.
+     *
+     * @param value
+     *            The value to append. Must be non-negative.
+     * @param out
+     *            The builder to append to.
+     */
+    static void appendHex(int value, StringBuilder out) {
+        int shift = 28;
+
+        // Skip leading zeros, but always print the last digit.
+        while (shift > 0 && (value >>> shift) == 0) {
+            shift -= 4;
+        }
+        for (; shift >= 0; shift -= 4) {
+            out.append(HEX_DIGITS[(value >>> shift) & 0xF]);
+        }
+    }
+}
@@ -0,0 +1,65 @@
+package cse560;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+public final class DisassemblerTest {
+
+    /**
+     * Renders {@code word} as executed from {@code addr}.
+     */
+    private static String render(int addr, int word, boolean branchTaken) {
+        return Disassembler.disassemble(addr, word, branchTaken,
+                new StringBuilder()).toString();
+    }
+
+    /**
+     * Data processing instructions print their registers, and imm5 is printed
+     * as a sign-extended 16-bit hexadecimal value.
+     */
+    @Test
+    public void dataInstructions() {
+        assertEquals("NOT R3,R5", render(0, 0x977F, false));
+        assertEquals("ADD R1,R2,R3", render(0, 0x1283, false));
+        assertEquals("ADD R1,R2,0xffff", render(0, 0x12BF, false));
+        assertEquals("AND R0,R0,0x0", render(0, 0x5020, false));
+    }
+
+    /**
+     * Page-relative addresses are formed from the incremented PC, and index6
+     * is printed unsigned.
+     */
+    @Test
+    public void memoryInstructions() {
+        assertEquals("LEA R7,0x1f", render(0, 0xEE1F, false));
+        assertEquals("LD R7,0x41f", render(0x3FF, 0x2E1F, false));
+        assertEquals("LDR R7,R1,0x3f", render(0, 0x6E7F, false));
+        assertEquals("ST R1,0x29", render(40, 0x3229, false));
+    }
+
+    /**
+     * Branches print their condition bits when taken and NOP otherwise.
+     */
+    @Test
+    public void flowOfControl() {
+        assertEquals("BRx 1,0,1,0x52", render(7, 0x0A52, true));
+        assertEquals("NOP", render(7, 0x0A52, false));
+        assertEquals("JSR 1,0x1ff", render(0xFFFF, 0x49FF, false));
+        assertEquals("JSRR 1,1,0x3f", render(3, 0xC87F, false));
+        assertEquals("RET", render(0, 0xD000, false));
+        assertEquals("TRAP x25", render(0, 0xF025, false));
+        assertEquals("DBUG", render(0, 0x8000, false));
+    }
+
+    /**
+     * The rendering is appended to whatever the builder already holds.
+     */
+    @Test
+    public void appendsToBuilder() {
+        StringBuilder out = new StringBuilder("PC: ");
+
+        Disassembler.disassemble(0, 0xF025, false, out);
+        assertEquals("PC: TRAP x25", out.toString());
+    }
+}
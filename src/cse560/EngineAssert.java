@@ -0,0 +1,80 @@
+package cse560;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Helpers for the tests that run programs on machines, and that check an
+ * engine against InterpreterImp.
+ *
+ * @author Igor Tolkachev
+ */
+final class EngineAssert {
+
+	/**
+	 * Not instantiated.
+	 */
+	private EngineAssert()
+	{
+	}
+
+	/**
+	 * Loads {@code program} at address {@code start} into each of
+	 * {@code machines} and points their PCs at it.
+	 */
+	static void load(int start, int[] program, Interpreter... machines)
+	{
+		for (Interpreter machine : machines) {
+			for (int k = 0; k < program.length; ++k) {
+				machine.setMemory(start + k, program[k]);
+			}
+			machine.setPC(start);
+		}
+	}
+
+	/**
+	 * Returns a machine with {@code program} loaded at x3000, the PC pointing
+	 * to it, and {@code traps} as its console.
+	 */
+	static InterpreterImp load(int[] program, TrapHandler traps)
+	{
+		InterpreterImp machine = new InterpreterImp(new FlatMemory(), traps);
+
+		load(0x3000, program, machine);
+		return machine;
+	}
+
+	/**
+	 * Returns a quiet machine with {@code program} loaded at x3000 and the
+	 * PC pointing to it.
+	 */
+	static InterpreterImp load(int[] program)
+	{
+		return load(program, new TrapHandlerImp(new StringBuilder(), "", 1));
+	}
+
+	/**
+	 * Runs both machines with the same budget and checks that they stop for
+	 * the same reason after the same number of steps, in the same state.
+	 */
+	static void runAndCompare(Interpreter expected, Interpreter actual,
+			long budget)
+	{
+		RunResult e = expected.run(budget), a = actual.run(budget);
+
+		assertEquals("reason", e.getReason(), a.getReason());
+		assertEquals("steps", e.getSteps(), a.getSteps());
+		assertEquals("PC", expected.getPC(), actual.getPC());
+		assertEquals("CCR", expected.getCCR(), actual.getCCR());
+		for (int n = 0; n < Interpreter.NUM_REGS; ++n) {
+			assertEquals("R" + n, expected.getRegister(n), actual.getRegister(n));
+		}
+		assertEquals("last instruction", expected.getLastInstruction(),
+				actual.getLastInstruction());
+		for (int addr = 0; addr <= Memory.MAX_ADDR; addr += 1) {
+			if (expected.getMemory(addr) != actual.getMemory(addr)) {
+				assertEquals("M[" + addr + "]", expected.getMemory(addr),
+						actual.getMemory(addr));
+			}
+		}
+	}
+}
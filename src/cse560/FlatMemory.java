@@ -0,0 +1,70 @@
+package cse560;
+
+import java.nio.CharBuffer;
+
+/**
+ * Implements the Memory interface using a flat array covering the entire
+ * address space. Unlike {@link MemoryImp}, reading or writing a cell involves
+ * no boxing, hashing or allocation, at the cost of a fixed 128 KB footprint
+ * per instance.
+ * <p>
+ * Addresses are reduced modulo 2^16 before use, so an address formed from
+ * {@code BaseR + index6} that runs past {@code MAX_ADDR} wraps around to the
+ * start of memory.
+ * <p>
+ * Correspondence: {@code M[addr] = words[addr]} for all
+ * {@code addr in [0, 2^16)}.
+ *
+ * @author Igor Tolkachev
+ *
+ */
+public final class FlatMemory extends Memory {
+    /** The array-based representation of memory. */
+    private final char[] words;
+
+    /**
+     * Initializes a memory whose cells are all zero.
+     */
+    public FlatMemory() {
+        this(new char[Memory.MAX_ADDR + 1]);
+    }
+
+    /**
+     * Initializes a memory backed by {@code words}.
+     */
+    private FlatMemory(char[] words) {
+        this.words = words;
+    }
+
+    @Override
+    public int get(final int addr) {
+        return this.words[addr & Memory.MAX_ADDR];
+    }
+
+    @Override
+    public int getSigned(final int addr) {
+        // A char is an unsigned 16-bit value, so narrowing it to a short
+        // performs the two's complement adjustment for us.
+        return (short) this.words[addr & Memory.MAX_ADDR];
+    }
+
+    @Override
+    public void set(final int addr, final int value) {
+        // Narrowing to a char truncates the value to two bytes.
+        this.words[addr & Memory.MAX_ADDR] = (char) value;
+    }
+
+    @Override
+    public void set(final int addr, final CharBuffer words) {
+        words.get(this.words, addr, words.remaining());
+    }
+
+    /**
+     * Returns a copy of this memory, which costs a copy of the whole address
+     * space; see {@link PagedMemory} for a memory that forks cheaply.
+     */
+    @Override
+    public FlatMemory fork() {
+        return new FlatMemory(this.words.clone());
+    }
+}
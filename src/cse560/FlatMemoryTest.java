@@ -0,0 +1,75 @@
+package cse560;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+public final class FlatMemoryTest {
+    /** The instance of a Memory object to test. */
+    private final Memory memory = new FlatMemory();
+
+    /**
+     * In a fresh Memory object, memory cells start at zero.
+     *
+     * This test checks a sampling of cells within memory.
+     */
+    @Test
+    public void doCellsStartAtZero() {
+        for (int i = 0; i < Memory.MAX_ADDR; i += 1024) {
+            assertEquals("M[" + i + "] = 0", 0, memory.get(i));
+        }
+        assertEquals("M[MAX_ADDR] = 0", 0, memory.get(Memory.MAX_ADDR));
+    }
+
+    /**
+     * If we set some addresses to a value, they take on that value.
+     */
+    @Test
+    public void doesSetWorkInGeneral() {
+        for (int i = 0; i < Memory.MAX_ADDR; i += 1024) {
+            memory.set(i, 1066);
+            assertEquals("M[" + i + "] = 1066", 1066, memory.get(i));
+        }
+        memory.set(Memory.MAX_ADDR, 23);
+        assertEquals("M[MAX_ADDR] = 23", 23, memory.get(Memory.MAX_ADDR));
+    }
+
+    /**
+     * getSigned sign-extends negative values and leaves positive values alone.
+     */
+    @Test
+    public void signExtension() {
+        memory.set(0, -1066);
+        assertEquals("M[0] = -1066", -1066, memory.getSigned(0));
+        assertEquals("M[0] = 0xfbd6", 0xfbd6, memory.get(0));
+
+        memory.set(1, 0x7fff);
+        assertEquals("M[1] = 0x7fff", 0x7fff, memory.getSigned(1));
+
+        memory.set(2, 0x8000);
+        assertEquals("M[2] = -32768", -32768, memory.getSigned(2));
+    }
+
+    /**
+     * The set/get functions properly truncate values longer than two bytes.
+     */
+    @Test
+    public void testTruncation() {
+        memory.set(0, 0xffff0000);
+        assertEquals("M[0] = 0", 0, memory.get(0));
+
+        memory.set(1, 0x12345);
+        assertEquals("M[1] = 0x2345", 0x2345, memory.get(1));
+    }
+
+    /**
+     * Addresses past MAX_ADDR, as formed by LDR/STR, wrap around to zero.
+     */
+    @Test
+    public void testAddressWrap() {
+        memory.set(Memory.MAX_ADDR + 6, 42);
+        assertEquals("M[5] = 42", 42, memory.get(5));
+        assertEquals("M[MAX_ADDR + 6] = 42", 42,
+                memory.get(Memory.MAX_ADDR + 6));
+    }
+}
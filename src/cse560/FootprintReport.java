@@ -0,0 +1,331 @@
+package cse560;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+import joptsimple.OptionException;
+import joptsimple.OptionParser;
+import joptsimple.OptionSet;
+
+/**
+ * Measures what a fleet of machines running the same program costs with each
+ * memory backend: {@link MemoryImp}, {@link FlatMemory}, {@link PagedMemory},
+ * machines made from one {@link CodeImage}, and {@link ArenaMemory}.
+ * <p>
+ * For each backend, two phases are measured. In the fleet phase, N machines
+ * are loaded and run, and all of them are kept; the report gives the heap
+ * they retain, the arena pages they hold, and the garbage collections and
+ * wall time of the phase. In the batch phase, N machines are loaded and run
+ * one after another, each discarded, or released to the arena, before the
+ * next; the report gives the garbage collections and wall time of the phase.
+ * <p>
+ * Run as a program:
+ * {@code java -cp "MMXI Simulator.jar" cse560.FootprintReport -f file}.
+ * The options {@code -n N}, the number of machines (default: 10000), and
+ * {@code -M N}, the maximum number of instructions of each machine
+ * (default: 1000), are also accepted. The machines read no input, and their
+ * output is discarded. A backend that runs out of heap is reported as such.
+ *
+ * @author Igor Tolkachev
+ */
+public final class FootprintReport {
+
+    /**
+     * The memory backends measured.
+     */
+    private enum Backend {
+        /** {@link MemoryImp}. */
+        MAP("MemoryImp"),
+
+        /** {@link FlatMemory}. */
+        FLAT("FlatMemory"),
+
+        /** {@link PagedMemory}. */
+        PAGED("PagedMemory"),
+
+        /** Machines made from a {@link CodeImage}. */
+        IMAGE("CodeImage"),
+
+        /** {@link ArenaMemory}. */
+        ARENA("ArenaMemory");
+
+        /** The name printed in the report. */
+        final String label;
+
+        /**
+         * Initializes a backend named {@code label} in the report.
+         */
+        Backend(String label) {
+            this.label = label;
+        }
+    }
+
+    /** Discards everything appended to it. */
+    private static final Appendable DISCARD = new Appendable() {
+        @Override
+        public Appendable append(CharSequence csq) {
+            return this;
+        }
+
+        @Override
+        public Appendable append(CharSequence csq, int start, int end) {
+            return this;
+        }
+
+        @Override
+        public Appendable append(char c) {
+            return this;
+        }
+    };
+
+    // ------------------------------------------------------------------------
+    // PRIVATE VARIABLES
+    // ------------------------------------------------------------------------
+
+    /** The contents of the program's object file. */
+    private final ByteBuffer program;
+
+    /** The program, loaded once. */
+    private final CodeImage image;
+
+    /** The maximum number of instructions of each machine. */
+    private final long maxSteps;
+
+    /** The console of every machine. */
+    private final TrapHandler console = new TrapHandlerImp(DISCARD, "",
+            TrapHandlerImp.DEFAULT_BUFFER_SIZE);
+
+    /** The sink for the warnings of every machine. */
+    private final Diagnostics diagnostics = new DiagnosticsImp(null, 0);
+
+    /** The arena of the {@code ARENA} backend, or null. */
+    private MemoryArena arena;
+
+    // -------------------------------------------------------------------------
+    // CONSTRUCTORS
+    // -------------------------------------------------------------------------
+
+    /**
+     * Initializes a report on the program in {@code program}.
+     *
+     * @throws LoadException
+     *             if the program cannot be loaded
+     */
+    private FootprintReport(ByteBuffer program, long maxSteps) {
+        this.program = program;
+        this.image = CodeImage.load(program.duplicate());
+        this.maxSteps = maxSteps;
+    }
+
+    // -------------------------------------------------------------------------
+    // PRIVATE OPERATIONS
+    // -------------------------------------------------------------------------
+
+    /**
+     * Returns a new machine with the program loaded and run, its memory kept
+     * by {@code backend}.
+     */
+    private InterpreterImp machine(Backend backend) {
+        InterpreterImp machine;
+
+        switch (backend) {
+        case MAP:
+            machine = new InterpreterImp(new MemoryImp(), console);
+            break;
+        case FLAT:
+            machine = new InterpreterImp(new FlatMemory(), console);
+            break;
+        case PAGED:
+            machine = new InterpreterImp(new PagedMemory(), console);
+            break;
+        case ARENA:
+            machine = new InterpreterImp(arena.newMemory(), console);
+            break;
+        default:
+            machine = image.newMachine(console);
+        }
+        machine.setDiagnostics(diagnostics);
+        if (backend != Backend.IMAGE) {
+            LoaderImp.load(program.duplicate(), machine);
+        }
+        machine.run(maxSteps);
+        return machine;
+    }
+
+    /**
+     * Returns the heap in use after a full collection, in bytes.
+     */
+    private static long heapInUse() {
+        Runtime runtime = Runtime.getRuntime();
+
+        for (int k = 0; k < 3; ++k) {
+            System.gc();
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+
+    /**
+     * Returns the number of collections so far, and their total time in
+     * milliseconds.
+     */
+    private static long[] collections() {
+        long[] total = new long[2];
+
+        for (GarbageCollectorMXBean gc : ManagementFactory
+                .getGarbageCollectorMXBeans()) {
+            total[0] += Math.max(0, gc.getCollectionCount());
+            total[1] += Math.max(0, gc.getCollectionTime());
+        }
+        return total;
+    }
+
+    /**
+     * Measures {@code backend} with {@code count} machines, and returns the
+     * line of the report.
+     */
+    private String measure(Backend backend, int count) {
+        List<InterpreterImp> fleet = new ArrayList<InterpreterImp>(count);
+
+        if (backend == Backend.ARENA) {
+            // Size the arena from the pages one machine ends up with.
+            arena = new MemoryArena(Memory.PAGE_COUNT);
+
+            int pages = ((ArenaMemory) machine(backend).memory())
+                    .getPageCount();
+
+            arena = new MemoryArena(Math.max(1, pages * count));
+        }
+        try {
+            long heap = heapInUse();
+            long[] gcs = collections();
+            long begin = System.nanoTime();
+
+            for (int k = 0; k < count; ++k) {
+                fleet.add(machine(backend));
+            }
+
+            long fleetNanos = System.nanoTime() - begin;
+            long[] fleetGcs = collections();
+
+            heap = heapInUse() - heap;
+
+            long offHeap = arena == null ? 0 : arena.getUsedPageCount()
+                    * 2L * Memory.PAGE_SIZE;
+
+            if (arena != null) {
+                for (InterpreterImp machine : fleet) {
+                    ((ArenaMemory) machine.memory()).release();
+                }
+            }
+            fleet.clear();
+            heapInUse();
+            gcs[0] = fleetGcs[0] - gcs[0];
+            gcs[1] = fleetGcs[1] - gcs[1];
+
+            long[] batchGcs = collections();
+
+            begin = System.nanoTime();
+            for (int k = 0; k < count; ++k) {
+                InterpreterImp machine = machine(backend);
+
+                if (arena != null) {
+                    ((ArenaMemory) machine.memory()).release();
+                }
+            }
+
+            long batchNanos = System.nanoTime() - begin;
+            long[] after = collections();
+
+            return String.format("%-12s %9d %9d %7d %7d %7d %10d %12d %9d",
+                    backend.label, heap / 1024, offHeap / 1024, gcs[0],
+                    gcs[1], fleetNanos / 1000000, after[0] - batchGcs[0],
+                    after[1] - batchGcs[1], batchNanos / 1000000);
+        } catch (OutOfMemoryError e) {
+            fleet.clear();
+            return String.format("%-12s out of memory", backend.label);
+        } finally {
+            arena = null;
+        }
+    }
+
+    // -------------------------------------------------------------------------
+    // MAIN
+    // -------------------------------------------------------------------------
+
+    /**
+     * Prints the report. See the description of the class for the options.
+     *
+     * @param args
+     *            Command-line arguments.
+     */
+    public static void main(final String[] args) {
+        final String usage = "Usage: java -cp \"MMXI Simulator.jar\" "
+                + "cse560.FootprintReport -f file [-n N] [-M N]";
+        int count = 10000;
+        long maxSteps = 1000;
+        File inputFile = null;
+
+        try {
+            OptionSet options = new OptionParser("f:n:M:").parse(args);
+
+            if (!options.has("f")) {
+                System.out.println(usage);
+                System.exit(1);
+            }
+            inputFile = new File((String) options.valueOf("f"));
+            if (options.has("n")) {
+                count = Integer.parseInt((String) options.valueOf("n"));
+            }
+            if (options.has("M")) {
+                maxSteps = Long.parseLong((String) options.valueOf("M"));
+            }
+        } catch (OptionException e) {
+            System.out.println(usage);
+            System.exit(1);
+        } catch (NumberFormatException e) {
+            System.out.println(usage);
+            System.exit(1);
+        }
+        if (count < 1) {
+            System.out.println(usage);
+            System.exit(1);
+        }
+
+        try {
+            FileInputStream in = new FileInputStream(inputFile);
+            ByteBuffer program;
+
+            try {
+                program = LoaderImp.contents(in.getChannel());
+            } finally {
+                in.close();
+            }
+
+            FootprintReport report = new FootprintReport(program, maxSteps);
+
+            System.out.println("Footprint of " + count + " machines running "
+                    + inputFile + " for up to " + maxSteps
+                    + " instructions each\n");
+            System.out.println(String.format(
+                    "%-12s %9s %9s %7s %7s %7s %10s %12s %9s", "memory",
+                    "heap KB", "arena KB", "GCs", "GC ms", "ms", "batch GCs",
+                    "batch GC ms", "batch ms"));
+            for (Backend backend : Backend.values()) {
+                System.out.println(report.measure(backend, count));
+            }
+        } catch (LoadException e) {
+            (e.getCode() < 200 ? System.out : System.err).println(e
+                    .getMessage());
+            System.exit(1);
+        } catch (IOException e) {
+            System.err.println("Error 201: Could not read input file: " + e);
+            System.exit(1);
+        }
+    }
+}
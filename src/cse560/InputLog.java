@@ -0,0 +1,358 @@
+package cse560;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+
+/**
+ * A log of the results of the trap routines whose results do not follow from
+ * the state of the machine: IN (TRAP x23), INN (TRAP x33) and RND (TRAP x43).
+ * An {@link InterpreterImp} given a new log records in it every such trap it
+ * executes; one given a log that was read back replays it, taking the result
+ * of each such trap from the log instead of from its console or generator.
+ * A recorded run can thus be reproduced exactly, e.g. in trace mode, without
+ * its input.
+ * <p>
+ * Each trap is recorded with its step: the number of instructions the
+ * machine had executed, the trap included, since it was given the log. A log
+ * file holds the four bytes {@code "MXIR"} and then, for each trap in turn:
+ * <ul>
+ * <li>the difference between its step and the step of the trap before it,
+ * or its step for the first one, as an unsigned number in groups of seven bits,
+ * lowest first, the high bit of each byte set iff another byte follows,</li>
+ * <li>one byte: 0 for IN, 1 for INN, 2 for RND, plus 4 times the CCR after
+ * the trap, 0 for N, 1 for Z, 2 for P,</li>
+ * <li>R0 after the trap, two bytes, big-endian.</li>
+ * </ul>
+ * A trap less than 128 instructions after the one before it thus takes four
+ * bytes.
+ * <p>
+ * A replayed trap does not print its prompt, and does not touch the console
+ * at all.
+ *
+ * @author Igor Tolkachev
+ */
+public final class InputLog {
+    /** The first bytes of every log file. */
+    private static final byte[] MAGIC = { 'M', 'X', 'I', 'R' };
+
+    /** The trap vectors that are logged, indexed by their code in a log. */
+    private static final int[] VECTORS = { 0x23, 0x33, 0x43 };
+
+    // ------------------------------------------------------------------------
+    // PRIVATE VARIABLES
+    // ------------------------------------------------------------------------
+
+    /** The log file, from the first byte after the magic number. */
+    private byte[] bytes;
+
+    /** The number of bytes of {@code bytes} in use. */
+    private int length;
+
+    /** Whether the machine takes results from the log. */
+    private final boolean replaying;
+
+    /** The number of instructions executed since the log was given. */
+    private long clock;
+
+    /** The step of the last trap written or read. */
+    private long lastStep;
+
+    /** The position in {@code bytes} of the next trap to replay. */
+    private int position;
+
+    /** The number of traps in the log, or replayed so far. */
+    private int count;
+
+    /** R0 after the last trap read. */
+    private int value;
+
+    /** The CCR after the last trap read. */
+    private CCR ccr;
+
+    // -------------------------------------------------------------------------
+    // CONSTRUCTORS
+    // -------------------------------------------------------------------------
+
+    /**
+     * Initializes an empty log, for a machine to record in.
+     */
+    public InputLog() {
+        this.bytes = new byte[256];
+        this.replaying = false;
+    }
+
+    /**
+     * Initializes a log of the first {@code length} bytes of {@code bytes},
+     * for a machine to replay. The array is not copied.
+     */
+    private InputLog(byte[] bytes, int length) {
+        this.bytes = bytes;
+        this.length = length;
+        this.replaying = true;
+    }
+
+    // -------------------------------------------------------------------------
+    // PRIVATE OPERATIONS
+    // -------------------------------------------------------------------------
+
+    /**
+     * Appends {@code b} to the log.
+     */
+    private void put(int b) {
+        if (length == bytes.length) {
+            byte[] grown = new byte[2 * bytes.length];
+
+            System.arraycopy(bytes, 0, grown, 0, length);
+            bytes = grown;
+        }
+        bytes[length++] = (byte) b;
+    }
+
+    /**
+     * Reads the trap at {@code position} into {@code lastStep},
+     * {@code value} and {@code ccr}, and returns its trap vector, or -1 if
+     * it is malformed.
+     */
+    private int readTrap() {
+        long delta = 0;
+        int shift = 0;
+        int b;
+
+        do {
+            if (position == length || shift > 56) {
+                return -1;
+            }
+            b = bytes[position++];
+            delta |= (long) (b & 0x7F) << shift;
+            shift += 7;
+        } while ((b & 0x80) != 0);
+        if (length - position < 3) {
+            return -1;
+        }
+
+        int kind = bytes[position++] & 0xFF;
+
+        if ((kind & 0x3) >= VECTORS.length
+                || kind >> 2 >= CCR.values().length) {
+            return -1;
+        }
+        lastStep += delta;
+        ccr = CCR.values()[kind >> 2];
+        value = (bytes[position] & 0xFF) << 8 | bytes[position + 1] & 0xFF;
+        position += 2;
+        return VECTORS[kind & 0x3];
+    }
+
+    // -------------------------------------------------------------------------
+    // PACKAGE OPERATIONS
+    // -------------------------------------------------------------------------
+
+    /**
+     * Returns whether {@code trapvect8} is the vector of a trap that is
+     * logged.
+     */
+    static boolean isLogged(int trapvect8) {
+        return trapvect8 == 0x23 || trapvect8 == 0x33 || trapvect8 == 0x43;
+    }
+
+    /**
+     * Returns the number of instructions executed since the machine was
+     * given the log, not counting those of the current run.
+     */
+    long getClock() {
+        return clock;
+    }
+
+    /**
+     * Adds {@code steps} instructions to those executed.
+     */
+    void advance(long steps) {
+        clock += steps;
+    }
+
+    /**
+     * Records a trap.
+     * <p>
+     * Requires: {@code !isReplaying()}, {@code isLogged(trapvect8)}, and
+     * {@code step} is at least the step of the last trap
+     *
+     * @param step
+     *            The step of the trap.
+     * @param trapvect8
+     *            Its trap vector.
+     * @param r0
+     *            R0 after the trap.
+     * @param ccr
+     *            The CCR after the trap.
+     */
+    void record(long step, int trapvect8, int r0, CCR ccr) {
+        long delta = step - lastStep;
+        int kind = trapvect8 == 0x23 ? 0 : trapvect8 == 0x33 ? 1 : 2;
+
+        while (delta >= 0x80) {
+            put((int) delta & 0x7F | 0x80);
+            delta >>>= 7;
+        }
+        put((int) delta);
+        put(kind | ccr.ordinal() << 2);
+        put(r0 >> 8);
+        put(r0);
+        lastStep = step;
+        ++count;
+    }
+
+    /**
+     * Reads the next trap, which must be trap {@code trapvect8} at
+     * {@code step}; its results are then returned by {@code getValue} and
+     * {@code getCCR}.
+     * <p>
+     * Requires: {@code isReplaying()}
+     *
+     * @throws IllegalStateException
+     *             if the next trap of the log is not that one
+     */
+    void replay(long step, int trapvect8) {
+        if (position == length || readTrap() != trapvect8
+                || lastStep != step) {
+            throw new IllegalStateException("Input log does not match the "
+                    + "run at step " + step);
+        }
+        ++count;
+    }
+
+    /**
+     * Returns R0 after the last trap replayed.
+     */
+    int getValue() {
+        return value;
+    }
+
+    /**
+     * Returns the CCR after the last trap replayed.
+     */
+    CCR getCCR() {
+        return ccr;
+    }
+
+    // -------------------------------------------------------------------------
+    // PUBLIC OPERATIONS
+    // -------------------------------------------------------------------------
+
+    /**
+     * Returns whether {@code buffer} holds a log, i.e. starts with the right
+     * bytes at its position. The position is not changed.
+     *
+     * @param buffer
+     *            The contents of a file.
+     */
+    public static boolean isInputLog(ByteBuffer buffer) {
+        if (buffer.remaining() < MAGIC.length) {
+            return false;
+        }
+        for (int k = 0; k < MAGIC.length; ++k) {
+            if (buffer.get(buffer.position() + k) != MAGIC[k]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Reads the log in {@code buffer}, from its position to its limit, for a
+     * machine to replay.
+     *
+     * @param buffer
+     *            The contents of a log file.
+     * @return the log
+     * @throws LoadException
+     *             error 109 if the buffer does not hold a well-formed log
+     */
+    public static InputLog read(ByteBuffer buffer) {
+        ByteBuffer in = buffer.slice();
+
+        if (!isInputLog(in)) {
+            throw new LoadException(109, 0, null);
+        }
+        in.position(MAGIC.length);
+
+        byte[] bytes = new byte[in.remaining()];
+
+        in.get(bytes);
+
+        // Check every trap now, so that replaying cannot fail halfway for
+        // any other reason than the run going differently.
+        InputLog check = new InputLog(bytes, bytes.length);
+
+        while (check.position < check.length) {
+            if (check.readTrap() < 0) {
+                throw new LoadException(109, 0, null);
+            }
+        }
+        return new InputLog(bytes, bytes.length);
+    }
+
+    /**
+     * Returns a log for a machine that is to replay this log from
+     * {@code step} on, e.g. one restored from a checkpoint taken at that
+     * step. It shares the traps recorded so far, and none recorded later.
+     *
+     * @param step
+     *            The number of instructions executed since this log was
+     *            given, at the point the new log takes over.
+     * @return the log
+     */
+    public InputLog replayFrom(long step) {
+        InputLog log = new InputLog(bytes, length);
+
+        log.clock = step;
+        while (log.position < log.length) {
+            int start = log.position;
+            long before = log.lastStep;
+
+            log.readTrap();
+            if (log.lastStep > step) {
+                log.position = start;
+                log.lastStep = before;
+                break;
+            }
+        }
+        return log;
+    }
+
+    /**
+     * Returns whether a machine given this log replays it rather than
+     * records in it.
+     */
+    public boolean isReplaying() {
+        return replaying;
+    }
+
+    /**
+     * Returns the number of traps recorded, or, when replaying, replayed so
+     * far.
+     */
+    public int getCount() {
+        return count;
+    }
+
+    /**
+     * Returns the size of the log file in bytes.
+     */
+    public int getByteCount() {
+        return MAGIC.length + length;
+    }
+
+    /**
+     * Writes the log, as recorded so far, to {@code out}.
+     *
+     * @param out
+     *            The stream to write to.
+     * @throws IOException
+     *             if the log cannot be written
+     */
+    public void write(OutputStream out) throws IOException {
+        out.write(MAGIC);
+        out.write(bytes, 0, length);
+    }
+}
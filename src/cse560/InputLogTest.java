@@ -0,0 +1,120 @@
+package cse560;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+
+import org.junit.Test;
+
+public final class InputLogTest {
+
+    /**
+     * Reads a character and a number, adds a random number to the number,
+     * and stores the character and the sum.
+     */
+    private static final String PROGRAM = "HINPUT 30000008\n"
+            + "T3000F023\n" // TRAP x23
+            + "T30013010\n" // ST R0,x3010
+            + "T3002F033\n" // TRAP x33
+            + "T30031240\n" // ADD R1,R1,R0
+            + "T3004F043\n" // TRAP x43
+            + "T30051240\n" // ADD R1,R1,R0
+            + "T30063211\n" // ST R1,x3011
+            + "T3007F025\n" // TRAP x25
+            + "E3000\n";
+
+    /** Returns the bytes of {@code log} as written. */
+    private static ByteBuffer bytes(InputLog log) throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+        log.write(out);
+        return ByteBuffer.wrap(out.toByteArray());
+    }
+
+    /**
+     * A replayed run, without input and with another seed, ends in the same
+     * state as the recorded run, on every engine.
+     */
+    @Test
+    public void replay() throws Exception {
+        InputLog recording = new InputLog();
+        SimulationResult recorded = new SimulationSession.Builder().source(
+                PROGRAM).input("A\n42\n").seed(5).inputLog(recording)
+                .build().run();
+
+        assertEquals("traps", 3, recording.getCount());
+        assertEquals("bytes", 4 + 3 * 4, recording.getByteCount());
+
+        for (SimulationSession.Engine engine : SimulationSession.Engine
+                .values()) {
+            InputLog log = InputLog.read(bytes(recording));
+            SimulationSession replay = new SimulationSession.Builder()
+                    .source(PROGRAM).seed(6).engine(engine).inputLog(log)
+                    .captureMemory(true).build();
+            SimulationResult result = replay.run();
+
+            assertEquals("reason", StopReason.HALT, result.getReason());
+            assertEquals("steps", recorded.getSteps(), result.getSteps());
+            assertEquals("character", 'A', result.getMemory(0x3010));
+            assertEquals("sum", recorded.getRegister(1), result
+                    .getRegister(1));
+            assertEquals("CCR", recorded.getCCR(), result.getCCR());
+            assertEquals("replayed", 3, log.getCount());
+        }
+    }
+
+    /**
+     * With a log, the state at a step after input was read can be recovered
+     * from a checkpoint before it.
+     */
+    @Test
+    public void stateAt() {
+        SimulationSession session = new SimulationSession.Builder().source(
+                PROGRAM).input("Z\n-7\n").inputLog(new InputLog())
+                .checkpoints(100).build();
+
+        session.run();
+        assertEquals("R0 after INN", 0xFFF9, session.stateAt(3)
+                .getRegister(0));
+        assertEquals("stored sum", session.getMachine().getMemory(0x3011),
+                session.stateAt(8).getMemory(0x3011));
+    }
+
+    /**
+     * A run that goes differently from the recorded one is stopped.
+     */
+    @Test(expected = IllegalStateException.class)
+    public void diverged() throws Exception {
+        InputLog recording = new InputLog();
+
+        new SimulationSession.Builder().source(PROGRAM).input("A\n42\n")
+                .inputLog(recording).build().run();
+        new SimulationSession.Builder().source(
+                PROGRAM.replace("T3000F023", "T30001240")).inputLog(
+                InputLog.read(bytes(recording))).build().run();
+    }
+
+    /**
+     * A truncated log is reported as error 109.
+     */
+    @Test
+    public void malformed() throws Exception {
+        InputLog recording = new InputLog();
+
+        new SimulationSession.Builder().source(PROGRAM).input("A\n42\n")
+                .inputLog(recording).build().run();
+
+        ByteBuffer bytes = bytes(recording);
+
+        bytes.limit(bytes.limit() - 1);
+        try {
+            InputLog.read(bytes);
+        } catch (LoadException e) {
+            assertEquals("code", 109, e.getCode());
+            return;
+        }
+        assertTrue("LoadException thrown", false);
+    }
+}
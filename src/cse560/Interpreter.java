@@ -127,6 +127,36 @@ public interface Interpreter {
      */
     void step();
 
+    /**
+     * Performs fetch-execute cycles on the MMXI machine until it halts,
+     * executes a DBUG instruction, reaches an IN or INN trap for which its
+     * console has no input yet, reaches a {@link Breakpoint} whose conditions
+     * are met, or {@code budget} instructions have been executed, whichever
+     * comes first. Unlike {@code step}, a DBUG instruction does not print the
+     * machine state; it is reported to the caller instead. An input trap or
+     * an instruction with a breakpoint that stops execution is not executed:
+     * the PC still points to it. Running again executes it, the input trap
+     * once input has arrived, and the instruction without stopping at the
+     * same breakpoint again.
+     * <p>
+     * Requires: {@code budget >= 0}
+     * <p>
+     * Ensures: {@code run.getSteps()} is the number of instructions executed,
+     * and {@code run.getReason()} is why execution stopped:
+     * {@code StopReason.HALT}, {@code DBUG}, {@code INPUT},
+     * {@code BREAKPOINT} or {@code BUDGET}. If {@code halted} was already
+     * true, no instruction is executed and the reason is
+     * {@code StopReason.HALT}. If the reason is {@code INPUT} or
+     * {@code BREAKPOINT}, {@code PC} is the address of the instruction that
+     * was not executed.
+     *
+     * @param budget
+     *            The maximum number of instructions to execute.
+     * @return the reason execution stopped and the number of instructions
+     *         executed
+     */
+    RunResult run(long budget);
+
     /**
      * Returns whether the machine has encountered a "halt" trap.
      *
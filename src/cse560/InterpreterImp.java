@@ -1,6 +1,11 @@
 package cse560;
 
-import java.util.Random;
+import java.io.InputStreamReader;
+import java.nio.CharBuffer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 
 /**
  * Provides an implementation of the Interpreter interface, emulating the MMXI
@@ -25,13 +30,21 @@ import java.util.Random;
  *
  */
 public final class InterpreterImp implements Interpreter {
+    /** The prompt of the IN trap routine. */
+    private static final String IN_PROMPT = "\nPlease enter ASCII character:";
+
+    /** The prompt of the INN trap routine. */
+    private static final String INN_PROMPT = "\nPlease enter 16-bit integer:";
 
     // ------------------------------------------------------------------------
     // PRIVATE VARIABLES
     // ------------------------------------------------------------------------
 
-    /** Representation of memory as a Map. */
-    private final Memory memory = new MemoryImp();
+    /** Representation of memory. */
+    private final Memory memory;
+
+    /** Decoded instructions, invalidated by {@code setMemory}. */
+    private final DecodeCache decodeCache;
 
     /** Program Counter */
     private int pc;
@@ -45,8 +58,101 @@ public final class InterpreterImp implements Interpreter {
     /** state of the machine */
     private boolean halted;
 
-    /** last executed instruction */
-    private String lastInstruction;
+    /** address of the last executed instruction, or -1 if none */
+    private int lastAddr = -1;
+
+    /** the last executed instruction word */
+    private int lastWord;
+
+    /** whether the last executed instruction, if a BRx, branched */
+    private boolean lastBranchTaken;
+
+    /** why the most recent call to {@code execute} returned */
+    private StopReason stopReason;
+
+    /** notified of every write to memory, or null */
+    private WriteListener writeListener;
+
+    /** the console used by the I/O trap routines */
+    private TrapHandler traps;
+
+    /** the generator used by the RND trap routine */
+    private MachineRandom random = new MachineRandom();
+
+    /** records what executed instructions overwrote, or null */
+    private UndoJournal journal;
+
+    /** records or replays the results of input and RND traps, or null */
+    private InputLog inputLog;
+
+    /** the breakpoints, by address */
+    private final Map<Integer, List<Breakpoint>> breakpoints =
+            new HashMap<Integer, List<Breakpoint>>();
+
+    /**
+     * bit {@code addr} is set iff there is a breakpoint at addr; null if
+     * there are no breakpoints
+     */
+    private long[] breakBits;
+
+    /** whether execution stopped at a breakpoint and the PC is still there */
+    private boolean atBreakpoint;
+
+    /** receives the warnings reported during execution */
+    private Diagnostics diagnostics;
+
+    // -------------------------------------------------------------------------
+    // CONSTRUCTORS
+    // -------------------------------------------------------------------------
+
+    /**
+     * Initializes a new machine whose memory is backed by a {@link FlatMemory}.
+     */
+    public InterpreterImp() {
+        this(new FlatMemory());
+    }
+
+    /**
+     * Initializes a new machine that uses {@code memory} as its memory
+     * controller. This allows clients to pick a memory backend, e.g.
+     * {@link MemoryImp} when the footprint of a mostly empty address space
+     * matters more than speed.
+     *
+     * @param memory
+     *            The memory controller for the new machine.
+     */
+    public InterpreterImp(Memory memory) {
+        this(memory, new TrapHandlerImp(System.out, new InputStreamReader(
+                System.in), TrapHandlerImp.DEFAULT_BUFFER_SIZE));
+    }
+
+    /**
+     * Initializes a new machine that uses {@code memory} as its memory
+     * controller and {@code traps} as its console. By default, a machine
+     * prints to {@code System.out}, flushing its output when it halts or
+     * waits for input, and reads from {@code System.in}.
+     *
+     * @param memory
+     *            The memory controller for the new machine.
+     * @param traps
+     *            The console for the new machine.
+     */
+    public InterpreterImp(Memory memory, TrapHandler traps) {
+        this(memory, new DecodeCache(), traps);
+    }
+
+    /**
+     * Initializes a new machine that uses {@code memory} as its memory
+     * controller, {@code decodeCache} as the decodings of that memory, and
+     * {@code traps} as its console.
+     */
+    InterpreterImp(Memory memory, DecodeCache decodeCache,
+            TrapHandler traps) {
+        this.memory = memory;
+        this.decodeCache = decodeCache;
+        this.traps = traps;
+        this.diagnostics = new DiagnosticsImp(traps, DiagnosticsImp.UNLIMITED);
+    }
 
     // -------------------------------------------------------------------------
     // PRIVATE OPERATIONS
@@ -110,13 +216,29 @@ public final class InterpreterImp implements Interpreter {
         int page = bitRange(pc, 15, 9) << 9;
 
         if (page != bitRange(pc - 1, 15, 9) << 9) {
-            System.out.println("Warning 050: Current instruction is at last "
-                    + "address of the current memory page. Address formed from"
-                    + " operand is on the next page.");
+            diagnostics.warn(Diagnostics.PAGE_BOUNDARY, (pc - 1)
+                    & Memory.MAX_ADDR);
         }
         return (bitRange(pc, 15, 9) << 9) + bitRange(instr, 8, 0);
     }
 
+    /**
+     * Returns the page-relative address formed from the {@code pgoffset9} of
+     * {@code d}. Equivalent to {@code offsetAddress(d.word)} when executing
+     * {@code d}, without decoding anything.
+     *
+     * @param d
+     *            The instruction being executed.
+     *
+     * @return {@code PC[15:9]} concatenated with {@code d.word[8:0]}
+     */
+    int pageAddress(DecodedInstruction d) {
+        if (d.crossesPage) {
+            diagnostics.warn(Diagnostics.PAGE_BOUNDARY, d.addr);
+        }
+        return d.pageAddress;
+    }
+
     /**
      * Sets the CCR based on the value of {@code R[n]}.
      * <p>
@@ -147,13 +269,376 @@ public final class InterpreterImp implements Interpreter {
         registers[n] = twoBytes(value);
     }
 
+    // -------------------------------------------------------------------------
+    // ENGINE OPERATIONS
+    // -------------------------------------------------------------------------
+
+    // NOTE: these operations let other execution engines in this package run
+    // code directly against the state of this machine.
+
+    /**
+     * Returns the decoding of {@code M[addr]}.
+     * <p>
+     * Requires: {@code 0 <= addr <= MAX_ADDR}
+     */
+    DecodedInstruction decode(int addr) {
+        return decodeCache.fetch(memory, addr);
+    }
+
+    /**
+     * Returns the memory of this machine. Writes must go through
+     * {@code setMemory} instead, so that cached decodings are invalidated.
+     */
+    Memory memory() {
+        return memory;
+    }
+
+    /**
+     * Returns the register array of this machine itself, not a copy.
+     */
+    int[] registers() {
+        return registers;
+    }
+
+    /**
+     * Sets the CCR to {@code value}.
+     */
+    void restoreCCR(CCR value) {
+        ccr = value;
+    }
+
+    /**
+     * Sets whether the machine has halted to {@code value}.
+     */
+    void restoreHalted(boolean value) {
+        halted = value;
+    }
+
+    /**
+     * Records the instruction returned by {@code getLastInstruction}, for
+     * engines that execute instructions without going through {@code run}.
+     */
+    void setLastInstruction(int addr, int word, boolean branchTaken) {
+        lastAddr = addr;
+        lastWord = word;
+        lastBranchTaken = branchTaken;
+    }
+
+    /**
+     * Registers {@code listener} to be notified of every write to memory,
+     * replacing any previous listener. {@code null} removes the listener.
+     */
+    void setWriteListener(WriteListener listener) {
+        writeListener = listener;
+    }
+
     // -------------------------------------------------------------------------
     // PUBLIC OPERATIONS
     // -------------------------------------------------------------------------
 
+    /**
+     * Replaces the console used by the I/O trap routines with {@code traps}.
+     * Output buffered by the previous console is flushed first.
+     *
+     * @param traps
+     *            The new console.
+     */
+    public void setTrapHandler(TrapHandler traps) {
+        this.traps.flush();
+        this.traps = traps;
+    }
+
+    /**
+     * Returns the console used by the I/O trap routines.
+     */
+    public TrapHandler getTrapHandler() {
+        return traps;
+    }
+
+    /**
+     * Replaces the generator used by the RND trap routine with
+     * {@code random}. A machine given a generator with a known seed
+     * executes reproducibly.
+     *
+     * @param random
+     *            The new generator.
+     */
+    public void setRandom(MachineRandom random) {
+        this.random = random;
+    }
+
+    /**
+     * Returns the generator used by the RND trap routine.
+     */
+    public MachineRandom getRandom() {
+        return random;
+    }
+
+    /**
+     * Replaces the sink for warnings reported during execution with
+     * {@code diagnostics}. By default, every warning is printed to the
+     * console the machine was created with as it is reported.
+     *
+     * @param diagnostics
+     *            The new sink.
+     */
+    public void setDiagnostics(Diagnostics diagnostics) {
+        this.diagnostics = diagnostics;
+    }
+
+    /**
+     * Returns the sink for warnings reported during execution.
+     */
+    public Diagnostics getDiagnostics() {
+        return diagnostics;
+    }
+
+    /**
+     * Has every instruction executed from now on recorded in
+     * {@code journal}, so that it can be undone by {@code stepBack} and
+     * {@code reverseContinue}; null stops recording. While a journal is
+     * set, {@link BlockInterpreter} and {@link CompiledProgram} have this
+     * machine execute every instruction.
+     *
+     * @param journal
+     *            The new journal, or null.
+     */
+    public void setJournal(UndoJournal journal) {
+        this.journal = journal;
+    }
+
+    /**
+     * Returns the journal instructions are recorded in, or null.
+     */
+    public UndoJournal getJournal() {
+        return journal;
+    }
+
+    /**
+     * Has the result of every IN, INN and RND trap executed from now on
+     * recorded in {@code log}, or, if {@code log} was read back, taken from
+     * it; null stops both. While a log is set, {@link BlockInterpreter} and
+     * {@link CompiledProgram} have this machine execute every instruction, so
+     * that the step of each trap is known. A replayed run that goes
+     * differently from the recorded one stops with an
+     * {@code IllegalStateException}, with the machine in no defined state.
+     *
+     * @param log
+     *            The new log, or null.
+     */
+    public void setInputLog(InputLog log) {
+        this.inputLog = log;
+    }
+
+    /**
+     * Returns the log the results of input and RND traps are recorded in or
+     * replayed from, or null.
+     */
+    public InputLog getInputLog() {
+        return inputLog;
+    }
+
+    /**
+     * Adds a breakpoint in front of the instruction at {@code addr}. Until
+     * it is removed, the machine stops there with
+     * {@link StopReason#BREAKPOINT} whenever its conditions are met. While
+     * there are breakpoints, {@link BlockInterpreter} and
+     * {@link CompiledProgram} have this machine execute every instruction;
+     * without any, executing an instruction does not check for them.
+     *
+     * @param addr
+     *            The address of the instruction.
+     * @return the breakpoint, unconditional until its conditions are set
+     */
+    public Breakpoint addBreakpoint(int addr) {
+        Breakpoint breakpoint = new Breakpoint(addr);
+        List<Breakpoint> here = breakpoints.get(breakpoint.getAddress());
+
+        if (here == null) {
+            here = new ArrayList<Breakpoint>(1);
+            breakpoints.put(breakpoint.getAddress(), here);
+        }
+        here.add(breakpoint);
+        if (breakBits == null) {
+            breakBits = new long[(Memory.MAX_ADDR + 1) / 64];
+        }
+        breakBits[breakpoint.getAddress() >>> 6] |= 1L << breakpoint
+                .getAddress();
+        return breakpoint;
+    }
+
+    /**
+     * Removes {@code breakpoint}, if it is a breakpoint of this machine.
+     *
+     * @param breakpoint
+     *            The breakpoint to remove.
+     */
+    public void removeBreakpoint(Breakpoint breakpoint) {
+        int addr = breakpoint.getAddress();
+        List<Breakpoint> here = breakpoints.get(addr);
+
+        if (here == null || !here.remove(breakpoint) || !here.isEmpty()) {
+            return;
+        }
+        breakpoints.remove(addr);
+        if (breakpoints.isEmpty()) {
+            breakBits = null;
+        } else {
+            breakBits[addr >>> 6] &= ~(1L << addr);
+        }
+    }
+
+    /**
+     * Removes every breakpoint.
+     */
+    public void clearBreakpoints() {
+        breakpoints.clear();
+        breakBits = null;
+    }
+
+    /**
+     * Runs the machine until it is about to execute the instruction at
+     * {@code addr}, i.e. with a breakpoint at {@code addr} for the length
+     * of the run, or until it stops for any other reason. If the PC is at
+     * {@code addr} already, nothing is executed, unless the machine stopped
+     * there at a breakpoint.
+     *
+     * @param addr
+     *            The address to run to.
+     * @param budget
+     *            The maximum number of instructions to execute.
+     * @return the outcome of the run: {@code StopReason.BREAKPOINT} if it
+     *         reached {@code addr} or another breakpoint
+     */
+    public RunResult runUntil(int addr, long budget) {
+        Breakpoint until = addBreakpoint(addr);
+
+        try {
+            return run(budget);
+        } finally {
+            removeBreakpoint(until);
+        }
+    }
+
+    /**
+     * Undoes the last {@code n} instructions executed, or as many as the
+     * journal holds if that is fewer, putting the PC, CCR, registers, memory
+     * and generator of the RND trap routine back as they were. A machine
+     * that had halted no longer has. What the instructions printed or read
+     * is not undone.
+     * <p>
+     * Requires: {@code getJournal() != null}
+     *
+     * @param n
+     *            The number of instructions to undo.
+     * @return the number of instructions undone
+     */
+    public long stepBack(long n) {
+        long undone = 0;
+
+        while (undone < n && journal.getSize() > 0) {
+            undo(journal.pop());
+            ++undone;
+        }
+        restoreLastInstruction();
+        return undone;
+    }
+
+    /**
+     * Undoes instructions until the instruction at {@code addr} has been
+     * undone, i.e. until the machine is about to execute it again as it did
+     * the last time, or until the journal is empty.
+     * <p>
+     * Requires: {@code getJournal() != null}
+     *
+     * @param addr
+     *            The address to run back to.
+     * @return the number of instructions undone
+     */
+    public long reverseContinue(int addr) {
+        long undone = 0;
+
+        while (journal.getSize() > 0) {
+            long entry = journal.pop();
+
+            undo(entry);
+            ++undone;
+            if (UndoJournal.pc(entry) == (addr & Memory.MAX_ADDR)) {
+                break;
+            }
+        }
+        restoreLastInstruction();
+        return undone;
+    }
+
+    /**
+     * Returns a new machine in the same state as this one, with
+     * {@code traps} as its console: a fork of the memory, the same PC, CCR,
+     * registers and last instruction, whether it has halted, and a generator
+     * for the RND trap routine in the same state. The fork reports warnings
+     * to the same sink as this machine; execution engines and write
+     * listeners are not carried over.
+     * <p>
+     * Forking costs what {@code Memory.fork} costs, so a program can be
+     * loaded and run up to a point once, and then forked for every input it
+     * is to be run on; with a {@link PagedMemory}, the forks share the pages
+     * they do not write to.
+     * <p>
+     * Requires: this machine is not executing
+     *
+     * @param traps
+     *            The console of the fork.
+     * @return the fork
+     */
+    public InterpreterImp fork(TrapHandler traps) {
+        InterpreterImp fork = new InterpreterImp(memory.fork(), decodeCache
+                .copy(), traps);
+
+        fork.pc = pc;
+        fork.ccr = ccr;
+        System.arraycopy(registers, 0, fork.registers, 0, registers.length);
+        fork.halted = halted;
+        fork.lastAddr = lastAddr;
+        fork.lastWord = lastWord;
+        fork.lastBranchTaken = lastBranchTaken;
+        fork.random = new MachineRandom(0);
+        fork.random.setState(random.getState());
+        fork.diagnostics = diagnostics;
+        return fork;
+    }
+
+    /**
+     * Copies the remaining words of {@code words} into memory, starting at
+     * {@code addr}, as a sequence of {@code setMemory} calls would, but in
+     * bulk.
+     * <p>
+     * Requires: {@code 0 <= addr} and
+     * {@code addr + words.remaining() <= Memory.MAX_ADDR + 1}
+     *
+     * @param addr
+     *            The address of the first word.
+     * @param words
+     *            The words to load.
+     */
+    public void loadMemory(int addr, CharBuffer words) {
+        int length = words.remaining();
+
+        memory.set(addr, words);
+        decodeCache.invalidate(addr, length);
+        if (writeListener != null) {
+            for (int k = 0; k < length; ++k) {
+                writeListener.memoryWritten(addr + k);
+            }
+        }
+    }
+
     @Override
     public void setMemory(int addr, int value) {
         memory.set(addr, value);
+        decodeCache.invalidate(addr);
+        if (writeListener != null) {
+            writeListener.memoryWritten(addr & Memory.MAX_ADDR);
+        }
     }
 
     @Override
@@ -169,6 +654,7 @@ public final class InterpreterImp implements Interpreter {
     @Override
     public void setPC(int value) {
         pc = value;
+        atBreakpoint = false;
     }
 
     @Override
@@ -184,8 +670,13 @@ public final class InterpreterImp implements Interpreter {
     @Override
     public String getLastInstruction() {
         // The last executed instruction is formatted as valid assembly
-        // language for the MMXI machine
-        return lastInstruction;
+        // language for the MMXI machine. It is only rendered on request, so
+        // that running without printing it costs nothing.
+        if (lastAddr < 0) {
+            return null;
+        }
+        return Disassembler.disassemble(lastAddr, lastWord, lastBranchTaken,
+                new StringBuilder()).toString();
     }
 
     @Override
@@ -195,334 +686,516 @@ public final class InterpreterImp implements Interpreter {
 
     @Override
     public void step() {
-        // retrieve instruction from memory, increment the PC, and look at the
-        // opcode
-        int instr = memory.get(pc);
-
-        ++pc;
-        if (pc > Memory.MAX_ADDR) {
-            System.out.println("Warning 051: Maximum address exceeded. "
-                    + "Resetting PC to 0.");
-            pc = 0;
-        }
-        switch (opcode(instr)) {
-        // ------------------------------
-        // Data processing instructions
-        // ------------------------------
-        case 9: // **** NOT
-        {
-            // set DR to the bit complement of SR, set CCR, format instruction
-            // as user-readable String
-            int DR = bitRange(instr, 11, 9), SR = bitRange(instr, 8, 6);
+        execute(1);
 
-            setRegister(DR, ~registers[SR]);
-            setCCR(DR);
-            lastInstruction = "NOT R" + DR + ",R" + SR;
-            break;
+        // A DBUG instruction prints the machine state once it has executed.
+        if (stopReason == StopReason.DBUG) {
+            traps.print(Simulator.formatState(this));
         }
-        case 1: // **** ADD
-        {
-            // set DR to the addition of SR1 and SR2 or sign-extended imm5
-            // set CCR
-            int DR = bitRange(instr, 11, 9), SR1 = bitRange(instr, 8, 6), op1 = registers[SR1], result;
-
-            if (bitRange(instr, 5, 5) == 0) {
-                int SR2 = bitRange(instr, 2, 0), op2 = registers[SR2];
-
-                result = op1 + op2;
-                // warn for overflow if operands are of same sign and result is
-                // of different sign
-                if ((bitRange(op1, 15, 15) == bitRange(op2, 15, 15))
-                        && (bitRange(op1, 15, 15) != bitRange(result, 15, 15))) {
-                    System.out
-                            .println("Warning 052: Overflow during addition.");
-                }
-                setRegister(DR, result);
-                lastInstruction = "ADD R" + DR + ",R" + SR1 + ",R" + SR2;
-            } else {
-                // sign-extend to 32 bits
-                int imm5 = (bitRange(instr, 4, 0) << 27) >> 27;
-                result = op1 + imm5;
-                // warn for overflow if operands are of same sign and result is
-                // of different sign
-                if ((bitRange(op1, 15, 15) == bitRange(imm5, 15, 15))
-                        && (bitRange(op1, 15, 15) != bitRange(result, 15, 15))) {
-                    System.out
-                            .println("Warning 052: Overflow during addition.");
-                }
-                setRegister(DR, result);
-                lastInstruction = "ADD R" + DR + ",R" + SR1 + ",0x"
-                        + Integer.toHexString(imm5 & 0xFFFF);
-            }
-            setCCR(DR);
-            break;
+    }
+
+    @Override
+    public RunResult run(long budget) {
+        long steps = execute(budget);
+
+        return new RunResult(stopReason, steps);
+    }
+
+    // -------------------------------------------------------------------------
+    // EXECUTION
+    // -------------------------------------------------------------------------
+
+    /**
+     * Returns the CCR value that reflects {@code value}.
+     *
+     * @param value
+     *            A two-byte value.
+     * @return CCR.N if {@code value[15] = 1}, CCR.Z if {@code value = 0}, CCR.P
+     *         otherwise
+     */
+    static CCR ccrFor(int value) {
+        if (value == 0) {
+            return CCR.Z;
         }
-        case 5: // **** AND
-        {
-            // set DR to the lowest 16 bits of bitwise AND of SR1 and SR2 or
-            // sign-extended imm5, set CCR
-            int DR = bitRange(instr, 11, 9), SR1 = bitRange(instr, 8, 6);
-
-            if (bitRange(instr, 5, 5) == 0) {
-                int SR2 = bitRange(instr, 2, 0);
-
-                setRegister(DR, registers[SR1] & registers[SR2]);
-                lastInstruction = "AND R" + DR + ",R" + SR1 + ",R" + SR2;
-            } else {
-                // sign-extend to 32 bits
-                int imm5 = (bitRange(instr, 4, 0) << 27) >> 27;
-
-                setRegister(DR, registers[SR1] & imm5);
-                lastInstruction = "AND R" + DR + ",R" + SR1 + ",0x"
-                        + Integer.toHexString(imm5 & 0xFFFF);
-            }
-            setCCR(DR);
-            break;
+        return (value & 0x8000) != 0 ? CCR.N : CCR.P;
+    }
+
+    /**
+     * Reports warning 052 for the instruction at {@code addr} if adding
+     * {@code op1} and {@code op2} overflowed into {@code result}, i.e. if the
+     * operands are of the same sign and the result is of a different sign.
+     */
+    void checkOverflow(int op1, int op2, int result, int addr) {
+        if (((op1 ^ op2) & 0x8000) == 0 && ((op1 ^ result) & 0x8000) != 0) {
+            diagnostics.warn(Diagnostics.OVERFLOW, addr);
         }
-        // ------------------
-        // Load instructions
-        // ------------------
-        case 14: // **** LEA
-        {
-            // set destination register to offset address from pgoffset9
-            int DR = bitRange(instr, 11, 9), addr = offsetAddress(instr);
+    }
 
-            setRegister(DR, addr);
-            lastInstruction = "LEA R" + DR + ",0x" + Integer.toHexString(addr);
-            setCCR(DR);
-            break;
+    /**
+     * Returns whether engines running against this machine must have it
+     * execute every instruction: while it records an undo journal or an
+     * input log, or has breakpoints.
+     */
+    boolean observesEveryInstruction() {
+        return journal != null || inputLog != null || breakBits != null;
+    }
+
+    /**
+     * Counts a hit of every breakpoint at {@code addr} whose conditions are
+     * met with {@code ccr}, and returns whether any of them stops execution.
+     */
+    private boolean breakAt(int addr, CCR ccr) {
+        boolean stop = false;
+
+        for (Breakpoint breakpoint : breakpoints.get(addr)) {
+            stop |= breakpoint.hit(registers, ccr);
         }
-        case 2: // **** LD
+        return stop;
+    }
+
+    /**
+     * Returns the journal entry for executing {@code d} with {@code ccr}: the
+     * state it is about to overwrite.
+     */
+    private long undoEntry(DecodedInstruction d, CCR ccr) {
+        long entry = UndoJournal.entry(d.addr, ccr, d.opcode == 0
+                && d.branchTaken(ccr));
+
+        switch (d.opcode) {
+        case 1: // ADD
+        case 2: // LD
+        case 5: // AND
+        case 6: // LDR
+        case 9: // NOT
+        case 10: // LDI
+        case 14: // LEA
+            return UndoJournal.register(entry, d.dr, registers[d.dr]);
+        case 3: // ST
+            return UndoJournal.memory(entry, d.pageAddress, memory
+                    .get(d.pageAddress));
+        case 11: // STI
         {
-            // set destination register to value at offset address from
-            // pgoffset9
-            int DR = bitRange(instr, 11, 9), addr = offsetAddress(instr);
+            int addr = memory.get(d.pageAddress);
 
-            setRegister(DR, memory.get(addr));
-            lastInstruction = "LD R" + DR + ",0x" + Integer.toHexString(addr);
-            setCCR(DR);
-            break;
+            return UndoJournal.memory(entry, addr, memory.get(addr));
         }
-        case 10: // **** LDI
+        case 7: // STR
         {
-            // set destination register to value at address at offset address
-            // from pgoffset9
-            int DR = bitRange(instr, 11, 9), addr = offsetAddress(instr);
+            int addr = (registers[d.sr1] + d.index6) & Memory.MAX_ADDR;
 
-            setRegister(DR, memory.get(memory.get(addr)));
-            lastInstruction = "LDI R" + DR + ",0x" + Integer.toHexString(addr);
-            setCCR(DR);
-            break;
+            return UndoJournal.memory(entry, addr, memory.get(addr));
         }
-        case 6: // **** LDR
-        {
-            // set destination register to value at address BaseR + index6
-            int DR = bitRange(instr, 11, 9), BaseR = bitRange(instr, 8, 6), index6 = bitRange(
-                    instr, 5, 0), address = registers[BaseR] + index6;
-            setRegister(DR, memory.get(address));
-            lastInstruction = "LDR R" + DR + ",R" + BaseR + ",0x"
-                    + Integer.toHexString(index6);
-            setCCR(DR);
-            break;
+        case 4: // JSR
+        case 12: // JSRR
+            return d.link ? UndoJournal.register(entry, 7, registers[7])
+                    : entry;
+        case 15: // TRAP
+            switch (d.trapvect8) {
+            case 0x21:
+            case 0x22:
+            case 0x25:
+            case 0x31:
+                return entry;
+            case 0x23:
+            case 0x33:
+                return UndoJournal.register(entry, 0, registers[0]);
+            case 0x43:
+                return UndoJournal.random(UndoJournal.register(entry, 0,
+                        registers[0]));
+            default:
+                return UndoJournal.register(entry, 7, registers[7]);
+            }
+        default:
+            return entry;
         }
-        // --------------------
-        // Store instructions
-        // --------------------
-        case 3: // **** ST
-        {
-            // set memory at address from pgoffset9 to value at source register
-            int SR = bitRange(instr, 11, 9), addr = offsetAddress(instr);
+    }
 
-            memory.set(addr, registers[SR]);
-            lastInstruction = "ST R" + SR + ",0x" + Integer.toHexString(addr);
+    /**
+     * Undoes the instruction of the journal entry {@code entry}.
+     */
+    private void undo(long entry) {
+        switch (UndoJournal.kind(entry)) {
+        case UndoJournal.REGISTER:
+            registers[UndoJournal.registerNumber(entry)] = UndoJournal
+                    .value(entry);
+            break;
+        case UndoJournal.MEMORY:
+            setMemory(UndoJournal.address(entry), UndoJournal.value(entry));
+            break;
+        default:
             break;
         }
-        case 11: // **** STI
-        {
-            // set memory at address at offset address from pgoffset9 to value
-            // at source register
-            int SR = bitRange(instr, 11, 9), addr = offsetAddress(instr);
+        if (UndoJournal.advancedRandom(entry)) {
+            random.rewind();
+        }
+        pc = UndoJournal.pc(entry);
+        ccr = UndoJournal.ccr(entry);
+        halted = false;
+    }
 
-            memory.set(memory.get(addr), registers[SR]);
-            lastInstruction = "STI R" + SR + ",0x" + Integer.toHexString(addr);
-            break;
+    /**
+     * Makes the last instruction the newest one left in the journal, or none.
+     */
+    private void restoreLastInstruction() {
+        if (journal.getSize() == 0) {
+            lastAddr = -1;
+            return;
         }
-        case 7: // **** STR
-        {
-            // set memory at address BaseR + index6 to value of source register
-            int SR = bitRange(instr, 11, 9), BaseR = bitRange(instr, 8, 6), index6 = bitRange(
-                    instr, 5, 0), address = registers[BaseR] + index6;
-            memory.set(address, registers[SR]);
-            lastInstruction = "STR R" + SR + ",R" + BaseR + ",0x"
-                    + Integer.toHexString(index6);
-            break;
+
+        long entry = journal.peek();
+
+        setLastInstruction(UndoJournal.pc(entry), memory.get(UndoJournal
+                .pc(entry)), UndoJournal.branchTaken(entry));
+    }
+
+    /**
+     * Performs fetch-execute cycles until the machine halts, executes a DBUG
+     * instruction, reaches an input trap whose input has not arrived, or
+     * {@code budget} instructions have been executed. The PC,
+     * CCR and registers are kept in local variables while running and are
+     * written back to the machine state before returning.
+     * <p>
+     * Ensures: {@code stopReason} is set to the reason execution stopped.
+     *
+     * @param budget
+     *            The maximum number of instructions to execute.
+     * @return the number of instructions executed
+     */
+    private long execute(long budget) {
+        final Memory memory = this.memory;
+        final DecodeCache decodeCache = this.decodeCache;
+        final int[] r = this.registers;
+        final UndoJournal journal = this.journal;
+        final InputLog inputLog = this.inputLog;
+        final long[] breakBits = this.breakBits;
+        final boolean resuming = atBreakpoint;
+        int pc = this.pc;
+        CCR ccr = this.ccr;
+        DecodedInstruction d = null, previous = null;
+        long steps = 0;
+
+        stopReason = StopReason.BUDGET;
+        if (halted) {
+            stopReason = StopReason.HALT;
+            return 0;
         }
-        // ------------------------------
-        // Flow of control instructions
-        // ------------------------------
-        case 0: // **** BRx
-        {
-            int N = bitRange(instr, 11, 11), Z = bitRange(instr, 10, 10), P = bitRange(
-                    instr, 9, 9);
-
-            // branch (set PC to address from pgoffset9) if any of specified
-            // CCR bits in the instruction are set
-            if ((N == 1 && ccr == CCR.N) || (Z == 1 && ccr == CCR.Z)
-                    || (P == 1 && ccr == CCR.P)) {
-                int addr = offsetAddress(instr);
-
-                pc = addr;
-                lastInstruction = "BRx " + N + "," + Z + "," + P + ",0x"
-                        + Integer.toHexString(addr);
-            } else // **** NOP
-            {
-                lastInstruction = "NOP";
+
+        atBreakpoint = false;
+        loop: while (steps < budget) {
+            // stop in front of an instruction with a breakpoint, unless it is
+            // the one execution stopped in front of last time
+            if (breakBits != null
+                    && (breakBits[(pc & Memory.MAX_ADDR) >>> 6] & 1L << pc) != 0
+                    && !(resuming && steps == 0)
+                    && breakAt(pc & Memory.MAX_ADDR, ccr)) {
+                atBreakpoint = true;
+                stopReason = StopReason.BREAKPOINT;
+                break loop;
             }
-            break;
-        }
-        case 15: // **** TRAP
-        {
-            switch (bitRange(instr, 7, 0)) // trapvect8
+
+            // retrieve the decoded instruction from the cache, advance the PC,
+            // and look at the opcode
+            previous = d;
+            d = decodeCache.fetch(memory, pc & Memory.MAX_ADDR);
+            pc = d.nextPc;
+            if (d.wrapsPc) {
+                diagnostics.warn(Diagnostics.PC_WRAP, d.addr);
+            }
+            ++steps;
+            if (journal != null) {
+                journal.record(undoEntry(d, ccr));
+            }
+
+            switch (d.opcode) {
+            // ------------------------------
+            // Data processing instructions
+            // ------------------------------
+            case 9: // **** NOT
             {
-            case 0x21: // OUT
+                // set DR to the bit complement of SR, set CCR
+                r[d.dr] = ~r[d.sr1] & Memory.MAX_VALUE;
+                ccr = ccrFor(r[d.dr]);
+                break;
+            }
+            case 1: // **** ADD
             {
-                // print character from R0[7:0]
-                System.out.print((char) bitRange(registers[0], 7, 0));
-                lastInstruction = "TRAP x21";
+                // set DR to the addition of SR1 and SR2 or sign-extended imm5
+                // set CCR
+                int op1 = r[d.sr1], op2 = d.immediate ? d.imm5 : r[d.sr2];
+                int result = op1 + op2;
+
+                checkOverflow(op1, op2, result, d.addr);
+                r[d.dr] = result & Memory.MAX_VALUE;
+                ccr = ccrFor(r[d.dr]);
                 break;
             }
-            case 0x22: // PUTS
+            case 5: // **** AND
             {
-                int currentAddr = registers[0];
-                int currentChar = bitRange(memory.get(currentAddr), 7, 0);
+                // set DR to the lowest 16 bits of bitwise AND of SR1 and SR2 or
+                // sign-extended imm5, set CCR
+                int op2 = d.immediate ? d.imm5 : r[d.sr2];
 
-                while (currentChar != 0) {
-                    System.out.print((char) currentChar);
-                    ++currentAddr;
-                    currentChar = bitRange(memory.get(currentAddr), 7, 0);
-                }
-                lastInstruction = "TRAP x22";
+                r[d.dr] = r[d.sr1] & op2 & Memory.MAX_VALUE;
+                ccr = ccrFor(r[d.dr]);
                 break;
             }
-            case 0x23: // IN
+            // ------------------
+            // Load instructions
+            // ------------------
+            case 14: // **** LEA
             {
-                // prompt user, read char from console, and store to R0.
-                // set CCR
-                try {
-                    String charString = System.console().readLine(
-                            "\nPlease " + "enter ASCII character:");
-                    char character = charString.charAt(0);
-
-                    if (charString.length() != 0) {
-                        System.out
-                                .println("Error 001: Invalid ASCII character.");
-                    }
-                    setRegister(0, character);
-                } catch (NumberFormatException e) {
-                    System.err.print("Error 001: Invalid ASCII character.");
-                }
-                setCCR(0);
-                lastInstruction = "TRAP x23";
+                // set destination register to offset address from pgoffset9
+                r[d.dr] = pageAddress(d);
+                ccr = ccrFor(r[d.dr]);
                 break;
             }
-            case 0x25: // HALT
+            case 2: // **** LD
             {
-                // halt execution and print message
-                halted = true;
-                lastInstruction = "TRAP x25";
-                System.out.println("\nExecution halted.");
+                // set destination register to value at offset address from
+                // pgoffset9
+                r[d.dr] = memory.get(pageAddress(d));
+                ccr = ccrFor(r[d.dr]);
                 break;
             }
-            case 0x31: // OUTN
+            case 10: // **** LDI
             {
-                // sign-extend and print R0 as decimal integer
-                System.out.print((registers[0] << 16) >> 16);
-                lastInstruction = "TRAP x31";
+                // set destination register to value at address at offset
+                // address from pgoffset9
+                r[d.dr] = memory.get(memory.get(pageAddress(d)));
+                ccr = ccrFor(r[d.dr]);
                 break;
             }
-            case 0x33: // INN
+            case 6: // **** LDR
             {
-                // prompt user, read byte from console, and store to R0.
-                // set CCR
-                try {
-                    String charString = System.console().readLine(
-                            "\nPlease " + "enter 16-bit integer:");
-                    int result = Integer.parseInt(charString);
-
-                    if (result < -32768 || result > 32767) {
-                        System.out
-                                .println("Error 002: Invalid 16-bit integer.");
+                // set destination register to value at address BaseR + index6,
+                // wrapped to the address space
+                r[d.dr] = memory.get((r[d.sr1] + d.index6) & Memory.MAX_ADDR);
+                ccr = ccrFor(r[d.dr]);
+                break;
+            }
+            // --------------------
+            // Store instructions
+            // --------------------
+            case 3: // **** ST
+            {
+                // set memory at address from pgoffset9 to value at source
+                // register
+                setMemory(pageAddress(d), r[d.dr]);
+                break;
+            }
+            case 11: // **** STI
+            {
+                // set memory at address at offset address from pgoffset9 to
+                // value at source register
+                setMemory(memory.get(pageAddress(d)), r[d.dr]);
+                break;
+            }
+            case 7: // **** STR
+            {
+                // set memory at address BaseR + index6, wrapped to the
+                // address space, to value of source register
+                setMemory((r[d.sr1] + d.index6) & Memory.MAX_ADDR, r[d.dr]);
+                break;
+            }
+            // ------------------------------
+            // Flow of control instructions
+            // ------------------------------
+            case 0: // **** BRx
+            {
+                // branch (set PC to address from pgoffset9) if any of specified
+                // CCR bits in the instruction are set
+                // (otherwise, the instruction is a NOP)
+                lastBranchTaken = d.branchTaken(ccr);
+                if (lastBranchTaken) {
+                    pc = pageAddress(d);
+                }
+                break;
+            }
+            case 15: // **** TRAP
+            {
+                // a replayed trap takes its result from the log, and never
+                // waits for input
+                if (inputLog != null && inputLog.isReplaying()
+                        && InputLog.isLogged(d.trapvect8)) {
+                    inputLog.replay(inputLog.getClock() + steps, d.trapvect8);
+                    r[0] = inputLog.getValue();
+                    ccr = inputLog.getCCR();
+                    if (d.trapvect8 == 0x43) {
+                        random.nextWord();
                     }
-                    setRegister(0, result);
-                    setCCR(0);
-                } catch (NumberFormatException e) {
-                    System.err.print("Error 002: Invalid 16-bit integer.");
+                    break;
+                }
+
+                // an input trap whose input has not arrived is not executed:
+                // stop in front of it, so that it is executed when the
+                // machine is run again
+                if (d.trapvect8 == 0x23 && !traps.hasInput(IN_PROMPT)
+                        || d.trapvect8 == 0x33
+                        && !traps.hasInput(INN_PROMPT)) {
+                    pc = d.addr;
+                    d = previous;
+                    --steps;
+                    if (journal != null) {
+                        journal.pop();
+                    }
+                    stopReason = StopReason.INPUT;
+                    break loop;
+                }
+
+                // traps work on the machine state directly, so write it back
+                // first and reload it afterwards
+                this.ccr = ccr;
+                trap(d.trapvect8, pc);
+                ccr = this.ccr;
+                if (inputLog != null && InputLog.isLogged(d.trapvect8)) {
+                    inputLog.record(inputLog.getClock() + steps, d.trapvect8,
+                            r[0], ccr);
+                }
+                if (halted) {
+                    stopReason = StopReason.HALT;
+                    break loop;
                 }
-                lastInstruction = "TRAP x33";
                 break;
             }
-            case 0x43: // RND
+            case 4: // **** JSR
             {
-                // generate 'random' number between -32768 and 32767 and store
-                // to R0. set CCR
-                Random generator = new Random();
+                // set PC to address from pgoffset9. if L is set, store PC to
+                // R7 first
+                int jumpAddress = pageAddress(d);
 
-                setRegister(0, generator.nextInt(Memory.MAX_VALUE + 1)
-                        - (Memory.MAX_VALUE + 1) / 2);
-                setCCR(0);
-                lastInstruction = "TRAP x43";
+                if (d.link) {
+                    r[7] = pc;
+                }
+                pc = jumpAddress;
                 break;
             }
-            default: // error
+            case 12: // **** JSRR
             {
-                System.out.println("Error 003: Unsupported trap vector.");
+                // if L is set, store PC to R7 first; then set PC to address
+                // BaseR + index6, wrapped to the address space. with BaseR =
+                // R7, the jump is relative to the stored PC
+                if (d.link) {
+                    r[7] = pc;
+                }
+                pc = (r[d.sr1] + d.index6) & Memory.MAX_ADDR;
+                break;
             }
-                // now set R7 to the PC
-                setRegister(7, pc);
+            case 13: // **** RET
+            {
+                // copy R7 to PC
+                pc = r[7];
+                break;
+            }
+            default: // **** DBUG
+            {
+                stopReason = StopReason.DBUG;
+                break loop;
+            }
+            }
+        }
+
+        this.pc = pc;
+        this.ccr = ccr;
+        if (d != null) {
+            lastAddr = d.addr;
+            lastWord = d.word;
+        }
+        if (inputLog != null) {
+            inputLog.advance(steps);
+        }
+        return steps;
+    }
+
+    /**
+     * Executes the trap routine {@code trapvect8}.
+     *
+     * @param trapvect8
+     *            The trap vector of the TRAP instruction.
+     * @param pc
+     *            The value of the PC after fetching the TRAP instruction.
+     */
+    private void trap(int trapvect8, int pc) {
+        switch (trapvect8) {
+        case 0x21: // OUT
+        {
+            // print character from R0[7:0]
+            traps.print((char) bitRange(registers[0], 7, 0));
+            break;
+        }
+        case 0x22: // PUTS
+        {
+            int currentAddr = registers[0];
+            int currentChar = bitRange(memory.get(currentAddr), 7, 0);
+
+            while (currentChar != 0) {
+                traps.print((char) currentChar);
+                ++currentAddr;
+                currentChar = bitRange(memory.get(currentAddr), 7, 0);
             }
             break;
         }
-        case 4: // **** JSR
+        case 0x23: // IN
         {
-            // set PC to address from pgoffset9. if L is set, store PC to R7
-            // first
-            int jumpAddress = offsetAddress(instr), L = bitRange(instr, 11, 11);
+            // prompt user, read char from console, and store to R0.
+            // set CCR
+            String charString = traps.readLine(IN_PROMPT);
 
-            if (L == 1) {
-                setRegister(7, pc);
+            if (charString == null || charString.length() != 1) {
+                traps.print("Error 001: Invalid ASCII character.\n");
+            }
+            if (charString != null && charString.length() != 0) {
+                setRegister(0, charString.charAt(0));
             }
-            pc = jumpAddress;
-            lastInstruction = "JSR " + L + ",0x"
-                    + Integer.toHexString(jumpAddress);
+            setCCR(0);
             break;
         }
-        case 12: // **** JSRR
+        case 0x25: // HALT
         {
-            // set PC to address BaseR + index6. if L is set, store PC to R7
-            // first
-            int BaseR = bitRange(instr, 8, 6), index6 = bitRange(instr, 5, 0), L = bitRange(
-                    instr, 11, 11);
+            // halt execution and print message
+            halted = true;
+            traps.print("\nExecution halted.\n");
+            traps.flush();
+            break;
+        }
+        case 0x31: // OUTN
+        {
+            // sign-extend and print R0 as decimal integer
+            traps.print(Integer.toString((registers[0] << 16) >> 16));
+            break;
+        }
+        case 0x33: // INN
+        {
+            // prompt user, read byte from console, and store to R0.
+            // set CCR
+            try {
+                String charString = traps.readLine(INN_PROMPT);
+                int result = Integer.parseInt(charString);
 
-            if (L == 1) {
-                setRegister(7, pc);
+                if (result < -32768 || result > 32767) {
+                    traps.print("Error 002: Invalid 16-bit integer.\n");
+                }
+                setRegister(0, result);
+                setCCR(0);
+            } catch (NumberFormatException e) {
+                traps.print("Error 002: Invalid 16-bit integer.\n");
             }
-            pc = registers[BaseR] + index6;
-            lastInstruction = "JSRR " + L + "," + BaseR + ",0x"
-                    + Integer.toHexString(index6);
             break;
         }
-        case 13: // **** RET
+        case 0x43: // RND
         {
-            // copy R7 to PC
-            pc = registers[7];
-            lastInstruction = "RET";
+            // generate 'random' number between -32768 and 32767 and store
+            // to R0. set CCR
+            setRegister(0, random.nextWord() - (Memory.MAX_VALUE + 1) / 2);
+            setCCR(0);
             break;
         }
-        default: // **** DBUG
+        default: // error
         {
-            lastInstruction = "DBUG";
-            Simulator.printState(this);
+            traps.print("Error 003: Unsupported trap vector.\n");
+
+            // now set R7 to the PC
+            setRegister(7, pc);
         }
         }
     }
-}
\ No newline at end of file
+}
@@ -616,6 +616,30 @@ public class InterpreterTest {
 		i.step();
 		assertEquals("M[25] = -32000", i.twoBytes(-32000), i.getMemory(25));	
 	}
+
+	/**
+	 * Test that STR and LDR wrap BaseR + index6 to the address space,
+	 * whatever the memory backend
+	 */
+	@Test
+	public void LDR_STR_WrapAround()
+	{
+		InterpreterImp m = new InterpreterImp(new MemoryImp());
+
+		//STR R2,R5,2
+		m.setMemory(0, Integer.parseInt("0111010101000010", 2));
+		//LDR R3,R5,2
+		m.setMemory(1, Integer.parseInt("0110011101000010", 2));
+		m.setRegister(5, 65535);
+		m.setRegister(2, 77);
+		m.setPC(0);
+		m.step();
+		assertEquals("M[1] = 77", 77, m.getMemory(1));
+		m.setMemory(1, Integer.parseInt("0110011101000010", 2));
+		m.setRegister(5, 65535);
+		m.step();
+		assertEquals("R[3] = M[1]", m.getMemory(1), m.getRegister(3));
+	}
 	
 	/**
 	 * Test decoding and execution of BRx:
@@ -744,6 +768,40 @@ public class InterpreterTest {
 		System.out.println(i.getRegister(0));
 	}
 
+	/**
+	 * Test that TRAP x43 is reproducible:
+	 * <ul>
+	 * <li>machines with generators of the same seed get the same numbers</li>
+	 * <li>a generator restored from a state continues the same sequence</li>
+	 * <li>generators split from equal generators are equal</li>
+	 * </ul>
+	 */
+	@Test
+	public void RND_Seeded()
+	{
+		InterpreterImp other = new InterpreterImp();
+
+		i.setRandom(new MachineRandom(560));
+		other.setRandom(new MachineRandom(560));
+		i.setMemory(343, 0xF043);
+		other.setMemory(343, 0xF043);
+		for (int n = 0; n < 100; ++n) {
+			i.setPC(343);
+			other.setPC(343);
+			i.step();
+			other.step();
+			assertEquals("same number", i.getRegister(0), other.getRegister(0));
+		}
+
+		MachineRandom copy = new MachineRandom(i.getRandom().getState());
+
+		assertEquals("same sequence", i.getRandom().nextLong(), copy.nextLong());
+		assertEquals("same split", i.getRandom().split().nextLong(),
+				copy.split().nextLong());
+		assertEquals("same after split", i.getRandom().nextWord(),
+				copy.nextWord());
+	}
+
 	/**
 	 * Test decoding and execution of JSR:
 	 * <ul>
@@ -851,6 +909,22 @@ public class InterpreterTest {
 		assertEquals("PC = BaseR + index6", 32830, i.getPC());
 	}
 
+	/**
+	 * Test JSRR with L=1 and BaseR=R7: check that R7 is set to PC before it
+	 * is read, so that the jump is relative to the return address
+	 */
+	@Test
+	public void JSRR_Instruction_ThroughR7()
+	{
+		// JSRR 1,R7,#4
+		i.setMemory(16, Integer.parseInt("1100100111000100", 2));
+		i.setRegister(7, 256);
+		i.setPC(16);
+		i.step();
+		assertEquals("R7 = PC", 17, i.getRegister(7));
+		assertEquals("PC = R7 + index6", 21, i.getPC());
+	}
+
 	/**
 	 * Test decoding and execution of RET: check that PC is set to a predefined value of R7
 	 */
@@ -864,6 +938,90 @@ public class InterpreterTest {
 		assertEquals("pc = 5", i.getPC(), 5);
 	}
 	
+	/**
+	 * Test that overwriting an instruction that has already been executed
+	 * (and therefore decoded) causes the new instruction to be executed.
+	 */
+	@Test
+	public void selfModifyingCode()
+	{
+		// ADD R0,R0,#1
+		i.setMemory(40, Integer.parseInt("0001000000100001", 2));
+		i.setPC(40);
+		i.step();
+		assertEquals("R0 = 1", 1, i.getRegister(0));
+
+		// ADD R0,R0,#2
+		i.setMemory(40, Integer.parseInt("0001000000100010", 2));
+		i.setPC(40);
+		i.step();
+		assertEquals("R0 = 3", 3, i.getRegister(0));
+
+		// ST R1,x29 stores over the instruction at 41
+		i.setMemory(40, Integer.parseInt("0011001000101001", 2));
+		i.setMemory(41, Integer.parseInt("0001000000100001", 2));
+		i.setRegister(1, Integer.parseInt("0101000000100000", 2));
+		i.setPC(41);
+		i.step();
+		i.setPC(40);
+		i.step();
+		i.step();
+		assertEquals("AND R0,R0,#0 executed", 0, i.getRegister(0));
+	}
+
+	/**
+	 * Test run() on a loop that counts R0 down from 3:
+	 * <ul>
+	 * <li>check that a budget smaller than the program stops it early</li>
+	 * <li>check that the program then runs on to HALT</li>
+	 * <li>check that a halted machine does not execute anything</li>
+	 * </ul>
+	 */
+	@Test
+	public void runUntilHalt()
+	{
+		// AND R0,R0,#0
+		i.setMemory(0, Integer.parseInt("0101000000100000", 2));
+		// ADD R0,R0,#3
+		i.setMemory(1, Integer.parseInt("0001000000100011", 2));
+		// ADD R0,R0,#-1
+		i.setMemory(2, Integer.parseInt("0001000000111111", 2));
+		// BRp x02
+		i.setMemory(3, Integer.parseInt("0000001000000010", 2));
+		// TRAP x25
+		i.setMemory(4, Integer.parseInt("1111000000100101", 2));
+
+		RunResult result = i.run(4);
+		assertEquals("budget used up", StopReason.BUDGET, result.getReason());
+		assertEquals("4 steps", 4, result.getSteps());
+		assertEquals("PC = 2", 2, i.getPC());
+
+		result = i.run(100);
+		assertEquals("halted", StopReason.HALT, result.getReason());
+		assertEquals("5 more steps", 5, result.getSteps());
+		assertEquals("R0 = 0", 0, i.getRegister(0));
+		assertEquals("CCR = Z", CCR.Z, i.getCCR());
+
+		result = i.run(100);
+		assertEquals("still halted", StopReason.HALT, result.getReason());
+		assertEquals("no steps", 0, result.getSteps());
+	}
+
+	/**
+	 * Test that run() stops after executing a DBUG instruction.
+	 */
+	@Test
+	public void runUntilDBUG()
+	{
+		// DBUG
+		i.setMemory(0, Integer.parseInt("1000000000000000", 2));
+
+		RunResult result = i.run(100);
+		assertEquals("DBUG", StopReason.DBUG, result.getReason());
+		assertEquals("1 step", 1, result.getSteps());
+		assertEquals("PC = 1", 1, i.getPC());
+	}
+
 	/**
 	 * Test decoding and execution of DBUG: visually inspect output
 	 */
@@ -0,0 +1,160 @@
+package cse560;
+
+/**
+ * The operations available to compiled MMXI code while it executes, i.e. to
+ * {@link CompiledBlock}s and {@link CompiledProgram}s. Everything that is not
+ * simple register arithmetic, i.e. memory access, overflow warnings and the
+ * machine state at entry and exit, goes through here.
+ * <p>
+ * CCR values are passed around as ordinals of {@link CCR}, so that compiled
+ * code can keep the CCR in an int local variable.
+ *
+ * @author Igor Tolkachev
+ */
+public final class JitRuntime {
+    /** The values of CCR, indexed by ordinal. */
+    private static final CCR[] CCRS = CCR.values();
+
+    /** The machine whose state compiled code executes against. */
+    private final InterpreterImp machine;
+
+    /** The PC compiled code starts at, or continues with after it exits. */
+    int pc;
+
+    /** The CCR compiled code starts with, or continues with after it exits. */
+    CCR ccr;
+
+    /** Whether the last instruction executed was a BRx that branched. */
+    boolean branchTaken;
+
+    /** The address of the last instruction executed by compiled code. */
+    int lastAddr;
+
+    /**
+     * The number of instructions after which compiled code checks whether to
+     * exit, at its next jump. Only used by CompiledProgram.
+     */
+    int limit;
+
+    /**
+     * Set by the owner of the runtime when compiled code is overwritten.
+     * While it is set, stores make compiled code exit.
+     */
+    boolean codeChanged;
+
+    /**
+     * Which block entry addresses of a CompiledProgram must not be executed
+     * as compiled code any more, or null.
+     */
+    final boolean[] stale;
+
+    /**
+     * Initializes a new runtime for code running against {@code machine}.
+     *
+     * @param machine
+     *            The machine to run code against.
+     * @param stale
+     *            Which block entry addresses must not be executed as
+     *            compiled code, or null if this is not used.
+     */
+    JitRuntime(InterpreterImp machine, boolean[] stale) {
+        this.machine = machine;
+        this.stale = stale;
+    }
+
+    // ------------------------------------------------------------------------
+    // PUBLIC OPERATIONS
+    // ------------------------------------------------------------------------
+
+    /**
+     * Returns the ordinal of the CCR for the 16-bit value {@code value}.
+     */
+    public static int ccrOf(int value) {
+        if (value == 0) {
+            return CCR.Z.ordinal();
+        }
+        return (value & 0x8000) != 0 ? CCR.N.ordinal() : CCR.P.ordinal();
+    }
+
+    /**
+     * Returns the lowest 16 bits of {@code op1 + op2}, reporting warning 052
+     * for the ADD at {@code addr} if the addition overflows.
+     */
+    public int add(int op1, int op2, int addr) {
+        int result = op1 + op2;
+
+        machine.checkOverflow(op1, op2, result, addr);
+        return result & Memory.MAX_VALUE;
+    }
+
+    /**
+     * Returns the PC to start at.
+     */
+    public int pc() {
+        return pc;
+    }
+
+    /**
+     * Returns the ordinal of the CCR to start with.
+     */
+    public int ccr() {
+        return ccr.ordinal();
+    }
+
+    /**
+     * Returns the number of instructions after which to exit at the next
+     * jump.
+     */
+    public int limit() {
+        return limit;
+    }
+
+    /**
+     * Returns which block entry addresses must not be executed as compiled
+     * code.
+     */
+    public boolean[] stale() {
+        return stale;
+    }
+
+    /**
+     * Returns {@code M[addr]}.
+     */
+    public int load(int addr) {
+        return machine.memory().get(addr);
+    }
+
+    /**
+     * Sets {@code M[addr]} to {@code value}.
+     *
+     * @return true iff no compiled code has been overwritten, i.e. execution
+     *         may continue
+     */
+    public boolean store(int addr, int value) {
+        machine.setMemory(addr, value);
+        return !codeChanged;
+    }
+
+    /**
+     * Sets the state execution continues with after compiled code.
+     *
+     * @param pc
+     *            The new PC.
+     * @param ccr
+     *            The ordinal of the new CCR.
+     * @param branchTaken
+     *            Whether the last instruction was a BRx that branched.
+     */
+    public void exit(int pc, int ccr, boolean branchTaken) {
+        this.pc = pc;
+        this.ccr = CCRS[ccr];
+        this.branchTaken = branchTaken;
+    }
+
+    /**
+     * Records the address of the last instruction executed.
+     */
+    public void setLastAddress(int addr) {
+        this.lastAddr = addr;
+    }
+}
@@ -0,0 +1,142 @@
+package cse560;
+
+/**
+ * Thrown when an object file cannot be loaded: when a record is malformed
+ * (errors 100 to 107) or the file cannot be read or is incomplete (errors
+ * 200 to 205). The message is the one printed by the Simulator, e.g.
+ * {@code "Error 104: Malformed record encountered."}.
+ * <p>
+ * LoadException is unchecked, like the errors it replaces used to terminate
+ * the program, so callers that load files they trust need not handle it.
+ *
+ * @author Igor Tolkachev
+ */
+public class LoadException extends RuntimeException {
+    /** Serialization version. */
+    private static final long serialVersionUID = 1L;
+
+    // ------------------------------------------------------------------------
+    // PRIVATE VARIABLES
+    // ------------------------------------------------------------------------
+
+    /** The error code. */
+    private final int code;
+
+    /** The line number of the record, counting from 1, or 0. */
+    private final int line;
+
+    /** The text of the record, or null. */
+    private final String record;
+
+    // -------------------------------------------------------------------------
+    // CONSTRUCTORS
+    // -------------------------------------------------------------------------
+
+    /**
+     * Initializes an exception for error {@code code}.
+     *
+     * @param code
+     *            The error code.
+     * @param detail
+     *            The description of the error, without the code.
+     * @param line
+     *            The line number of the record, counting from 1, or 0 if the
+     *            error is not about a record.
+     * @param record
+     *            The text of the record, or null if the error is not about a
+     *            record.
+     */
+    public LoadException(int code, String detail, int line, String record) {
+        super(String.format("Error %03d: %s", code, detail));
+        this.code = code;
+        this.line = line;
+        this.record = record;
+    }
+
+    /**
+     * Initializes an exception for error {@code code}, with the standard
+     * description of the error.
+     *
+     * @param code
+     *            The error code.
+     * @param line
+     *            The line number of the record, counting from 1, or 0 if the
+     *            error is not about a record.
+     * @param record
+     *            The text of the record, or null if the error is not about a
+     *            record.
+     */
+    public LoadException(int code, int line, String record) {
+        this(code, describe(code), line, record);
+    }
+
+    // -------------------------------------------------------------------------
+    // PUBLIC OPERATIONS
+    // -------------------------------------------------------------------------
+
+    /**
+     * Returns the standard description of error {@code code}.
+     */
+    public static String describe(int code) {
+        switch (code) {
+        case 100:
+            return "Instruction address is set outside of the maximum memory "
+                    + "address set in the header.";
+        case 101:
+            return "Text record found before header.";
+        case 102:
+            return "Too many header records.";
+        case 103:
+            return "End record found before header.";
+        case 104:
+            return "Malformed record encountered.";
+        case 105:
+            return "Malformed record encountered. "
+                    + "Record length requirements not met.";
+        case 106:
+            return "End record execution address is outside the boundaries "
+                    + "set by the header record.";
+        case 107:
+            return "Malformed binary image.";
+        case 108:
+            return "Malformed machine snapshot.";
+        case 109:
+            return "Malformed input log.";
+        case 200:
+            return "Input file does not exist.";
+        case 201:
+            return "Could not read input file.";
+        case 202:
+            return "Problem closing input file.";
+        case 203:
+            return "Object file missing header record.";
+        case 205:
+            return "No end record found.";
+        default:
+            return "Could not load object file.";
+        }
+    }
+
+    /**
+     * Returns the error code.
+     */
+    public int getCode() {
+        return code;
+    }
+
+    /**
+     * Returns the line number of the record, counting from 1, or 0 if the
+     * error is not about a record.
+     */
+    public int getLine() {
+        return line;
+    }
+
+    /**
+     * Returns the text of the record, or null if the error is not about a
+     * record.
+     */
+    public String getRecord() {
+        return record;
+    }
+}
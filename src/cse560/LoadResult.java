@@ -0,0 +1,87 @@
+package cse560;
+
+/**
+ * Describes a segment that has been loaded by {@code LoaderImp.load}.
+ *
+ * @author Igor Tolkachev
+ */
+public final class LoadResult {
+    /** The name of the segment. */
+    private final String segmentName;
+
+    /** The address the segment was loaded at. */
+    private final int start;
+
+    /** The number of words of the segment. */
+    private final int length;
+
+    /** The execution address. */
+    private final int entry;
+
+    /** The number of records read, or 0 for a binary image. */
+    private final int recordCount;
+
+    /**
+     * Initializes a new result.
+     *
+     * @param segmentName
+     *            The name of the segment.
+     * @param start
+     *            The address the segment was loaded at.
+     * @param length
+     *            The number of words of the segment.
+     * @param entry
+     *            The execution address.
+     * @param recordCount
+     *            The number of records read, or 0 for a binary image.
+     */
+    public LoadResult(String segmentName, int start, int length, int entry,
+            int recordCount) {
+        this.segmentName = segmentName;
+        this.start = start;
+        this.length = length;
+        this.entry = entry;
+        this.recordCount = recordCount;
+    }
+
+    /**
+     * Returns the name of the segment.
+     */
+    public String getSegmentName() {
+        return segmentName;
+    }
+
+    /**
+     * Returns the address the segment was loaded at.
+     */
+    public int getStart() {
+        return start;
+    }
+
+    /**
+     * Returns the number of words of the segment.
+     */
+    public int getLength() {
+        return length;
+    }
+
+    /**
+     * Returns the execution address.
+     */
+    public int getEntry() {
+        return entry;
+    }
+
+    /**
+     * Returns the number of records read, or 0 for a binary image.
+     */
+    public int getRecordCount() {
+        return recordCount;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%s: %d words at x%04X, entry x%04X",
+                segmentName, length, start, entry);
+    }
+}
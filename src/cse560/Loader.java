@@ -1,13 +1,18 @@
 package cse560;
 
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
 /**
  * Simulates the loader component of the MMXI Machine. The loader receives a
  * string value from the {@link Simulator} through the {@code parseString}
  * method. It then determines whether or not the string value is a Header
  * Record, Text Record, or End Record.
  * <p>
- * If a record is malformed in some way, the Loader will print an error and
- * terminate the program. The errors that need to be detected are as follows:
+ * If a record is malformed in some way, the Loader throws a
+ * {@link LoadException} with the error code, the line number and the text of
+ * the record. The errors that need to be detected are as follows:
  * <ul>
  * <li>100: Instruction address is set outside of the maximum memory address set
  * in the header.</li>
@@ -17,8 +22,13 @@ package cse560;
  * <li>104: Malformed record read.</li>
  * <li>105: Malformed record read. Record did not meet the length requirements.</li>
  * <li>106: End record execution address is outside the boundaries set by the header record.</li>
+ * <li>107: Malformed binary image (see {@link BinaryImage}).</li>
  * </ul>
  * <p>
+ * Whole object files are best loaded with {@code parseChannel} or
+ * {@code parseBuffer}, which scan the bytes of the file directly instead of
+ * creating a string for each record.
+ * <p>
  * Constructors: {@code Loader(Interpreter i)} - Initializes a new Loader
  * instance that will initialize {@code i}.
  *
@@ -34,9 +44,38 @@ public interface Loader {
      *
      * @param record
      *            The string that is passed into the {@link Loader}.
+     * @throws LoadException
+     *             if the record is malformed
      */
     void parseString(String record);
 
+    /**
+     * Parses every record in {@code records}, from its position to its limit,
+     * as if each line were passed to {@code parseString}. Lines may end in
+     * LF, CR, or CR LF. Characters are read as ISO-8859-1.
+     * <p>
+     * Ensures: {@code records.position = records.limit}
+     *
+     * @param records
+     *            The contents of an object file.
+     * @throws LoadException
+     *             if a record is malformed
+     */
+    void parseBuffer(ByteBuffer records);
+
+    /**
+     * Parses every record of the file open on {@code channel}, from its
+     * current position to its end, as {@code parseBuffer} does.
+     *
+     * @param channel
+     *            A channel open on an object file.
+     * @throws IOException
+     *             if the file cannot be read
+     * @throws LoadException
+     *             if a record is malformed
+     */
+    void parseChannel(FileChannel channel) throws IOException;
+
     /**
      * Returns the segment name if a header record was found.
      *
@@ -1,5 +1,12 @@
 package cse560;
 
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+
 /**
  * Parses an MMXI object file and uses the results to initialize a specified
  * instance of {@link Interpreter}.
@@ -11,11 +18,39 @@ package cse560;
  * <p>
  * Finally, LoaderImp will not print any warnings if the object file contains
  * multiple text records for the same address.
+ * <p>
+ * {@code parseBuffer} decodes records in place, with a hex digit table instead
+ * of {@code Integer.parseInt}, so loading a file creates no objects per
+ * record. It reports the same errors as {@code parseString}, except that
+ * numbers with a sign, which {@code Integer.parseInt} accepts, are malformed
+ * (104).
+ * <p>
+ * {@code load} loads a whole file, text or {@link BinaryImage}, and checks
+ * that it is complete, so that a file can be loaded without the Simulator.
+ * It also restores {@link MachineSnapshot} files, which resume the run they
+ * were taken from rather than start a program.
  *
  * @author Igor Tolkachev
  */
 public class LoaderImp implements Loader {
 
+    /** Files up to this size are read rather than mapped. */
+    private static final long MAP_THRESHOLD = 1 << 16;
+
+    /** The value of each hex digit, indexed by character, or -1. */
+    private static final byte[] HEX_VALUE = new byte[256];
+
+    static {
+        Arrays.fill(HEX_VALUE, (byte) -1);
+        for (int c = '0'; c <= '9'; ++c) {
+            HEX_VALUE[c] = (byte) (c - '0');
+        }
+        for (int c = 'A'; c <= 'F'; ++c) {
+            HEX_VALUE[c] = (byte) (c - 'A' + 10);
+            HEX_VALUE[c - 'A' + 'a'] = (byte) (c - 'A' + 10);
+        }
+    }
+
     /** True iff a header record has been found. */
     private boolean headerRead = false;
 
@@ -43,6 +78,15 @@ public class LoaderImp implements Loader {
     /** True iff the most recently read instruction was well-formed. */
     private boolean validIns = false;
 
+    /** True iff an end record has been found. */
+    private boolean endRead = false;
+
+    /** The execution address set by the end record. */
+    private int entry = 0;
+
+    /** The number of records, i.e. lines, parsed so far. */
+    private int line = 0;
+
     /**
      * Initializes a new LoaderImp instance to initialize {@code machine}.
      *
@@ -87,12 +131,9 @@ public class LoaderImp implements Loader {
             maxAddrVal = Integer.parseInt(strAddr, 16)
                     + Integer.parseInt(record.substring(11, 15), 16) - 1;
         } catch (NumberFormatException e) {
-            System.out.println("Error 104: Malformed record encountered.");
-            System.exit(1);
+            throw error(104, record);
         } catch (StringIndexOutOfBoundsException s) {
-            System.out
-                    .println("Error 105: Malformed record encountered.  Record length requirements not met.");
-            System.exit(1);
+            throw error(105, record);
         }
 
         return maxAddrVal;
@@ -116,16 +157,168 @@ public class LoaderImp implements Loader {
         return result;
     }
 
+    /**
+     * Returns the exception reporting error {@code code} for {@code record},
+     * the current record.
+     */
+    private LoadException error(int code, String record) {
+        return new LoadException(code, line, record);
+    }
+
+    /**
+     * Returns the record at {@code buffer[start, start+length)} as a string.
+     */
+    private static String text(ByteBuffer buffer, int start, int length) {
+        char[] chars = new char[length];
+
+        for (int k = 0; k < length; ++k) {
+            chars[k] = (char) (buffer.get(start + k) & 0xFF);
+        }
+        return new String(chars);
+    }
+
+    /**
+     * Returns the value of the four hex digits at {@code buffer[at, at+4)},
+     * or -1 if they are not all hex digits.
+     */
+    private static int hex4(ByteBuffer buffer, int at) {
+        int d0 = HEX_VALUE[buffer.get(at) & 0xFF];
+        int d1 = HEX_VALUE[buffer.get(at + 1) & 0xFF];
+        int d2 = HEX_VALUE[buffer.get(at + 2) & 0xFF];
+        int d3 = HEX_VALUE[buffer.get(at + 3) & 0xFF];
+
+        if ((d0 | d1 | d2 | d3) < 0) {
+            return -1;
+        }
+        return d0 << 12 | d1 << 8 | d2 << 4 | d3;
+    }
+
+    /**
+     * Parses the record at {@code buffer[start, start+length)}, as
+     * {@code parseString} does.
+     *
+     * @param buffer
+     *            The buffer holding the record.
+     * @param start
+     *            The index of the first character of the record.
+     * @param length
+     *            The number of characters of the record, without the line
+     *            terminator.
+     */
+    private void parseRecord(ByteBuffer buffer, int start, int length) {
+        ++line;
+        if (length == 0) {
+            return;
+        }
+
+        switch (buffer.get(start)) {
+        case 'H': {
+            if (headerRead) {
+                throw error(102, text(buffer, start, length));
+            }
+            // Check the fields in the order parseString does, so that a
+            // short record with a bad address is malformed (104) too.
+            if (length < 11) {
+                throw error(105, text(buffer, start, length));
+            }
+
+            int min = hex4(buffer, start + 7);
+
+            if (min < 0) {
+                throw error(104, text(buffer, start, length));
+            }
+            if (length < 15) {
+                throw error(105, text(buffer, start, length));
+            }
+
+            int size = hex4(buffer, start + 11);
+
+            if (size < 0) {
+                throw error(104, text(buffer, start, length));
+            }
+            headerRead = true;
+            minAddrVal = min;
+            maxAddrVal = min + size - 1;
+            segmentName = text(buffer, start + 1, 6);
+            break;
+        }
+
+        case 'T': {
+            if (!headerRead) {
+                throw error(101, text(buffer, start, length));
+            }
+            if (length < 5) {
+                throw error(105, text(buffer, start, length));
+            }
+
+            int addr = hex4(buffer, start + 1);
+
+            if (addr < 0) {
+                throw error(104, text(buffer, start, length));
+            }
+            if (!isValid(addr)) {
+                throw error(100, text(buffer, start, length));
+            }
+            if (length < 9) {
+                throw error(105, text(buffer, start, length));
+            }
+
+            int value = hex4(buffer, start + 5);
+
+            if (value < 0) {
+                throw error(104, text(buffer, start, length));
+            }
+            machine.setMemory(addr, value);
+            break;
+        }
+
+        case 'E': {
+            if (!headerRead) {
+                throw error(103, text(buffer, start, length));
+            }
+            if (length < 5) {
+                throw error(105, text(buffer, start, length));
+            }
+
+            int addr = hex4(buffer, start + 1);
+
+            if (addr < 0) {
+                throw error(104, text(buffer, start, length));
+            }
+            if (!isValid(addr)) {
+                throw error(106, text(buffer, start, length));
+            }
+            machine.setPC(addr);
+            entry = addr;
+            endRead = true;
+            break;
+        }
+
+        default:
+            // If a line does not start with H, T, or E, ignore it as if it were
+            // a comment.
+        }
+    }
+
     @Override
     public String getSegmentName() {
         return segmentName;
     }
 
+    /**
+     * Returns the number of records, i.e. lines, parsed so far.
+     */
+    public int getRecordCount() {
+        return line;
+    }
+
     @Override
     public void parseString(String record) {
 
         int addr = 0;
 
+        ++line;
+
         // Check the type of instruction
         checkType(record);
 
@@ -136,26 +329,23 @@ public class LoaderImp implements Loader {
             try {
 
                 if (!headerRead) {
-                    headerRead = true;
                     minAddrVal = Integer.parseInt(record.substring(7, 11), 16);
                     maxAddrVal = getMaxAddrVal(record);
                     segmentName = record.substring(1, 7);
+                    headerRead = true;
                 } else {
-                    System.out.println("Error 102: Too many header records.");
-                    System.exit(1);
+                    throw error(102, record);
                 }
+            } catch (NumberFormatException e) {
+                throw error(104, record);
             } catch (StringIndexOutOfBoundsException s) {
-                System.out
-                        .println("Error 105: Malformed record encountered. Record length requirements not met.");
-                System.exit(1);
+                throw error(105, record);
             }
             break;
 
         case 'T':
             if (!headerRead) {
-                System.out
-                        .println("Error 101: Text record found before header.");
-                System.exit(1);
+                throw error(101, record);
             } else {
                 try {
                     // Pull the memory location from the string.
@@ -164,13 +354,9 @@ public class LoaderImp implements Loader {
                     // Convert the memory location a string to an integer.
                     addr = Integer.parseInt(strAddr, 16);
                 } catch (NumberFormatException e) {
-                    System.out
-                            .println("Error 104: Malformed record encountered.");
-                    System.exit(1);
+                    throw error(104, record);
                 } catch (StringIndexOutOfBoundsException s) {
-                    System.out
-                            .println("Error 105: Malformed record encountered.  Record length requirements not met.");
-                    System.exit(1);
+                    throw error(105, record);
                 }
 
                 // Compare the memory location to the max location to check if
@@ -180,22 +366,16 @@ public class LoaderImp implements Loader {
 
                 // Error Checking: If ins addr > header max mem addr.
                 if (!validIns) {
-                    System.out
-                            .println("Error 100: Instruction address is set outside of the maximum memory address set in the header.");
-                    System.exit(1);
+                    throw error(100, record);
                 }
 
                 try {
                     // Get the memory value from the string passed through.
                     memValue = Integer.parseInt(record.substring(5, 9), 16);
                 } catch (NumberFormatException e) {
-                    System.out
-                            .println("Error 104:  Malformed record encountered.");
-                    System.exit(1);
+                    throw error(104, record);
                 } catch (StringIndexOutOfBoundsException s) {
-                    System.out
-                            .println("Error 105: Malformed record encountered. Record length requirements not met.");
-                    System.exit(1);
+                    throw error(105, record);
                 }
 
                 // Set M[addr] = memValue
@@ -206,32 +386,21 @@ public class LoaderImp implements Loader {
 
         case 'E':
             if (!headerRead) {
-                System.out
-                        .println("Error 103: End record found before header.");
-                System.exit(1);
-            } else {
-
-            	if (Integer.parseInt(record.substring(1, 5), 16) < minAddrVal || Integer.parseInt(record.substring(1,5), 16) > maxAddrVal){
- 
-            		System.out.println("Error 106: End record execution address is outside the boundaries set by the header record.");
-            		System.exit(1);
-            		
-            	}
-            	else {
-
-               		try {
-                    	machine.setPC(Integer.parseInt(record.substring(1, 5), 16));
-                	} catch (NumberFormatException e) {
-                		System.out
-                    		.println("Error 104: Malformed record encountered.");
-                    	System.exit(1);
-                	} catch (StringIndexOutOfBoundsException s) {
-                    	System.out
-                    		.println("Error 105: Malformed record encountered. Record length requirements not met.");
-                    	System.exit(1);
-                	}
-            	}
+                throw error(103, record);
             }
+            try {
+                addr = Integer.parseInt(record.substring(1, 5), 16);
+            } catch (NumberFormatException e) {
+                throw error(104, record);
+            } catch (StringIndexOutOfBoundsException s) {
+                throw error(105, record);
+            }
+            if (!isValid(addr)) {
+                throw error(106, record);
+            }
+            machine.setPC(addr);
+            entry = addr;
+            endRead = true;
             break;
 
         default:
@@ -239,4 +408,146 @@ public class LoaderImp implements Loader {
             // a comment.
         }
     }
+
+    @Override
+    public void parseBuffer(ByteBuffer records) {
+        int at = records.position(), end = records.limit();
+
+        while (at < end) {
+            int eol = at;
+            byte c = 0;
+
+            while (eol < end && (c = records.get(eol)) != '\n' && c != '\r') {
+                ++eol;
+            }
+            parseRecord(records, at, eol - at);
+
+            at = eol + 1;
+            if (c == '\r' && at < end && records.get(at) == '\n') {
+                ++at;
+            }
+        }
+        records.position(end);
+    }
+
+    @Override
+    public void parseChannel(FileChannel channel) throws IOException {
+        parseBuffer(contents(channel));
+    }
+
+    /**
+     * Returns the contents of the file open on {@code channel}, from its
+     * current position to its end.
+     */
+    static ByteBuffer contents(FileChannel channel)
+            throws IOException {
+        long size = channel.size() - channel.position();
+
+        if (size > MAP_THRESHOLD) {
+            return channel.map(FileChannel.MapMode.READ_ONLY, channel
+                    .position(), size);
+        }
+
+        // Small files are read in one go, which is cheaper than mapping them.
+        ByteBuffer buffer = ByteBuffer.allocate((int) size);
+
+        while (buffer.hasRemaining() && channel.read(buffer) >= 0) {
+            // Keep reading.
+        }
+        buffer.flip();
+        return buffer;
+    }
+
+    /**
+     * Loads the object file or binary image {@code file} into
+     * {@code machine}, setting its PC to the execution address.
+     *
+     * @param file
+     *            The file to load.
+     * @param machine
+     *            The machine to load the file into.
+     * @return a description of what was loaded
+     * @throws LoadException
+     *             if the file cannot be read (errors 200 to 202), is
+     *             malformed (100 to 108), or lacks a header record (203) or
+     *             an end record (205)
+     */
+    public static LoadResult load(File file, InterpreterImp machine) {
+        return load(contents(file), machine);
+    }
+
+    /**
+     * Returns the contents of {@code file}.
+     *
+     * @throws LoadException
+     *             if the file cannot be read (errors 200 to 202)
+     */
+    static ByteBuffer contents(File file) {
+        FileInputStream input = null;
+        ByteBuffer contents = null;
+
+        if (!file.exists()) {
+            throw new LoadException(200, 0, null);
+        }
+        try {
+            input = new FileInputStream(file);
+            contents = contents(input.getChannel());
+        } catch (IOException e) {
+            throw new LoadException(201, "Could not read input file: " + e,
+                    0, null);
+        } finally {
+            try {
+                if (input != null) {
+                    input.close();
+                }
+            } catch (IOException e) {
+                throw new LoadException(202, "Problem closing input file: "
+                        + e, 0, null);
+            }
+        }
+        return contents;
+    }
+
+    /**
+     * Loads the object file or binary image in {@code contents}, from its
+     * position to its limit, into {@code machine}, setting its PC to the
+     * execution address.
+     *
+     * @param contents
+     *            The contents of the file to load.
+     * @param machine
+     *            The machine to load the file into.
+     * @return a description of what was loaded
+     * @throws LoadException
+     *             if the file is malformed (errors 100 to 108), or lacks a
+     *             header record (203) or an end record (205)
+     */
+    public static LoadResult load(ByteBuffer contents, InterpreterImp machine) {
+        if (MachineSnapshot.isSnapshot(contents)) {
+            MachineSnapshot snapshot = MachineSnapshot.read(contents);
+
+            snapshot.restore(machine);
+            return snapshot.getSegment();
+        }
+        if (BinaryImage.isImage(contents)) {
+            BinaryImage image = BinaryImage.read(contents);
+
+            image.loadInto(machine);
+            return new LoadResult(image.getSegmentName(), image.getStart(),
+                    image.getLength(), image.getEntry(), 0);
+        }
+
+        LoaderImp loader = new LoaderImp(machine);
+
+        loader.parseBuffer(contents);
+        if (loader.segmentName == null) {
+            throw new LoadException(203, 0, null);
+        }
+        if (!loader.endRead) {
+            throw new LoadException(205, 0, null);
+        }
+        return new LoadResult(loader.segmentName, loader.minAddrVal,
+                loader.maxAddrVal - loader.minAddrVal + 1, loader.entry,
+                loader.line);
+    }
 }
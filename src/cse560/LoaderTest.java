@@ -1,6 +1,13 @@
 package cse560;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
 
 import org.junit.Test;
 
@@ -64,4 +71,144 @@ public class LoaderTest {
 		int pc = machine.getPC();
 		assertEquals("PC = Beginning address set by End record.", pc, 0005);
 	}
+
+	/**
+	 * Parse an object file from a buffer.  Records may end in LF, CR or CR LF, lines that are not records and text beyond the
+	 * end of a record are ignored, and the last line need not be terminated.  The result must be the same as parsing each
+	 * line with parseString.
+	 */
+	@Test
+	public void parseBuffer() throws Exception {
+		String file = "HSAMPLE30000104\r\nT3000E300 comment\n; not a record\rT3001beef\r\r\nE3001";
+		Interpreter expected = new InterpreterImp();
+		Loader byLine = new LoaderImp(expected);
+		Loader loader = new LoaderImp(machine);
+
+		for (String line : file.split("\r\n|\r|\n")) {
+			byLine.parseString(line);
+		}
+		ByteBuffer buffer = ByteBuffer.wrap(file.getBytes("ISO-8859-1"));
+		loader.parseBuffer(buffer);
+
+		assertEquals("Buffer consumed", 0, buffer.remaining());
+		assertEquals("Header Name = SAMPLE", byLine.getSegmentName(), loader.getSegmentName());
+		assertEquals("M[x3000]", expected.getMemory(0x3000), machine.getMemory(0x3000));
+		assertEquals("M[x3001]", 0xBEEF, machine.getMemory(0x3001));
+		assertEquals("PC", expected.getPC(), machine.getPC());
+	}
+
+	/**
+	 * Parse an object file large enough to be mapped rather than read.  Every text record must end up in memory.
+	 */
+	@Test
+	public void parseChannel() throws IOException {
+		File file = File.createTempFile("loader", ".o");
+		StringBuilder records = new StringBuilder("HBIGONE0000FFFF\n");
+
+		for (int addr = 0; addr < 0x8000; ++addr) {
+			records.append(String.format("T%04X%04X\n", addr, addr ^ 0x5A5A));
+		}
+		records.append("E0123\n");
+
+		FileOutputStream out = new FileOutputStream(file);
+		FileInputStream in = null;
+
+		try {
+			out.write(records.toString().getBytes("ISO-8859-1"));
+			out.close();
+			in = new FileInputStream(file);
+			new LoaderImp(machine).parseChannel(in.getChannel());
+		} finally {
+			out.close();
+			if (in != null) {
+				in.close();
+			}
+			file.delete();
+		}
+
+		for (int addr = 0; addr < 0x8000; ++addr) {
+			assertEquals("M[" + addr + "]", addr ^ 0x5A5A, machine.getMemory(addr));
+		}
+		assertEquals("PC", 0x0123, machine.getPC());
+	}
+
+	/**
+	 * A malformed record is reported as a LoadException with the error code, the line number and the text of the record,
+	 * instead of terminating the program.
+	 */
+	@Test
+	public void malformedRecord() throws Exception {
+		String file = "HSAMPLE30000010\n; comment\nT3000XYZW\n";
+		Loader loader = new LoaderImp(machine);
+
+		try {
+			loader.parseBuffer(ByteBuffer.wrap(file.getBytes("ISO-8859-1")));
+			fail("No exception");
+		} catch (LoadException e) {
+			assertEquals("Code", 104, e.getCode());
+			assertEquals("Line", 3, e.getLine());
+			assertEquals("Record", "T3000XYZW", e.getRecord());
+			assertEquals("Message", "Error 104: Malformed record encountered.", e.getMessage());
+		}
+
+		try {
+			new LoaderImp(machine).parseString("T30001234");
+			fail("No exception");
+		} catch (LoadException e) {
+			assertEquals("Code", 101, e.getCode());
+			assertEquals("Line", 1, e.getLine());
+		}
+	}
+
+	/**
+	 * parseBuffer reports the same error as parseString for header records that are short, malformed or both.
+	 */
+	@Test
+	public void malformedHeader() throws Exception {
+		String[] headers = { "HABCDEF", "HABCDEFzzzz", "HABCDEF3000", "HABCDEF3000zz", "HABCDEF3000zzzz" };
+
+		for (String header : headers) {
+			int expected = 0, actual = 0;
+
+			try {
+				new LoaderImp(new InterpreterImp()).parseString(header);
+			} catch (LoadException e) {
+				expected = e.getCode();
+			}
+			try {
+				new LoaderImp(machine).parseBuffer(ByteBuffer.wrap(header.getBytes("ISO-8859-1")));
+			} catch (LoadException e) {
+				actual = e.getCode();
+			}
+			assertEquals(header, expected, actual);
+		}
+	}
+
+	/**
+	 * Loading a file without an end record fails with error 205, and a missing file with error 200.
+	 */
+	@Test
+	public void incompleteFile() throws IOException {
+		File file = File.createTempFile("loader", ".o");
+		FileOutputStream out = new FileOutputStream(file);
+
+		try {
+			out.write("HSAMPLE30000010\nT30001234\n".getBytes("ISO-8859-1"));
+			out.close();
+			LoaderImp.load(file, new InterpreterImp());
+			fail("No exception");
+		} catch (LoadException e) {
+			assertEquals("Code", 205, e.getCode());
+		} finally {
+			out.close();
+			file.delete();
+		}
+
+		try {
+			LoaderImp.load(file, new InterpreterImp());
+			fail("No exception");
+		} catch (LoadException e) {
+			assertEquals("Code", 200, e.getCode());
+		}
+	}
 }
@@ -0,0 +1,125 @@
+package cse560;
+
+/**
+ * The random number generator of an MMXI machine, used by TRAP x43 (RND).
+ * It implements SplitMix64: the state is a 64-bit counter advanced by a
+ * fixed odd constant, and each value is a bijective mix of the counter. This
+ * makes a generator cheap to create and to step, and its output depends on
+ * nothing but its seed, so runs with the same seed are reproducible.
+ * <p>
+ * {@code split} derives an independent generator deterministically, which
+ * gives every machine of a parallel run a stream of its own while the whole
+ * run still depends only on one seed.
+ *
+ * @author Igor Tolkachev
+ */
+public final class MachineRandom {
+    /** The amount the state is advanced by; odd, and about 2^64 / phi. */
+    private static final long GOLDEN_GAMMA = 0x9E3779B97F4A7C15L;
+
+    /** Seeds generators that are not given one, so that they all differ. */
+    private static long seedUniquifier = System.nanoTime();
+
+    // ------------------------------------------------------------------------
+    // PRIVATE VARIABLES
+    // ------------------------------------------------------------------------
+
+    /** The state of the generator. */
+    private long state;
+
+    // -------------------------------------------------------------------------
+    // CONSTRUCTORS
+    // -------------------------------------------------------------------------
+
+    /**
+     * Initializes a generator whose sequence is determined by {@code seed}.
+     *
+     * @param seed
+     *            The initial state.
+     */
+    public MachineRandom(long seed) {
+        this.state = seed;
+    }
+
+    /**
+     * Initializes a generator with a seed that is different each time.
+     */
+    public MachineRandom() {
+        this(nextSeed());
+    }
+
+    // -------------------------------------------------------------------------
+    // PRIVATE OPERATIONS
+    // -------------------------------------------------------------------------
+
+    /**
+     * Returns a new seed for a generator that is not given one.
+     */
+    private static synchronized long nextSeed() {
+        seedUniquifier += GOLDEN_GAMMA;
+        return mix64(seedUniquifier ^ System.nanoTime());
+    }
+
+    /**
+     * Returns a bijective mix of the bits of {@code z} (Stafford's variant 13
+     * of the MurmurHash3 finalizer).
+     */
+    private static long mix64(long z) {
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        return z ^ (z >>> 31);
+    }
+
+    // -------------------------------------------------------------------------
+    // PUBLIC OPERATIONS
+    // -------------------------------------------------------------------------
+
+    /**
+     * Returns the next 64 random bits.
+     */
+    public long nextLong() {
+        state += GOLDEN_GAMMA;
+        return mix64(state);
+    }
+
+    /**
+     * Moves the generator back to the state it was in before the last call
+     * of {@code nextLong}.
+     */
+    void rewind() {
+        state -= GOLDEN_GAMMA;
+    }
+
+    /**
+     * Returns the next random 16-bit word, in [0, {@code Memory.MAX_VALUE}].
+     */
+    public int nextWord() {
+        return (int) (nextLong() >>> 48);
+    }
+
+    /**
+     * Returns a new generator whose sequence is determined by the state of
+     * this one, and advances this one.
+     */
+    public MachineRandom split() {
+        return new MachineRandom(nextLong());
+    }
+
+    /**
+     * Returns the state of the generator. A generator initialized with it
+     * continues with the same sequence as this one.
+     */
+    public long getState() {
+        return state;
+    }
+
+    /**
+     * Sets the state of the generator, as returned by {@code getState}.
+     *
+     * @param state
+     *            The new state.
+     */
+    public void setState(long state) {
+        this.state = state;
+    }
+}
@@ -0,0 +1,509 @@
+package cse560;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Runs many MMXI machines on a fixed number of worker threads by time
+ * slicing. A worker takes a task from the run queue, runs its machine for at
+ * most one quantum of instructions, and puts the task back at the end of the
+ * queue unless its machine has halted or used up its budget. Since every
+ * engine stops exactly at the end of its budget, tasks are preempted at
+ * instruction boundaries, and a runaway program delays the others by at most
+ * one quantum per turn, however long it runs.
+ * <p>
+ * Under the {@code ROUND_ROBIN} policy, tasks take turns in the order they
+ * were queued. Under the {@code PRIORITY} policy, a task only runs when no
+ * task with a higher priority is waiting; tasks with the same priority take
+ * turns.
+ * <p>
+ * A task can run either an {@link Interpreter}, which stops only when it
+ * halts or reaches its budget, or a {@link SimulationSession}, which prints
+ * as it runs and is finished when its task completes.
+ * <p>
+ * A task whose machine stops with {@link StopReason#INPUT}, because its
+ * console (e.g. a {@link QueuedTrapHandler}) has no input yet, takes no
+ * turns until {@code wake} is called for it. A task waiting for input costs
+ * no thread, so a few workers can serve any number of interactive
+ * sessions.
+ *
+ * @author Igor Tolkachev
+ */
+public final class MachineScheduler {
+
+    /**
+     * How the next task to run is chosen.
+     */
+    public enum Policy {
+        /** Tasks take turns in the order they were queued. */
+        ROUND_ROBIN,
+
+        /** Tasks with higher priority run first; equal ones take turns. */
+        PRIORITY
+    }
+
+    /**
+     * Receives tasks as they complete.
+     */
+    public interface Listener {
+        /**
+         * Called on a worker thread when {@code task} has completed.
+         *
+         * @param task
+         *            The task, for which {@code isDone()} is true.
+         */
+        void completed(Task task);
+    }
+
+    /**
+     * A machine or session scheduled to run, and its progress.
+     */
+    public static final class Task {
+        /** The machine, or null. */
+        private final Interpreter machine;
+
+        /** The session, or null. */
+        private final SimulationSession session;
+
+        /** The maximum number of instructions to execute. */
+        private final long budget;
+
+        /** The priority of the task. */
+        private final int priority;
+
+        /** When the task was submitted, in nanoseconds. */
+        private final long submitted = System.nanoTime();
+
+        /** Counts down when the task has completed. */
+        private final CountDownLatch done = new CountDownLatch(1);
+
+        /** The place of the task in the run queue. */
+        private long ticket;
+
+        /** The number of instructions executed so far. */
+        private volatile long steps;
+
+        /** The number of slices run so far. */
+        private volatile int slices;
+
+        /** When the first slice began, in nanoseconds. */
+        private long started;
+
+        /** When the task completed, in nanoseconds. */
+        private long completed;
+
+        /** The outcome, once completed without failure. */
+        private RunResult result;
+
+        /** Why the task failed, or null. */
+        private Throwable failure;
+
+        /** Whether the last slice stopped because input was needed. */
+        private boolean waiting;
+
+        /** Whether the task is waiting for input, out of the run queue. */
+        private boolean parked;
+
+        /** Whether {@code wake} was called since the last slice began. */
+        private boolean wakeup;
+
+        /**
+         * Initializes a task.
+         */
+        private Task(Interpreter machine, SimulationSession session,
+                long budget, int priority) {
+            this.machine = machine;
+            this.session = session;
+            this.budget = budget;
+            this.priority = priority;
+        }
+
+        /**
+         * Runs the task for up to {@code quantum} instructions, and returns
+         * whether it has completed.
+         */
+        private boolean runSlice(long quantum) {
+            synchronized (this) {
+                wakeup = false;
+            }
+            if (slices++ == 0) {
+                started = System.nanoTime();
+                if (session != null) {
+                    session.start();
+                }
+            }
+            if (session != null) {
+                boolean finished = session.resume(quantum);
+
+                steps = session.getStepCount();
+                waiting = session.isWaitingForInput();
+                if (finished) {
+                    result = new RunResult(session.getEngine().isHalted()
+                            ? StopReason.HALT : StopReason.BUDGET, steps);
+                }
+                return finished;
+            }
+
+            // A DBUG instruction ends the slice early, but not the task.
+            RunResult slice = machine.run(Math.min(quantum, budget - steps));
+
+            steps += slice.getSteps();
+            waiting = slice.getReason() == StopReason.INPUT;
+            if (slice.getReason() == StopReason.HALT || steps >= budget) {
+                result = new RunResult(machine.isHalted() ? StopReason.HALT
+                        : StopReason.BUDGET, steps);
+                return true;
+            }
+            return false;
+        }
+
+        /**
+         * Takes the task out of the run queue until {@code wake} is called,
+         * unless it has been called during the last slice. Returns whether
+         * the task was parked.
+         */
+        private synchronized boolean park() {
+            if (wakeup) {
+                return false;
+            }
+            parked = true;
+            return true;
+        }
+
+        /**
+         * Returns the machine, or null if the task runs a session.
+         */
+        public Interpreter getMachine() {
+            return machine;
+        }
+
+        /**
+         * Returns the session, or null if the task runs a machine.
+         */
+        public SimulationSession getSession() {
+            return session;
+        }
+
+        /**
+         * Returns the priority of the task.
+         */
+        public int getPriority() {
+            return priority;
+        }
+
+        /**
+         * Returns the number of instructions executed so far.
+         */
+        public long getSteps() {
+            return steps;
+        }
+
+        /**
+         * Returns the number of slices run so far.
+         */
+        public int getSlices() {
+            return slices;
+        }
+
+        /**
+         * Returns whether the task has completed.
+         */
+        public boolean isDone() {
+            return done.getCount() == 0;
+        }
+
+        /**
+         * Returns the time from when the task was submitted until it
+         * completed, in nanoseconds.
+         * <p>
+         * Requires: {@code isDone()}
+         */
+        public long getLatency() {
+            return completed - submitted;
+        }
+
+        /**
+         * Returns the time from when the task first ran until it completed,
+         * in nanoseconds, or 0 if it never ran.
+         * <p>
+         * Requires: {@code isDone()}
+         */
+        public long getRunTime() {
+            return slices == 0 ? 0 : completed - started;
+        }
+
+        /**
+         * Waits for the task to complete and returns why it stopped:
+         * {@code HALT} or {@code BUDGET}, and the number of instructions it
+         * executed.
+         *
+         * @return the outcome
+         * @throws InterruptedException
+         *             if the calling thread is interrupted while waiting
+         * @throws ExecutionException
+         *             if running the task threw an exception, e.g. a
+         *             LoadException when its session started, or the
+         *             scheduler was shut down before it completed
+         */
+        public RunResult awaitResult() throws InterruptedException,
+                ExecutionException {
+            done.await();
+            if (failure != null) {
+                throw new ExecutionException(failure);
+            }
+            return result;
+        }
+    }
+
+    // ------------------------------------------------------------------------
+    // PRIVATE VARIABLES
+    // ------------------------------------------------------------------------
+
+    /** The maximum number of instructions in a slice. */
+    private final long quantum;
+
+    /** The tasks waiting for a turn. */
+    private final BlockingQueue<Task> runQueue;
+
+    /** The worker threads. */
+    private final List<Thread> workers = new ArrayList<Thread>();
+
+    /** Hands out tickets, in the order tasks are queued. */
+    private final AtomicLong tickets = new AtomicLong();
+
+    /** The tasks waiting for input. */
+    private final Set<Task> parkedTasks = Collections
+            .synchronizedSet(new HashSet<Task>());
+
+    /** Receives tasks as they complete, or null. */
+    private volatile Listener listener;
+
+    /** Whether {@code shutdown} has been called. */
+    private volatile boolean shutdown;
+
+    // -------------------------------------------------------------------------
+    // CONSTRUCTORS
+    // -------------------------------------------------------------------------
+
+    /**
+     * Initializes a scheduler and starts its workers.
+     * <p>
+     * Requires: {@code threads > 0} and {@code quantum > 0}
+     *
+     * @param threads
+     *            The number of worker threads.
+     * @param quantum
+     *            The maximum number of instructions a task runs per turn.
+     * @param policy
+     *            How the next task to run is chosen.
+     */
+    public MachineScheduler(int threads, long quantum, Policy policy) {
+        this.quantum = quantum;
+        if (policy == Policy.PRIORITY) {
+            this.runQueue = new PriorityBlockingQueue<Task>(64,
+                    new Comparator<Task>() {
+                        @Override
+                        public int compare(Task a, Task b) {
+                            if (a.priority != b.priority) {
+                                return a.priority > b.priority ? -1 : 1;
+                            }
+                            return a.ticket < b.ticket ? -1
+                                    : a.ticket == b.ticket ? 0 : 1;
+                        }
+                    });
+        } else {
+            this.runQueue = new LinkedBlockingQueue<Task>();
+        }
+
+        for (int k = 0; k < threads; ++k) {
+            Thread worker = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    work();
+                }
+            }, "MachineScheduler-" + k);
+
+            worker.setDaemon(true);
+            workers.add(worker);
+            worker.start();
+        }
+    }
+
+    // -------------------------------------------------------------------------
+    // PRIVATE OPERATIONS
+    // -------------------------------------------------------------------------
+
+    /**
+     * Puts {@code task} at the end of the run queue.
+     */
+    private void enqueue(Task task) {
+        task.ticket = tickets.getAndIncrement();
+        runQueue.add(task);
+    }
+
+    /**
+     * Marks {@code task} as completed, having failed with {@code failure} if
+     * it is not null.
+     */
+    private void complete(Task task, Throwable failure) {
+        Listener l = listener;
+
+        task.failure = failure;
+        task.completed = System.nanoTime();
+        task.done.countDown();
+        if (l != null) {
+            l.completed(task);
+        }
+    }
+
+    /**
+     * Runs slices of tasks until the scheduler is shut down.
+     */
+    private void work() {
+        while (!shutdown) {
+            Task task;
+
+            try {
+                task = runQueue.take();
+            } catch (InterruptedException e) {
+                break;
+            }
+
+            boolean finished;
+
+            try {
+                finished = task.runSlice(quantum);
+            } catch (RuntimeException e) {
+                complete(task, e);
+                continue;
+            }
+            if (finished) {
+                complete(task, null);
+            } else if (task.waiting) {
+                // Leave the task out of the run queue until its input
+                // arrives, unless it has arrived already.
+                parkedTasks.add(task);
+                if (!task.park()) {
+                    parkedTasks.remove(task);
+                    enqueue(task);
+                }
+            } else {
+                enqueue(task);
+            }
+        }
+    }
+
+    // -------------------------------------------------------------------------
+    // PUBLIC OPERATIONS
+    // -------------------------------------------------------------------------
+
+    /**
+     * Has {@code listener} receive every task that completes from now on.
+     */
+    public void setListener(Listener listener) {
+        this.listener = listener;
+    }
+
+    /**
+     * Schedules {@code machine} to run until it halts or has executed
+     * {@code budget} instructions.
+     * <p>
+     * Requires: {@code budget > 0}, and the machine is not used elsewhere
+     * until the task completes
+     *
+     * @param machine
+     *            The machine to run.
+     * @param budget
+     *            The maximum number of instructions to execute.
+     * @param priority
+     *            The priority of the task, if the policy is
+     *            {@code PRIORITY}; higher runs first.
+     * @return the task
+     */
+    public Task submit(Interpreter machine, long budget, int priority) {
+        Task task = new Task(machine, null, budget, priority);
+
+        enqueue(task);
+        return task;
+    }
+
+    /**
+     * Schedules {@code session} to start and run until it is finished. When
+     * the task has completed, {@code session.finish()} returns the outcome.
+     * <p>
+     * Requires: {@code session} has not started
+     *
+     * @param session
+     *            The session to run.
+     * @param priority
+     *            The priority of the task, if the policy is
+     *            {@code PRIORITY}; higher runs first.
+     * @return the task
+     */
+    public Task submit(SimulationSession session, int priority) {
+        Task task = new Task(null, session, Long.MAX_VALUE, priority);
+
+        enqueue(task);
+        return task;
+    }
+
+    /**
+     * Puts {@code task} back into the run queue if it is waiting for input.
+     * Call this whenever input has been added to the console of its machine
+     * or session; calling it at other times does no harm.
+     *
+     * @param task
+     *            A task of this scheduler.
+     */
+    public void wake(Task task) {
+        synchronized (task) {
+            if (!task.parked) {
+                task.wakeup = true;
+                return;
+            }
+            task.parked = false;
+        }
+        parkedTasks.remove(task);
+        if (!shutdown) {
+            enqueue(task);
+        }
+    }
+
+    /**
+     * Stops the workers once their current slices end. Tasks that have not
+     * completed fail with an {@link IllegalStateException}.
+     *
+     * @throws InterruptedException
+     *             if the calling thread is interrupted while waiting for the
+     *             workers to stop
+     */
+    public void shutdown() throws InterruptedException {
+        List<Task> pending = new ArrayList<Task>();
+
+        shutdown = true;
+        for (Thread worker : workers) {
+            worker.interrupt();
+        }
+        for (Thread worker : workers) {
+            worker.join();
+        }
+        runQueue.drainTo(pending);
+        synchronized (parkedTasks) {
+            pending.addAll(parkedTasks);
+            parkedTasks.clear();
+        }
+        for (Task task : pending) {
+            complete(task, new IllegalStateException("Scheduler shut down"));
+        }
+    }
+}
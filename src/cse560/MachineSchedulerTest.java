@@ -0,0 +1,194 @@
+package cse560;
+
+import static cse560.EngineAssert.load;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+
+import org.junit.Test;
+
+public final class MachineSchedulerTest {
+
+    /** Counts R0 down from 5 and halts after 13 instructions. */
+    private static final int[] COUNTDOWN = {
+            0x5020, // x3000 AND R0,R0,#0
+            0x1025, // x3001 ADD R0,R0,#5
+            0x103F, // x3002 ADD R0,R0,#-1
+            0x0202, // x3003 BRp x3002
+            0xF025, // x3004 TRAP x25
+    };
+
+    /** Branches to itself forever. */
+    private static final int[] LOOP = {
+            0x0E00, // x3000 BRnzp x3000
+    };
+
+    /** Prints a character and halts. */
+    private static final int[] GATE = {
+            0xF021, // x3000 TRAP x21
+            0xF025, // x3001 TRAP x25
+    };
+
+    /**
+     * Returns a scheduler whose listener adds completed tasks to
+     * {@code completed}.
+     */
+    private static MachineScheduler scheduler(int threads, long quantum,
+            MachineScheduler.Policy policy,
+            final List<MachineScheduler.Task> completed) {
+        MachineScheduler scheduler = new MachineScheduler(threads, quantum,
+                policy);
+
+        scheduler.setListener(new MachineScheduler.Listener() {
+            @Override
+            public void completed(MachineScheduler.Task task) {
+                completed.add(task);
+            }
+        });
+        return scheduler;
+    }
+
+    /**
+     * A short program finishes long before a runaway one queued ahead of it,
+     * and the runaway one stops exactly at its budget.
+     */
+    @Test
+    public void roundRobin() throws Exception {
+        List<MachineScheduler.Task> completed = Collections
+                .synchronizedList(new ArrayList<MachineScheduler.Task>());
+        MachineScheduler scheduler = scheduler(1, 10,
+                MachineScheduler.Policy.ROUND_ROBIN, completed);
+        final CountDownLatch open = new CountDownLatch(1);
+
+        // Hold the worker in a first task until both are queued, so that
+        // the loop cannot finish before the countdown is submitted.
+        scheduler.submit(load(GATE, new TrapHandler() {
+            @Override
+            public void print(char c) {
+                try {
+                    open.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+
+            @Override
+            public void print(String s) {
+                // Do nothing.
+            }
+
+            @Override
+            public String readLine(String prompt) {
+                return null;
+            }
+
+            @Override
+            public boolean hasInput(String prompt) {
+                return false;
+            }
+
+            @Override
+            public void flush() {
+                // Do nothing.
+            }
+        }), 10, 0);
+
+        MachineScheduler.Task loop = scheduler.submit(load(LOOP), 100005, 0);
+        MachineScheduler.Task countdown = scheduler.submit(load(COUNTDOWN),
+                1000, 0);
+
+        open.countDown();
+
+        assertEquals("countdown", new RunResult(StopReason.HALT, 13)
+                .toString(), countdown.awaitResult().toString());
+        assertTrue("countdown ran in few slices", countdown.getSlices() <= 2);
+        assertEquals("loop", new RunResult(StopReason.BUDGET, 100005)
+                .toString(), loop.awaitResult().toString());
+        assertEquals("loop slices", 10001, loop.getSlices());
+        assertTrue("countdown completed first", completed.get(1) == countdown);
+        scheduler.shutdown();
+    }
+
+    /**
+     * Under the priority policy, a task with higher priority runs to
+     * completion before one with lower priority continues.
+     */
+    @Test
+    public void priority() throws Exception {
+        MachineScheduler scheduler = new MachineScheduler(1, 10,
+                MachineScheduler.Policy.PRIORITY);
+        MachineScheduler.Task low = scheduler.submit(load(LOOP), 5000000, 1);
+        MachineScheduler.Task high = scheduler.submit(load(LOOP), 1000, 2);
+
+        high.awaitResult();
+        assertTrue("low still running", !low.isDone());
+        assertEquals("low", 5000000, low.awaitResult().getSteps());
+        scheduler.shutdown();
+    }
+
+    /**
+     * A session run in slices prints the same as one run in one go, and many
+     * machines on many workers each end in the same state as when run alone.
+     */
+    @Test
+    public void sessionsAndMachines() throws Exception {
+        String records = "HECHO  30000003\n" + "T3000F023\n" + "T3001F021\n"
+                + "T3002F025\n" + "E3000\n";
+        MachineScheduler scheduler = new MachineScheduler(3, 1,
+                MachineScheduler.Policy.ROUND_ROBIN);
+        SimulationSession session = new SimulationSession.Builder().source(
+                records).mode(SimulatorMode.TRACE).input("x\n").build();
+        String expected = new SimulationSession.Builder().source(records)
+                .mode(SimulatorMode.TRACE).input("x\n").build().run()
+                .getOutput();
+        List<MachineScheduler.Task> tasks =
+                new ArrayList<MachineScheduler.Task>();
+
+        for (int k = 0; k < 20; ++k) {
+            tasks.add(scheduler.submit(load(COUNTDOWN), 1000, 0));
+        }
+        scheduler.submit(session, 0).awaitResult();
+        assertEquals("output", expected, session.finish().getOutput());
+        for (MachineScheduler.Task task : tasks) {
+            assertEquals("steps", 13, task.awaitResult().getSteps());
+            assertEquals("R0", 0, task.getMachine().getRegister(0));
+            assertEquals("PC", 0x3005, task.getMachine().getPC());
+        }
+        scheduler.shutdown();
+    }
+
+    /**
+     * Tasks that have not completed when the scheduler shuts down fail, as
+     * do sessions that cannot be loaded.
+     */
+    @Test
+    public void failures() throws Exception {
+        MachineScheduler scheduler = new MachineScheduler(1, 10,
+                MachineScheduler.Policy.ROUND_ROBIN);
+        MachineScheduler.Task bad = scheduler.submit(
+                new SimulationSession.Builder().source("T3000F025\n")
+                        .build(), 0);
+        MachineScheduler.Task loop = scheduler.submit(load(LOOP),
+                Long.MAX_VALUE, 0);
+
+        try {
+            bad.awaitResult();
+            assertTrue("load failure", false);
+        } catch (ExecutionException e) {
+            assertTrue("LoadException", e.getCause() instanceof LoadException);
+        }
+        scheduler.shutdown();
+        try {
+            loop.awaitResult();
+            assertTrue("shut down", false);
+        } catch (ExecutionException e) {
+            assertTrue("IllegalStateException",
+                    e.getCause() instanceof IllegalStateException);
+        }
+    }
+}
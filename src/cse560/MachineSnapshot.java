@@ -0,0 +1,425 @@
+package cse560;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+
+/**
+ * The complete state of an MMXI machine at one point of a run, which can be
+ * written to a file and restored into another machine later, e.g. to resume
+ * a long run after a restart, or to start every run of a program from the
+ * state it is in once it has initialized itself. A snapshot file holds, with
+ * all numbers big-endian:
+ * <ul>
+ * <li>the four bytes {@code "MXIS"},</li>
+ * <li>the segment that was loaded: its name, six bytes of ISO-8859-1, its
+ * load address, two bytes, its length in words, four bytes, and its entry
+ * PC, two bytes,</li>
+ * <li>the PC, two bytes; the CCR, one byte: 0 for N, 1 for Z, 2 for P;
+ * whether the machine has halted, one byte: 0 or 1; and the registers R0 to
+ * R7, two bytes each,</li>
+ * <li>the state of the generator of the RND trap routine, eight bytes,</li>
+ * <li>the number of pages of memory that are not all zeros, one byte, and
+ * for each of them, in increasing order, its page number, one byte, and its
+ * 512 words, two bytes each.</li>
+ * </ul>
+ * A snapshot is restored a page at a time, with
+ * {@link InterpreterImp#loadMemory}. The Simulator, like {@link LoaderImp},
+ * accepts snapshot files wherever it accepts object files, and resumes the
+ * run they were taken from.
+ * <p>
+ * MachineSnapshot objects are immutable.
+ *
+ * @author Igor Tolkachev
+ */
+public final class MachineSnapshot {
+    /** The first bytes of every snapshot file. */
+    private static final byte[] MAGIC = { 'M', 'X', 'I', 'S' };
+
+    /** The length of the segment name in bytes. */
+    private static final int NAME_LEN = 6;
+
+    /** The number of bytes before the pages of memory. */
+    private static final int HEADER_LEN = MAGIC.length + NAME_LEN + 8 + 4
+            + 2 * Interpreter.NUM_REGS + 8 + 1;
+
+    /** A page of zeros. */
+    private static final char[] ZEROS = new char[Memory.PAGE_SIZE];
+
+    /** The encoding of segment names. */
+    private static final Charset LATIN_1 = Charset.forName("ISO-8859-1");
+
+    // ------------------------------------------------------------------------
+    // PRIVATE VARIABLES
+    // ------------------------------------------------------------------------
+
+    /** The segment that was loaded. */
+    private final LoadResult segment;
+
+    /** The PC. */
+    private final int pc;
+
+    /** The CCR. */
+    private final CCR ccr;
+
+    /** Whether the machine has halted. */
+    private final boolean halted;
+
+    /** The registers. */
+    private final int[] registers;
+
+    /** The state of the generator of the RND trap routine. */
+    private final long randomState;
+
+    /** The pages of memory, indexed by page number; null for zeros. */
+    private final char[][] pages;
+
+    // -------------------------------------------------------------------------
+    // CONSTRUCTORS
+    // -------------------------------------------------------------------------
+
+    /**
+     * Initializes a snapshot with the given state. The arrays are not
+     * copied.
+     */
+    private MachineSnapshot(LoadResult segment, int pc, CCR ccr,
+            boolean halted, int[] registers, long randomState,
+            char[][] pages) {
+        this.segment = segment;
+        this.pc = pc;
+        this.ccr = ccr;
+        this.halted = halted;
+        this.registers = registers;
+        this.randomState = randomState;
+        this.pages = pages;
+    }
+
+    // -------------------------------------------------------------------------
+    // PRIVATE OPERATIONS
+    // -------------------------------------------------------------------------
+
+    /**
+     * Returns whether page {@code n} of the memory of {@code machine} is all
+     * zeros.
+     */
+    private static boolean isZero(Interpreter machine, int n) {
+        for (int addr = n << Memory.OFFSET_LEN, end = addr
+                + Memory.PAGE_SIZE; addr < end; ++addr) {
+            if (machine.getMemory(addr) != 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // -------------------------------------------------------------------------
+    // PACKAGE OPERATIONS
+    // -------------------------------------------------------------------------
+
+    /**
+     * Puts the registers, PC, CCR and halted flag of {@code machine} in the
+     * state of this snapshot, with a new generator for the RND trap routine
+     * and no last instruction, leaving its memory alone.
+     * <p>
+     * Requires: {@code machine} is not executing
+     *
+     * @param machine
+     *            The machine to restore.
+     */
+    void restoreState(InterpreterImp machine) {
+        for (int r = 0; r < registers.length; ++r) {
+            machine.setRegister(r, registers[r]);
+        }
+        machine.setPC(pc);
+        machine.restoreCCR(ccr);
+        machine.restoreHalted(halted);
+        machine.setRandom(new MachineRandom(randomState));
+        machine.setLastInstruction(-1, 0, false);
+    }
+
+    // -------------------------------------------------------------------------
+    // PUBLIC OPERATIONS
+    // -------------------------------------------------------------------------
+
+    /**
+     * Returns whether {@code buffer} holds a snapshot, i.e. starts with the
+     * right bytes at its position. The position is not changed.
+     *
+     * @param buffer
+     *            The contents of a file.
+     */
+    public static boolean isSnapshot(ByteBuffer buffer) {
+        if (buffer.remaining() < MAGIC.length) {
+            return false;
+        }
+        for (int k = 0; k < MAGIC.length; ++k) {
+            if (buffer.get(buffer.position() + k) != MAGIC[k]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Returns a snapshot of the current state of {@code machine}.
+     * <p>
+     * Requires: {@code machine} is not executing
+     *
+     * @param machine
+     *            The machine.
+     * @param segment
+     *            The segment loaded into {@code machine}, or null if
+     *            unknown.
+     * @return the snapshot
+     */
+    public static MachineSnapshot capture(InterpreterImp machine,
+            LoadResult segment) {
+        return capture(machine, segment, null);
+    }
+
+    /**
+     * Returns a snapshot of the current state of {@code machine} that shares
+     * with {@code previous} every page that has not changed since.
+     * <p>
+     * Requires: {@code machine} is not executing
+     *
+     * @param machine
+     *            The machine.
+     * @param segment
+     *            The segment loaded into {@code machine}, or null if
+     *            unknown.
+     * @param previous
+     *            An earlier snapshot of {@code machine}, or null.
+     * @return the snapshot
+     */
+    static MachineSnapshot capture(InterpreterImp machine,
+            LoadResult segment, MachineSnapshot previous) {
+        char[][] pages = new char[Memory.PAGE_COUNT][];
+        int[] registers = new int[Interpreter.NUM_REGS];
+        char[] words = new char[Memory.PAGE_SIZE];
+
+        for (int n = 0; n < Memory.PAGE_COUNT; ++n) {
+            if (isZero(machine, n)) {
+                continue;
+            }
+            for (int k = 0; k < Memory.PAGE_SIZE; ++k) {
+                words[k] = (char) machine.getMemory((n << Memory.OFFSET_LEN)
+                        + k);
+            }
+            if (previous != null && Arrays.equals(words, previous.pages[n])) {
+                pages[n] = previous.pages[n];
+            } else {
+                pages[n] = words;
+                words = new char[Memory.PAGE_SIZE];
+            }
+        }
+        for (int r = 0; r < registers.length; ++r) {
+            registers[r] = machine.getRegister(r);
+        }
+        if (segment == null) {
+            segment = new LoadResult("      ", 0, 0, machine.getPC(), 0);
+        }
+        return new MachineSnapshot(segment, machine.getPC(), machine
+                .getCCR(), machine.isHalted(), registers, machine.getRandom()
+                .getState(), pages);
+    }
+
+    /**
+     * Reads the snapshot in {@code buffer}, from its position to its limit.
+     *
+     * @param buffer
+     *            The contents of a snapshot file.
+     * @return the snapshot
+     * @throws LoadException
+     *             error 108 if the buffer does not hold a well-formed
+     *             snapshot
+     */
+    public static MachineSnapshot read(ByteBuffer buffer) {
+        ByteBuffer in = buffer.slice();
+        byte[] name = new byte[NAME_LEN];
+        int[] registers = new int[Interpreter.NUM_REGS];
+        char[][] pages = new char[Memory.PAGE_COUNT][];
+
+        if (in.remaining() < HEADER_LEN || !isSnapshot(in)) {
+            throw new LoadException(108, 0, null);
+        }
+        in.position(MAGIC.length);
+        in.get(name);
+
+        int start = in.getChar(), length = in.getInt(), entry = in.getChar();
+        int pc = in.getChar(), ccr = in.get(), halted = in.get();
+
+        for (int r = 0; r < registers.length; ++r) {
+            registers[r] = in.getChar();
+        }
+
+        long randomState = in.getLong();
+        int count = in.get() & 0xFF;
+
+        if (length < 0 || start + length > Memory.MAX_ADDR + 1 || ccr < 0
+                || ccr >= CCR.values().length || halted < 0 || halted > 1
+                || in.remaining() != count * (1 + 2 * Memory.PAGE_SIZE)) {
+            throw new LoadException(108, 0, null);
+        }
+        for (int k = 0, last = -1; k < count; ++k) {
+            int n = in.get() & 0xFF;
+
+            if (n <= last || n >= Memory.PAGE_COUNT) {
+                throw new LoadException(108, 0, null);
+            }
+            pages[n] = new char[Memory.PAGE_SIZE];
+            in.asCharBuffer().get(pages[n]);
+            in.position(in.position() + 2 * Memory.PAGE_SIZE);
+            last = n;
+        }
+        return new MachineSnapshot(new LoadResult(new String(name, LATIN_1),
+                start, length, entry, 0), pc, CCR.values()[ccr], halted == 1,
+                registers, randomState, pages);
+    }
+
+    /**
+     * Returns the segment that was loaded into the machine.
+     */
+    public LoadResult getSegment() {
+        return segment;
+    }
+
+    /**
+     * Returns the PC.
+     */
+    public int getPC() {
+        return pc;
+    }
+
+    /**
+     * Returns the CCR.
+     */
+    public CCR getCCR() {
+        return ccr;
+    }
+
+    /**
+     * Returns whether the machine had halted.
+     */
+    public boolean isHalted() {
+        return halted;
+    }
+
+    /**
+     * Returns the value of register {@code n}.
+     * <p>
+     * Requires: {@code 0 <= n < Interpreter.NUM_REGS}
+     */
+    public int getRegister(int n) {
+        return registers[n];
+    }
+
+    /**
+     * Returns the state of the generator of the RND trap routine, as
+     * returned by {@link MachineRandom#getState}.
+     */
+    public long getRandomState() {
+        return randomState;
+    }
+
+    /**
+     * Returns the value at {@code addr}.
+     * <p>
+     * Requires: {@code 0 <= addr <= Memory.MAX_ADDR}
+     */
+    public int getMemory(int addr) {
+        char[] page = pages[addr >> Memory.OFFSET_LEN];
+
+        return page == null ? 0 : page[addr & (Memory.PAGE_SIZE - 1)];
+    }
+
+    /**
+     * Returns the number of pages of memory that are neither all zeros nor
+     * shared with {@code previous}.
+     */
+    int getNewPageCount(MachineSnapshot previous) {
+        int count = 0;
+
+        for (int n = 0; n < Memory.PAGE_COUNT; ++n) {
+            if (pages[n] != null && pages[n] != previous.pages[n]) {
+                ++count;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Returns the number of pages of memory that are not all zeros.
+     */
+    public int getPageCount() {
+        int count = 0;
+
+        for (int n = 0; n < Memory.PAGE_COUNT; ++n) {
+            if (pages[n] != null) {
+                ++count;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Puts {@code machine} in the state of this snapshot, with a new
+     * generator for the RND trap routine and no last instruction. Memory is
+     * written a page at a time; pages that are all zeros in the snapshot are
+     * only written if they are not in {@code machine}.
+     * <p>
+     * Requires: {@code machine} is not executing
+     *
+     * @param machine
+     *            The machine to restore.
+     */
+    public void restore(InterpreterImp machine) {
+        for (int n = 0; n < Memory.PAGE_COUNT; ++n) {
+            if (pages[n] != null) {
+                machine.loadMemory(n << Memory.OFFSET_LEN, CharBuffer
+                        .wrap(pages[n]));
+            } else if (!isZero(machine, n)) {
+                machine.loadMemory(n << Memory.OFFSET_LEN, CharBuffer
+                        .wrap(ZEROS));
+            }
+        }
+        restoreState(machine);
+    }
+
+    /**
+     * Writes the snapshot to {@code out}.
+     *
+     * @param out
+     *            The stream to write to.
+     * @throws IOException
+     *             if the snapshot cannot be written
+     */
+    public void write(OutputStream out) throws IOException {
+        int count = getPageCount();
+        ByteBuffer bytes = ByteBuffer.allocate(HEADER_LEN + count
+                * (1 + 2 * Memory.PAGE_SIZE));
+        String name = (segment.getSegmentName() + "      ").substring(0,
+                NAME_LEN);
+
+        bytes.put(MAGIC).put(name.getBytes(LATIN_1));
+        bytes.putChar((char) segment.getStart()).putInt(segment.getLength());
+        bytes.putChar((char) segment.getEntry());
+        bytes.putChar((char) pc).put((byte) ccr.ordinal());
+        bytes.put((byte) (halted ? 1 : 0));
+        for (int r = 0; r < registers.length; ++r) {
+            bytes.putChar((char) registers[r]);
+        }
+        bytes.putLong(randomState).put((byte) count);
+        for (int n = 0; n < Memory.PAGE_COUNT; ++n) {
+            if (pages[n] != null) {
+                bytes.put((byte) n);
+                bytes.asCharBuffer().put(pages[n]);
+                bytes.position(bytes.position() + 2 * Memory.PAGE_SIZE);
+            }
+        }
+        out.write(bytes.array());
+    }
+}
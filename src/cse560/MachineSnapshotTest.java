@@ -0,0 +1,134 @@
+package cse560;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+
+import org.junit.Test;
+
+public final class MachineSnapshotTest {
+
+    /**
+     * Stores a random number at x3010, counts in R1, and starts over.
+     */
+    private static final int[] RANDOM = {
+            0xF043, // x3000 TRAP x43
+            0x3010, // x3001 ST R0,x3010
+            0x1261, // x3002 ADD R1,R1,#1
+            0x0E00, // x3003 BRnzp x3000
+    };
+
+    /**
+     * Returns a machine with {@code program} loaded at x3000, the PC pointing
+     * to it, and a seeded generator.
+     */
+    private static InterpreterImp load(int[] program) {
+        InterpreterImp machine = EngineAssert.load(program);
+
+        machine.setRandom(new MachineRandom(42));
+        return machine;
+    }
+
+    /** Returns the bytes of {@code snapshot} as written. */
+    private static ByteBuffer bytes(MachineSnapshot snapshot)
+            throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+        snapshot.write(out);
+        return ByteBuffer.wrap(out.toByteArray());
+    }
+
+    /**
+     * A machine restored from a written snapshot continues exactly as the
+     * machine the snapshot was taken of.
+     */
+    @Test
+    public void roundTrip() throws Exception {
+        InterpreterImp original = load(RANDOM);
+
+        original.setMemory(0x8123, 0xBEEF);
+        original.run(6);
+
+        MachineSnapshot snapshot = MachineSnapshot.read(bytes(MachineSnapshot
+                .capture(original, null)));
+        InterpreterImp restored = new InterpreterImp(new PagedMemory(),
+                new TrapHandlerImp(new StringBuilder(), "", 1));
+
+        assertEquals("pages", 2, snapshot.getPageCount());
+        snapshot.restore(restored);
+        assertEquals("PC", original.getPC(), restored.getPC());
+        assertEquals("CCR", original.getCCR(), restored.getCCR());
+        assertEquals("data", 0xBEEF, restored.getMemory(0x8123));
+
+        original.run(10);
+        restored.run(10);
+        for (int r = 0; r < Interpreter.NUM_REGS; ++r) {
+            assertEquals("R" + r, original.getRegister(r), restored
+                    .getRegister(r));
+        }
+        assertEquals("random number", original.getMemory(0x3010), restored
+                .getMemory(0x3010));
+        assertEquals("generator", original.getRandom().getState(), restored
+                .getRandom().getState());
+    }
+
+    /**
+     * Restoring into a machine that has been used clears the memory the
+     * snapshot does not have.
+     */
+    @Test
+    public void restoreOverwrites() {
+        MachineSnapshot snapshot = MachineSnapshot.capture(load(RANDOM),
+                null);
+        InterpreterImp used = load(new int[] {0x1234});
+
+        used.setMemory(0x5000, 7);
+        used.run(1);
+        snapshot.restore(used);
+        assertEquals("cleared", 0, used.getMemory(0x5000));
+        assertEquals("code", 0xF043, used.getMemory(0x3000));
+        assertEquals("R1", 0, used.getRegister(1));
+        assertEquals("no last instruction", null, used.getLastInstruction());
+    }
+
+    /**
+     * A session given a snapshot resumes the run it was taken from.
+     */
+    @Test
+    public void resumeSession() throws Exception {
+        SimulationSession first = new SimulationSession.Builder().source(
+                "HECHO  30000004\n" + "T3000F023\n" + "T30013010\n"
+                        + "T3002F021\n" + "T3003F025\n" + "E3000\n").input(
+                "Q\n").maxSteps(2).build();
+
+        first.run();
+
+        SimulationResult result = new SimulationSession.Builder().source(
+                bytes(first.snapshot())).build().run();
+
+        assertEquals("reason", StopReason.HALT, result.getReason());
+        assertEquals("steps", 2, result.getSteps());
+        assertEquals("output", "Q\nExecution halted.\n", result.getOutput());
+        assertEquals("segment", "ECHO  ", result.getSegment()
+                .getSegmentName());
+    }
+
+    /**
+     * A truncated snapshot is reported as error 108.
+     */
+    @Test
+    public void malformed() throws Exception {
+        ByteBuffer bytes = bytes(MachineSnapshot.capture(load(RANDOM), null));
+
+        bytes.limit(bytes.limit() - 1);
+        try {
+            MachineSnapshot.read(bytes);
+        } catch (LoadException e) {
+            assertEquals("code", 108, e.getCode());
+            return;
+        }
+        assertTrue("LoadException thrown", false);
+    }
+}
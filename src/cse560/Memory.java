@@ -1,5 +1,7 @@
 package cse560;
 
+import java.nio.CharBuffer;
+
 /**
  * Simulates a memory controller for the MMXI machine, decoupling the
  * implementation of memory from the {@link Interpreter}. Supports basic getting
@@ -18,6 +20,15 @@ public abstract class Memory {
     /** The length of a word in memory in bits. */
     static final int WORD_LEN = 16;
 
+    /** The number of bits of an address that select a word within a page. */
+    static final int OFFSET_LEN = WORD_LEN - PAGE_LEN;
+
+    /** The number of words on a page. */
+    static final int PAGE_SIZE = 1 << OFFSET_LEN;
+
+    /** The number of pages. */
+    static final int PAGE_COUNT = 1 << PAGE_LEN;
+
     /** The highest possible address. */
     static final int MAX_ADDR = (int) Math.pow(2, MemoryImp.WORD_LEN) - 1;
 
@@ -34,7 +45,7 @@ public abstract class Memory {
      * @return The page number of addr.
      */
     public static int getPageNumber(final int addr) {
-        return addr >> (Memory.WORD_LEN - Memory.PAGE_LEN);
+        return addr >> Memory.OFFSET_LEN;
     }
 
     /**
@@ -75,4 +86,37 @@ public abstract class Memory {
      *            The value to place in the designated memory cell.
      */
     abstract void set(int addr, int value);
+
+    /**
+     * Copies the remaining words of {@code words} into memory, starting at
+     * {@code addr}. Implementations that keep memory in an array copy it in
+     * bulk.
+     * <p>
+     * Requires: {@code 0 <= addr} and
+     * {@code addr + words.remaining() <= MAX_ADDR + 1}
+     * <p>
+     * Ensures: {@code M[addr + k] = #words[#words.position + k]} for all
+     * {@code k in [0, #words.remaining)} and
+     * {@code words.position = words.limit}
+     *
+     * @param addr
+     *            The address of the first memory cell to update.
+     * @param words
+     *            The values to place in memory.
+     */
+    void set(int addr, CharBuffer words) {
+        while (words.hasRemaining()) {
+            set(addr++, words.get());
+        }
+    }
+
+    /**
+     * Returns a copy of this memory. Writes to either memory afterwards are
+     * not seen by the other.
+     * <p>
+     * Ensures: {@code fork.M = M}
+     *
+     * @return the copy
+     */
+    abstract Memory fork();
 }
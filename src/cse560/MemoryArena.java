@@ -0,0 +1,145 @@
+package cse560;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.CharBuffer;
+
+/**
+ * A fixed pool of memory pages outside the Java heap, from which any number
+ * of {@link ArenaMemory} objects take the pages they write to. The pool is
+ * one direct buffer, allocated once; a page given back by a memory that is
+ * released is handed out again to the next memory that needs one. A fleet of
+ * machines whose memories live in an arena thus puts no words of memory on
+ * the heap, and, once every page has been handed out once, allocates nothing
+ * more as machines come and go.
+ * <p>
+ * Every operation is thread-safe.
+ *
+ * @author Igor Tolkachev
+ */
+public final class MemoryArena {
+    /**
+     * The number of pages of the largest arena, whose size in bytes still
+     * fits in a direct buffer.
+     */
+    public static final int MAX_PAGES = Integer.MAX_VALUE
+            / (Memory.PAGE_SIZE * 2);
+
+    // ------------------------------------------------------------------------
+    // PRIVATE VARIABLES
+    // ------------------------------------------------------------------------
+
+    /** The words of all pages; page {@code p} starts at word {@code p * 512}. */
+    private final CharBuffer words;
+
+    /** The pages not handed out, from {@code free[0]} to {@code free[top-1]}. */
+    private final int[] free;
+
+    /** The number of pages not handed out. */
+    private int top;
+
+    // -------------------------------------------------------------------------
+    // CONSTRUCTORS
+    // -------------------------------------------------------------------------
+
+    /**
+     * Initializes an arena of {@code pages} pages of 512 words, i.e. of
+     * {@code pages} KB outside the heap.
+     * <p>
+     * Requires: {@code 0 < pages <= MAX_PAGES}, i.e. {@code pages < 2^21}
+     *
+     * @param pages
+     *            The number of pages of the arena.
+     * @throws IllegalArgumentException
+     *             if {@code pages} is not positive or greater than
+     *             {@code MAX_PAGES}
+     */
+    public MemoryArena(int pages) {
+        long bytes = (long) pages * Memory.PAGE_SIZE * 2;
+
+        if (pages <= 0 || pages > MAX_PAGES) {
+            throw new IllegalArgumentException("Memory arena of " + pages
+                    + " pages (" + bytes + " bytes) is not supported");
+        }
+        this.words = ByteBuffer.allocateDirect((int) bytes).order(
+                ByteOrder.nativeOrder()).asCharBuffer();
+        this.free = new int[pages];
+
+        // Hand out the pages in order, so that the first ones touched are
+        // the first ones handed out.
+        for (int p = 0; p < pages; ++p) {
+            free[p] = pages - 1 - p;
+        }
+        this.top = pages;
+    }
+
+    // -------------------------------------------------------------------------
+    // PACKAGE OPERATIONS
+    // -------------------------------------------------------------------------
+
+    /**
+     * Returns the words of all pages. Page {@code p} is
+     * {@code [p * 512, (p + 1) * 512)}.
+     */
+    CharBuffer words() {
+        return words;
+    }
+
+    /**
+     * Hands out a page of zeros.
+     *
+     * @return the page
+     * @throws IllegalStateException
+     *             if every page has been handed out
+     */
+    int allocate() {
+        int page;
+
+        synchronized (this) {
+            if (top == 0) {
+                throw new IllegalStateException("Memory arena is full ("
+                        + free.length + " pages)");
+            }
+            page = free[--top];
+        }
+        for (int k = page << Memory.OFFSET_LEN, end = k + Memory.PAGE_SIZE;
+                k < end; ++k) {
+            words.put(k, (char) 0);
+        }
+        return page;
+    }
+
+    /**
+     * Takes back {@code page}, to be handed out again.
+     * <p>
+     * Requires: {@code page} has been handed out, and not taken back since
+     */
+    synchronized void release(int page) {
+        free[top++] = page;
+    }
+
+    // -------------------------------------------------------------------------
+    // PUBLIC OPERATIONS
+    // -------------------------------------------------------------------------
+
+    /**
+     * Returns a new memory, all zeros, whose pages are taken from this arena.
+     */
+    public ArenaMemory newMemory() {
+        return new ArenaMemory(this);
+    }
+
+    /**
+     * Returns the number of pages of this arena.
+     */
+    public int getPageCount() {
+        return free.length;
+    }
+
+    /**
+     * Returns the number of pages handed out and not yet given back.
+     */
+    public synchronized int getUsedPageCount() {
+        return free.length - top;
+    }
+}
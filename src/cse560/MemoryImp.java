@@ -71,4 +71,12 @@ public final class MemoryImp extends Memory {
             this.memory.put(addr, value & Memory.MAX_VALUE);
         }
     }
+
+    @Override
+    public MemoryImp fork() {
+        MemoryImp copy = new MemoryImp();
+
+        copy.memory.putAll(this.memory);
+        return copy;
+    }
 }
@@ -0,0 +1,327 @@
+package cse560;
+
+import java.util.Arrays;
+
+/**
+ * Assembles the bytecode of one JVM method for a {@link ClassFileWriter}.
+ * Only the handful of instructions needed to translate MMXI code are given
+ * convenience operations; anything else can be emitted with {@code op}.
+ * <p>
+ * Jump targets are represented by labels, which are plain integers handed
+ * out by {@code newLabel}. A label may be jumped to before it is marked; the
+ * offsets are filled in by {@code toByteArray}.
+ *
+ * @author Igor Tolkachev
+ */
+final class MethodWriter {
+
+    // ------------------------------------------------------------------------
+    // OPCODES
+    // ------------------------------------------------------------------------
+
+    static final int ACONST_NULL = 0x01;
+    static final int ICONST_0 = 0x03;
+    static final int BIPUSH = 0x10;
+    static final int SIPUSH = 0x11;
+    static final int LDC_W = 0x13;
+    static final int ILOAD = 0x15;
+    static final int ALOAD = 0x19;
+    static final int IALOAD = 0x2e;
+    static final int BALOAD = 0x33;
+    static final int ISTORE = 0x36;
+    static final int ASTORE = 0x3a;
+    static final int IASTORE = 0x4f;
+    static final int POP = 0x57;
+    static final int DUP = 0x59;
+    static final int IADD = 0x60;
+    static final int ISUB = 0x64;
+    static final int ISHR = 0x7a;
+    static final int IAND = 0x7e;
+    static final int IOR = 0x80;
+    static final int IXOR = 0x82;
+    static final int IINC = 0x84;
+    static final int IFEQ = 0x99;
+    static final int IFNE = 0x9a;
+    static final int IF_ICMPEQ = 0x9f;
+    static final int IF_ICMPNE = 0xa0;
+    static final int IF_ICMPGT = 0xa3;
+    static final int GOTO = 0xa7;
+    static final int TABLESWITCH = 0xaa;
+    static final int LOOKUPSWITCH = 0xab;
+    static final int IRETURN = 0xac;
+    static final int LRETURN = 0xad;
+    static final int ARETURN = 0xb0;
+    static final int RETURN = 0xb1;
+    static final int GETFIELD = 0xb4;
+    static final int PUTFIELD = 0xb5;
+    static final int INVOKEVIRTUAL = 0xb6;
+    static final int INVOKESPECIAL = 0xb7;
+    static final int INVOKESTATIC = 0xb8;
+    static final int NEW = 0xbb;
+
+    // ------------------------------------------------------------------------
+    // PRIVATE VARIABLES
+    // ------------------------------------------------------------------------
+
+    /** The bytecode emitted so far. */
+    private byte[] code = new byte[256];
+
+    /** The number of bytes of {@code code} in use. */
+    private int length;
+
+    /** Position of each label, or -1 if it has not been marked yet. */
+    private int[] labels = new int[16];
+
+    /** The number of labels handed out. */
+    private int labelCount;
+
+    /**
+     * Jumps whose offsets must be filled in, as triples of (position of the
+     * offset, position of the jump instruction, label). A position of the
+     * offset with the high bit set denotes a four-byte offset.
+     */
+    private int[] fixups = new int[48];
+
+    /** The number of ints of {@code fixups} in use. */
+    private int fixupLength;
+
+    /** The maximum depth of the operand stack, as declared by the client. */
+    final int maxStack;
+
+    /** The number of local variable slots, as declared by the client. */
+    final int maxLocals;
+
+    /**
+     * Initializes a new, empty method body.
+     *
+     * @param maxStack
+     *            The maximum depth of the operand stack the code will need.
+     * @param maxLocals
+     *            The number of local variable slots the code will use,
+     *            including {@code this} and the parameters.
+     */
+    MethodWriter(int maxStack, int maxLocals) {
+        this.maxStack = maxStack;
+        this.maxLocals = maxLocals;
+    }
+
+    // ------------------------------------------------------------------------
+    // PRIVATE OPERATIONS
+    // ------------------------------------------------------------------------
+
+    /**
+     * Appends a byte.
+     */
+    private void u1(int value) {
+        if (length == code.length) {
+            code = Arrays.copyOf(code, 2 * length);
+        }
+        code[length++] = (byte) value;
+    }
+
+    /**
+     * Appends a big-endian two-byte value.
+     */
+    private void u2(int value) {
+        u1(value >> 8);
+        u1(value);
+    }
+
+    /**
+     * Appends a big-endian four-byte value.
+     */
+    private void u4(int value) {
+        u2(value >> 16);
+        u2(value);
+    }
+
+    /**
+     * Records that the offset at {@code at}, belonging to the instruction at
+     * {@code from}, must be set to reach {@code label}.
+     */
+    private void fixup(int at, int from, int label) {
+        if (fixupLength + 3 > fixups.length) {
+            fixups = Arrays.copyOf(fixups, 2 * fixups.length);
+        }
+        fixups[fixupLength++] = at;
+        fixups[fixupLength++] = from;
+        fixups[fixupLength++] = label;
+    }
+
+    // ------------------------------------------------------------------------
+    // PUBLIC OPERATIONS
+    // ------------------------------------------------------------------------
+
+    /**
+     * Appends an instruction without operands.
+     */
+    void op(int opcode) {
+        u1(opcode);
+    }
+
+    /**
+     * Appends an instruction pushing the int constant {@code value}.
+     *
+     * @param value
+     *            The constant to push.
+     * @param pool
+     *            The class whose constant pool holds values that do not fit
+     *            into a {@code sipush}.
+     */
+    void iconst(int value, ClassFileWriter pool) {
+        if (-1 <= value && value <= 5) {
+            u1(ICONST_0 + value);
+        } else if (Byte.MIN_VALUE <= value && value <= Byte.MAX_VALUE) {
+            u1(BIPUSH);
+            u1(value);
+        } else if (Short.MIN_VALUE <= value && value <= Short.MAX_VALUE) {
+            u1(SIPUSH);
+            u2(value);
+        } else {
+            u1(LDC_W);
+            u2(pool.integer(value));
+        }
+    }
+
+    /**
+     * Appends {@code opcode} with a one-byte local variable index, such as
+     * {@code ILOAD} or {@code ASTORE}.
+     */
+    void local(int opcode, int index) {
+        u1(opcode);
+        u1(index);
+    }
+
+    /**
+     * Appends {@code iinc index, delta}.
+     */
+    void iinc(int index, int delta) {
+        u1(IINC);
+        u1(index);
+        u1(delta);
+    }
+
+    /**
+     * Appends {@code opcode} with a two-byte constant pool index, such as
+     * {@code INVOKEVIRTUAL} or {@code GETFIELD}.
+     */
+    void member(int opcode, int poolIndex) {
+        u1(opcode);
+        u2(poolIndex);
+    }
+
+    /**
+     * Returns a new, unmarked label.
+     */
+    int newLabel() {
+        if (labelCount == labels.length) {
+            labels = Arrays.copyOf(labels, 2 * labels.length);
+        }
+        labels[labelCount] = -1;
+        return labelCount++;
+    }
+
+    /**
+     * Marks the current position as the target of {@code label}.
+     */
+    void mark(int label) {
+        labels[label] = length;
+    }
+
+    /**
+     * Appends a jump instruction, such as {@code GOTO} or {@code IFEQ}, to
+     * {@code label}.
+     */
+    void jump(int opcode, int label) {
+        int from = length;
+
+        u1(opcode);
+        fixup(length, from, label);
+        u2(0);
+    }
+
+    /**
+     * Appends a {@code tableswitch} over {@code [low, low + targets.length)}.
+     *
+     * @param low
+     *            The value corresponding to {@code targets[0]}.
+     * @param defaultLabel
+     *            Where values outside the range jump to.
+     * @param targets
+     *            Where each value in the range jumps to.
+     */
+    void tableswitch(int low, int defaultLabel, int[] targets) {
+        int from = length;
+
+        u1(TABLESWITCH);
+        while (length % 4 != 0) {
+            u1(0);
+        }
+        fixup(length | 0x80000000, from, defaultLabel);
+        u4(0);
+        u4(low);
+        u4(low + targets.length - 1);
+        for (int target : targets) {
+            fixup(length | 0x80000000, from, target);
+            u4(0);
+        }
+    }
+
+    /**
+     * Appends a {@code lookupswitch}.
+     *
+     * @param defaultLabel
+     *            Where values other than {@code keys} jump to.
+     * @param keys
+     *            The values to look up, in increasing order.
+     * @param targets
+     *            Where each of {@code keys} jumps to.
+     */
+    void lookupswitch(int defaultLabel, int[] keys, int[] targets) {
+        int from = length;
+
+        u1(LOOKUPSWITCH);
+        while (length % 4 != 0) {
+            u1(0);
+        }
+        fixup(length | 0x80000000, from, defaultLabel);
+        u4(0);
+        u4(keys.length);
+        for (int i = 0; i < keys.length; ++i) {
+            u4(keys[i]);
+            fixup(length | 0x80000000, from, targets[i]);
+            u4(0);
+        }
+    }
+
+    /**
+     * Returns the number of bytes of code emitted so far.
+     */
+    int size() {
+        return length;
+    }
+
+    /**
+     * Returns the finished bytecode, with all jump offsets filled in.
+     * <p>
+     * Requires: every label jumped to has been marked.
+     */
+    byte[] toByteArray() {
+        byte[] result = Arrays.copyOf(code, length);
+
+        for (int i = 0; i < fixupLength; i += 3) {
+            int at = fixups[i] & 0x7fffffff, offset = labels[fixups[i + 2]]
+                    - fixups[i + 1];
+
+            if (fixups[i] < 0) {
+                result[at++] = (byte) (offset >> 24);
+                result[at++] = (byte) (offset >> 16);
+            } else if (offset != (short) offset) {
+                throw new IllegalStateException("Jump out of range: " + offset);
+            }
+            result[at++] = (byte) (offset >> 8);
+            result[at] = (byte) offset;
+        }
+        return result;
+    }
+}
@@ -0,0 +1,143 @@
+package cse560;
+
+import java.nio.CharBuffer;
+
+/**
+ * Implements the Memory interface using a table of pages, so that a memory
+ * can be forked in time proportional to its number of pages rather than its
+ * size. A page is only allocated once a word on it is written, and a fork
+ * shares every page with the memory it was forked from until one of them
+ * writes to it; the writer then copies the page, 512 words, and keeps the
+ * copy to itself. The pages of a {@link CodeImage} are shared the same way.
+ * <p>
+ * A program loaded once into a PagedMemory can thus be run on many forks,
+ * each of which only holds the pages it writes to, e.g. its stack and
+ * variables.
+ * <p>
+ * Addresses are reduced modulo 2^16 before use, as in {@link FlatMemory}.
+ * A memory and its forks may be used by different threads, but
+ * {@code fork} must not be called while the memory is used by another
+ * thread.
+ * <p>
+ * Correspondence: {@code M[addr] = pages[p][addr mod PAGE_SIZE]} if
+ * {@code pages[p] != null}, and 0 otherwise, where {@code p} is the page
+ * number of {@code addr}.
+ *
+ * @author Igor Tolkachev
+ *
+ */
+public final class PagedMemory extends Memory {
+    /** The pages, indexed by page number; null for pages of zeros. */
+    private final char[][] pages = new char[PAGE_COUNT][];
+
+    /** Whether each page may be shared with a fork or its parent. */
+    private final boolean[] shared = new boolean[PAGE_COUNT];
+
+    // -------------------------------------------------------------------------
+    // CONSTRUCTORS
+    // -------------------------------------------------------------------------
+
+    /**
+     * Initializes a memory whose cells are all zero.
+     */
+    public PagedMemory() {
+    }
+
+    /**
+     * Initializes a memory that shares the non-null pages of {@code pages},
+     * indexed by page number, and is zero elsewhere. The pages are never
+     * written to.
+     */
+    PagedMemory(char[][] pages) {
+        for (int n = 0; n < PAGE_COUNT; ++n) {
+            if (pages[n] != null) {
+                this.pages[n] = pages[n];
+                this.shared[n] = true;
+            }
+        }
+    }
+
+    // -------------------------------------------------------------------------
+    // PRIVATE OPERATIONS
+    // -------------------------------------------------------------------------
+
+    /**
+     * Returns page {@code n}, allocating it if it is a page of zeros and
+     * copying it if it may be shared, so that it can be written to.
+     */
+    private char[] writablePage(int n) {
+        char[] page = this.pages[n];
+
+        if (page == null) {
+            page = new char[PAGE_SIZE];
+            this.pages[n] = page;
+        } else if (this.shared[n]) {
+            page = page.clone();
+            this.pages[n] = page;
+            this.shared[n] = false;
+        }
+        return page;
+    }
+
+    // -------------------------------------------------------------------------
+    // PUBLIC OPERATIONS
+    // -------------------------------------------------------------------------
+
+    @Override
+    public int get(final int addr) {
+        char[] page = this.pages[(addr & Memory.MAX_ADDR) >> OFFSET_LEN];
+
+        return page == null ? 0 : page[addr & (PAGE_SIZE - 1)];
+    }
+
+    @Override
+    public int getSigned(final int addr) {
+        return (short) get(addr);
+    }
+
+    @Override
+    public void set(final int addr, final int value) {
+        writablePage((addr & Memory.MAX_ADDR) >> OFFSET_LEN)[addr
+                & (PAGE_SIZE - 1)] = (char) value;
+    }
+
+    @Override
+    public void set(int addr, final CharBuffer words) {
+        while (words.hasRemaining()) {
+            int offset = addr & (PAGE_SIZE - 1);
+            int length = Math.min(words.remaining(), PAGE_SIZE - offset);
+
+            words.get(writablePage(addr >> OFFSET_LEN), offset, length);
+            addr += length;
+        }
+    }
+
+    /**
+     * Returns a fork of this memory that shares all of its pages until either
+     * memory writes to them.
+     */
+    @Override
+    public PagedMemory fork() {
+        for (int n = 0; n < PAGE_COUNT; ++n) {
+            if (this.pages[n] != null) {
+                this.shared[n] = true;
+            }
+        }
+        return new PagedMemory(this.pages);
+    }
+
+    /**
+     * Returns the number of pages allocated by this memory itself, i.e. not
+     * shared with a fork or its parent.
+     */
+    public int getPrivatePageCount() {
+        int count = 0;
+
+        for (int n = 0; n < PAGE_COUNT; ++n) {
+            if (this.pages[n] != null && !this.shared[n]) {
+                ++count;
+            }
+        }
+        return count;
+    }
+}
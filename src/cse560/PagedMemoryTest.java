@@ -0,0 +1,125 @@
+package cse560;
+
+import static org.junit.Assert.assertEquals;
+
+import java.nio.CharBuffer;
+
+import org.junit.Test;
+
+public final class PagedMemoryTest {
+    /** The instance of a Memory object to test. */
+    private final PagedMemory memory = new PagedMemory();
+
+    /**
+     * In a fresh Memory object, memory cells start at zero, and no page is
+     * allocated by reading them.
+     */
+    @Test
+    public void doCellsStartAtZero() {
+        for (int i = 0; i < Memory.MAX_ADDR; i += 1024) {
+            assertEquals("M[" + i + "] = 0", 0, memory.get(i));
+        }
+        assertEquals("M[MAX_ADDR] = 0", 0, memory.get(Memory.MAX_ADDR));
+        assertEquals("no pages", 0, memory.getPrivatePageCount());
+    }
+
+    /**
+     * getSigned sign-extends, set truncates, and addresses wrap around.
+     */
+    @Test
+    public void getAndSet() {
+        memory.set(0, -1066);
+        assertEquals("M[0] = -1066", -1066, memory.getSigned(0));
+        assertEquals("M[0] = 0xfbd6", 0xfbd6, memory.get(0));
+        memory.set(1, 0x12345);
+        assertEquals("M[1] = 0x2345", 0x2345, memory.get(1));
+        memory.set(Memory.MAX_ADDR + 6, 42);
+        assertEquals("M[5] = 42", 42, memory.get(5));
+        assertEquals("one page", 1, memory.getPrivatePageCount());
+    }
+
+    /**
+     * A bulk write that crosses pages lands on all of them.
+     */
+    @Test
+    public void bulkSetAcrossPages() {
+        char[] words = new char[1000];
+
+        for (int k = 0; k < words.length; ++k) {
+            words[k] = (char) (k + 1);
+        }
+        memory.set(0x31F0, CharBuffer.wrap(words));
+        assertEquals("first", 1, memory.get(0x31F0));
+        assertEquals("last on first page", 16, memory.get(0x31FF));
+        assertEquals("first on second page", 17, memory.get(0x3200));
+        assertEquals("last", 1000, memory.get(0x31F0 + 999));
+        assertEquals("after", 0, memory.get(0x31F0 + 1000));
+        assertEquals("three pages", 3, memory.getPrivatePageCount());
+    }
+
+    /**
+     * A fork sees the memory as it was, shares its pages, and copies only
+     * the pages written to; writes on either side are not seen by the other.
+     */
+    @Test
+    public void forkCopiesOnWrite() {
+        memory.set(0x3000, 1);
+        memory.set(0x3200, 2);
+        memory.set(0x4000, 3);
+
+        PagedMemory fork = memory.fork();
+
+        assertEquals("parent shares", 0, memory.getPrivatePageCount());
+        assertEquals("fork shares", 0, fork.getPrivatePageCount());
+        assertEquals("fork sees", 2, fork.get(0x3200));
+
+        fork.set(0x3201, 20);
+        memory.set(0x4000, 30);
+        fork.set(0x8000, 40);
+        assertEquals("fork copied one page, allocated one", 2, fork
+                .getPrivatePageCount());
+        assertEquals("parent copied one page", 1, memory
+                .getPrivatePageCount());
+        assertEquals("fork wrote", 20, fork.get(0x3201));
+        assertEquals("rest of copied page", 2, fork.get(0x3200));
+        assertEquals("parent does not see", 0, memory.get(0x3201));
+        assertEquals("parent wrote", 30, memory.get(0x4000));
+        assertEquals("fork does not see", 3, fork.get(0x4000));
+        assertEquals("parent does not see new page", 0, memory.get(0x8000));
+        assertEquals("still shared", 1, memory.get(0x3000));
+        assertEquals("still shared", 1, fork.get(0x3000));
+    }
+
+    /**
+     * A forked machine continues from the state of its parent, and runs
+     * independently of it.
+     */
+    @Test
+    public void forkMachine() {
+        InterpreterImp parent = new InterpreterImp(new PagedMemory(),
+                new TrapHandlerImp(new StringBuilder(), "", 1));
+
+        parent.setMemory(0x3000, 0x1261); // ADD R1,R1,#1
+        parent.setMemory(0x3001, 0x0E00); // BRnzp x3000
+        parent.setPC(0x3000);
+        parent.run(5);
+
+        InterpreterImp fork = parent.fork(new TrapHandlerImp(
+                new StringBuilder(), "", 1));
+
+        assertEquals("PC", parent.getPC(), fork.getPC());
+        assertEquals("R1", 3, fork.getRegister(1));
+        assertEquals("CCR", parent.getCCR(), fork.getCCR());
+        assertEquals("last instruction", parent.getLastInstruction(), fork
+                .getLastInstruction());
+        assertEquals("random", parent.getRandom().getState(), fork
+                .getRandom().getState());
+
+        fork.setMemory(0x3000, 0x1262); // ADD R1,R1,#2
+        fork.run(2);
+        parent.run(2);
+        assertEquals("fork ran new code", 5, fork.getRegister(1));
+        assertEquals("parent ran old code", 4, parent.getRegister(1));
+        assertEquals("parent code", 0x1261, parent.getMemory(0x3000));
+    }
+}
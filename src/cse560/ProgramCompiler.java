@@ -0,0 +1,481 @@
+package cse560;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Translates a whole MMXI program ahead of time into a subclass of
+ * {@link CompiledProgram}. The code reachable from the entry point is found
+ * by following every statically known flow of control: fall-through, BRx and
+ * JSR targets, and the return address of every JSR and JSRR. It is then cut
+ * into basic blocks at each of these addresses.
+ * <p>
+ * The blocks are compiled into one method per region of memory. Each region
+ * method keeps the registers and the CCR in local variables and jumps from
+ * block to block through a {@code lookupswitch} on the PC, so that control
+ * only returns to the caller when it reaches an address that is not the start
+ * of a block of the same region, a block whose code has been overwritten, or
+ * the end of its budget. The {@code execute} method picks the region method
+ * from the PC.
+ * <p>
+ * Regions are 512-word pages. If the code of a page is too large for the
+ * 16-bit jump offsets of a method, all regions are halved until it fits.
+ * <p>
+ * The generated class also contains the image to load, i.e. all non-zero
+ * words of memory, and a {@code main} method that runs the program.
+ *
+ * @author Igor Tolkachev
+ */
+final class ProgramCompiler extends CodeGenerator {
+    /** Internal name of CompiledProgram. */
+    private static final String COMPILED_PROGRAM = "cse560/CompiledProgram";
+
+    /** Descriptor of {@code execute} and the region methods. */
+    private static final String EXECUTE = "([IL" + RUNTIME + ";)I";
+
+    /** The maximum number of chars in a String constant of the image. */
+    private static final int CHUNK_LEN = 16000;
+
+    /** Local variable: the number of instructions executed. */
+    private static final int STEPS = FIRST_FREE;
+
+    /** Local variable: the step count after which to return. */
+    private static final int LIMIT = FIRST_FREE + 1;
+
+    /** Local variable: the PC. */
+    private static final int PC = FIRST_FREE + 2;
+
+    /** Local variable: the address of the last instruction executed. */
+    private static final int LAST = FIRST_FREE + 3;
+
+    /** Local variable: whether the last instruction was a taken branch. */
+    private static final int TAKEN = FIRST_FREE + 4;
+
+    /** Local variable: the stale array of the runtime. */
+    private static final int STALE = FIRST_FREE + 5;
+
+    /** The machine the program is loaded into. */
+    private final InterpreterImp machine;
+
+    /** Internal name of the generated class. */
+    private final String className;
+
+    /** The address execution starts at. */
+    private final int entry;
+
+    /** Block start addresses, in increasing order. */
+    private final List<Integer> starts = new ArrayList<Integer>();
+
+    /** The lengths of the blocks, in the order of {@code starts}. */
+    private final List<Integer> lengths = new ArrayList<Integer>();
+
+    /** The number of instructions in all blocks. */
+    private int instructionCount;
+
+    /** Where the current region method dispatches on the PC. */
+    private int dispatch;
+
+    /** Where the current region method returns. */
+    private int leave;
+
+    /**
+     * Finds the blocks of the program loaded into {@code machine}.
+     *
+     * @param className
+     *            The name of the class to generate, e.g. {@code "Sample"}.
+     * @param machine
+     *            The machine the program has been loaded into.
+     * @param entry
+     *            The address execution starts at.
+     */
+    ProgramCompiler(String className, InterpreterImp machine, int entry) {
+        super(new ClassFileWriter(className.replace('.', '/'),
+                COMPILED_PROGRAM));
+        this.machine = machine;
+        this.className = className.replace('.', '/');
+        this.entry = entry & Memory.MAX_ADDR;
+        findBlocks();
+    }
+
+    // ------------------------------------------------------------------------
+    // PRIVATE OPERATIONS
+    // ------------------------------------------------------------------------
+
+    /**
+     * Fills in {@code starts} and {@code lengths}.
+     */
+    private void findBlocks() {
+        boolean[] reached = new boolean[Memory.MAX_ADDR + 1];
+        boolean[] leader = new boolean[Memory.MAX_ADDR + 1];
+        int[] work = new int[Memory.MAX_ADDR + 1];
+        int pending = 0;
+
+        // Visit every instruction reachable from the entry point. An
+        // address is marked reached when it is pushed, so it is pushed at
+        // most once and the work list cannot overflow.
+        work[pending++] = entry;
+        reached[entry] = true;
+        leader[entry] = true;
+        while (pending > 0) {
+            int addr = work[--pending];
+            DecodedInstruction d = machine.decode(addr);
+            boolean fallsThrough = true;
+
+            switch (d.opcode) {
+            case 0: // BRx
+                if (d.nzp != 0) {
+                    if (!reached[d.pageAddress]) {
+                        reached[d.pageAddress] = true;
+                        work[pending++] = d.pageAddress;
+                    }
+                    leader[d.pageAddress] = true;
+                }
+                fallsThrough = d.nzp != (DecodedInstruction.N_BIT
+                        | DecodedInstruction.Z_BIT | DecodedInstruction.P_BIT);
+                break;
+            case 4: // JSR
+                if (!reached[d.pageAddress]) {
+                    reached[d.pageAddress] = true;
+                    work[pending++] = d.pageAddress;
+                }
+                leader[d.pageAddress] = true;
+                fallsThrough = d.link;
+                break;
+            case 12: // JSRR
+                fallsThrough = d.link;
+                break;
+            case 13: // RET
+                fallsThrough = false;
+                break;
+            case 15: // TRAP
+                fallsThrough = d.trapvect8 != 0x25;
+                break;
+            default:
+                break;
+            }
+            if (fallsThrough) {
+                if (!reached[d.nextPc]) {
+                    reached[d.nextPc] = true;
+                    work[pending++] = d.nextPc;
+                }
+                if (jumps(d) || !compilable(d)) {
+                    leader[d.nextPc] = true;
+                }
+            }
+        }
+
+        // Cut the reached code into blocks. Instructions that cannot be
+        // compiled are left to the machine.
+        int addr = 0;
+
+        while (addr <= Memory.MAX_ADDR) {
+            if (!reached[addr] || !compilable(machine.decode(addr))) {
+                ++addr;
+                continue;
+            }
+
+            int start = addr, length = 0;
+            DecodedInstruction d;
+
+            do {
+                d = machine.decode(addr);
+                ++length;
+                ++addr;
+            } while (!jumps(d) && length < BlockInterpreter.MAX_BLOCK_LEN
+                    && addr <= Memory.MAX_ADDR && reached[addr]
+                    && !leader[addr] && compilable(machine.decode(addr)));
+
+            starts.add(start);
+            lengths.add(length);
+            instructionCount += length;
+        }
+    }
+
+    /**
+     * Returns a region method, which executes the blocks with indices
+     * {@code from} to {@code to - 1}.
+     */
+    private MethodWriter region(int from, int to) {
+        int[] keys = new int[to - from], labels = new int[to - from];
+
+        mw = new MethodWriter(6, STALE + 1);
+        dispatch = mw.newLabel();
+        leave = mw.newLabel();
+        for (int i = 0; i < keys.length; ++i) {
+            keys[i] = starts.get(from + i);
+            labels[i] = mw.newLabel();
+        }
+
+        prologue();
+        mw.iconst(0, cf);
+        mw.local(MethodWriter.ISTORE, STEPS);
+        mw.local(MethodWriter.ALOAD, RT);
+        callRuntime("limit", "()I");
+        mw.local(MethodWriter.ISTORE, LIMIT);
+        mw.local(MethodWriter.ALOAD, RT);
+        callRuntime("pc", "()I");
+        mw.local(MethodWriter.ISTORE, PC);
+        mw.iconst(-1, cf);
+        mw.local(MethodWriter.ISTORE, LAST);
+        mw.iconst(0, cf);
+        mw.local(MethodWriter.ISTORE, TAKEN);
+        mw.local(MethodWriter.ALOAD, RT);
+        callRuntime("stale", "()[Z");
+        mw.local(MethodWriter.ASTORE, STALE);
+
+        // Leave when the limit is reached or the block is stale; otherwise
+        // jump to the block starting at the PC, if any.
+        mw.mark(dispatch);
+        mw.local(MethodWriter.ILOAD, STEPS);
+        mw.local(MethodWriter.ILOAD, LIMIT);
+        mw.jump(MethodWriter.IF_ICMPGT, leave);
+        mw.local(MethodWriter.ALOAD, STALE);
+        mw.local(MethodWriter.ILOAD, PC);
+        mw.op(MethodWriter.BALOAD);
+        mw.jump(MethodWriter.IFNE, leave);
+        mw.local(MethodWriter.ILOAD, PC);
+        mw.lookupswitch(leave, keys, labels);
+
+        for (int i = 0; i < keys.length; ++i) {
+            int length = lengths.get(from + i);
+            DecodedInstruction d = null;
+
+            mw.mark(labels[i]);
+            for (int k = 0; k < length; ++k) {
+                d = machine.decode(keys[i] + k);
+                instruction(d, k + 1);
+            }
+            if (!jumps(d)) {
+                exit(d, length, d.nextPc, 0, false, false);
+            }
+        }
+
+        mw.mark(leave);
+        storeRegisters((1 << Interpreter.NUM_REGS) - 1);
+        mw.local(MethodWriter.ALOAD, RT);
+        mw.local(MethodWriter.ILOAD, PC);
+        mw.local(MethodWriter.ILOAD, CCR_LOCAL);
+        mw.local(MethodWriter.ILOAD, TAKEN);
+        callRuntime("exit", "(IIZ)V");
+        mw.local(MethodWriter.ALOAD, RT);
+        mw.local(MethodWriter.ILOAD, LAST);
+        callRuntime("setLastAddress", "(I)V");
+        mw.local(MethodWriter.ILOAD, STEPS);
+        mw.op(MethodWriter.IRETURN);
+
+        return mw;
+    }
+
+    @Override
+    void exit(DecodedInstruction d, int count, int pc, int pcLocal,
+            boolean branchTaken, boolean codeChanged) {
+        mw.iinc(STEPS, count);
+        if (pc >= 0) {
+            mw.iconst(pc, cf);
+        } else {
+            mw.local(MethodWriter.ILOAD, pcLocal);
+        }
+        mw.local(MethodWriter.ISTORE, PC);
+        mw.iconst(d.addr, cf);
+        mw.local(MethodWriter.ISTORE, LAST);
+        if (d.opcode == 0) {
+            mw.iconst(branchTaken ? 1 : 0, cf);
+            mw.local(MethodWriter.ISTORE, TAKEN);
+        }
+        mw.jump(MethodWriter.GOTO, codeChanged ? leave : dispatch);
+    }
+
+    /**
+     * Appends {@code execute}, which calls the region method for the region
+     * of the PC, and the region methods, each covering {@code 1 << shift}
+     * words.
+     *
+     * @return false, and appends nothing, if a region method is too large
+     */
+    private boolean code(int shift) {
+        int regions = (Memory.MAX_ADDR + 1) >> shift;
+        List<MethodWriter> methods = new ArrayList<MethodWriter>();
+        int[] first = new int[regions + 1];
+
+        // Generate all region methods before adding any, so that nothing
+        // needs to be undone if one of them is too large.
+        for (int region = 0, i = 0; region < regions; ++region) {
+            first[region] = i;
+            while (i < starts.size() && (starts.get(i) >> shift) == region) {
+                ++i;
+            }
+            first[region + 1] = i;
+            if (i > first[region]) {
+                MethodWriter method = region(first[region], i);
+
+                try {
+                    method.toByteArray();
+                } catch (IllegalStateException e) {
+                    return false;
+                }
+                methods.add(method);
+            }
+        }
+
+        MethodWriter execute = new MethodWriter(3, 3);
+        int[] labels = new int[regions];
+        int none = execute.newLabel();
+
+        for (int region = 0; region < regions; ++region) {
+            labels[region] = first[region + 1] > first[region] ? execute
+                    .newLabel() : none;
+        }
+        execute.local(MethodWriter.ALOAD, RT);
+        execute.member(MethodWriter.INVOKEVIRTUAL,
+                cf.methodRef(RUNTIME, "pc", "()I"));
+        execute.iconst(shift, cf);
+        execute.op(MethodWriter.ISHR);
+        execute.tableswitch(0, none, labels);
+        for (int region = 0, m = 0; region < regions; ++region) {
+            if (labels[region] == none) {
+                continue;
+            }
+
+            String name = "region" + region;
+
+            cf.addMethod(ClassFileWriter.ACC_PUBLIC | ClassFileWriter.ACC_FINAL,
+                    name, EXECUTE, methods.get(m++));
+            execute.mark(labels[region]);
+            execute.local(MethodWriter.ALOAD, 0);
+            execute.local(MethodWriter.ALOAD, R_ARRAY);
+            execute.local(MethodWriter.ALOAD, RT);
+            execute.member(MethodWriter.INVOKEVIRTUAL,
+                    cf.methodRef(className, name, EXECUTE));
+            execute.op(MethodWriter.IRETURN);
+        }
+        execute.mark(none);
+        execute.iconst(0, cf);
+        execute.op(MethodWriter.IRETURN);
+        cf.addMethod(ClassFileWriter.ACC_PUBLIC, "execute", EXECUTE, execute);
+        return true;
+    }
+
+    /**
+     * Returns the image as a string of chars: the entry address; then for
+     * each run of non-zero words its address, length and words; then two
+     * zeros; then for each block its start address and length; then two
+     * zeros.
+     */
+    private String image() {
+        StringBuilder out = new StringBuilder();
+        int addr = 0;
+
+        out.append((char) entry);
+        while (addr <= Memory.MAX_ADDR) {
+            if (machine.getMemory(addr) == 0) {
+                ++addr;
+                continue;
+            }
+
+            int lengthAt = out.length() + 1;
+
+            out.append((char) addr).append((char) 0);
+            while (addr <= Memory.MAX_ADDR && machine.getMemory(addr) != 0
+                    && out.length() - lengthAt <= Character.MAX_VALUE) {
+                out.append((char) machine.getMemory(addr));
+                ++addr;
+            }
+            out.setCharAt(lengthAt, (char) (out.length() - lengthAt - 1));
+        }
+        out.append((char) 0).append((char) 0);
+        for (int i = 0; i < starts.size(); ++i) {
+            out.append((char) starts.get(i).intValue());
+            out.append((char) lengths.get(i).intValue());
+        }
+        out.append((char) 0).append((char) 0);
+        return out.toString();
+    }
+
+    /**
+     * Appends {@code data(int)}, which returns the chunks of the image in
+     * turn, and null after the last one.
+     */
+    private void data() {
+        String image = image();
+        int chunks = (image.length() + CHUNK_LEN - 1) / CHUNK_LEN;
+        int[] labels = new int[chunks];
+        MethodWriter data = new MethodWriter(1, 2);
+        int none = data.newLabel();
+
+        for (int i = 0; i < chunks; ++i) {
+            labels[i] = data.newLabel();
+        }
+        data.local(MethodWriter.ILOAD, 1);
+        data.tableswitch(0, none, labels);
+        for (int i = 0; i < chunks; ++i) {
+            String chunk = image.substring(i * CHUNK_LEN,
+                    Math.min(image.length(), (i + 1) * CHUNK_LEN));
+
+            data.mark(labels[i]);
+            data.member(MethodWriter.LDC_W, cf.string(chunk));
+            data.op(MethodWriter.ARETURN);
+        }
+        data.mark(none);
+        data.op(MethodWriter.ACONST_NULL);
+        data.op(MethodWriter.ARETURN);
+        cf.addMethod(ClassFileWriter.ACC_PUBLIC, "data",
+                "(I)Ljava/lang/String;", data);
+    }
+
+    /**
+     * Appends {@code main}, which runs a new instance of the program.
+     */
+    private void main() {
+        MethodWriter main = new MethodWriter(2, 1);
+
+        main.member(MethodWriter.NEW, cf.classRef(className));
+        main.op(MethodWriter.DUP);
+        main.member(MethodWriter.INVOKESPECIAL,
+                cf.methodRef(className, "<init>", "()V"));
+        main.local(MethodWriter.ALOAD, 0);
+        main.member(MethodWriter.INVOKESTATIC, cf.methodRef(
+                COMPILED_PROGRAM, "main", "(L" + COMPILED_PROGRAM
+                        + ";[Ljava/lang/String;)V"));
+        main.op(MethodWriter.RETURN);
+        cf.addMethod(ClassFileWriter.ACC_PUBLIC | ClassFileWriter.ACC_STATIC,
+                "main", "([Ljava/lang/String;)V", main);
+    }
+
+    // ------------------------------------------------------------------------
+    // PUBLIC OPERATIONS
+    // ------------------------------------------------------------------------
+
+    /**
+     * Returns the number of blocks found.
+     */
+    int getBlockCount() {
+        return starts.size();
+    }
+
+    /**
+     * Returns the number of instructions in all blocks found.
+     */
+    int getInstructionCount() {
+        return instructionCount;
+    }
+
+    /**
+     * Generates the class.
+     *
+     * @return the class file
+     * @throws IllegalStateException
+     *             if a block is too large to compile
+     */
+    byte[] toByteArray() {
+        int shift = Memory.OFFSET_LEN;
+
+        // Halve the regions until each region method is small enough. A
+        // region of MAX_BLOCK_LEN words always is.
+        while (!code(shift)) {
+            --shift;
+        }
+        data();
+        main();
+        return cf.toByteArray();
+    }
+}
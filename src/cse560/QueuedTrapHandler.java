@@ -0,0 +1,178 @@
+package cse560;
+
+import java.util.LinkedList;
+
+/**
+ * A console whose input is handed to it by another thread, one chunk at a
+ * time, and whose output is collected until another thread takes it. It
+ * never makes the machine wait: when an IN or INN trap is reached before a
+ * line of input has arrived, {@code hasInput} says no and the machine stops
+ * with {@link StopReason#INPUT}, leaving its thread free to run other
+ * machines, e.g. on a {@link MachineScheduler}, until {@code addInput} is
+ * called.
+ * <p>
+ * Every operation is thread-safe.
+ *
+ * @author Igor Tolkachev
+ */
+public final class QueuedTrapHandler implements TrapHandler {
+
+    // ------------------------------------------------------------------------
+    // PRIVATE VARIABLES
+    // ------------------------------------------------------------------------
+
+    /** Output not yet taken. */
+    private final StringBuilder output = new StringBuilder();
+
+    /** Complete lines of input not yet read. */
+    private final LinkedList<String> lines = new LinkedList<String>();
+
+    /** Input received after the last line terminator. */
+    private final StringBuilder partial = new StringBuilder();
+
+    /** Run when output is flushed, or null. */
+    private final Runnable onFlush;
+
+    /** Whether the end of the input has been reached. */
+    private boolean closed;
+
+    /** Whether a CR was the last character received. */
+    private boolean afterCR;
+
+    /** The prompt printed by {@code hasInput}, or null. */
+    private String promptShown;
+
+    // -------------------------------------------------------------------------
+    // CONSTRUCTORS
+    // -------------------------------------------------------------------------
+
+    /**
+     * Initializes a console with no input.
+     *
+     * @param onFlush
+     *            Run whenever the machine flushes its output, e.g. to have
+     *            the output taken and sent on; or null.
+     */
+    public QueuedTrapHandler(Runnable onFlush) {
+        this.onFlush = onFlush;
+    }
+
+    // -------------------------------------------------------------------------
+    // PUBLIC OPERATIONS
+    // -------------------------------------------------------------------------
+
+    /**
+     * Adds {@code chars} to the input. Lines end with LF, CR or CR LF; text
+     * after the last line terminator becomes part of the next line.
+     *
+     * @param chars
+     *            The input received.
+     */
+    public synchronized void addInput(CharSequence chars) {
+        for (int i = 0; i < chars.length(); ++i) {
+            char c = chars.charAt(i);
+
+            if (c == '\n' && afterCR) {
+                afterCR = false;
+                continue;
+            }
+            afterCR = c == '\r';
+            if (c == '\n' || c == '\r') {
+                lines.add(partial.toString());
+                partial.setLength(0);
+            } else {
+                partial.append(c);
+            }
+        }
+        notifyAll();
+    }
+
+    /**
+     * Marks the end of the input. Text after the last line terminator
+     * becomes the last line.
+     */
+    public synchronized void closeInput() {
+        if (partial.length() > 0) {
+            lines.add(partial.toString());
+            partial.setLength(0);
+        }
+        closed = true;
+        notifyAll();
+    }
+
+    /**
+     * Returns the output printed since the last call, and forgets it.
+     */
+    public synchronized String takeOutput() {
+        String s = output.toString();
+
+        output.setLength(0);
+        return s;
+    }
+
+    @Override
+    public synchronized void print(char c) {
+        output.append(c);
+    }
+
+    @Override
+    public synchronized void print(String s) {
+        output.append(s);
+    }
+
+    @Override
+    public boolean hasInput(String prompt) {
+        synchronized (this) {
+            if (!lines.isEmpty() || closed) {
+                return true;
+            }
+            if (prompt.equals(promptShown)) {
+                return false;
+            }
+            output.append(prompt);
+            promptShown = prompt;
+        }
+        flush();
+        return false;
+    }
+
+    /**
+     * Prints {@code prompt}, unless {@code hasInput} has printed it already,
+     * and reads a line of input, waiting for one to arrive if need be.
+     */
+    @Override
+    public String readLine(String prompt) {
+        synchronized (this) {
+            if (!prompt.equals(promptShown)) {
+                output.append(prompt);
+            }
+            promptShown = null;
+        }
+        flush();
+        synchronized (this) {
+            boolean interrupted = false;
+
+            while (lines.isEmpty() && !closed) {
+                try {
+                    wait();
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+            return lines.poll();
+        }
+    }
+
+    /**
+     * Runs the action given to the constructor, if any.
+     */
+    @Override
+    public void flush() {
+        if (onFlush != null) {
+            onFlush.run();
+        }
+    }
+}
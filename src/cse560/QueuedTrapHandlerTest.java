@@ -0,0 +1,125 @@
+package cse560;
+
+import static cse560.EngineAssert.load;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public final class QueuedTrapHandlerTest {
+
+    /** Sets R1 to 1, reads a character, prints it, and halts. */
+    private static final int[] ECHO = {
+            0x5260, // x3000 AND R1,R1,#0
+            0x1261, // x3001 ADD R1,R1,#1
+            0xF023, // x3002 TRAP x23
+            0xF021, // x3003 TRAP x21
+            0xF025, // x3004 TRAP x25
+    };
+
+    /**
+     * Input is split into lines, whatever chunks it arrives in.
+     */
+    @Test
+    public void lines() {
+        QueuedTrapHandler traps = new QueuedTrapHandler(null);
+
+        assertFalse("no input", traps.hasInput("?"));
+        assertEquals("prompt printed", "?", traps.takeOutput());
+        assertFalse("still no input", traps.hasInput("?"));
+        assertEquals("prompt printed once", "", traps.takeOutput());
+        traps.addInput("ab");
+        assertFalse("partial line", traps.hasInput("?"));
+        traps.addInput("c\r");
+        traps.addInput("\nd\re");
+        assertTrue("input", traps.hasInput("?"));
+        assertEquals("first line", "abc", traps.readLine("?"));
+        assertEquals("prompt not printed again", "", traps.takeOutput());
+        assertEquals("second line", "d", traps.readLine(">"));
+        assertEquals("new prompt", ">", traps.takeOutput());
+        assertFalse("partial line", traps.hasInput("?"));
+        traps.closeInput();
+        assertEquals("last line", "e", traps.readLine("?"));
+        assertNull("end of input", traps.readLine("?"));
+    }
+
+    /**
+     * A machine reaching an input trap before its input arrives stops in
+     * front of it, on every engine, and continues once input arrives.
+     */
+    @Test
+    public void stallOnInput() {
+        for (int engine = 0; engine < 3; ++engine) {
+            final int[] flushes = new int[1];
+            QueuedTrapHandler traps = new QueuedTrapHandler(new Runnable() {
+                @Override
+                public void run() {
+                    ++flushes[0];
+                }
+            });
+            InterpreterImp base = load(ECHO, traps);
+            Interpreter machine = base;
+
+            if (engine == 1) {
+                machine = new BlockInterpreter(base);
+            } else if (engine == 2) {
+                machine = new BlockInterpreter(base, 0);
+            }
+
+            RunResult result = machine.run(100);
+
+            assertEquals("reason", StopReason.INPUT, result.getReason());
+            assertEquals("steps", 2, result.getSteps());
+            assertEquals("PC at trap", 0x3002, machine.getPC());
+            assertEquals("R1", 1, machine.getRegister(1));
+            assertEquals("last instruction", "ADD R1,R1,0x1", machine
+                    .getLastInstruction());
+            assertEquals("prompt", "\nPlease enter ASCII character:", traps
+                    .takeOutput());
+            assertEquals("prompt flushed", 1, flushes[0]);
+
+            result = machine.run(100);
+            assertEquals("still waiting", StopReason.INPUT, result
+                    .getReason());
+            assertEquals("no steps", 0, result.getSteps());
+            assertEquals("no prompt", "", traps.takeOutput());
+
+            traps.addInput("q\n");
+            result = machine.run(100);
+            assertEquals("halted", StopReason.HALT, result.getReason());
+            assertEquals("steps", 3, result.getSteps());
+            assertEquals("output", "q\nExecution halted.\n", traps
+                    .takeOutput());
+        }
+    }
+
+    /**
+     * A session waiting for input on a scheduler takes no turns until it is
+     * woken.
+     */
+    @Test
+    public void parkedSession() throws Exception {
+        QueuedTrapHandler traps = new QueuedTrapHandler(null);
+        SimulationSession session = new SimulationSession.Builder().source(
+                "HECHO  30000003\n" + "T3000F023\n" + "T3001F021\n"
+                        + "T3002F025\n" + "E3000\n").console(traps).build();
+        MachineScheduler scheduler = new MachineScheduler(1, 10,
+                MachineScheduler.Policy.ROUND_ROBIN);
+        MachineScheduler.Task task = scheduler.submit(session, 0);
+
+        while (!session.isWaitingForInput()) {
+            Thread.sleep(1);
+        }
+        Thread.sleep(20);
+        assertEquals("parked", 1, task.getSlices());
+        traps.addInput("z\n");
+        scheduler.wake(task);
+        assertEquals("halted", StopReason.HALT, task.awaitResult()
+                .getReason());
+        assertEquals("output", "\nPlease enter ASCII character:z"
+                + "\nExecution halted.\n", traps.takeOutput());
+        scheduler.shutdown();
+    }
+}
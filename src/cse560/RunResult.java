@@ -0,0 +1,54 @@
+package cse560;
+
+/**
+ * The outcome of a call to {@link Interpreter#run(long)}: why the machine
+ * stopped, and how many instructions it executed before stopping.
+ * <p>
+ * RunResult objects are immutable.
+ *
+ * @author Igor Tolkachev
+ */
+public final class RunResult {
+    /** Why the machine stopped. */
+    private final StopReason reason;
+
+    /** The number of instructions executed. */
+    private final long steps;
+
+    /**
+     * Initializes a new RunResult.
+     *
+     * @param reason
+     *            Why the machine stopped.
+     * @param steps
+     *            The number of instructions executed.
+     */
+    public RunResult(StopReason reason, long steps) {
+        this.reason = reason;
+        this.steps = steps;
+    }
+
+    /**
+     * Returns why the machine stopped.
+     *
+     * @return the stop reason
+     */
+    public StopReason getReason() {
+        return reason;
+    }
+
+    /**
+     * Returns the number of instructions executed, including the instruction
+     * that caused the machine to stop.
+     *
+     * @return the number of instructions executed
+     */
+    public long getSteps() {
+        return steps;
+    }
+
+    @Override
+    public String toString() {
+        return reason + " after " + steps + " steps";
+    }
+}
@@ -0,0 +1,444 @@
+package cse560;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.Charset;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+
+import joptsimple.OptionException;
+import joptsimple.OptionParser;
+import joptsimple.OptionSet;
+
+/**
+ * Serves interactive MMXI sessions over TCP. Every connection runs a new
+ * {@link SimulationSession} of the same program in quiet mode: what the
+ * client sends is the program's input, and what the program prints is sent
+ * back. The connection is closed when the program halts or reaches the
+ * maximum number of instructions.
+ * <p>
+ * The program is loaded once, into a {@link CodeImage}, and every
+ * connection's session runs on a machine that shares the image's pages and
+ * decoded instructions, copying only the pages it writes to.
+ * <p>
+ * All connections are handled by one thread with a {@link Selector}, and
+ * the sessions run on a {@link MachineScheduler}. A session whose program is
+ * waiting for input has a {@link QueuedTrapHandler} as its console and takes
+ * up no thread; when input arrives, it is added to the console and the
+ * session is woken. An idle session costs only its registers, the pages
+ * it has written to, and a few buffers.
+ * <p>
+ * Run as a program, SessionServer listens on the loopback interface:
+ * {@code java -cp "MMXI Simulator.jar" cse560.SessionServer -f file -p port}.
+ * The options {@code -j N}, the number of worker threads (default: the
+ * number of processors), {@code -l N}, the number of instructions a session
+ * runs per turn (default: 1000), and {@code -M N}, the maximum number of
+ * instructions of each session (default: 1000), are also accepted.
+ *
+ * @author Igor Tolkachev
+ */
+public final class SessionServer {
+    /** The encoding of input and output. */
+    private static final Charset LATIN_1 = Charset.forName("ISO-8859-1");
+
+    /** The size of the buffer connections are read into. */
+    private static final int READ_BUFFER_SIZE = 4096;
+
+    /**
+     * The state of one connection.
+     */
+    private final class Connection implements Runnable {
+        /** The channel of the connection. */
+        final SocketChannel channel;
+
+        /** The console of the session. */
+        final QueuedTrapHandler console = new QueuedTrapHandler(this);
+
+        /** The session. */
+        final SimulationSession session;
+
+        /** The task running the session, or null until submitted. */
+        MachineScheduler.Task task;
+
+        /** Output taken from the console but not yet written. */
+        ByteBuffer pending = ByteBuffer.allocate(0);
+
+        /** Whether the session has completed. */
+        volatile boolean finished;
+
+        /**
+         * Initializes the state of a new connection.
+         */
+        Connection(SocketChannel channel) {
+            this.channel = channel;
+            this.session = new SimulationSession.Builder().source(image)
+                    .maxSteps(maxSteps).console(console).diagnostics(
+                            new DiagnosticsImp(null, 0)).build();
+        }
+
+        /**
+         * Has the selector thread write the output of the session. Called
+         * on a worker thread whenever the session flushes its output.
+         */
+        @Override
+        public void run() {
+            writable.add(this);
+            selector.wakeup();
+        }
+    }
+
+    // ------------------------------------------------------------------------
+    // PRIVATE VARIABLES
+    // ------------------------------------------------------------------------
+
+    /** The loaded program. */
+    private final CodeImage image;
+
+    /** The maximum number of instructions of each session. */
+    private final long maxSteps;
+
+    /** Runs the sessions. */
+    private final MachineScheduler scheduler;
+
+    /** Waits for connections, input, and room for output. */
+    private final Selector selector;
+
+    /** Accepts connections. */
+    private final ServerSocketChannel server;
+
+    /** The connections of the sessions that have not completed. */
+    private final Map<SimulationSession, Connection> connections =
+            new ConcurrentHashMap<SimulationSession, Connection>();
+
+    /** Connections with output to write. */
+    private final Queue<Connection> writable =
+            new ConcurrentLinkedQueue<Connection>();
+
+    /** Whether {@code close} has been called. */
+    private volatile boolean closed;
+
+    // -------------------------------------------------------------------------
+    // CONSTRUCTORS
+    // -------------------------------------------------------------------------
+
+    /**
+     * Initializes a server listening on {@code address}. It serves
+     * connections once {@code serve} is called.
+     *
+     * @param address
+     *            The address to listen on; port 0 picks a free port.
+     * @param program
+     *            The contents of the object file or binary image to run, from
+     *            its position to its limit.
+     * @param maxSteps
+     *            The maximum number of instructions of each session.
+     * @param scheduler
+     *            Runs the sessions.
+     * @throws LoadException
+     *             if the program cannot be loaded
+     * @throws IOException
+     *             if the server cannot listen on {@code address}
+     */
+    public SessionServer(InetSocketAddress address, ByteBuffer program,
+            long maxSteps, MachineScheduler scheduler) throws IOException {
+        this.maxSteps = maxSteps;
+        this.scheduler = scheduler;
+
+        // Load the program once, so that a bad object file is reported now
+        // rather than to every client.
+        this.image = CodeImage.load(program.slice());
+
+        this.selector = Selector.open();
+        this.server = ServerSocketChannel.open();
+        server.socket().bind(address);
+        server.configureBlocking(false);
+        server.register(selector, SelectionKey.OP_ACCEPT);
+        scheduler.setListener(new MachineScheduler.Listener() {
+            @Override
+            public void completed(MachineScheduler.Task task) {
+                finished(task);
+            }
+        });
+    }
+
+    // -------------------------------------------------------------------------
+    // PRIVATE OPERATIONS
+    // -------------------------------------------------------------------------
+
+    /**
+     * Finishes the session of {@code task} and has the rest of its output
+     * written. Called on a worker thread.
+     */
+    private void finished(MachineScheduler.Task task) {
+        Connection c = connections.remove(task.getSession());
+
+        if (c == null) {
+            return;
+        }
+        try {
+            task.awaitResult();
+            c.session.finish();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException e) {
+            c.console.print(e.getCause().getMessage() + "\n");
+        }
+        c.finished = true;
+        c.run();
+    }
+
+    /**
+     * Accepts a connection and starts its session.
+     */
+    private void accept() throws IOException {
+        SocketChannel channel = server.accept();
+
+        if (channel == null) {
+            return;
+        }
+        channel.configureBlocking(false);
+
+        Connection c = new Connection(channel);
+
+        channel.register(selector, SelectionKey.OP_READ, c);
+        connections.put(c.session, c);
+        c.task = scheduler.submit(c.session, 0);
+    }
+
+    /**
+     * Reads what the client of {@code c} sent, and passes it to its session.
+     */
+    private void read(SelectionKey key, Connection c, ByteBuffer buffer) {
+        int n;
+
+        buffer.clear();
+        try {
+            n = c.channel.read(buffer);
+        } catch (IOException e) {
+            n = -1;
+        }
+        if (n < 0) {
+            // The client will send no more; the session reads the end of
+            // its input, and its output is sent while the client listens.
+            key.interestOps(key.interestOps() & ~SelectionKey.OP_READ);
+            c.console.closeInput();
+        } else {
+            buffer.flip();
+            c.console.addInput(LATIN_1.decode(buffer));
+        }
+        scheduler.wake(c.task);
+    }
+
+    /**
+     * Writes the output of the session of {@code c}, and closes the
+     * connection once the session has completed and everything has been
+     * written.
+     */
+    private void write(Connection c) {
+        SelectionKey key = c.channel.keyFor(selector);
+        boolean finished = c.finished;
+        String output = c.console.takeOutput();
+
+        if (key == null || !key.isValid()) {
+            return;
+        }
+        if (output.length() > 0) {
+            ByteBuffer more = LATIN_1.encode(output);
+            ByteBuffer all = ByteBuffer.allocate(c.pending.remaining()
+                    + more.remaining());
+
+            c.pending = (ByteBuffer) all.put(c.pending).put(more).flip();
+        }
+        try {
+            c.channel.write(c.pending);
+            if (c.pending.hasRemaining()) {
+                key.interestOps(key.interestOps() | SelectionKey.OP_WRITE);
+                return;
+            }
+            key.interestOps(key.interestOps() & ~SelectionKey.OP_WRITE);
+            if (finished) {
+                close(key);
+            }
+        } catch (IOException e) {
+            // The client has gone; the session runs on to its end, but its
+            // output is dropped.
+            close(key);
+        }
+    }
+
+    /**
+     * Closes the connection of {@code key}.
+     */
+    private static void close(SelectionKey key) {
+        key.cancel();
+        try {
+            key.channel().close();
+        } catch (IOException e) {
+            // Nothing more can be done.
+        }
+    }
+
+    // -------------------------------------------------------------------------
+    // PUBLIC OPERATIONS
+    // -------------------------------------------------------------------------
+
+    /**
+     * Returns the port the server listens on.
+     */
+    public int getPort() {
+        return server.socket().getLocalPort();
+    }
+
+    /**
+     * Returns the number of sessions that have not completed.
+     */
+    public int getSessionCount() {
+        return connections.size();
+    }
+
+    /**
+     * Serves connections on the calling thread until {@code close} is called.
+     *
+     * @throws IOException
+     *             if the selector fails
+     */
+    public void serve() throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(READ_BUFFER_SIZE);
+
+        try {
+            while (!closed) {
+                Connection c;
+
+                selector.select();
+                while ((c = writable.poll()) != null) {
+                    write(c);
+                }
+
+                Iterator<SelectionKey> keys = selector.selectedKeys()
+                        .iterator();
+
+                while (keys.hasNext()) {
+                    SelectionKey key = keys.next();
+
+                    keys.remove();
+                    if (!key.isValid()) {
+                        continue;
+                    }
+                    if (key.isAcceptable()) {
+                        accept();
+                        continue;
+                    }
+                    c = (Connection) key.attachment();
+                    if (key.isReadable()) {
+                        read(key, c, buffer);
+                    }
+                    if (key.isValid() && key.isWritable()) {
+                        write(c);
+                    }
+                }
+            }
+        } finally {
+            for (SelectionKey key : selector.keys()) {
+                close(key);
+            }
+            selector.close();
+        }
+    }
+
+    /**
+     * Makes {@code serve} return, closing all connections.
+     */
+    public void close() {
+        closed = true;
+        selector.wakeup();
+    }
+
+    // -------------------------------------------------------------------------
+    // MAIN
+    // -------------------------------------------------------------------------
+
+    /**
+     * Serves sessions of a program until killed. See the description of the
+     * class for the options.
+     *
+     * @param args
+     *            Command-line arguments.
+     */
+    public static void main(final String[] args) {
+        final String usage = "Usage: java -cp \"MMXI Simulator.jar\" "
+                + "cse560.SessionServer -f file -p port [-j N] [-l N] [-M N]";
+        int threads = Runtime.getRuntime().availableProcessors();
+        long quantum = 1000, maxSteps = 1000;
+        File inputFile = null;
+        int port = 0;
+
+        try {
+            OptionSet options = new OptionParser("f:p:j:l:M:").parse(args);
+
+            if (!options.has("f") || !options.has("p")) {
+                System.out.println(usage);
+                System.exit(1);
+            }
+            inputFile = new File((String) options.valueOf("f"));
+            port = Integer.parseInt((String) options.valueOf("p"));
+            if (options.has("j")) {
+                threads = Integer.parseInt((String) options.valueOf("j"));
+            }
+            if (options.has("l")) {
+                quantum = Long.parseLong((String) options.valueOf("l"));
+            }
+            if (options.has("M")) {
+                maxSteps = Long.parseLong((String) options.valueOf("M"));
+            }
+        } catch (OptionException e) {
+            System.out.println(usage);
+            System.exit(1);
+        } catch (NumberFormatException e) {
+            System.out.println(usage);
+            System.exit(1);
+        }
+        if (threads < 1 || quantum < 1) {
+            System.out.println(usage);
+            System.exit(1);
+        }
+
+        try {
+            FileInputStream in = new FileInputStream(inputFile);
+            ByteBuffer program;
+
+            try {
+                program = LoaderImp.contents(in.getChannel());
+            } finally {
+                in.close();
+            }
+
+            SessionServer server = new SessionServer(new InetSocketAddress(
+                    InetAddress.getByName(null), port), program, maxSteps,
+                    new MachineScheduler(threads, quantum,
+                            MachineScheduler.Policy.ROUND_ROBIN));
+
+            System.out.println("Serving " + inputFile + " on port "
+                    + server.getPort());
+            server.serve();
+        } catch (LoadException e) {
+            (e.getCode() < 200 ? System.out : System.err).println(e
+                    .getMessage());
+            System.exit(1);
+        } catch (IOException e) {
+            System.err.println("Error 208: Could not serve: " + e);
+            System.exit(1);
+        }
+    }
+}
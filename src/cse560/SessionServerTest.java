@@ -0,0 +1,92 @@
+package cse560;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+
+import org.junit.Test;
+
+public final class SessionServerTest {
+
+    /** Reads a character, prints it, and halts. */
+    private static final String ECHO = "HECHO  30000003\n" + "T3000F023\n"
+            + "T3001F021\n" + "T3002F025\n" + "E3000\n";
+
+    /** The prompt of the IN trap routine. */
+    private static final String PROMPT = "\nPlease enter ASCII character:";
+
+    /**
+     * Reads from {@code in} until {@code length} characters have been read
+     * or the connection is closed.
+     */
+    private static String read(InputStream in, int length) throws Exception {
+        StringBuilder s = new StringBuilder();
+        int c;
+
+        while (s.length() < length && (c = in.read()) >= 0) {
+            s.append((char) c);
+        }
+        return s.toString();
+    }
+
+    /**
+     * Each connection runs its own session: the client sees the prompt,
+     * sends its input, and receives the rest of the output before the
+     * connection is closed.
+     */
+    @Test
+    public void serveSessions() throws Exception {
+        MachineScheduler scheduler = new MachineScheduler(2, 100,
+                MachineScheduler.Policy.ROUND_ROBIN);
+        final SessionServer server = new SessionServer(new InetSocketAddress(
+                InetAddress.getByName(null), 0), ByteBuffer.wrap(ECHO
+                .getBytes("ISO-8859-1")), 1000, scheduler);
+        Thread serving = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    server.serve();
+                } catch (Exception e) {
+                    throw new IllegalStateException(e);
+                }
+            }
+        });
+        Socket[] clients = new Socket[5];
+
+        serving.start();
+        try {
+            for (int k = 0; k < clients.length; ++k) {
+                clients[k] = new Socket(InetAddress.getByName(null), server
+                        .getPort());
+            }
+            for (int k = 0; k < clients.length; ++k) {
+                InputStream in = clients[k].getInputStream();
+
+                assertEquals("prompt", PROMPT, read(in, PROMPT.length()));
+            }
+            for (int k = clients.length - 1; k >= 0; --k) {
+                OutputStream out = clients[k].getOutputStream();
+
+                out.write(('a' + k) + 0);
+                out.write('\n');
+                out.flush();
+            }
+            for (int k = 0; k < clients.length; ++k) {
+                assertEquals("output", (char) ('a' + k)
+                        + "\nExecution halted.\n", read(clients[k]
+                        .getInputStream(), 1000));
+                clients[k].close();
+            }
+            assertEquals("sessions", 0, server.getSessionCount());
+        } finally {
+            server.close();
+            serving.join();
+            scheduler.shutdown();
+        }
+    }
+}
@@ -0,0 +1,172 @@
+package cse560;
+
+import java.io.UnsupportedEncodingException;
+
+/**
+ * The outcome of {@link SimulationSession#run()}: why the program stopped,
+ * how far it got, what it printed, and the final state of the machine.
+ * <p>
+ * SimulationResult objects are immutable, except for the diagnostics.
+ *
+ * @author Igor Tolkachev
+ */
+public final class SimulationResult {
+    /** The segment that was run. */
+    private final LoadResult segment;
+
+    /** Why the program stopped: HALT, BUDGET or INPUT. */
+    private final StopReason reason;
+
+    /** The number of instructions executed. */
+    private final long steps;
+
+    /** Everything printed, or null if a console was given. */
+    private final String output;
+
+    /** The final PC. */
+    private final int pc;
+
+    /** The final CCR. */
+    private final CCR ccr;
+
+    /** The final registers. */
+    private final int[] registers = new int[Interpreter.NUM_REGS];
+
+    /** The final memory, or null if it was not captured. */
+    private final char[] memory;
+
+    /** The warnings reported during the run. */
+    private final Diagnostics diagnostics;
+
+    /**
+     * Initializes a new result with the final state of {@code machine}.
+     *
+     * @param segment
+     *            The segment that was run.
+     * @param reason
+     *            Why the program stopped.
+     * @param steps
+     *            The number of instructions executed.
+     * @param output
+     *            Everything printed, or null.
+     * @param machine
+     *            The machine the program ran on.
+     * @param memory
+     *            The final memory, or null.
+     * @param diagnostics
+     *            The warnings reported during the run.
+     */
+    SimulationResult(LoadResult segment, StopReason reason, long steps,
+            String output, Interpreter machine, char[] memory,
+            Diagnostics diagnostics) {
+        this.segment = segment;
+        this.reason = reason;
+        this.steps = steps;
+        this.output = output;
+        this.pc = machine.getPC();
+        this.ccr = machine.getCCR();
+        for (int n = 0; n < Interpreter.NUM_REGS; ++n) {
+            registers[n] = machine.getRegister(n);
+        }
+        this.memory = memory;
+        this.diagnostics = diagnostics;
+    }
+
+    /**
+     * Returns the segment that was run.
+     */
+    public LoadResult getSegment() {
+        return segment;
+    }
+
+    /**
+     * Returns why the program stopped: {@code HALT} if it halted,
+     * {@code BUDGET} if it reached the maximum number of instructions, or
+     * {@code INPUT} if it was waiting for input when it was finished.
+     */
+    public StopReason getReason() {
+        return reason;
+    }
+
+    /**
+     * Returns the number of instructions executed.
+     */
+    public long getSteps() {
+        return steps;
+    }
+
+    /**
+     * Returns everything the program and the session printed, or null if the
+     * session was given a console.
+     */
+    public String getOutput() {
+        return output;
+    }
+
+    /**
+     * Returns the output as bytes, one per character, or null if the session
+     * was given a console.
+     */
+    public byte[] getOutputBytes() {
+        if (output == null) {
+            return null;
+        }
+        try {
+            return output.getBytes("ISO-8859-1");
+        } catch (UnsupportedEncodingException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Returns the final PC.
+     */
+    public int getPC() {
+        return pc;
+    }
+
+    /**
+     * Returns the final CCR.
+     */
+    public CCR getCCR() {
+        return ccr;
+    }
+
+    /**
+     * Returns the final value of register {@code n}.
+     * <p>
+     * Requires: {@code 0 <= n < Interpreter.NUM_REGS}
+     */
+    public int getRegister(int n) {
+        return registers[n];
+    }
+
+    /**
+     * Returns whether the final memory was captured.
+     */
+    public boolean hasMemory() {
+        return memory != null;
+    }
+
+    /**
+     * Returns the final value at {@code addr}.
+     * <p>
+     * Requires: {@code hasMemory()} and {@code 0 <= addr <= Memory.MAX_ADDR}
+     */
+    public int getMemory(int addr) {
+        return memory[addr];
+    }
+
+    /**
+     * Returns the warnings reported during the run.
+     */
+    public Diagnostics getDiagnostics() {
+        return diagnostics;
+    }
+
+    @Override
+    public String toString() {
+        return reason + " after " + steps + " steps, PC " + String.format(
+                "x%04X", pc);
+    }
+}
@@ -0,0 +1,740 @@
+package cse560;
+
+import java.io.File;
+import java.io.Reader;
+import java.io.StringReader;
+import java.io.UnsupportedEncodingException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * One run of an MMXI program, set up by a {@link Builder} and run by
+ * {@code run}, without the Simulator's command line or {@code System.out}.
+ * A session loads its object file into a new machine, runs it as the
+ * Simulator would with the same options, and returns a
+ * {@link SimulationResult} with everything the Simulator would have printed
+ * and the final state of the machine.
+ * <p>
+ * For example:
+ *
+ * <pre>
+ * SimulationResult result = new SimulationSession.Builder()
+ *         .source(new File(&quot;sample.o&quot;)).input(&quot;42\n&quot;).maxSteps(5000)
+ *         .build().run();
+ * </pre>
+ *
+ * By default, a session reads no input, collects its output in the result,
+ * and only counts warnings. A session runs once.
+ * <p>
+ * Instead of calling {@code run}, a session can be run a slice at a time, as
+ * {@link MachineScheduler} does: {@code start}, then {@code resume} until it
+ * returns true, then {@code finish}.
+ * <p>
+ * A session can also start from a fork of another session's machine instead
+ * of loading a program, so that a program is loaded, and possibly run up to
+ * a point, once, and then run on many inputs:
+ *
+ * <pre>
+ * SimulationSession template = new SimulationSession.Builder()
+ *         .source(new File(&quot;sample.o&quot;)).forkable(true).build();
+ *
+ * template.start();
+ * for (String script : scripts) {
+ *     results.add(new SimulationSession.Builder().fork(template)
+ *             .input(script).build().run());
+ * }
+ * </pre>
+ *
+ * A session can keep checkpoints of its machine every so many instructions,
+ * from which {@code stateAt} recovers the state of the machine at any step
+ * of the run without running it again from the start.
+ *
+ * @author Igor Tolkachev
+ */
+public final class SimulationSession {
+    /**
+     * The console of machines that re-execute part of a run: it discards
+     * output and has no input.
+     */
+    private static final TrapHandler NO_CONSOLE = new TrapHandler() {
+        @Override
+        public void print(char c) {
+        }
+
+        @Override
+        public void print(String s) {
+        }
+
+        @Override
+        public String readLine(String prompt) {
+            return null;
+        }
+
+        @Override
+        public boolean hasInput(String prompt) {
+            return false;
+        }
+
+        @Override
+        public void flush() {
+        }
+    };
+
+    /**
+     * The execution engines a session can run on, as selected by the
+     * Simulator's {@code -e} option.
+     */
+    public enum Engine {
+        /** {@link InterpreterImp}. */
+        INTERP,
+
+        /** {@link BlockInterpreter}. */
+        BLOCK,
+
+        /** A {@link BlockInterpreter} that compiles hot blocks. */
+        JIT
+    }
+
+    /**
+     * Collects the settings of a session. Every setting except the source
+     * has a default.
+     */
+    public static final class Builder {
+        /** The file to load, or null. */
+        private File file;
+
+        /** The contents of the file to load, or null. */
+        private ByteBuffer contents;
+
+        /** The image to run, or null. */
+        private CodeImage image;
+
+        /** The session whose machine to fork, or null. */
+        private SimulationSession template;
+
+        /** Whether the machine's memory is to be forked cheaply. */
+        private boolean forkable;
+
+        /** The arena the machine's memory is to be taken from, or null. */
+        private MemoryArena arena;
+
+        /** The mode to run in. */
+        private SimulatorMode mode = SimulatorMode.QUIET;
+
+        /** The engine to run on. */
+        private Engine engine = Engine.INTERP;
+
+        /** The maximum number of instructions to execute. */
+        private long maxSteps = Simulator.DEFAULT_MAX_STEPS;
+
+        /** Where input is read from, or null. */
+        private Reader input;
+
+        /** The console, or null to collect output. */
+        private TrapHandler console;
+
+        /** The seed of the RND trap routine, or null. */
+        private Long seed;
+
+        /** The sink for warnings, or null to only count them. */
+        private Diagnostics diagnostics;
+
+        /** Whether to keep the final memory in the result. */
+        private boolean captureMemory;
+
+        /** The number of instructions between checkpoints, or 0. */
+        private long checkpointInterval;
+
+        /** The log of input and RND results, or null. */
+        private InputLog inputLog;
+
+        /** The addresses of the breakpoints. */
+        private final List<Integer> breakpoints = new ArrayList<Integer>();
+
+        /**
+         * Loads the object file or binary image {@code file}.
+         */
+        public Builder source(File file) {
+            this.file = file;
+            this.contents = null;
+            this.image = null;
+            this.template = null;
+            return this;
+        }
+
+        /**
+         * Loads the object file or binary image in {@code contents}, from its
+         * position to its limit.
+         */
+        public Builder source(ByteBuffer contents) {
+            this.file = null;
+            this.contents = contents;
+            this.image = null;
+            this.template = null;
+            return this;
+        }
+
+        /**
+         * Loads the text object file {@code records}, e.g.
+         * {@code "HSAMPLE30000002\nT3000F025\nE3000\n"}.
+         */
+        public Builder source(String records) {
+            try {
+                return source(ByteBuffer.wrap(records.getBytes("ISO-8859-1")));
+            } catch (UnsupportedEncodingException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+
+        /**
+         * Runs the program of {@code image}, which is already loaded, on a
+         * machine sharing its pages; see {@link CodeImage#newMachine}.
+         */
+        public Builder source(CodeImage image) {
+            this.file = null;
+            this.contents = null;
+            this.image = image;
+            this.template = null;
+            return this;
+        }
+
+        /**
+         * Starts from a fork of the machine of {@code template}, as it is
+         * when the session is built, instead of loading a program; see
+         * {@link InterpreterImp#fork}. The session counts the instructions
+         * {@code template} has executed towards its maximum, and its result
+         * reports the segment {@code template} loaded. Unless seeded, the RND
+         * trap routine continues with a generator split from that of
+         * {@code template}.
+         * <p>
+         * Requires: {@code template} has started and is not running
+         */
+        public Builder fork(SimulationSession template) {
+            this.file = null;
+            this.contents = null;
+            this.image = null;
+            this.template = template;
+            return this;
+        }
+
+        /**
+         * Keeps memory in a {@link PagedMemory}, so that forks of the session
+         * share the pages neither writes to. Default: false, which keeps
+         * memory in a {@link FlatMemory}, faster to run on but copied whole
+         * by every fork. Sessions forked or run from a {@link CodeImage}
+         * always keep memory in pages.
+         */
+        public Builder forkable(boolean forkable) {
+            this.forkable = forkable;
+            return this;
+        }
+
+        /**
+         * Keeps memory in pages of {@code arena}, outside the heap, and gives
+         * them back to it when the session finishes; see
+         * {@link ArenaMemory}. Ignored by sessions forked or run from a
+         * {@link CodeImage}. Default: null, which keeps memory on the heap.
+         */
+        public Builder arena(MemoryArena arena) {
+            this.arena = arena;
+            return this;
+        }
+
+        /**
+         * Runs in {@code mode}. Default: {@code QUIET}.
+         */
+        public Builder mode(SimulatorMode mode) {
+            this.mode = mode;
+            return this;
+        }
+
+        /**
+         * Runs on {@code engine}. Default: {@code INTERP}.
+         */
+        public Builder engine(Engine engine) {
+            this.engine = engine;
+            return this;
+        }
+
+        /**
+         * Stops after {@code maxSteps} instructions. Default: 1000.
+         */
+        public Builder maxSteps(long maxSteps) {
+            this.maxSteps = maxSteps;
+            return this;
+        }
+
+        /**
+         * Reads the input of the IN and INN trap routines from {@code input}.
+         */
+        public Builder input(Reader input) {
+            this.input = input;
+            return this;
+        }
+
+        /**
+         * Reads the input of the IN and INN trap routines from the lines of
+         * {@code script}.
+         */
+        public Builder input(String script) {
+            return input(new StringReader(script));
+        }
+
+        /**
+         * Uses {@code console} for all input and output instead of collecting
+         * output in the result; {@code input} is then ignored.
+         */
+        public Builder console(TrapHandler console) {
+            this.console = console;
+            return this;
+        }
+
+        /**
+         * Seeds the RND trap routine with {@code seed}. Default: a different
+         * seed for each session.
+         */
+        public Builder seed(long seed) {
+            this.seed = seed;
+            return this;
+        }
+
+        /**
+         * Reports warnings to {@code diagnostics}. Default: a
+         * {@link DiagnosticsImp} that only counts them.
+         */
+        public Builder diagnostics(Diagnostics diagnostics) {
+            this.diagnostics = diagnostics;
+            return this;
+        }
+
+        /**
+         * Keeps a copy of the final memory in the result. Default: false.
+         */
+        public Builder captureMemory(boolean captureMemory) {
+            this.captureMemory = captureMemory;
+            return this;
+        }
+
+        /**
+         * Keeps a checkpoint of the machine when the program starts and then
+         * every {@code interval} instructions, for {@code stateAt}; 0 keeps
+         * none. Default: 0.
+         */
+        public Builder checkpoints(long interval) {
+            this.checkpointInterval = interval;
+            return this;
+        }
+
+        /**
+         * Records the results of the input and RND traps in {@code log},
+         * or, if it was read back, replays them from it; see
+         * {@link InputLog}. Steps in the log are counted from the start of
+         * the session. Default: none.
+         */
+        public Builder inputLog(InputLog log) {
+            this.inputLog = log;
+            return this;
+        }
+
+        /**
+         * Adds a breakpoint in front of the instruction at {@code addr}.
+         * Conditional breakpoints can be added to the machine of the session
+         * with {@link InterpreterImp#addBreakpoint}. Default: none.
+         */
+        public Builder breakpoint(int addr) {
+            this.breakpoints.add(addr);
+            return this;
+        }
+
+        /**
+         * Returns a session with these settings.
+         *
+         * @throws IllegalStateException
+         *             if no source has been set, or the template has not
+         *             started
+         */
+        public SimulationSession build() {
+            if (template != null && !template.started) {
+                throw new IllegalStateException("Template has not started");
+            }
+            if (file == null && contents == null && image == null
+                    && template == null) {
+                throw new IllegalStateException("No source");
+            }
+            return new SimulationSession(this);
+        }
+    }
+
+    // ------------------------------------------------------------------------
+    // PRIVATE VARIABLES
+    // ------------------------------------------------------------------------
+
+    /** The settings. */
+    private final Builder settings;
+
+    /** The machine the program runs on. */
+    private final InterpreterImp machine;
+
+    /** The engine running {@code machine}. */
+    private final Interpreter engine;
+
+    /** The console of the machine. */
+    private final TrapHandler console;
+
+    /** Where output is collected, or null. */
+    private final StringBuilder output;
+
+    /** The warnings reported by the machine. */
+    private final Diagnostics diagnostics;
+
+    /** Whether {@code start} has been called. */
+    private boolean started;
+
+    /** The segment that was loaded, or null. */
+    private LoadResult segment;
+
+    /** The number of instructions executed so far. */
+    private long stepCount;
+
+    /** Whether the program is waiting for input. */
+    private volatile boolean waiting;
+
+    /** Whether the program stopped at a breakpoint. */
+    private volatile boolean atBreakpoint;
+
+    /** The checkpoints of the machine, or null. */
+    private final CheckpointLog checkpoints;
+
+    /** The number of instructions executed before the session started. */
+    private final long firstStep;
+
+    // -------------------------------------------------------------------------
+    // CONSTRUCTORS
+    // -------------------------------------------------------------------------
+
+    /**
+     * Initializes a session with the settings of {@code settings}.
+     */
+    private SimulationSession(Builder settings) {
+        this.settings = settings;
+        if (settings.console != null) {
+            this.output = null;
+            this.console = settings.console;
+        } else {
+            this.output = new StringBuilder();
+            this.console = new TrapHandlerImp(output, settings.input,
+                    TrapHandlerImp.DEFAULT_BUFFER_SIZE);
+        }
+        this.diagnostics = settings.diagnostics != null ? settings.diagnostics
+                : new DiagnosticsImp(null, 0);
+        this.checkpoints = settings.checkpointInterval > 0
+                ? new CheckpointLog(settings.checkpointInterval) : null;
+        if (settings.template != null) {
+            InterpreterImp parent = settings.template.machine;
+
+            this.machine = parent.fork(console);
+            this.segment = settings.template.segment;
+            this.stepCount = settings.template.stepCount;
+            if (settings.seed == null) {
+                machine.setRandom(parent.getRandom().split());
+            }
+        } else if (settings.image != null) {
+            this.machine = settings.image.newMachine(console);
+            this.segment = settings.image.getSegment();
+        } else if (settings.arena != null) {
+            this.machine = new InterpreterImp(settings.arena.newMemory(),
+                    console);
+        } else {
+            this.machine = new InterpreterImp(settings.forkable
+                    ? new PagedMemory() : new FlatMemory(), console);
+        }
+        machine.setDiagnostics(diagnostics);
+        if (settings.seed != null) {
+            machine.setRandom(new MachineRandom(settings.seed));
+        }
+        machine.setInputLog(settings.inputLog);
+        for (int addr : settings.breakpoints) {
+            machine.addBreakpoint(addr);
+        }
+        this.firstStep = stepCount;
+
+        switch (settings.engine) {
+        case BLOCK:
+            this.engine = new BlockInterpreter(machine);
+            break;
+        case JIT:
+            this.engine = new BlockInterpreter(machine,
+                    BlockInterpreter.DEFAULT_COMPILE_THRESHOLD);
+            break;
+        default:
+            this.engine = machine;
+        }
+    }
+
+    // -------------------------------------------------------------------------
+    // PUBLIC OPERATIONS
+    // -------------------------------------------------------------------------
+
+    /**
+     * Returns the machine the program runs on.
+     */
+    public InterpreterImp getMachine() {
+        return machine;
+    }
+
+    /**
+     * Returns the engine running the machine, e.g. to query a
+     * {@link BlockInterpreter} for how much code it compiled.
+     */
+    public Interpreter getEngine() {
+        return engine;
+    }
+
+    /**
+     * Returns whether the last call of {@code resume} stopped early because
+     * the program reached an input trap before its input arrived, which only
+     * happens with a console such as {@link QueuedTrapHandler}.
+     */
+    public boolean isWaitingForInput() {
+        return waiting;
+    }
+
+    /**
+     * Returns whether the last call of {@code resume} stopped early because
+     * the program reached a breakpoint; calling {@code resume} again goes on
+     * from there.
+     */
+    public boolean isAtBreakpoint() {
+        return atBreakpoint;
+    }
+
+    /**
+     * Returns the number of instructions executed so far.
+     */
+    public long getStepCount() {
+        return stepCount;
+    }
+
+    /**
+     * Returns a snapshot of the machine as it is now, e.g. between calls of
+     * {@code resume} or after {@code finish}. A session whose memory was
+     * taken from an arena has given it back once it has finished.
+     * <p>
+     * Requires: {@code start} has been called, and the session is not running
+     *
+     * @return the snapshot
+     */
+    public MachineSnapshot snapshot() {
+        return MachineSnapshot.capture(machine, segment);
+    }
+
+    /**
+     * Returns the checkpoints kept so far, or null if the session keeps
+     * none.
+     */
+    public CheckpointLog getCheckpoints() {
+        return checkpoints;
+    }
+
+    /**
+     * Returns a snapshot of the machine as it was once it had executed
+     * {@code step} instructions, recovered by restoring the last checkpoint
+     * before it into a new machine and executing the instructions since.
+     * <p>
+     * Requires: the session keeps checkpoints, {@code start} has been called,
+     * and the session is not running
+     *
+     * @param step
+     *            The number of instructions executed, at least that of the
+     *            first checkpoint and at most {@code getStepCount()}.
+     * @return the snapshot
+     * @throws IllegalArgumentException
+     *             if {@code step} is outside the run
+     * @throws IllegalStateException
+     *             if the program read input between the checkpoint and
+     *             {@code step}, and the session has no {@link InputLog} to
+     *             replay it from
+     */
+    public MachineSnapshot stateAt(long step) {
+        int k = checkpoints.floor(step);
+
+        if (k < 0 || step > stepCount) {
+            throw new IllegalArgumentException("No state at step " + step);
+        }
+
+        InterpreterImp replay = new InterpreterImp(new PagedMemory(),
+                NO_CONSOLE);
+        long remaining = step - checkpoints.getStep(k);
+
+        replay.setDiagnostics(new DiagnosticsImp(null, 0));
+        checkpoints.get(k).restore(replay);
+        if (settings.inputLog != null) {
+            replay.setInputLog(settings.inputLog.replayFrom(checkpoints
+                    .getStep(k) - firstStep));
+        }
+        while (remaining > 0) {
+            RunResult result = replay.run(remaining);
+
+            remaining -= result.getSteps();
+            if (result.getReason() == StopReason.INPUT) {
+                throw new IllegalStateException("Input read before step "
+                        + step);
+            }
+            if (result.getReason() == StopReason.HALT) {
+                break;
+            }
+        }
+        return MachineSnapshot.capture(replay, segment);
+    }
+
+    /**
+     * Loads the program, unless the session is a fork or runs a
+     * {@link CodeImage}, and, unless in quiet mode, prints the current page
+     * of memory. The program can then be run by {@code resume}.
+     *
+     * @throws LoadException
+     *             if the program cannot be loaded
+     * @throws IllegalStateException
+     *             if the session has started already
+     */
+    public void start() {
+        if (started) {
+            throw new IllegalStateException("Session has started already");
+        }
+        started = true;
+        if (settings.file != null) {
+            segment = LoaderImp.load(settings.file, machine);
+        } else if (settings.contents != null) {
+            segment = LoaderImp.load(settings.contents.duplicate(), machine);
+        }
+        if (checkpoints != null) {
+            checkpoints.add(stepCount, machine, segment);
+        }
+        if (settings.mode != SimulatorMode.QUIET) {
+            console.print(Simulator.formatCurrentPage(engine));
+        }
+    }
+
+    /**
+     * Runs the program for up to {@code budget} more instructions, printing
+     * the machine state as the Simulator does.
+     * <p>
+     * Requires: {@code start} has been called
+     *
+     * @param budget
+     *            The maximum number of instructions to execute.
+     * @return whether the program is finished, i.e. has halted or has
+     *         executed the maximum number of instructions; false also if it
+     *         stopped early because it is waiting for input or reached a
+     *         breakpoint
+     */
+    public boolean resume(long budget) {
+        SimulatorMode mode = settings.mode;
+        long maxSteps = settings.maxSteps;
+        long executed = 0;
+
+        // In quiet mode nothing needs to be printed between instructions, so
+        // the machine is left to run as far as it can in one go, or up to the
+        // next checkpoint; otherwise it is run one instruction at a time.
+        while (!engine.isHalted() && stepCount < maxSteps
+                && executed < budget) {
+            long slice = mode == SimulatorMode.QUIET ? Math.min(budget
+                    - executed, maxSteps - stepCount) : 1;
+
+            if (checkpoints != null) {
+                long interval = checkpoints.getInterval();
+
+                slice = Math.min(slice, interval - stepCount % interval);
+            }
+
+            RunResult result = engine.run(slice);
+
+            stepCount += result.getSteps();
+            executed += result.getSteps();
+            if (checkpoints != null && result.getSteps() > 0
+                    && stepCount % checkpoints.getInterval() == 0) {
+                checkpoints.add(stepCount, machine, segment);
+            }
+            waiting = result.getReason() == StopReason.INPUT;
+            atBreakpoint = result.getReason() == StopReason.BREAKPOINT;
+            if (waiting || atBreakpoint) {
+                return false;
+            }
+            if (result.getReason() == StopReason.DBUG) {
+                console.print(Simulator.formatState(engine));
+            }
+            if (mode != SimulatorMode.QUIET) {
+                console.print("\n");
+                console.print(Simulator.formatState(engine));
+            }
+        }
+        return engine.isHalted() || stepCount >= maxSteps;
+    }
+
+    /**
+     * Prints what the Simulator prints after running, and returns the outcome
+     * of the run. A session whose memory was taken from an arena gives it
+     * back, so that its machine's memory is all zeros afterwards.
+     * <p>
+     * Requires: {@code start} has been called
+     *
+     * @return the outcome of the run
+     */
+    public SimulationResult finish() {
+        if (stepCount >= settings.maxSteps) {
+            console.print("Error 204: Maximum instruction count reached.\n");
+        }
+        if (settings.mode != SimulatorMode.QUIET) {
+            console.print(Simulator.formatCurrentPage(engine));
+        }
+        console.flush();
+
+        char[] memory = null;
+
+        if (settings.captureMemory) {
+            memory = new char[Memory.MAX_ADDR + 1];
+            for (int addr = 0; addr <= Memory.MAX_ADDR; ++addr) {
+                memory[addr] = (char) machine.getMemory(addr);
+            }
+        }
+        if (machine.memory() instanceof ArenaMemory) {
+            ((ArenaMemory) machine.memory()).release();
+        }
+        StopReason reason = StopReason.BUDGET;
+
+        if (engine.isHalted()) {
+            reason = StopReason.HALT;
+        } else if (waiting) {
+            reason = StopReason.INPUT;
+        } else if (atBreakpoint) {
+            reason = StopReason.BREAKPOINT;
+        }
+        return new SimulationResult(segment, reason, stepCount,
+                output == null ? null : output.toString(), machine, memory,
+                diagnostics);
+    }
+
+    /**
+     * Loads the program and runs it until it halts or has executed the
+     * maximum number of instructions, printing what the Simulator prints.
+     * With a console that does not wait for input, it also stops when the
+     * program reaches an input trap before its input has arrived. At each
+     * breakpoint, it prints the machine state and goes on.
+     *
+     * @return the outcome of the run
+     * @throws LoadException
+     *             if the program cannot be loaded
+     * @throws IllegalStateException
+     *             if the session has started already
+     */
+    public SimulationResult run() {
+        start();
+        while (!resume(Long.MAX_VALUE) && atBreakpoint) {
+            console.print(String.format("Breakpoint at %04x\n", machine
+                    .getPC()));
+            console.print(Simulator.formatState(engine));
+        }
+        return finish();
+    }
+}
@@ -0,0 +1,147 @@
+package cse560;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public final class SimulationSessionTest {
+
+    /**
+     * Reads a character, stores it at x3010, prints it, and halts.
+     */
+    private static final String ECHO = "HECHO  30000004\n" + "T3000F023\n"
+            + "T30013010\n" + "T3002F021\n" + "T3003F025\n" + "E3000\n";
+
+    /**
+     * Branches to itself forever.
+     */
+    private static final String LOOP = "HLOOP  30000001\n" + "T30000E00\n"
+            + "E3000\n";
+
+    /**
+     * A program that halts is run to the end, reading the script and
+     * collecting its output.
+     */
+    @Test
+    public void runToHalt() {
+        for (SimulationSession.Engine engine : SimulationSession.Engine
+                .values()) {
+            SimulationResult result = new SimulationSession.Builder().source(
+                    ECHO).engine(engine).input("A\n").build().run();
+
+            assertEquals("reason", StopReason.HALT, result.getReason());
+            assertEquals("steps", 4, result.getSteps());
+            assertEquals("output", "\nPlease enter ASCII character:A"
+                    + "\nExecution halted.\n", result.getOutput());
+            assertEquals("output bytes", result.getOutput().length(), result
+                    .getOutputBytes().length);
+            assertEquals("R0", 'A', result.getRegister(0));
+            assertEquals("PC", 0x3004, result.getPC());
+            assertEquals("segment", "ECHO  ", result.getSegment()
+                    .getSegmentName());
+            assertFalse("no memory", result.hasMemory());
+        }
+    }
+
+    /**
+     * A program that does not halt is stopped at the step budget.
+     */
+    @Test
+    public void runToBudget() {
+        SimulationResult result = new SimulationSession.Builder().source(LOOP)
+                .maxSteps(25).build().run();
+
+        assertEquals("reason", StopReason.BUDGET, result.getReason());
+        assertEquals("steps", 25, result.getSteps());
+        assertEquals("output",
+                "Error 204: Maximum instruction count reached.\n", result
+                        .getOutput());
+        assertEquals("PC", 0x3000, result.getPC());
+    }
+
+    /**
+     * The final memory is captured on request.
+     */
+    @Test
+    public void captureMemory() {
+        SimulationResult result = new SimulationSession.Builder().source(
+                ECHO).input("z\n").captureMemory(true).build().run();
+
+        assertTrue("memory", result.hasMemory());
+        assertEquals("stored character", 'z', result.getMemory(0x3010));
+        assertEquals("code", 0xF023, result.getMemory(0x3000));
+    }
+
+    /**
+     * Output written to a console is not collected.
+     */
+    @Test
+    public void console() {
+        StringBuilder out = new StringBuilder();
+        SimulationResult result = new SimulationSession.Builder().source(
+                ECHO).console(new TrapHandlerImp(out, "B", 1)).build().run();
+
+        assertNull("no output", result.getOutput());
+        assertNull("no output bytes", result.getOutputBytes());
+        assertTrue("printed to console", out.toString().endsWith(
+                "B\nExecution halted.\n"));
+    }
+
+    /**
+     * Load errors are thrown.
+     */
+    @Test
+    public void loadError() {
+        try {
+            new SimulationSession.Builder().source("T3000F025\n").build()
+                    .run();
+        } catch (LoadException e) {
+            return;
+        }
+        assertTrue("LoadException thrown", false);
+    }
+
+    /**
+     * Sessions forked from a loaded template run on their own input without
+     * loading the program, and do not change the template.
+     */
+    @Test
+    public void fork() {
+        SimulationSession template = new SimulationSession.Builder().source(
+                ECHO).forkable(true).build();
+
+        template.start();
+        for (SimulationSession.Engine engine : SimulationSession.Engine
+                .values()) {
+            for (char c = 'a'; c <= 'c'; ++c) {
+                SimulationResult result = new SimulationSession.Builder()
+                        .fork(template).engine(engine).input(c + "\n")
+                        .captureMemory(true).build().run();
+
+                assertEquals("reason", StopReason.HALT, result.getReason());
+                assertEquals("steps", 4, result.getSteps());
+                assertEquals("stored character", c, result.getMemory(0x3010));
+                assertEquals("segment", "ECHO  ", result.getSegment()
+                        .getSegmentName());
+            }
+        }
+        assertEquals("template unchanged", 0, template.getMachine()
+                .getMemory(0x3010));
+        assertEquals("template PC", 0x3000, template.getMachine().getPC());
+    }
+
+    /**
+     * A session runs only once.
+     */
+    @Test(expected = IllegalStateException.class)
+    public void runOnce() {
+        SimulationSession session = new SimulationSession.Builder().source(
+                ECHO).build();
+
+        session.run();
+        session.run();
+    }
+}
@@ -1,9 +1,15 @@
 package cse560;
 
-import java.io.BufferedReader;
+import java.io.BufferedWriter;
 import java.io.File;
-import java.io.FileReader;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.List;
 
 import joptsimple.OptionException;
 import joptsimple.OptionParser;
@@ -22,7 +28,44 @@ import joptsimple.OptionSet;
  * <li>{@code -s} - Run in step mode.</li>
  * <li>{@code -M N} - Terminate execution after $N$ instructions. Default: 1000.
  * </li>
- * <li>{@code -f file} - The name of the object file to execute. (Required)</li>
+ * <li>{@code -f file} - The name of the object file or {@link BinaryImage}
+ * to execute, or of a {@link MachineSnapshot} to resume. (Required)</li>
+ * <li>{@code -S file} - When execution stops, write a snapshot of the
+ * machine to the given file, which {@code -f} can resume from.</li>
+ * <li>{@code -B addr} - Print the machine state whenever execution reaches
+ * the instruction at the given hexadecimal address. May be given more than
+ * once.</li>
+ * <li>{@code -R file} - Record what the input and RND trap routines return
+ * in an {@link InputLog}, written to the given file when execution
+ * stops.</li>
+ * <li>{@code -P file} - Replay the {@link InputLog} in the given file: the
+ * input and RND trap routines return what they returned in the recorded
+ * run, without reading input.</li>
+ * <li>{@code -e engine} - The execution engine to use: {@code interp} for
+ * {@link InterpreterImp} (the default), {@code block} for
+ * {@link BlockInterpreter}, or {@code jit} for a BlockInterpreter that
+ * compiles hot blocks. The {@code jit} engine prints how much code it
+ * compiled when execution completes.</li>
+ * <li>{@code -r seed} - Seed the generator of the RND trap routine with the
+ * given integer, so that runs are reproducible. Default: a different seed
+ * for each run.</li>
+ * <li>{@code -w N} - Print only the first N warnings of each kind, and a
+ * summary of all warnings and where they occurred when execution completes.
+ * Default: print every warning.</li>
+ * <li>{@code -b manifest} - Run in batch mode: run every program listed in
+ * the manifest, or every file in the directory, as described by
+ * {@link BatchRunner}, instead of the object file given by {@code -f}. The
+ * programs run in quiet mode, and one line of results is printed for each.
+ * </li>
+ * <li>{@code -j N} - In batch mode, run N programs at once. Default: the
+ * number of processors.</li>
+ * <li>{@code -o file} - In batch mode, write the results to the given file.
+ * Default: print them.</li>
+ * <li>{@code -l N} - In batch mode, have the programs take turns, each
+ * running at most N instructions at a time, as scheduled by
+ * {@link MachineScheduler}, so that short programs finish promptly even when
+ * the batch holds long-running ones. Default: run each program to completion
+ * once it has started.</li>
  * </ul>
  * If a required option is missing, a nonexistent option is provided (e.g., "
  * {@code -G}"), or a provided argument is malformed (e.g., "{@code -M platypus}
@@ -43,7 +86,7 @@ import joptsimple.OptionSet;
  */
 public final class Simulator {
     /** Default limit on number of instructions to execute. */
-    private static final int DEFAULT_MAX_STEPS = 1000;
+    static final long DEFAULT_MAX_STEPS = 1000;
 
     // -------------------------------------------------------------------------
     // PRIVATE METHODS
@@ -57,16 +100,18 @@ public final class Simulator {
     }
 
     /**
-     * Prints the current memory page of the given Interpreter object as
-     * hexadecimal.
+     * Returns the current memory page of the given Interpreter object as
+     * hexadecimal, as printed in trace and step mode.
      *
      * @param machine
      *            The machine to fetch the current memory page from.
+     * @return the page, one line per row, each ending in a newline
      */
-    private static void printCurrentPage(final Interpreter machine) {
+    static String formatCurrentPage(final Interpreter machine) {
         final int outputRows = 32; // Number of rows to output per "chunk"
         final int outputCols = 8; // Number of columns for each row (in words)
 
+        StringBuilder out = new StringBuilder();
         int page = Memory.getPageNumber(machine.getPC()) << (Memory.WORD_LEN - Memory.PAGE_LEN);
         int offset = 0; // Start with offset zero and go from there
 
@@ -74,68 +119,84 @@ public final class Simulator {
         // guides.
         for (int chunk = 0; chunk < 2; ++chunk) {
             // Allow space for the row guides.
-            System.out.print("    ");
+            out.append("    ");
 
             // Print the column guides
             // Note that if the guide is wider than one character there will be
             // alignment issues.
             for (int col = 0; col < outputCols; ++col) {
-                System.out.printf("%4x ", col);
+                out.append(String.format("%4x ", col));
             }
-            System.out.println();
+            out.append('\n');
 
             // Print sixteen rows of memory, with each row beginning with the
             // offset.
             for (int row = 0; row < outputRows; ++row) {
-                System.out.printf("%03x ", offset);
+                out.append(String.format("%03x ", offset));
 
                 // Print sixteen words of memory.
                 for (int col = 0; col < outputCols; ++col) {
-                    System.out
-                            .printf("%04x ", machine.getMemory(page + offset));
+                    out.append(String.format("%04x ", machine
+                            .getMemory(page + offset)));
                     ++offset;
                 }
-                System.out.println();
+                out.append('\n');
             }
 
-            System.out.println();
+            out.append('\n');
         }
+        return out.toString();
     }
 
     /**
-     * Prints the last executed instruction, registers, CCR, and PC of the
-     * provided Interpreter.
+     * Returns the last executed instruction, registers, CCR, and PC of the
+     * provided Interpreter, as printed by {@code printState}.
      *
      * @param machine
      *            The machine whose state should be printed.
+     * @return the state, on four lines, each ending in a newline
      */
-    public static void printState(final Interpreter machine) {
+    static String formatState(final Interpreter machine) {
+        StringBuilder out = new StringBuilder();
+
         // ... Print last executed instruction
-        System.out.print("Last instruction: ");
-        System.out.println(machine.getLastInstruction());
+        out.append("Last instruction: ");
+        out.append(machine.getLastInstruction()).append('\n');
 
         // ... Print registers
 
         for (int i = 0; i < Interpreter.NUM_REGS; ++i) {
-            System.out.printf("  R%x ", i);
+            out.append(String.format("  R%x ", i));
         }
 
-        System.out.println();
+        out.append('\n');
 
         for (int i = 0; i < Interpreter.NUM_REGS; ++i) {
-            System.out.printf("%04x ", machine.getRegister(i));
+            out.append(String.format("%04x ", machine.getRegister(i)));
         }
 
-        System.out.println();
+        out.append('\n');
 
         // ... Print CCR
 
-        System.out.printf("CCR: %s\n", machine.getCCR().toString());
+        out.append(String.format("CCR: %s\n", machine.getCCR().toString()));
 
         // ... Print instruction and PC
         // E.g., "PC: 2A4C    ADD R5, R0, R5"
 
-        System.out.printf("PC: %04x\n", machine.getPC());
+        out.append(String.format("PC: %04x\n", machine.getPC()));
+        return out.toString();
+    }
+
+    /**
+     * Prints the last executed instruction, registers, CCR, and PC of the
+     * provided Interpreter.
+     *
+     * @param machine
+     *            The machine whose state should be printed.
+     */
+    public static void printState(final Interpreter machine) {
+        System.out.print(formatState(machine));
     }
 
     /**
@@ -150,7 +211,105 @@ public final class Simulator {
         System.out
                 .println("    (Only one of the above options may be selected)");
         System.out.println("    -M N        Stop execution after N steps");
+        System.out.println("    -e engine   Execute with the given engine:");
+        System.out.println("                interp (Default), block or jit");
+        System.out.println("    -r seed     Seed the RND trap with \"seed\"");
+        System.out.println("    -w N        Print only the first N warnings "
+                + "of each kind,");
+        System.out.println("                and a summary at the end");
         System.out.println("    -f file     Execute the object file \"file\"");
+        System.out.println("    -S file     Write a snapshot of the machine "
+                + "to \"file\" at the end");
+        System.out.println("    -B addr     Print the machine state at "
+                + "each arrival at hex address");
+        System.out.println("                \"addr\"; may be repeated");
+        System.out.println("    -R file     Record input and random numbers "
+                + "to \"file\"");
+        System.out.println("    -P file     Replay input and random numbers "
+                + "from \"file\"");
+        System.out.println("    -b manifest Execute every job listed in "
+                + "\"manifest\",");
+        System.out.println("                or every file in a directory");
+        System.out.println("    -j N        In batch mode, run N jobs at once");
+        System.out.println("    -o file     In batch mode, write results "
+                + "to \"file\"");
+        System.out.println("    -l N        In batch mode, run jobs N steps "
+                + "at a time");
+    }
+
+    /**
+     * Reads the input log in {@code file}, or prints why it cannot and exits.
+     *
+     * @param file
+     *            The log file.
+     * @return the log, for replaying
+     */
+    private static InputLog readInputLog(final File file) {
+        try {
+            FileInputStream in = new FileInputStream(file);
+
+            try {
+                return InputLog.read(LoaderImp.contents(in.getChannel()));
+            } finally {
+                in.close();
+            }
+        } catch (LoadException e) {
+            System.out.println(e.getMessage());
+        } catch (IOException e) {
+            System.err.println("Error 211: Could not read input log: " + e);
+        }
+        System.exit(1);
+        return null;
+    }
+
+    /**
+     * Runs the jobs of a batch and prints or writes their results.
+     *
+     * @param runner
+     *            The runner to run the jobs with.
+     * @param batch
+     *            The manifest, or a directory of object files.
+     * @param maxSteps
+     *            The maximum number of instructions of jobs that do not give
+     *            one.
+     * @param resultsFile
+     *            The file to write results to, or null to print them.
+     * @return the exit status: 0 if every job ran, 1 otherwise
+     */
+    private static int runBatch(final BatchRunner runner, final File batch,
+            final long maxSteps, final File resultsFile) {
+        List<BatchRunner.Job> jobs;
+        Writer results = null;
+
+        try {
+            jobs = batch.isDirectory() ? BatchRunner.scanDirectory(batch,
+                    maxSteps) : BatchRunner.readManifest(batch, maxSteps);
+        } catch (IOException e) {
+            System.err.println("Error 206: Could not read batch file: "
+                    + e.getMessage());
+            return 1;
+        }
+
+        try {
+            try {
+                if (resultsFile != null) {
+                    results = new BufferedWriter(new OutputStreamWriter(
+                            new FileOutputStream(resultsFile), "ISO-8859-1"));
+                }
+                return runner.run(jobs, results != null ? results
+                        : System.out) > 0 ? 1 : 0;
+            } finally {
+                if (results != null) {
+                    results.close();
+                }
+            }
+        } catch (IOException e) {
+            System.err.println("Error 207: Could not write results file: "
+                    + e.getMessage());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        return 1;
     }
 
     // -------------------------------------------------------------------------
@@ -162,25 +321,38 @@ public final class Simulator {
      *            Command-line arguments.
      */
     public static void main(final String[] args) {
-        Interpreter machine = new InterpreterImp();
-        Loader loader = new LoaderImp(machine);
-        OptionParser optParser = new OptionParser("qstM:f:");
+        SimulationSession.Builder settings = new SimulationSession.Builder();
+        SimulationSession session;
+        SimulationResult result;
+        Diagnostics diagnostics = null; // Set iff warnings are limited.
+
+        // The session and its warnings print to the console, which buffers
+        // the output and flushes it when the program halts, waits for input,
+        // or fills the buffer.
+        TrapHandler console = new TrapHandlerImp(System.out,
+                new InputStreamReader(System.in),
+                TrapHandlerImp.DEFAULT_BUFFER_SIZE);
+        OptionParser optParser = new OptionParser(
+                "qstM:f:e:r:w:b:j:o:l:S:R:P:B:");
         OptionSet options;
 
-        String segmentName; // Name of the segment from the object file.
-
         // Maximum number of instructions to execute.
-        int maxSteps = Simulator.DEFAULT_MAX_STEPS;
+        long maxSteps = Simulator.DEFAULT_MAX_STEPS;
+
+        // The engine to execute with.
+        SimulationSession.Engine engine = SimulationSession.Engine.INTERP;
 
         // Operation mode for the simulator: Quiet, Trace, or Step
         SimulatorMode mode = SimulatorMode.QUIET;
 
-        // Counter for the number of instructions executed so far.
-        int stepCount = 0;
+        // The file to write a snapshot to at the end, or null.
+        File snapshotFile = null;
+
+        // The file to write the input log to at the end, or null.
+        File recordFile = null;
 
-        // BufferedReader to read input file
-        BufferedReader input = null;
-        File inputFile = null;
+        // The input log recorded or replayed, or null.
+        InputLog inputLog = null;
 
         // The number of times the execution mode was set.
         int modeOptionCount = 0;
@@ -213,7 +385,70 @@ public final class Simulator {
             // of
             // instructions to execute.
             if (options.has("M")) {
-                maxSteps = Integer.parseInt((String) options.valueOf("M"));
+                maxSteps = Long.parseLong((String) options.valueOf("M"));
+            }
+
+            // If -r is set, seed the machine's random number generator with
+            // its argument.
+            if (options.has("r")) {
+                settings.seed(Long.parseLong((String) options.valueOf("r")));
+            }
+
+            // If -w is set, print only as many warnings of each kind as its
+            // argument says, and keep count of the rest for the summary.
+            // Otherwise print every warning.
+            if (options.has("w")) {
+                diagnostics = new DiagnosticsImp(console, Long
+                        .parseLong((String) options.valueOf("w")));
+                settings.diagnostics(diagnostics);
+            } else {
+                settings.diagnostics(new DiagnosticsImp(console,
+                        DiagnosticsImp.UNLIMITED));
+            }
+
+            // If -e is set, run the program on the named execution engine
+            // instead of the plain interpreter.
+            if (options.has("e")) {
+                String name = (String) options.valueOf("e");
+
+                if (name.equals("block")) {
+                    engine = SimulationSession.Engine.BLOCK;
+                } else if (name.equals("jit")) {
+                    engine = SimulationSession.Engine.JIT;
+                } else if (!name.equals("interp")) {
+                    Simulator.printUsage();
+                    System.exit(1);
+                }
+            }
+
+            settings.mode(mode).maxSteps(maxSteps).engine(engine);
+
+            // If -b is set, run the batch instead of a single program, with
+            // the same engine, step limit, and seed.
+            if (options.has("b")) {
+                int threads = options.has("j") ? Integer
+                        .parseInt((String) options.valueOf("j")) : Runtime
+                        .getRuntime().availableProcessors();
+                BatchRunner runner;
+
+                if (threads < 1) {
+                    Simulator.printUsage();
+                    System.exit(1);
+                }
+                runner = new BatchRunner(threads);
+                runner.setEngine(engine);
+                if (options.has("l")) {
+                    runner.setQuantum(Long.parseLong((String) options
+                            .valueOf("l")));
+                }
+                if (options.has("r")) {
+                    runner.setSeed(Long.parseLong((String) options
+                            .valueOf("r")));
+                }
+                System.exit(Simulator.runBatch(runner, new File(
+                        (String) options.valueOf("b")), maxSteps, options
+                        .has("o") ? new File((String) options.valueOf("o"))
+                        : null));
             }
 
             // If -f is NOT set, exit with a usage message. We can't do anything
@@ -223,11 +458,33 @@ public final class Simulator {
                 Simulator.printUsage();
                 System.exit(0);
             } else {
-                inputFile = new File((String) options.valueOf("f"));
+                settings.source(new File((String) options.valueOf("f")));
+            }
+            if (options.has("S")) {
+                snapshotFile = new File((String) options.valueOf("S"));
+            }
+
+            // If -R is set, record the results of the input and RND traps;
+            // if -P is set, replay them from a recording instead.
+            if (options.has("R")) {
+                recordFile = new File((String) options.valueOf("R"));
+                inputLog = new InputLog();
+            } else if (options.has("P")) {
+                inputLog = Simulator.readInputLog(new File((String) options
+                        .valueOf("P")));
+            }
+            settings.inputLog(inputLog);
+
+            // Each -B adds a breakpoint at its argument, a hex address.
+            for (Object addr : options.valuesOf("B")) {
+                settings.breakpoint(Integer.parseInt((String) addr, 16));
             }
         } catch (OptionException e) {
             Simulator.printUsage();
             System.exit(1);
+        } catch (NumberFormatException e) {
+            Simulator.printUsage();
+            System.exit(1);
         }
 
         // If more than one mode is selected, print a usage message and exit
@@ -236,89 +493,75 @@ public final class Simulator {
             Simulator.printUsage();
         }
 
-        // ... Read object file into loader.
+        // ... Load the object file and run the simulation until complete.
 
-        if (!inputFile.exists()) {
-            System.err.println("Error 200: Input file does not exist.");
-            Simulator.printUsage();
-            System.exit(1);
-        }
-        try {
-            String inputLine;
-            input = new BufferedReader(new FileReader(inputFile));
+        settings.console(console);
+        session = settings.build();
 
-            // Read from input file until empty, passing each line to loader for
-            // processing.
-            while ((inputLine = input.readLine()) != null) {
-                loader.parseString(inputLine);
-            }
-        } catch (IOException e) {
-            System.err.println("Error 201: Could not read input file: " + e);
-        } finally {
-            try {
-                if (input != null) {
-                    input.close();
-                }
-            } catch (IOException e) {
-                System.err.println("Error 202: Problem closing input file: "
-                        + e);
-                System.exit(1);
+        // LoaderImp reports every problem with the file as a LoadException.
+        // Errors in records are printed to System.out, errors with the file
+        // as a whole to System.err; either way, there is nothing to run.
+        try {
+            result = session.run();
+        } catch (LoadException e) {
+            (e.getCode() < 200 ? System.out : System.err).println(e
+                    .getMessage());
+            if (e.getCode() == 200 || e.getCode() == 203) {
+                Simulator.printUsage();
             }
-        }
-
-        // Get the segment name of the object file. If null, the object file was
-        // missing a header record, so print an error and exit.
-
-        segmentName = loader.getSegmentName();
-
-        if (segmentName == null) {
-            System.err.println("Error 203: Object file missing header record.");
-            Simulator.printUsage();
             System.exit(1);
-        }
-
-        // If the PC is -1, no end record was found. Exit with error.
-        if (machine.getPC() == -1) {
-            System.err.println("Error 205: No end record found.");
+            return;
+        } catch (IllegalStateException e) {
+            // A replayed run went differently from the recorded one.
+            console.flush();
+            System.err.println("Error 212: " + e.getMessage() + ".");
             System.exit(1);
+            return;
         }
 
-        // ... Run simulation until complete.
+        if (engine == SimulationSession.Engine.JIT) {
+            BlockInterpreter jit = (BlockInterpreter) session.getEngine();
 
-        // If running in a non-quiet mode, print the current page of memory
-        // before beginning execution.
-        if (mode != SimulatorMode.QUIET) {
-            Simulator.printCurrentPage(machine);
+            System.out.printf(
+                    "JIT: %d blocks compiled, %d of %d steps compiled (%.3f ms)\n",
+                    jit.getCompiledBlockCount(), jit.getCompiledSteps(),
+                    result.getSteps(), jit.getCompiledTime() / 1e6);
         }
 
-        // Step the machine until it either halts or we reach the maximum step
-        // count.
-        while (!machine.isHalted() && stepCount < maxSteps) {
-            // If operating in step mode, require user input before executing
-            // the next instruction.
-            if (mode == SimulatorMode.STEP) {
-            //    System.console().readLine("Press ENTER to continue");
-            }
+        if (diagnostics != null) {
+            diagnostics.printSummary(System.out);
+        }
 
-            machine.step();
+        if (snapshotFile != null) {
+            try {
+                OutputStream out = new FileOutputStream(snapshotFile);
 
-            if (mode != SimulatorMode.QUIET) {
-                System.out.println();
-                Simulator.printState(machine);
+                try {
+                    session.snapshot().write(out);
+                } finally {
+                    out.close();
+                }
+            } catch (IOException e) {
+                System.err.println("Error 209: Could not write snapshot file: "
+                        + e);
+                System.exit(1);
             }
-
-            ++stepCount;
         }
 
-        // Print error if loop terminated due to stepCount exceed maximum.
-        if (stepCount >= maxSteps) {
-            System.out.println("Error 204: Maximum instruction count reached.");
-        }
+        if (recordFile != null) {
+            try {
+                OutputStream out = new FileOutputStream(recordFile);
 
-        // If running in a non-quiet mode, print the current page of memory
-        // after completing execution.
-        if (mode != SimulatorMode.QUIET) {
-            Simulator.printCurrentPage(machine);
+                try {
+                    inputLog.write(out);
+                } finally {
+                    out.close();
+                }
+            } catch (IOException e) {
+                System.err.println("Error 210: Could not write input log: "
+                        + e);
+                System.exit(1);
+            }
         }
     }
 }
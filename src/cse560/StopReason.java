@@ -0,0 +1,34 @@
+package cse560;
+
+/**
+ * Enumerates the reasons why {@link Interpreter#run(long)} can return.
+ *
+ * @author Igor Tolkachev
+ */
+public enum StopReason {
+    /** The machine executed a "halt" trap, or was already halted. */
+    HALT,
+
+    /** The instruction budget given to {@code run} was used up. */
+    BUDGET,
+
+    /**
+     * The machine executed a DBUG instruction, which asks for the machine
+     * state to be printed.
+     */
+    DBUG,
+
+    /**
+     * The machine reached an IN or INN trap but its console has no input yet.
+     * The trap has not been executed: the PC still points to it, and it is
+     * executed when the machine is run again after input has arrived.
+     */
+    INPUT,
+
+    /**
+     * The machine reached an instruction with a {@link Breakpoint} whose
+     * conditions were met. The instruction has not been executed: the PC
+     * still points to it, and it is executed when the machine is run again.
+     */
+    BREAKPOINT
+}
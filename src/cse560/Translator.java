@@ -0,0 +1,182 @@
+package cse560;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.jar.Attributes;
+import java.util.jar.JarEntry;
+import java.util.jar.JarOutputStream;
+import java.util.jar.Manifest;
+
+import joptsimple.OptionException;
+import joptsimple.OptionParser;
+import joptsimple.OptionSet;
+
+/**
+ * Translates an MMXI object file ahead of time into a Java class, so that
+ * programs that are run many times do not have to be interpreted each time.
+ * The object file is loaded as by the Simulator, and the loaded image is
+ * compiled by {@link ProgramCompiler} into a subclass of
+ * {@link CompiledProgram}.
+ * <p>
+ * The command-line options accepted by Translator are:
+ * <ul>
+ * <li>{@code -f file} - The name of the object file or {@link BinaryImage}
+ * to translate. (Required)</li>
+ * <li>{@code -o file} - The file to write: a JAR file with the class as its
+ * main class, or a class file if the name ends in {@code .class}. (Required)
+ * </li>
+ * <li>{@code -c name} - The fully qualified name of the class to generate.
+ * Default: the segment name of the object file.</li>
+ * </ul>
+ * The translated program is run with the Simulator on the class path, as in
+ * {@code java -cp "MMXI Simulator.jar:sample.jar" SAMPLE -M 5000}, and
+ * accepts the {@code -M} and {@code -r} options of the Simulator.
+ *
+ * @author Igor Tolkachev
+ */
+public final class Translator {
+
+    // -------------------------------------------------------------------------
+    // PRIVATE METHODS
+    // -------------------------------------------------------------------------
+
+    /**
+     * Private constructor to prevent instantiation.
+     */
+    private Translator() {
+        // Do nothing.
+    }
+
+    /**
+     * Prints a usage message for the Translator.
+     */
+    private static void printUsage() {
+        System.out.println("Usage: java -cp \"MMXI Simulator.jar\" "
+                + "cse560.Translator [options]");
+        System.out.println("    -f file     Translate the object file \"file\"");
+        System.out.println("    -o file     Write a JAR, or a class file if "
+                + "\"file\" ends in .class");
+        System.out.println("    -c name     Name the class \"name\" "
+                + "(Default: the segment name)");
+    }
+
+    /**
+     * Returns whether {@code name} is a valid fully qualified class name.
+     */
+    private static boolean isClassName(String name) {
+        for (String part : name.split("\\.", -1)) {
+            if (part.length() == 0
+                    || !Character.isJavaIdentifierStart(part.charAt(0))) {
+                return false;
+            }
+            for (int i = 1; i < part.length(); ++i) {
+                if (!Character.isJavaIdentifierPart(part.charAt(i))) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Writes {@code bytes}, the class {@code className}, to {@code output}:
+     * into a JAR with the class as its main class, or as is if the name of
+     * {@code output} ends in {@code .class}.
+     */
+    private static void write(File output, String className, byte[] bytes)
+            throws IOException {
+        OutputStream out = new FileOutputStream(output);
+
+        try {
+            if (output.getName().endsWith(".class")) {
+                out.write(bytes);
+            } else {
+                Manifest manifest = new Manifest();
+                Attributes attributes = manifest.getMainAttributes();
+
+                attributes.put(Attributes.Name.MANIFEST_VERSION, "1.0");
+                attributes.put(Attributes.Name.MAIN_CLASS, className);
+
+                JarOutputStream jar = new JarOutputStream(out, manifest);
+
+                jar.putNextEntry(new JarEntry(className.replace('.', '/')
+                        + ".class"));
+                jar.write(bytes);
+                jar.closeEntry();
+                jar.finish();
+            }
+        } finally {
+            out.close();
+        }
+    }
+
+    // -------------------------------------------------------------------------
+    // MAIN
+    // -------------------------------------------------------------------------
+
+    /**
+     * @param args
+     *            Command-line arguments.
+     */
+    public static void main(final String[] args) {
+        InterpreterImp machine = new InterpreterImp();
+        OptionParser optParser = new OptionParser("f:o:c:");
+        File inputFile = null, outputFile = null;
+        String className = null;
+        String segmentName = null;
+
+        // ... Process command arguments.
+
+        try {
+            OptionSet options = optParser.parse(args);
+
+            if (!options.has("f") || !options.has("o")) {
+                Translator.printUsage();
+                System.exit(1);
+            }
+            inputFile = new File((String) options.valueOf("f"));
+            outputFile = new File((String) options.valueOf("o"));
+            if (options.has("c")) {
+                className = (String) options.valueOf("c");
+            }
+        } catch (OptionException e) {
+            Translator.printUsage();
+            System.exit(1);
+        }
+
+        // ... Load the object file.
+
+        try {
+            segmentName = LoaderImp.load(inputFile, machine).getSegmentName();
+        } catch (LoadException e) {
+            (e.getCode() < 200 ? System.out : System.err).println(e
+                    .getMessage());
+            System.exit(1);
+        }
+        if (className == null) {
+            className = segmentName.trim();
+        }
+        if (!isClassName(className)) {
+            System.err.println("Error 300: Invalid class name \"" + className
+                    + "\"; use -c to choose another.");
+            System.exit(1);
+        }
+
+        // ... Translate and write the class.
+
+        ProgramCompiler compiler = new ProgramCompiler(className, machine,
+                machine.getPC());
+
+        try {
+            write(outputFile, className, compiler.toByteArray());
+        } catch (IOException e) {
+            System.err.println("Error 301: Could not write output file: " + e);
+            System.exit(1);
+        }
+        System.out.printf("Translated %d instructions in %d blocks into %s\n",
+                compiler.getInstructionCount(), compiler.getBlockCount(),
+                outputFile);
+    }
+}
@@ -0,0 +1,67 @@
+package cse560;
+
+/**
+ * The console device used by the I/O service routines of the MMXI machine,
+ * i.e. TRAP x21 (OUT), x22 (PUTS), x23 (IN), x25 (HALT), x31 (OUTN) and x33
+ * (INN). An {@link InterpreterImp} sends all output of these routines, their
+ * prompts and their error messages through its TrapHandler, and reads their
+ * input from it.
+ * <p>
+ * Implementations may buffer output. Buffered output must be written by
+ * {@code flush}, which the machine calls when it halts and before it reads
+ * input.
+ * <p>
+ * Before reading input, the machine asks {@code hasInput} whether a line can
+ * be read without waiting. A console that reads a stream can simply say yes
+ * and wait in {@code readLine}; a console that receives its input from
+ * elsewhere, such as {@link QueuedTrapHandler}, can say no, and the machine
+ * then stops without executing the trap, to try again when it is run once
+ * more.
+ *
+ * @author Igor Tolkachev
+ */
+public interface TrapHandler {
+
+    /**
+     * Prints the character {@code c}.
+     *
+     * @param c
+     *            The character to print.
+     */
+    void print(char c);
+
+    /**
+     * Prints the characters of {@code s}.
+     *
+     * @param s
+     *            The string to print.
+     */
+    void print(String s);
+
+    /**
+     * Prints {@code prompt}, flushes the output, and reads a line of input.
+     *
+     * @param prompt
+     *            The prompt to print.
+     * @return the line read, without the line terminator, or null if there
+     *         is no more input
+     */
+    String readLine(String prompt);
+
+    /**
+     * Returns whether {@code readLine} can return a line, or the end of the
+     * input, without waiting. If not, {@code prompt} is printed and the
+     * output flushed, so that the user knows input is expected, and the next
+     * call of {@code readLine} with the same prompt does not print it again.
+     *
+     * @param prompt
+     *            The prompt {@code readLine} will be called with.
+     * @return true iff the input is ready
+     */
+    boolean hasInput(String prompt);
+
+    /**
+     * Writes any buffered output.
+     */
+    void flush();
+}
@@ -0,0 +1,203 @@
+package cse560;
+
+import java.io.BufferedReader;
+import java.io.Flushable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.StringReader;
+import java.nio.CharBuffer;
+import java.nio.charset.Charset;
+
+/**
+ * Provides an implementation of the TrapHandler interface that collects
+ * output in a buffer of its own and writes it to a sink only when the buffer
+ * is full or the handler is flushed. Input is read from a character stream.
+ * <p>
+ * The sink can be anything {@link Appendable}: a {@code PrintStream} such as
+ * {@code System.out}, a {@code Writer}, or a {@code StringBuilder} that
+ * collects all output in memory. Byte streams are written in ISO-8859-1,
+ * which maps the 8-bit characters of the MMXI one to one onto bytes.
+ * <p>
+ * Like {@code PrintStream}, TrapHandlerImp never throws an IOException;
+ * clients may call {@code checkError} instead.
+ *
+ * @author Igor Tolkachev
+ */
+public final class TrapHandlerImp implements TrapHandler {
+    /** A buffer size that saves most writes to the sink. */
+    public static final int DEFAULT_BUFFER_SIZE = 8192;
+
+    /** The encoding of byte streams. */
+    private static final Charset LATIN_1 = Charset.forName("ISO-8859-1");
+
+    // ------------------------------------------------------------------------
+    // PRIVATE VARIABLES
+    // ------------------------------------------------------------------------
+
+    /** Where output is written to. */
+    private final Appendable out;
+
+    /** Output that has not been written to {@code out} yet. */
+    private final char[] buffer;
+
+    /** The number of chars of {@code buffer} in use. */
+    private int count;
+
+    /** Where input is read from, or null if there is no input. */
+    private final Reader source;
+
+    /** {@code source} as lines, created on the first read. */
+    private BufferedReader in;
+
+    /** True iff reading or writing has failed. */
+    private boolean error;
+
+    // -------------------------------------------------------------------------
+    // CONSTRUCTORS
+    // -------------------------------------------------------------------------
+
+    /**
+     * Initializes a new handler.
+     *
+     * @param out
+     *            Where output is written to.
+     * @param in
+     *            Where input is read from, or null if there is no input.
+     * @param bufferSize
+     *            The number of chars to collect before writing them to
+     *            {@code out}. With a size of 1, every char is written as it
+     *            is printed.
+     */
+    public TrapHandlerImp(Appendable out, Reader in, int bufferSize) {
+        if (bufferSize < 1) {
+            throw new IllegalArgumentException("Buffer size " + bufferSize);
+        }
+        this.out = out;
+        this.source = in;
+        this.buffer = new char[bufferSize];
+    }
+
+    /**
+     * Initializes a new handler for byte streams.
+     *
+     * @param out
+     *            Where output is written to.
+     * @param in
+     *            Where input is read from, or null if there is no input.
+     * @param bufferSize
+     *            The number of chars to collect before writing them to
+     *            {@code out}.
+     */
+    public TrapHandlerImp(OutputStream out, InputStream in, int bufferSize) {
+        this(new OutputStreamWriter(out, LATIN_1), in == null ? null
+                : new InputStreamReader(in, LATIN_1), bufferSize);
+    }
+
+    /**
+     * Initializes a new handler that reads the lines of {@code script} as
+     * input, e.g. {@code "A\n42\n"} for an IN followed by an INN.
+     *
+     * @param out
+     *            Where output is written to.
+     * @param script
+     *            The input.
+     * @param bufferSize
+     *            The number of chars to collect before writing them to
+     *            {@code out}.
+     */
+    public TrapHandlerImp(Appendable out, String script, int bufferSize) {
+        this(out, new StringReader(script), bufferSize);
+    }
+
+    // -------------------------------------------------------------------------
+    // PRIVATE OPERATIONS
+    // -------------------------------------------------------------------------
+
+    /**
+     * Writes the buffer to the sink.
+     */
+    private void drain() {
+        try {
+            if (count == 1) {
+                out.append(buffer[0]);
+            } else if (count > 1) {
+                out.append(CharBuffer.wrap(buffer, 0, count));
+            }
+        } catch (IOException e) {
+            error = true;
+        }
+        count = 0;
+    }
+
+    // -------------------------------------------------------------------------
+    // PUBLIC OPERATIONS
+    // -------------------------------------------------------------------------
+
+    @Override
+    public void print(char c) {
+        buffer[count++] = c;
+        if (count == buffer.length) {
+            drain();
+        }
+    }
+
+    @Override
+    public void print(String s) {
+        for (int i = 0; i < s.length(); ++i) {
+            print(s.charAt(i));
+        }
+    }
+
+    @Override
+    public String readLine(String prompt) {
+        print(prompt);
+        flush();
+        if (source == null) {
+            return null;
+        }
+        if (in == null) {
+            in = new BufferedReader(source);
+        }
+        try {
+            return in.readLine();
+        } catch (IOException e) {
+            error = true;
+            return null;
+        }
+    }
+
+    /**
+     * Returns true: {@code readLine} waits for input as long as needed.
+     */
+    @Override
+    public boolean hasInput(String prompt) {
+        return true;
+    }
+
+    @Override
+    public void flush() {
+        drain();
+        if (out instanceof Flushable) {
+            try {
+                ((Flushable) out).flush();
+            } catch (IOException e) {
+                error = true;
+            }
+        }
+    }
+
+    /**
+     * Flushes the output and returns whether reading or writing has ever
+     * failed.
+     *
+     * @return true iff an IOException has occurred
+     */
+    public boolean checkError() {
+        flush();
+        return error;
+    }
+}
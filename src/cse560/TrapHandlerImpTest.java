@@ -0,0 +1,152 @@
+package cse560;
+
+import static cse560.EngineAssert.load;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Reader;
+
+import org.junit.Test;
+
+public final class TrapHandlerImpTest {
+
+    // -----------------------------------------------------------------------
+    // Testing buffering.
+    // -----------------------------------------------------------------------
+
+    /**
+     * Output is only written when the buffer fills or is flushed.
+     */
+    @Test
+    public void outputIsBuffered() {
+        StringBuilder out = new StringBuilder();
+        TrapHandlerImp traps = new TrapHandlerImp(out, (Reader) null, 4);
+
+        traps.print('a');
+        traps.print("bc");
+        assertEquals("nothing written", "", out.toString());
+        traps.print('d');
+        assertEquals("full buffer written", "abcd", out.toString());
+        traps.print("ef");
+        traps.flush();
+        assertEquals("rest written on flush", "abcdef", out.toString());
+        assertFalse("no error", traps.checkError());
+    }
+
+    /**
+     * Byte streams receive every 8-bit character as one byte.
+     */
+    @Test
+    public void outputStreamIsLatin1() {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        TrapHandlerImp traps = new TrapHandlerImp(out, null,
+                TrapHandlerImp.DEFAULT_BUFFER_SIZE);
+
+        traps.print("A\u00e9");
+        traps.flush();
+        assertEquals("two bytes", 2, out.size());
+        assertEquals("second byte", 0xE9, out.toByteArray()[1] & 0xFF);
+    }
+
+    // -----------------------------------------------------------------------
+    // Testing the trap routines.
+    // -----------------------------------------------------------------------
+
+    /**
+     * OUT, OUTN, and PUTS print to the handler, and HALT flushes it.
+     */
+    @Test
+    public void outputRoutines() {
+        int[] program = {
+                0xE006, // x3000 LEA R0,x3006
+                0xF022, // x3001 TRAP x22
+                0x5020, // x3002 AND R0,R0,#0
+                0x1030, // x3003 ADD R0,R0,#-16
+                0xF031, // x3004 TRAP x31
+                0xF025, // x3005 TRAP x25
+                0x0048, // x3006 'H'
+                0x0069, // x3007 'i'
+                0x0000,
+        };
+        StringBuilder out = new StringBuilder();
+        InterpreterImp machine = load(program, new TrapHandlerImp(out,
+                (Reader) null, TrapHandlerImp.DEFAULT_BUFFER_SIZE));
+
+        machine.run(3);
+        assertEquals("buffered", "", out.toString());
+        machine.run(100);
+        assertTrue("halted", machine.isHalted());
+        assertEquals("output", "Hi-16\nExecution halted.\n", out.toString());
+    }
+
+    /**
+     * IN and INN read their input from a script.
+     */
+    @Test
+    public void inputFromScript() {
+        int[] program = {
+                0xF023, // x3000 TRAP x23
+                0x1200, // x3001 ADD R1,R0,R0
+                0xF033, // x3002 TRAP x33
+                0xF025, // x3003 TRAP x25
+        };
+        StringBuilder out = new StringBuilder();
+        InterpreterImp machine = load(program, new TrapHandlerImp(out,
+                "A\n-42\n", TrapHandlerImp.DEFAULT_BUFFER_SIZE));
+
+        machine.run(100);
+        assertEquals("R1 = 2 * 'A'", 2 * 'A', machine.getRegister(1));
+        assertEquals("R0 = -42", -42 & Memory.MAX_VALUE,
+                machine.getRegister(0));
+        assertEquals("CCR = N", CCR.N, machine.getCCR());
+        assertEquals("output", "\nPlease enter ASCII character:"
+                + "\nPlease enter 16-bit integer:"
+                + "\nExecution halted.\n", out.toString());
+    }
+
+    /**
+     * Reading past the end of the input reports an error instead of
+     * failing, and leaves R0 unchanged.
+     */
+    @Test
+    public void endOfInput() {
+        int[] program = {
+                0x1027, // x3000 ADD R0,R0,#7
+                0xF023, // x3001 TRAP x23
+                0xF025, // x3002 TRAP x25
+        };
+        StringBuilder out = new StringBuilder();
+        InterpreterImp machine = load(program, new TrapHandlerImp(out, "", 1));
+
+        machine.run(100);
+        assertTrue("halted", machine.isHalted());
+        assertEquals("R0 = 7", 7, machine.getRegister(0));
+        assertTrue("error reported", out.toString().contains("Error 001"));
+    }
+
+    /**
+     * INN reports input that is not a number to the handler, and leaves R0
+     * and the CCR unchanged.
+     */
+    @Test
+    public void invalidInteger() {
+        int[] program = {
+                0x1027, // x3000 ADD R0,R0,#7
+                0xF033, // x3001 TRAP x33
+                0xF025, // x3002 TRAP x25
+        };
+        StringBuilder out = new StringBuilder();
+        InterpreterImp machine = load(program, new TrapHandlerImp(out,
+                "seven\n", TrapHandlerImp.DEFAULT_BUFFER_SIZE));
+
+        machine.run(100);
+        assertTrue("halted", machine.isHalted());
+        assertEquals("R0 = 7", 7, machine.getRegister(0));
+        assertEquals("CCR = P", CCR.P, machine.getCCR());
+        assertEquals("output", "\nPlease enter 16-bit integer:"
+                + "Error 002: Invalid 16-bit integer.\n"
+                + "\nExecution halted.\n", out.toString());
+    }
+}
@@ -0,0 +1,233 @@
+package cse560;
+
+/**
+ * A bounded record of what the most recent instructions executed by an
+ * {@link InterpreterImp} overwrote, so that they can be undone by
+ * {@link InterpreterImp#stepBack} and
+ * {@link InterpreterImp#reverseContinue}. Each instruction is recorded as a
+ * single {@code long} in a ring buffer: the PC and CCR before it executed,
+ * and the old value of the one register or memory word it wrote, if any.
+ * Once the buffer is full, each new instruction replaces the oldest one, so
+ * recording costs no allocation and a fixed amount of memory, 8 bytes per
+ * instruction kept.
+ * <p>
+ * An entry holds, from the lowest bit up: the PC, 16 bits; the CCR, 2 bits;
+ * what was overwritten, 2 bits: nothing, a register or a memory word; the
+ * register number, 3 bits; the old value of the register or word, 16 bits;
+ * the address of the word, 16 bits; whether the instruction advanced the
+ * generator of the RND trap routine, 1 bit; and whether it was a BRx that
+ * branched, 1 bit.
+ * <p>
+ * Only the state of the machine is recorded. What an instruction printed or
+ * read from the console is not undone, and neither are writes to memory by
+ * clients of the machine.
+ *
+ * @author Igor Tolkachev
+ */
+public final class UndoJournal {
+    /** The bit of the CCR field. */
+    private static final int CCR_SHIFT = 16;
+
+    /** The bit of the field of what was overwritten. */
+    private static final int KIND_SHIFT = 18;
+
+    /** The bit of the register number field. */
+    private static final int REG_SHIFT = 20;
+
+    /** The bit of the old value field. */
+    private static final int VALUE_SHIFT = 23;
+
+    /** The bit of the memory address field. */
+    private static final int ADDR_SHIFT = 39;
+
+    /** Set iff the instruction advanced the generator. */
+    private static final long RANDOM_BIT = 1L << 55;
+
+    /** Set iff the instruction was a BRx that branched. */
+    private static final long TAKEN_BIT = 1L << 56;
+
+    /** The kind of an instruction that overwrote nothing but PC and CCR. */
+    static final int NOTHING = 0;
+
+    /** The kind of an instruction that overwrote a register. */
+    static final int REGISTER = 1;
+
+    /** The kind of an instruction that overwrote a memory word. */
+    static final int MEMORY = 2;
+
+    // ------------------------------------------------------------------------
+    // PRIVATE VARIABLES
+    // ------------------------------------------------------------------------
+
+    /** The entries, oldest first, starting {@code size} before {@code head}. */
+    private final long[] entries;
+
+    /** The index of the next entry to write. */
+    private int head;
+
+    /** The number of entries kept. */
+    private int size;
+
+    // -------------------------------------------------------------------------
+    // CONSTRUCTORS
+    // -------------------------------------------------------------------------
+
+    /**
+     * Initializes an empty journal that keeps the last {@code capacity}
+     * instructions.
+     * <p>
+     * Requires: {@code capacity > 0}
+     *
+     * @param capacity
+     *            The number of instructions kept.
+     */
+    public UndoJournal(int capacity) {
+        this.entries = new long[capacity];
+    }
+
+    // -------------------------------------------------------------------------
+    // ENTRY OPERATIONS
+    // -------------------------------------------------------------------------
+
+    /**
+     * Returns an entry for an instruction at {@code pc}, executed with
+     * {@code ccr}, that overwrites nothing else.
+     */
+    static long entry(int pc, CCR ccr, boolean branchTaken) {
+        return (pc & Memory.MAX_ADDR) | (long) ccr.ordinal() << CCR_SHIFT
+                | (branchTaken ? TAKEN_BIT : 0);
+    }
+
+    /**
+     * Returns {@code entry} for an instruction that overwrites register
+     * {@code n}, whose value is {@code value}.
+     */
+    static long register(long entry, int n, int value) {
+        return entry | (long) REGISTER << KIND_SHIFT | (long) n << REG_SHIFT
+                | (long) (value & Memory.MAX_VALUE) << VALUE_SHIFT;
+    }
+
+    /**
+     * Returns {@code entry} for an instruction that overwrites the word at
+     * {@code addr}, whose value is {@code value}.
+     */
+    static long memory(long entry, int addr, int value) {
+        return entry | (long) MEMORY << KIND_SHIFT
+                | (long) (value & Memory.MAX_VALUE) << VALUE_SHIFT
+                | (long) (addr & Memory.MAX_ADDR) << ADDR_SHIFT;
+    }
+
+    /**
+     * Returns {@code entry} for an instruction that also advances the
+     * generator of the RND trap routine.
+     */
+    static long random(long entry) {
+        return entry | RANDOM_BIT;
+    }
+
+    /** Returns the PC of {@code entry}. */
+    static int pc(long entry) {
+        return (int) entry & Memory.MAX_ADDR;
+    }
+
+    /** Returns the CCR of {@code entry}. */
+    static CCR ccr(long entry) {
+        return CCR.values()[(int) (entry >>> CCR_SHIFT) & 0x3];
+    }
+
+    /** Returns what the instruction of {@code entry} overwrote. */
+    static int kind(long entry) {
+        return (int) (entry >>> KIND_SHIFT) & 0x3;
+    }
+
+    /** Returns the register number of {@code entry}. */
+    static int registerNumber(long entry) {
+        return (int) (entry >>> REG_SHIFT) & 0x7;
+    }
+
+    /** Returns the old value of the register or word of {@code entry}. */
+    static int value(long entry) {
+        return (int) (entry >>> VALUE_SHIFT) & Memory.MAX_VALUE;
+    }
+
+    /** Returns the memory address of {@code entry}. */
+    static int address(long entry) {
+        return (int) (entry >>> ADDR_SHIFT) & Memory.MAX_ADDR;
+    }
+
+    /** Returns whether the instruction of {@code entry} advanced the RNG. */
+    static boolean advancedRandom(long entry) {
+        return (entry & RANDOM_BIT) != 0;
+    }
+
+    /** Returns whether the instruction of {@code entry} branched. */
+    static boolean branchTaken(long entry) {
+        return (entry & TAKEN_BIT) != 0;
+    }
+
+    // -------------------------------------------------------------------------
+    // PACKAGE OPERATIONS
+    // -------------------------------------------------------------------------
+
+    /**
+     * Adds {@code entry}, replacing the oldest entry if the journal is full.
+     */
+    void record(long entry) {
+        entries[head] = entry;
+        if (++head == entries.length) {
+            head = 0;
+        }
+        if (size < entries.length) {
+            ++size;
+        }
+    }
+
+    /**
+     * Removes and returns the newest entry.
+     * <p>
+     * Requires: {@code getSize() > 0}
+     */
+    long pop() {
+        if (--head < 0) {
+            head = entries.length - 1;
+        }
+        --size;
+        return entries[head];
+    }
+
+    /**
+     * Returns the newest entry.
+     * <p>
+     * Requires: {@code getSize() > 0}
+     */
+    long peek() {
+        return entries[head == 0 ? entries.length - 1 : head - 1];
+    }
+
+    // -------------------------------------------------------------------------
+    // PUBLIC OPERATIONS
+    // -------------------------------------------------------------------------
+
+    /**
+     * Returns the number of instructions kept.
+     */
+    public int getCapacity() {
+        return entries.length;
+    }
+
+    /**
+     * Returns the number of instructions that can be undone.
+     */
+    public int getSize() {
+        return size;
+    }
+
+    /**
+     * Forgets every instruction, e.g. after the machine has been changed by
+     * other means than executing instructions.
+     */
+    public void clear() {
+        head = 0;
+        size = 0;
+    }
+}
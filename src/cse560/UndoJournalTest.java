@@ -0,0 +1,146 @@
+package cse560;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public final class UndoJournalTest {
+
+    /**
+     * Counts in R1, stores a random number through R2, calls a subroutine
+     * that stores R1, and starts over.
+     */
+    private static final int[] PROGRAM = {
+            0x1261, // x3000 ADD R1,R1,#1
+            0xF043, // x3001 TRAP x43
+            0x7080, // x3002 STR R0,R2,#0
+            0x14A1, // x3003 ADD R2,R2,#1
+            0x4808, // x3004 JSR x3008
+            0x0E00, // x3005 BRnzp x3000
+            0x0000, // x3006
+            0x0000, // x3007
+            0x3210, // x3008 ST R1,x3010
+            0xD000, // x3009 RET
+    };
+
+    /**
+     * Returns a machine with {@code PROGRAM} loaded at x3000, the PC pointing
+     * to it, R2 pointing to x4000, and a seeded generator.
+     */
+    private static InterpreterImp load() {
+        InterpreterImp machine = EngineAssert.load(PROGRAM);
+
+        machine.setRegister(2, 0x4000);
+        machine.setRandom(new MachineRandom(7));
+        return machine;
+    }
+
+    /**
+     * Checks that {@code actual} is in the same state as {@code expected}.
+     */
+    private static void assertSameState(InterpreterImp expected,
+            InterpreterImp actual) {
+        assertEquals("PC", expected.getPC(), actual.getPC());
+        assertEquals("CCR", expected.getCCR(), actual.getCCR());
+        for (int r = 0; r < Interpreter.NUM_REGS; ++r) {
+            assertEquals("R" + r, expected.getRegister(r), actual
+                    .getRegister(r));
+        }
+        for (int addr = 0x3000; addr <= 0x3010; ++addr) {
+            assertEquals("M[" + addr + "]", expected.getMemory(addr), actual
+                    .getMemory(addr));
+        }
+        for (int addr = 0x4000; addr < 0x4010; ++addr) {
+            assertEquals("M[" + addr + "]", expected.getMemory(addr), actual
+                    .getMemory(addr));
+        }
+        assertEquals("generator", expected.getRandom().getState(), actual
+                .getRandom().getState());
+        assertEquals("last instruction", expected.getLastInstruction(),
+                actual.getLastInstruction());
+    }
+
+    /**
+     * Stepping back k instructions leaves the machine as if it had only run
+     * the others, and it then runs on the same way.
+     */
+    @Test
+    public void stepBack() {
+        for (int k = 0; k <= 40; k += 5) {
+            InterpreterImp machine = load();
+            InterpreterImp reference = load();
+
+            machine.setJournal(new UndoJournal(64));
+            machine.run(40);
+            assertEquals("undone", k, machine.stepBack(k));
+            reference.run(40 - k);
+            assertSameState(reference, machine);
+
+            machine.run(13);
+            reference.run(13);
+            assertSameState(reference, machine);
+        }
+    }
+
+    /**
+     * Only the last {@code capacity} instructions can be undone.
+     */
+    @Test
+    public void capacity() {
+        InterpreterImp machine = load();
+        InterpreterImp reference = load();
+
+        machine.setJournal(new UndoJournal(10));
+        machine.run(50);
+        assertEquals("kept", 10, machine.getJournal().getSize());
+        assertEquals("undone", 10, machine.stepBack(25));
+        reference.run(40);
+        assertEquals("PC", reference.getPC(), machine.getPC());
+        assertEquals("R1", reference.getRegister(1), machine.getRegister(1));
+        assertEquals("generator", reference.getRandom().getState(), machine
+                .getRandom().getState());
+        assertEquals("no last instruction", null, machine
+                .getLastInstruction());
+    }
+
+    /**
+     * Reverse-continuing to an address stops right before the last time it
+     * was executed.
+     */
+    @Test
+    public void reverseContinue() {
+        InterpreterImp machine = load();
+        InterpreterImp reference = load();
+
+        machine.setJournal(new UndoJournal(64));
+        machine.run(28);
+        assertEquals("undone", 7, machine.reverseContinue(0x3008));
+        assertEquals("PC", 0x3008, machine.getPC());
+        reference.run(21);
+        assertSameState(reference, machine);
+    }
+
+    /**
+     * A halted machine no longer is once the HALT is undone, and the engines
+     * record every instruction while a journal is set.
+     */
+    @Test
+    public void haltAndBlocks() {
+        InterpreterImp machine = new InterpreterImp(new FlatMemory(),
+                new TrapHandlerImp(new StringBuilder(), "", 1));
+        BlockInterpreter engine = new BlockInterpreter(machine);
+
+        machine.setMemory(0x3000, 0x1261); // ADD R1,R1,#1
+        machine.setMemory(0x3001, 0x1261); // ADD R1,R1,#1
+        machine.setMemory(0x3002, 0xF025); // TRAP x25
+        machine.setPC(0x3000);
+        machine.setJournal(new UndoJournal(8));
+        assertEquals("reason", StopReason.HALT, engine.run(10).getReason());
+        assertEquals("recorded", 3, machine.getJournal().getSize());
+        assertEquals("undone", 2, machine.stepBack(2));
+        assertTrue("running", !machine.isHalted());
+        assertEquals("R1", 1, machine.getRegister(1));
+        assertEquals("PC", 0x3001, machine.getPC());
+    }
+}
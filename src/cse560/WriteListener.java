@@ -0,0 +1,19 @@
+package cse560;
+
+/**
+ * Receives notice of writes to the memory of an {@link InterpreterImp}.
+ * Execution engines that keep translations of the code in memory use this to
+ * discard translations of words that have been overwritten.
+ *
+ * @author Igor Tolkachev
+ */
+interface WriteListener {
+    /**
+     * Called after {@code M[addr]} has been written to.
+     *
+     * @param addr
+     *            The address that was written to, reduced to
+     *            {@code [0, MAX_ADDR]}.
+     */
+    void memoryWritten(int addr);
+}